@@ -1,12 +1,23 @@
 package com.outbrain.swinfra.metrics;
 
+import com.outbrain.swinfra.metrics.children.ChildAdmission;
 import com.outbrain.swinfra.metrics.children.ChildMetricRepo;
+import com.outbrain.swinfra.metrics.children.ChildOrder;
+import com.outbrain.swinfra.metrics.children.DenseChildrenRepo;
+import com.outbrain.swinfra.metrics.children.LabelDomain;
+import com.outbrain.swinfra.metrics.children.LabeledChildrenRepo;
 import com.outbrain.swinfra.metrics.children.MetricData;
+import com.outbrain.swinfra.metrics.data.CreatedTimestampConsumer;
+import com.outbrain.swinfra.metrics.data.MetricDataConsumer;
 import org.apache.commons.lang3.Validate;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * A base class for all the metrics.
@@ -15,10 +26,17 @@ import java.util.function.Consumer;
  */
 abstract class AbstractMetric<T> implements Metric {
 
+  private static final String[] NO_LABEL_VALUES = {};
+
   private final String name;
   private final String help;
   private final List<String> labelNames;
+  private String unit = "";
+  private ChildOrder childOrder = ChildOrder.UNORDERED;
+  private List<LabelDomain> labelDomains = Collections.emptyList();
   private ChildMetricRepo<T> childMetricRepo;
+  private DenseChildrenRepo<T> denseChildren;
+  private BudgetAdmission budgetAdmission;
 
   AbstractMetric(final String name,
                  final String help,
@@ -30,6 +48,11 @@ abstract class AbstractMetric<T> implements Metric {
 
   abstract ChildMetricRepo<T> createChildMetricRepo();
 
+  /**
+   * The approximate retained size of a single child metric, without its label values
+   */
+  abstract long estimateChildBytes(T child);
+
   @Override
   public String getName() {
     return name;
@@ -45,8 +68,42 @@ abstract class AbstractMetric<T> implements Metric {
     return labelNames;
   }
 
+  @Override
+  public String getUnit() {
+    return unit;
+  }
+
+  void setUnit(final String unit) {
+    this.unit = unit;
+  }
+
+  ChildOrder getChildOrder() {
+    return childOrder;
+  }
+
+  void setChildOrder(final ChildOrder childOrder) {
+    this.childOrder = childOrder;
+  }
+
+  void setLabelDomains(final List<LabelDomain> labelDomains) {
+    this.labelDomains = labelDomains;
+  }
+
   void initChildMetricRepo() {
     this.childMetricRepo = createChildMetricRepo();
+    if (childMetricRepo instanceof DenseChildrenRepo) {
+      this.denseChildren = (DenseChildrenRepo<T>) childMetricRepo;
+    }
+  }
+
+  /**
+   * Creates the children repo of a metric that has labels - a dense one if its labels have domains
+   */
+  ChildMetricRepo<T> createLabeledChildMetricRepo(final Function<List<String>, MetricData<T>> mappingFunction) {
+    if (labelDomains.isEmpty()) {
+      return new LabeledChildrenRepo<>(mappingFunction, childOrder);
+    }
+    return new DenseChildrenRepo<>(labelDomains, mappingFunction);
   }
 
   void validateLabelValues(final String... labelValues) {
@@ -61,7 +118,166 @@ abstract class AbstractMetric<T> implements Metric {
     return childMetricRepo.metricForLabels(labelValues);
   }
 
+  /**
+   * @return the single child of a metric without labels
+   */
+  T unlabeledMetric() {
+    if (!labelNames.isEmpty()) {
+      // Validate.isTrue is not used, its varargs would allocate on every update
+      throw new IllegalArgumentException("A label value must be supplied for each label name");
+    }
+    return childMetricRepo.metricForLabels(NO_LABEL_VALUES);
+  }
+
+  T metricForLabel(final Enum<?> labelValue) {
+    final DenseChildrenRepo<T> children = denseChildren(1);
+    return children.metricForOrdinal(children.getDomain(0).ordinalOf(labelValue));
+  }
+
+  T metricForLabel(final int labelValue) {
+    final DenseChildrenRepo<T> children = denseChildren(1);
+    return children.metricForOrdinal(children.getDomain(0).ordinalOf(labelValue));
+  }
+
+  T metricForLabels(final Enum<?> firstLabelValue, final int secondLabelValue) {
+    final DenseChildrenRepo<T> children = denseChildren(2);
+    return children.metricForOrdinals(children.getDomain(0).ordinalOf(firstLabelValue),
+                                      children.getDomain(1).ordinalOf(secondLabelValue));
+  }
+
+  private DenseChildrenRepo<T> denseChildren(final int labelCount) {
+    final DenseChildrenRepo<T> children = denseChildren;
+    Validate.validState(children != null, "Only metrics whose labels have domains may be updated by enum or int label values");
+    Validate.isTrue(labelNames.size() == labelCount, "A label value must be supplied for each label name");
+    return children;
+  }
+
+  @Override
+  public int getChildCount() {
+    return childMetricRepo.size();
+  }
+
+  @Override
+  public long getEstimatedBytes() {
+    return childMetricRepo.estimateBytes(this::estimateChildBytes);
+  }
+
+  /**
+   * Accounts for this metric's children in the given budget, and limits the children it may add from now on.
+   * A metric is accounted for in one budget at most, the first one it was attached to.
+   */
+  synchronized void attachBudget(final SeriesBudget budget) {
+    if (budgetAdmission == null) {
+      budgetAdmission = new BudgetAdmission(budget);
+      budgetAdmission.acquire(getChildCount(), getEstimatedBytes());
+      childMetricRepo.setAdmission(budgetAdmission);
+    }
+  }
+
+  /**
+   * Returns this metric's children to the given budget, if they were accounted for in it
+   */
+  synchronized void detachBudget(final SeriesBudget budget) {
+    if (budgetAdmission != null && budgetAdmission.budget == budget) {
+      childMetricRepo.setAdmission(null);
+      budgetAdmission.releaseAll();
+      budgetAdmission = null;
+    }
+  }
+
+  @Override
+  public void forEachMetricData(final MetricDataConsumer consumer) {
+    forEachMetricData(consumer, ALL_LABEL_VALUES);
+  }
+
+  @Override
+  public abstract void forEachMetricData(MetricDataConsumer consumer, Predicate<List<String>> labelValuesFilter);
+
   void forEachChild(final Consumer<MetricData<T>> consumer) {
     childMetricRepo.forEachMetricData(consumer);
   }
+
+  /**
+   * Iterates over the children whose label values are accepted by the given filter, before anything is read from them
+   */
+  void forEachChild(final Predicate<List<String>> labelValuesFilter, final Consumer<MetricData<T>> consumer) {
+    if (labelValuesFilter == ALL_LABEL_VALUES) {
+      childMetricRepo.forEachMetricData(consumer);
+    } else {
+      childMetricRepo.forEachMetricData(metricData -> {
+        if (labelValuesFilter.test(metricData.getLabelValues())) {
+          consumer.accept(metricData);
+        }
+      });
+    }
+  }
+
+  /**
+   * Reports the creation time of the given child to consumers that are interested in it
+   */
+  void consumeCreated(final MetricDataConsumer consumer, final MetricData<T> metricData) {
+    if (consumer instanceof CreatedTimestampConsumer) {
+      ((CreatedTimestampConsumer) consumer).consumeCreated(this, metricData.getLabelValues(), metricData.getCreatedTimeMillis());
+    }
+  }
+
+  /**
+   * Admits the new children of this metric according to a {@link SeriesBudget}, and keeps track of what they took
+   * from it so it can be returned
+   */
+  private class BudgetAdmission implements ChildAdmission<T> {
+
+    private final SeriesBudget budget;
+    private final AtomicLong series = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    private BudgetAdmission(final SeriesBudget budget) {
+      this.budget = budget;
+    }
+
+    @Override
+    public boolean tryAdmit() {
+      if (budget.tryAcquire()) {
+        series.incrementAndGet();
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    public void admitted(final MetricData<T> child) {
+      acquire(0, LabeledChildrenRepo.estimateChildBytes(child, AbstractMetric.this::estimateChildBytes));
+    }
+
+    @Override
+    public void cancel() {
+      budget.release(1, 0);
+      series.decrementAndGet();
+    }
+
+    @Override
+    public void refused() {
+      budget.overflow();
+    }
+
+    @Override
+    public void admit(final MetricData<T> child) {
+      acquire(1, LabeledChildrenRepo.estimateChildBytes(child, AbstractMetric.this::estimateChildBytes));
+    }
+
+    @Override
+    public String getFoldedLabelValue() {
+      return budget.getFoldedLabelValue();
+    }
+
+    private void acquire(final long childCount, final long childBytes) {
+      budget.acquire(childCount, childBytes);
+      series.addAndGet(childCount);
+      bytes.addAndGet(childBytes);
+    }
+
+    private void releaseAll() {
+      budget.release(series.getAndSet(0), bytes.getAndSet(0));
+    }
+  }
 }
@@ -1,9 +1,20 @@
 package com.outbrain.swinfra.metrics;
 
+import com.outbrain.swinfra.metrics.children.ChildOrder;
+import com.outbrain.swinfra.metrics.children.DenseChildrenRepo;
+import com.outbrain.swinfra.metrics.children.LabelDomain;
+import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.Validate;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import static com.outbrain.swinfra.metrics.utils.NameUtils.validateLabelNames;
 import static com.outbrain.swinfra.metrics.utils.NameUtils.validateMetricName;
+import static com.outbrain.swinfra.metrics.utils.NameUtils.validateUnit;
+import static java.util.Objects.requireNonNull;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 public abstract class AbstractMetricBuilder<T extends AbstractMetric, B extends AbstractMetricBuilder<T, B>> {
@@ -13,6 +24,9 @@ public abstract class AbstractMetricBuilder<T extends AbstractMetric, B extends
 
   private String namespace = "";
   private String subsystem = "";
+  private String unit = "";
+  private ChildOrder childOrder = ChildOrder.UNORDERED;
+  private final Map<String, LabelDomain> labelDomains = new LinkedHashMap<>();
   String[] labelNames = new String[] {};
 
   AbstractMetricBuilder(final String name, final String help) {
@@ -35,11 +49,63 @@ public abstract class AbstractMetricBuilder<T extends AbstractMetric, B extends
     return getThis();
   }
 
+  /**
+   * Declares the unit of this metric's values, i.e. <i>seconds</i> or <i>bytes</i>. The unit is exposed as metadata by
+   * formats that support it, and the metric's name must end with the unit as a suffix (i.e. <i>request_duration_seconds</i>)
+   *
+   * @see <a href="https://prometheus.io/docs/practices/naming/#base-units">Base units</a>
+   */
+  public B withUnit(final String unit) {
+    this.unit = unit;
+    return getThis();
+  }
+
+  /**
+   * Declares the order in which this metric's children are exported, defaults to {@link ChildOrder#UNORDERED}.
+   * The order is computed when a child is added rather than on every export
+   */
+  public B withChildOrder(final ChildOrder childOrder) {
+    this.childOrder = requireNonNull(childOrder, "childOrder may not be null");
+    return getThis();
+  }
+
+  /**
+   * Declares that the given label may only take the names of the given enum's constants, and adds the label if it was
+   * not declared yet.
+   * When all the labels of a metric have domains, its children are created up front in an array
+   * (see {@link DenseChildrenRepo}) and may be reached by the enum constants themselves, without hashing
+   */
+  public <E extends Enum<E>> B withLabelDomain(final String labelName, final Class<E> enumClass) {
+    return withLabelDomain(labelName, LabelDomain.ofEnum(enumClass));
+  }
+
+  /**
+   * Declares that the given label may only take the integers between {@code min} and {@code max} (inclusive), and adds
+   * the label if it was not declared yet.
+   *
+   * @see #withLabelDomain(String, Class)
+   */
+  public B withIntLabel(final String labelName, final int min, final int max) {
+    return withLabelDomain(labelName, LabelDomain.ofInts(min, max));
+  }
+
+  private B withLabelDomain(final String labelName, final LabelDomain domain) {
+    labelDomains.put(labelName, domain);
+    if (!ArrayUtils.contains(labelNames, labelName)) {
+      labelNames = ArrayUtils.add(labelNames, labelName);
+    }
+    return getThis();
+  }
+
   protected abstract T create(final String fullName, final String help, final String[] labelNames);
 
+  @SuppressWarnings("unchecked")
   public T build() {
     validateParams();
     final T metric = create(createFullName(), help, labelNames);
+    metric.setUnit(unit);
+    metric.setChildOrder(childOrder);
+    metric.setLabelDomains(orderedLabelDomains());
     metric.initChildMetricRepo();
     return metric;
   }
@@ -48,6 +114,29 @@ public abstract class AbstractMetricBuilder<T extends AbstractMetric, B extends
     Validate.notBlank(help, "The metric's help must contain text");
     validateMetricName(name);
     validateLabelNames(labelNames);
+    if (isNotBlank(unit)) {
+      validateUnit(name, unit);
+    }
+    if (!labelDomains.isEmpty()) {
+      for (final String labelName : labelDomains.keySet()) {
+        Validate.isTrue(ArrayUtils.contains(labelNames, labelName), "A domain was declared for the unknown label %s", labelName);
+      }
+      Validate.isTrue(labelDomains.size() == labelNames.length, "Either all the labels of a metric have domains or none of them do");
+    }
+  }
+
+  boolean hasLabelDomains() {
+    return !labelDomains.isEmpty();
+  }
+
+  private List<LabelDomain> orderedLabelDomains() {
+    final List<LabelDomain> domains = new ArrayList<>(labelDomains.size());
+    if (!labelDomains.isEmpty()) {
+      for (final String labelName : labelNames) {
+        domains.add(labelDomains.get(labelName));
+      }
+    }
+    return domains;
   }
 
   private String createFullName() {
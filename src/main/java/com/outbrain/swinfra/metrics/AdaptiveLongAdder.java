@@ -0,0 +1,199 @@
+package com.outbrain.swinfra.metrics;
+
+import com.outbrain.swinfra.metrics.utils.MemoryEstimates;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A counter child that starts as a single long that is updated with a CAS, and inflates to a striped adder of its own
+ * once an update fails its CAS twice in a row - see {@link Counter.CounterBuilder#withAdaptiveChildren()}.
+ * <p>
+ * Unlike the cells of a {@link LongAdder}, which are kept for good once it was contended, the stripes are dropped again
+ * when the child goes quiet: a scrape that finds the stripes unchanged since the previous scrape detaches them, so new
+ * updates go to the single long again, marks them as folded and adds their sum to the long. An update that read the
+ * stripes before they were detached checks the mark after adding to them, and if they were folded, adds whatever the
+ * fold did not see to the long itself. Since the mark is set before the fold sums the stripes, and read after the update
+ * adds to them, an update is either seen by the fold or sees the mark, so no update is lost or counted twice, and the
+ * stripes are released as soon as the updates that hold them return.
+ * </p>
+ * <p>
+ * It is a {@link LongAdder} so that it can replace one. Reads and folds are synchronized, updates only lock to
+ * reconcile with a fold they raced.
+ * </p>
+ */
+class AdaptiveLongAdder extends LongAdder {
+
+  private static final long serialVersionUID = 1L;
+  private static final AtomicLongFieldUpdater<AdaptiveLongAdder> VALUE =
+      AtomicLongFieldUpdater.newUpdater(AdaptiveLongAdder.class, "value");
+  private static final AtomicReferenceFieldUpdater<AdaptiveLongAdder, Stripes> STRIPES =
+      AtomicReferenceFieldUpdater.newUpdater(AdaptiveLongAdder.class, Stripes.class, "stripes");
+
+  private volatile long value;
+  private volatile transient Stripes stripes;
+
+  @Override
+  public void add(final long x) {
+    final Stripes current = stripes;
+    if (current != null) {
+      addTo(current, x);
+      return;
+    }
+    long v = value;
+    if (VALUE.compareAndSet(this, v, v + x)) {
+      return;
+    }
+    v = value;
+    if (VALUE.compareAndSet(this, v, v + x)) {
+      return;
+    }
+    addTo(inflate(), x);
+  }
+
+  @Override
+  public void increment() {
+    add(1);
+  }
+
+  @Override
+  public void decrement() {
+    add(-1);
+  }
+
+  @Override
+  public synchronized long sum() {
+    final Stripes current = stripes;
+    return value + (current == null ? 0 : current.adder.sum());
+  }
+
+  /**
+   * Like {@link LongAdder#reset()}, this is only exact when there are no concurrent updates. Updates that still hold
+   * the previous stripes are added to the long, as they are after a fold
+   */
+  @Override
+  public synchronized void reset() {
+    final Stripes current = stripes;
+    stripes = null;
+    if (current != null) {
+      current.folded = true;
+      current.foldedSum = current.adder.sum();
+    }
+    value = 0;
+  }
+
+  @Override
+  public synchronized long sumThenReset() {
+    final long sum = sum();
+    reset();
+    return sum;
+  }
+
+  @Override
+  public long longValue() {
+    return sum();
+  }
+
+  @Override
+  public int intValue() {
+    return (int) sum();
+  }
+
+  @Override
+  public float floatValue() {
+    return sum();
+  }
+
+  @Override
+  public double doubleValue() {
+    return sum();
+  }
+
+  @Override
+  public String toString() {
+    return Long.toString(sum());
+  }
+
+  boolean isInflated() {
+    return stripes != null;
+  }
+
+  /**
+   * Detaches the stripes and folds their sum into the value if they were not updated since the previous call. Meant
+   * to be called once per scrape
+   */
+  synchronized void deflateIfQuiet() {
+    final Stripes current = stripes;
+    if (current == null) {
+      return;
+    }
+    final long currentSum = current.adder.sum();
+    if (currentSum != current.lastSum) {
+      current.lastSum = currentSum;
+      return;
+    }
+    STRIPES.set(this, null);
+    // Set before the stripes are summed, so an update that is not in the sum sees it
+    current.folded = true;
+    reconcile(current);
+  }
+
+  long estimateBytes() {
+    // The unused base, cells and busy flag of the adder, the value and the reference to the stripes, which fills the gap
+    // the fields of the adder leave - measured at 40 bytes, against 32 for an adder
+    final Stripes current = stripes;
+    return MemoryEstimates.align(MemoryEstimates.OBJECT_HEADER + 2 * 8 + 4 + 2 * MemoryEstimates.REFERENCE) +
+           (current == null ? 0 : MemoryEstimates.align(MemoryEstimates.OBJECT_HEADER + MemoryEstimates.REFERENCE + 2 * 8 + 1) +
+                                  MemoryEstimates.ofAdder(current.adder));
+  }
+
+  /**
+   * Adds to the given stripes, which may have been folded since they were read
+   */
+  void addTo(final Stripes current, final long x) {
+    current.adder.add(x);
+    if (current.folded) {
+      reconcile(current);
+    }
+  }
+
+  /**
+   * Adds the updates of folded stripes that were not added to the value yet
+   */
+  private synchronized void reconcile(final Stripes folded) {
+    final long sum = folded.adder.sum();
+    VALUE.getAndAdd(this, sum - folded.foldedSum);
+    folded.foldedSum = sum;
+  }
+
+  private Stripes inflate() {
+    while (true) {
+      final Stripes current = stripes;
+      if (current != null) {
+        return current;
+      }
+      final Stripes inflated = new Stripes();
+      if (STRIPES.compareAndSet(this, null, inflated)) {
+        return inflated;
+      }
+    }
+  }
+
+  static class Stripes {
+
+    private final LongAdder adder = new LongAdder();
+    /**
+     * Set once the stripes were detached from the child, after which updates that still reach them reconcile
+     */
+    private volatile boolean folded;
+    /**
+     * The sum at the previous deflation check. Guarded by the child
+     */
+    private long lastSum = Long.MIN_VALUE;
+    /**
+     * The part of the sum that was already added to the value of the child. Guarded by the child
+     */
+    private long foldedSum;
+  }
+}
@@ -0,0 +1,336 @@
+package com.outbrain.swinfra.metrics;
+
+import com.outbrain.swinfra.metrics.timing.Clock;
+import org.apache.commons.lang3.Validate;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Records the updates of the bound children of counters and histograms that were built with it
+ * ({@link Counter.CounterBuilder#withAsyncRecording(AsyncRecorder)},
+ * {@link Histogram.HistogramBuilder#withAsyncRecording(AsyncRecorder)}) on a single thread of its own.
+ * <p>
+ * An update is published as a fixed-size record of primitives - the id of the child and the value - into a bounded ring
+ * that many threads publish to and a single aggregator thread consumes. The aggregator is the only thread that updates
+ * the children, so their adders are never contended and the recording threads do not bounce the cache lines of the
+ * children between them; a recording thread only claims a slot of the ring and writes the record. When the ring is full,
+ * the update is either dropped and counted, or the recording thread waits for a free slot, see {@link OverflowPolicy}.
+ * </p>
+ * <p>
+ * The ring is drained before the metrics are exported or read, so a scrape sees all the updates that were published
+ * before it. Only the updates of bound children ({@code bind(...)}) are recorded asynchronously, updates by label
+ * values are recorded directly. Binding the same child again reuses its registration, so children may be bound as
+ * often as needed. Updates that are published while the recorder is being closed, or after it was closed, may be
+ * dropped, and so are updates that fail to be applied - the aggregator keeps going after them.
+ * </p>
+ * <pre>
+ * final AsyncRecorder recorder = new AsyncRecorder.AsyncRecorderBuilder().withCapacity(1 &lt;&lt; 16).build();
+ * recorder.registerMetricsTo(registry);
+ * final Counter.Child events = new Counter.CounterBuilder("events_total", "Events").withAsyncRecording(recorder).build().bind();
+ * </pre>
+ */
+public class AsyncRecorder extends DeferredRecording implements AutoCloseable {
+
+  public static final int DEFAULT_CAPACITY = 1 << 16;
+
+  public enum OverflowPolicy {
+    /**
+     * An update that does not fit in the ring is dropped and counted
+     */
+    DROP,
+    /**
+     * The recording thread waits until the aggregator frees a slot
+     */
+    BLOCK
+  }
+
+  /**
+   * How many times the aggregator checks an empty ring before it yields, and then before it parks
+   */
+  private static final int SPINS = 100;
+  private static final int YIELDS = 100;
+  private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  private static final AtomicLongFieldUpdater<AsyncRecorder> HEAD = AtomicLongFieldUpdater.newUpdater(AsyncRecorder.class, "head");
+
+  private final OverflowPolicy overflowPolicy;
+  private final int capacity;
+  private final int mask;
+  private final int[] childIds;
+  private final long[] values;
+  /**
+   * The sequence of the record in each slot plus one, written after the record so a slot is consumed only once its
+   * record is complete
+   */
+  private final AtomicLongArray published;
+  private final AtomicLong tail = new AtomicLong();
+  private volatile long head;
+  private volatile Target[] targets = new Target[0];
+  /**
+   * The id of every registered child, by the identity of the child. Guarded by this
+   */
+  private final Map<Object, Integer> idByChild = new IdentityHashMap<>();
+
+  private final Counter dropped;
+  private final AtomicBoolean started = new AtomicBoolean();
+  private final Thread aggregator;
+  private volatile boolean closed;
+
+  private AsyncRecorder(final AsyncRecorderBuilder builder) {
+    this.overflowPolicy = builder.overflowPolicy;
+    this.capacity = builder.capacity;
+    this.mask = capacity - 1;
+    this.childIds = new int[capacity];
+    this.values = new long[capacity];
+    this.published = new AtomicLongArray(capacity);
+    this.dropped = new Counter.CounterBuilder("metrics_async_dropped_total",
+                                              "The number of updates the async recorder dropped, since it was full or closed or failed to apply them")
+        .build();
+    this.aggregator = new Thread(this::aggregate, "metrics-async-aggregator");
+    aggregator.setDaemon(true);
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  /**
+   * @return the number of updates that were published but not applied yet
+   */
+  public long getBacklog() {
+    return tail.get() - head;
+  }
+
+  public long getDropped() {
+    return dropped.getValue();
+  }
+
+  /**
+   * Registers the number of dropped updates and the backlog of the ring in the given registry
+   */
+  public void registerMetricsTo(final MetricRegistry registry) {
+    registry.getOrRegister(dropped);
+    registry.getOrRegister(new Gauge.GaugeBuilder("metrics_async_backlog", "The number of updates the async recorder did not apply yet")
+                               .withValueSupplier(this::getBacklog)
+                               .build());
+  }
+
+  /**
+   * Waits until the aggregator applied all the updates that were published so far
+   */
+  @Override
+  public void flush() {
+    final long end = tail.get();
+    while (head < end && aggregator.isAlive()) {
+      LockSupport.unpark(aggregator);
+      Thread.yield();
+    }
+  }
+
+  /**
+   * Applies the updates that were published so far and stops the aggregator thread
+   */
+  @Override
+  public void close() {
+    closed = true;
+    LockSupport.unpark(aggregator);
+    if (started.get()) {
+      try {
+        aggregator.join();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @Override
+  Counter.Child counterChild(final LongAdder child) {
+    return new AsyncCounterChild(child, this, register(child, child::add));
+  }
+
+  @Override
+  Histogram.Child histogramChild(final Histogram.AbstractBuckets child, final Clock clock) {
+    return new AsyncHistogramChild(child, clock, this, register(child, value -> child.add(Double.longBitsToDouble(value))));
+  }
+
+  /**
+   * @return the id of the given child, which is registered with the given target the first time it is bound
+   */
+  synchronized int register(final Object child, final Target target) {
+    final Integer id = idByChild.get(child);
+    if (id != null) {
+      return id;
+    }
+    final Target[] registered = Arrays.copyOf(targets, targets.length + 1);
+    registered[registered.length - 1] = target;
+    targets = registered;
+    idByChild.put(child, registered.length - 1);
+    if (!closed && started.compareAndSet(false, true)) {
+      aggregator.start();
+    }
+    return registered.length - 1;
+  }
+
+  void publish(final int childId, final long value) {
+    final long sequence = claim();
+    if (sequence < 0) {
+      dropped.inc();
+      return;
+    }
+    final int index = (int) sequence & mask;
+    childIds[index] = childId;
+    values[index] = value;
+    published.lazySet(index, sequence + 1);
+  }
+
+  /**
+   * @return the sequence of the claimed slot, or -1 if the update should be dropped
+   */
+  private long claim() {
+    if (overflowPolicy == OverflowPolicy.BLOCK) {
+      final long sequence = tail.getAndIncrement();
+      while (sequence - head >= capacity) {
+        if (closed || started.get() && !aggregator.isAlive()) {
+          return -1;
+        }
+        LockSupport.unpark(aggregator);
+        Thread.yield();
+      }
+      return sequence;
+    }
+    while (true) {
+      final long sequence = tail.get();
+      if (sequence - head >= capacity || closed) {
+        return -1;
+      }
+      if (tail.compareAndSet(sequence, sequence + 1)) {
+        return sequence;
+      }
+    }
+  }
+
+  private void aggregate() {
+    long position = head;
+    int idle = 0;
+    while (true) {
+      final int index = (int) position & mask;
+      if (published.get(index) == position + 1) {
+        try {
+          targets[childIds[index]].apply(values[index]);
+        } catch (final RuntimeException e) {
+          // The aggregator must outlive a bad record, or blocked producers would wait for it forever
+          dropped.inc();
+        }
+        HEAD.lazySet(this, ++position);
+        idle = 0;
+      } else if (closed) {
+        return;
+      } else if (++idle > SPINS + YIELDS) {
+        LockSupport.parkNanos(PARK_NANOS);
+      } else if (idle > SPINS) {
+        Thread.yield();
+      }
+    }
+  }
+
+  /**
+   * Applies the value of a record to the child it was published for
+   */
+  interface Target {
+
+    void apply(long value);
+  }
+
+  private static class AsyncCounterChild extends Counter.Child {
+
+    private final AsyncRecorder recorder;
+    private final int childId;
+
+    private AsyncCounterChild(final LongAdder child, final AsyncRecorder recorder, final int childId) {
+      super(child);
+      this.recorder = recorder;
+      this.childId = childId;
+    }
+
+    @Override
+    public void inc() {
+      recorder.publish(childId, 1);
+    }
+
+    @Override
+    public void inc(final long n) {
+      recorder.publish(childId, n);
+    }
+
+    @Override
+    public long getValue() {
+      recorder.flush();
+      return super.getValue();
+    }
+  }
+
+  private static class AsyncHistogramChild extends Histogram.Child {
+
+    private final AsyncRecorder recorder;
+    private final int childId;
+
+    private AsyncHistogramChild(final Histogram.AbstractBuckets child, final Clock clock, final AsyncRecorder recorder, final int childId) {
+      super(child, clock);
+      this.recorder = recorder;
+      this.childId = childId;
+    }
+
+    @Override
+    public void observe(final double value) {
+      recorder.publish(childId, Double.doubleToRawLongBits(value));
+    }
+
+    @Override
+    public void recordTicks(final long ticks) {
+      observe(ticks);
+    }
+  }
+
+  public static class AsyncRecorderBuilder {
+
+    private int capacity = DEFAULT_CAPACITY;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+
+    /**
+     * The number of updates the ring holds, a power of two. Defaults to {@link AsyncRecorder#DEFAULT_CAPACITY}
+     */
+    public AsyncRecorderBuilder withCapacity(final int capacity) {
+      Validate.isTrue(capacity > 0 && capacity <= 1 << 30 && Integer.bitCount(capacity) == 1,
+                      "The capacity must be a power of two between 1 and 2^30");
+      this.capacity = capacity;
+      return this;
+    }
+
+    /**
+     * What to do with an update when the ring is full, defaults to {@link OverflowPolicy#DROP}
+     */
+    public AsyncRecorderBuilder withOverflowPolicy(final OverflowPolicy overflowPolicy) {
+      this.overflowPolicy = requireNonNull(overflowPolicy, "overflowPolicy may not be null");
+      return this;
+    }
+
+    public AsyncRecorder build() {
+      return new AsyncRecorder(this);
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package com.outbrain.swinfra.metrics;
+
+import com.outbrain.swinfra.metrics.data.HistogramData;
+import com.outbrain.swinfra.metrics.data.MetricDataConsumer;
+import com.outbrain.swinfra.metrics.data.SummaryData;
+
+import java.util.List;
+
+/**
+ * Counts the children of a {@link Metric} that cannot count them without reading them
+ */
+class ChildCountingConsumer implements MetricDataConsumer {
+
+  private int count;
+
+  @Override
+  public void consumeCounter(final Metric metric, final List<String> labelValues, final double value) {
+    count++;
+  }
+
+  @Override
+  public void consumeGauge(final Metric metric, final List<String> labelValues, final double value) {
+    count++;
+  }
+
+  @Override
+  public void consumeSummary(final Metric metric, final List<String> labelValues, final SummaryData data) {
+    count++;
+  }
+
+  @Override
+  public void consumeHistogram(final Metric metric, final List<String> labelValues, final HistogramData data) {
+    count++;
+  }
+
+  int getCount() {
+    return count;
+  }
+}
@@ -2,15 +2,26 @@ package com.outbrain.swinfra.metrics;
 
 
 import com.outbrain.swinfra.metrics.children.ChildMetricRepo;
-import com.outbrain.swinfra.metrics.children.LabeledChildrenRepo;
 import com.outbrain.swinfra.metrics.children.MetricData;
 import com.outbrain.swinfra.metrics.children.UnlabeledChildRepo;
+import com.outbrain.swinfra.metrics.data.ExemplarConsumer;
 import com.outbrain.swinfra.metrics.data.MetricDataConsumer;
+import com.outbrain.swinfra.metrics.exemplars.Exemplar;
+import com.outbrain.swinfra.metrics.exemplars.ExemplarSampler;
+import com.outbrain.swinfra.metrics.exemplars.ExemplarSlots;
+import com.outbrain.swinfra.metrics.utils.MemoryEstimates;
 import com.outbrain.swinfra.metrics.utils.MetricType;
+import org.apache.commons.lang3.Validate;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import static com.outbrain.swinfra.metrics.utils.MetricType.COUNTER;
+import static java.util.Objects.requireNonNull;
 
 /**
  * An implementation of a Counter metric. A counter is a whole number that can only increase its value.
@@ -22,8 +33,23 @@ import static com.outbrain.swinfra.metrics.utils.MetricType.COUNTER;
  */
 public class Counter extends AbstractMetric<LongAdder> {
 
-  private Counter(final String name, final String help, final String[] labelNames) {
+  private final ExemplarSampler exemplarSampler;
+  private final DeferredRecording deferredRecording;
+  private final boolean singleWriter;
+  private final boolean adaptiveChildren;
+
+  private Counter(final String name,
+                  final String help,
+                  final String[] labelNames,
+                  final ExemplarSampler exemplarSampler,
+                  final DeferredRecording deferredRecording,
+                  final boolean singleWriter,
+                  final boolean adaptiveChildren) {
     super(name, help, labelNames);
+    this.exemplarSampler = exemplarSampler;
+    this.deferredRecording = deferredRecording;
+    this.singleWriter = singleWriter;
+    this.adaptiveChildren = adaptiveChildren;
   }
 
   public void inc(final String... labelValues) {
@@ -35,16 +61,136 @@ public class Counter extends AbstractMetric<LongAdder> {
     metricForLabels(labelValues).add(n);
   }
 
+  /**
+   * Increments the child of a counter whose single label has an enum domain
+   * ({@link CounterBuilder#withLabelDomain(String, Class)}), without hashing or label value strings
+   */
+  public void inc(final Enum<?> labelValue) {
+    metricForLabel(labelValue).increment();
+  }
+
+  /**
+   * @see #inc(Enum)
+   */
+  public void inc(final long n, final Enum<?> labelValue) {
+    metricForLabel(labelValue).add(n);
+  }
+
+  /**
+   * Increments the child of a counter whose single label has an int domain ({@link CounterBuilder#withIntLabel}).
+   * There is no single argument version, as it would be taken for {@link #inc(long, String...)}
+   */
+  public void inc(final long n, final int labelValue) {
+    metricForLabel(labelValue).add(n);
+  }
+
+  /**
+   * Increments the child of a counter whose labels are an enum domain followed by an int domain,
+   * i.e. {@code inc(Method.GET, 200)}
+   */
+  public void inc(final Enum<?> firstLabelValue, final int secondLabelValue) {
+    metricForLabels(firstLabelValue, secondLabelValue).increment();
+  }
+
+  /**
+   * @see #inc(Enum, int)
+   */
+  public void inc(final long n, final Enum<?> firstLabelValue, final int secondLabelValue) {
+    metricForLabels(firstLabelValue, secondLabelValue).add(n);
+  }
+
+  public void incWithExemplar(final Map<String, String> exemplarLabels, final String... labelValues) {
+    incWithExemplar(1, exemplarLabels, labelValues);
+  }
+
+  /**
+   * Increments the counter and offers the increment as the child's exemplar. The exemplar is kept only if the counter
+   * was built with exemplars ({@link CounterBuilder#withExemplars()}) and the sampler accepts it, otherwise this method
+   * is equivalent to {@link #inc(long, String...)}
+   *
+   * @param exemplarLabels the labels that identify this increment, i.e. a trace ID
+   */
+  public void incWithExemplar(final long n, final Map<String, String> exemplarLabels, final String... labelValues) {
+    validateLabelValues(labelValues);
+    final LongAdder child = metricForLabels(labelValues);
+    child.add(n);
+    if (child instanceof ExemplarLongAdder) {
+      ((ExemplarLongAdder) child).exemplar.offer(0, n, exemplarLabels);
+    }
+  }
+
   public long getValue(final String... labelValues) {
+    flushDeferred();
     return metricForLabels(labelValues).longValue();
   }
 
+  /**
+   * @return the child with the given label values, which can be kept and incremented without looking it up again.
+   * The increments of a bound child are deferred if the counter was built with {@link CounterBuilder#withBatching} or
+   * {@link CounterBuilder#withAsyncRecording}
+   */
+  public Child bind(final String... labelValues) {
+    validateLabelValues(labelValues);
+    final LongAdder adder = metricForLabels(labelValues);
+    return deferredRecording == null ? new Child(adder) : deferredRecording.counterChild(adder);
+  }
+
+  private void flushDeferred() {
+    if (deferredRecording != null) {
+      deferredRecording.flush();
+    }
+  }
+
+  /**
+   * A single child of a counter, bound to its label values
+   */
+  public static class Child {
+
+    private final LongAdder adder;
+
+    Child(final LongAdder adder) {
+      this.adder = adder;
+    }
+
+    public void inc() {
+      adder.increment();
+    }
+
+    public void inc(final long n) {
+      adder.add(n);
+    }
+
+    public long getValue() {
+      return adder.longValue();
+    }
+  }
+
+  @Override
+  long estimateChildBytes(final LongAdder child) {
+    if (child instanceof SingleWriterLongAdder) {
+      return MemoryEstimates.ADDER + MemoryEstimates.align(8 + MemoryEstimates.REFERENCE);
+    }
+    if (child instanceof AdaptiveLongAdder) {
+      return ((AdaptiveLongAdder) child).estimateBytes();
+    }
+    final long bytes = MemoryEstimates.ofAdder(child);
+    return child instanceof ExemplarLongAdder ? bytes + MemoryEstimates.REFERENCE + MemoryEstimates.ofExemplarSlots(1) : bytes;
+  }
+
   @Override
   ChildMetricRepo<LongAdder> createChildMetricRepo() {
+    final Supplier<LongAdder> childSupplier;
+    if (singleWriter) {
+      childSupplier = SingleWriterLongAdder::new;
+    } else if (adaptiveChildren) {
+      childSupplier = AdaptiveLongAdder::new;
+    } else {
+      childSupplier = exemplarSampler == null ? LongAdder::new : () -> new ExemplarLongAdder(exemplarSampler);
+    }
     if (getLabelNames().isEmpty()) {
-      return new UnlabeledChildRepo<>(new MetricData<>(new LongAdder()));
+      return new UnlabeledChildRepo<>(new MetricData<>(childSupplier.get()));
     } else {
-      return new LabeledChildrenRepo<>(labelValues -> new MetricData<>(new LongAdder(), labelValues));
+      return createLabeledChildMetricRepo(labelValues -> new MetricData<>(childSupplier.get(), labelValues));
     }
   }
 
@@ -54,22 +200,196 @@ public class Counter extends AbstractMetric<LongAdder> {
   }
 
   @Override
-  public void forEachMetricData(final MetricDataConsumer consumer) {
-    forEachChild(metricData -> {
+  public void forEachMetricData(final MetricDataConsumer consumer, final Predicate<List<String>> labelValuesFilter) {
+    flushDeferred();
+    forEachChild(labelValuesFilter, metricData -> {
+      if (adaptiveChildren) {
+        ((AdaptiveLongAdder) metricData.getMetric()).deflateIfQuiet();
+      }
       final long value = metricData.getMetric().longValue();
+      consumeCreated(consumer, metricData);
+      consumeExemplar(consumer, metricData);
       consumer.consumeCounter(this, metricData.getLabelValues(), value);
     });
   }
 
+  private void consumeExemplar(final MetricDataConsumer consumer, final MetricData<LongAdder> metricData) {
+    if (consumer instanceof ExemplarConsumer && metricData.getMetric() instanceof ExemplarLongAdder) {
+      final Exemplar exemplar = ((ExemplarLongAdder) metricData.getMetric()).exemplar.get(0);
+      if (exemplar != null) {
+        ((ExemplarConsumer) consumer).consumeExemplar(this, metricData.getLabelValues(), exemplar);
+      }
+    }
+  }
+
+  /**
+   * A counter child that also keeps a single exemplar
+   */
+  private static class ExemplarLongAdder extends LongAdder {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ExemplarSlots exemplar;
+
+    ExemplarLongAdder(final ExemplarSampler sampler) {
+      this.exemplar = new ExemplarSlots(sampler, 1);
+    }
+  }
+
+  /**
+   * A counter child that is only incremented by a single thread, see {@link CounterBuilder#withSingleWriter()}. It is a
+   * {@link LongAdder} so that it can replace one, but it keeps its value in a plain field that is published with
+   * {@code lazySet}
+   */
+  private static class SingleWriterLongAdder extends LongAdder {
+
+    private static final long serialVersionUID = 1L;
+    private static final AtomicLongFieldUpdater<SingleWriterLongAdder> VALUE = AtomicLongFieldUpdater.newUpdater(SingleWriterLongAdder.class, "value");
+
+    private final WriterAssertion writer = WriterAssertion.create();
+    private volatile long value;
+
+    @Override
+    public void add(final long x) {
+      assert writer.isOnlyWriter();
+      VALUE.lazySet(this, value + x);
+    }
+
+    @Override
+    public void increment() {
+      add(1);
+    }
+
+    @Override
+    public void decrement() {
+      add(-1);
+    }
+
+    @Override
+    public long sum() {
+      return value;
+    }
+
+    @Override
+    public void reset() {
+      VALUE.lazySet(this, 0);
+    }
+
+    @Override
+    public long sumThenReset() {
+      final long sum = value;
+      reset();
+      return sum;
+    }
+
+    @Override
+    public long longValue() {
+      return value;
+    }
+
+    @Override
+    public int intValue() {
+      return (int) value;
+    }
+
+    @Override
+    public float floatValue() {
+      return value;
+    }
+
+    @Override
+    public double doubleValue() {
+      return value;
+    }
+
+    @Override
+    public String toString() {
+      return Long.toString(value);
+    }
+  }
+
   public static class CounterBuilder extends AbstractMetricBuilder<Counter, CounterBuilder> {
 
+    private ExemplarSampler exemplarSampler;
+    private DeferredRecording deferredRecording;
+    private boolean singleWriter;
+    private boolean adaptiveChildren;
+
     public CounterBuilder(final String name, final String help) {
       super(name, help);
     }
 
+    /**
+     * Keeps an exemplar for each child, replaced at most once in {@link ExemplarSampler#DEFAULT_MIN_INTERVAL_MILLIS}
+     */
+    public CounterBuilder withExemplars() {
+      return withExemplars(ExemplarSampler.rateLimited(ExemplarSampler.DEFAULT_MIN_INTERVAL_MILLIS));
+    }
+
+    /**
+     * Keeps an exemplar for each child, replaced according to the given sampler.
+     * Counters that are built without exemplars pay nothing for this feature.
+     */
+    public CounterBuilder withExemplars(final ExemplarSampler exemplarSampler) {
+      this.exemplarSampler = requireNonNull(exemplarSampler, "exemplarSampler may not be null");
+      return this;
+    }
+
+    /**
+     * Batches the increments of the bound children ({@link Counter#bind(String...)}) in buffers of the incrementing
+     * threads, see {@link RecordingBatcher}. The counter is flushed before it is exported or read
+     */
+    public CounterBuilder withBatching(final RecordingBatcher batcher) {
+      this.deferredRecording = requireNonNull(batcher, "batcher may not be null");
+      return this;
+    }
+
+    /**
+     * Publishes the increments of the bound children ({@link Counter#bind(String...)}) to the given recorder, whose
+     * thread applies them to the counter, see {@link AsyncRecorder}. Replaces {@link #withBatching(RecordingBatcher)}
+     */
+    public CounterBuilder withAsyncRecording(final AsyncRecorder recorder) {
+      this.deferredRecording = requireNonNull(recorder, "recorder may not be null");
+      return this;
+    }
+
+    /**
+     * Keeps the value of every child in a plain field that is published with {@code lazySet}, rather than in an adder,
+     * for counters whose children are each only incremented by a single thread - i.e. an event loop, or the aggregator
+     * of an {@link AsyncRecorder} when the counter is only incremented through bound children. An increment then costs a
+     * plain memory write. When assertions are enabled, a child that is incremented by a second thread throws an
+     * {@link AssertionError}; otherwise concurrent increments may be lost
+     */
+    public CounterBuilder withSingleWriter() {
+      this.singleWriter = true;
+      return this;
+    }
+
+    /**
+     * Starts every child as a single long that is updated with a CAS, and inflates a child to a striped adder only once
+     * an update fails its CAS twice in a row. A scrape that finds the stripes of a child unchanged since the previous
+     * scrape folds them back into the single long, without losing the updates that still reach them. Off by default,
+     * and only for counters with many children that are hot for a while and then go quiet: a child that never saw
+     * contention takes 40 bytes against 32 for an adder, while a child that was contended releases its stripes once it
+     * cools down, where an adder keeps its cells (hundreds of bytes) for good
+     */
+    public CounterBuilder withAdaptiveChildren() {
+      this.adaptiveChildren = true;
+      return this;
+    }
+
+    @Override
+    void validateParams() {
+      super.validateParams();
+      Validate.isTrue(!singleWriter || exemplarSampler == null, "A single writer counter cannot keep exemplars");
+      Validate.isTrue(!adaptiveChildren || (exemplarSampler == null && !singleWriter),
+                      "A counter with adaptive children cannot keep exemplars or have a single writer");
+    }
+
     @Override
     protected Counter create(final String fullName, final String help, final String[] labelNames) {
-      return new Counter(fullName, help, labelNames);
+      return new Counter(fullName, help, labelNames, exemplarSampler, deferredRecording, singleWriter,
+                         adaptiveChildren);
     }
   }
 
@@ -0,0 +1,22 @@
+package com.outbrain.swinfra.metrics;
+
+import com.outbrain.swinfra.metrics.timing.Clock;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A way of recording the updates of bound children later than they are made, i.e. {@link RecordingBatcher} and
+ * {@link AsyncRecorder}. A metric that was built with one creates its bound children through it, and flushes it before
+ * the metric is exported or read.
+ */
+abstract class DeferredRecording {
+
+  abstract Counter.Child counterChild(LongAdder child);
+
+  abstract Histogram.Child histogramChild(Histogram.AbstractBuckets child, Clock clock);
+
+  /**
+   * Records all the updates that were made so far
+   */
+  abstract void flush();
+}
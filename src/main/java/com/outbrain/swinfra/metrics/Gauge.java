@@ -5,6 +5,7 @@ import com.outbrain.swinfra.metrics.children.LabeledChildrenRepo;
 import com.outbrain.swinfra.metrics.children.MetricData;
 import com.outbrain.swinfra.metrics.children.UnlabeledChildRepo;
 import com.outbrain.swinfra.metrics.data.MetricDataConsumer;
+import com.outbrain.swinfra.metrics.utils.MemoryEstimates;
 import com.outbrain.swinfra.metrics.utils.MetricType;
 import org.apache.commons.lang3.Validate;
 
@@ -13,6 +14,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.DoubleSupplier;
+import java.util.function.Predicate;
 
 import static com.outbrain.swinfra.metrics.utils.MetricType.GAUGE;
 import static java.util.Objects.requireNonNull;
@@ -45,13 +47,21 @@ public class Gauge extends AbstractMetric<DoubleSupplier> {
   }
 
   @Override
-  public void forEachMetricData(final MetricDataConsumer consumer) {
-    forEachChild(metricData -> {
+  public void forEachMetricData(final MetricDataConsumer consumer, final Predicate<List<String>> labelValuesFilter) {
+    forEachChild(labelValuesFilter, metricData -> {
       final double value = metricData.getMetric().getAsDouble();
       consumer.consumeGauge(this, metricData.getLabelValues(), value);
     });
   }
 
+  /**
+   * The value suppliers are given by the user, so they are counted as plain objects
+   */
+  @Override
+  long estimateChildBytes(final DoubleSupplier child) {
+    return MemoryEstimates.align(MemoryEstimates.OBJECT_HEADER);
+  }
+
   @Override
   ChildMetricRepo<DoubleSupplier> createChildMetricRepo() {
     if (valueSuppliers.size() == 1 && getLabelNames().isEmpty()) {
@@ -61,7 +71,8 @@ public class Gauge extends AbstractMetric<DoubleSupplier> {
       final ChildMetricRepo<DoubleSupplier> result = new LabeledChildrenRepo<>(labelValues ->
                                                                                  new MetricData<>(
                                                                                    valueSuppliers.get(labelValues),
-                                                                                   labelValues));
+                                                                                   labelValues),
+                                                                               getChildOrder());
 
       valueSuppliers.keySet().forEach(result::metricForLabels);
       return result;
@@ -91,6 +102,7 @@ public class Gauge extends AbstractMetric<DoubleSupplier> {
     @Override
     void validateParams() {
       Validate.notEmpty(valueSuppliers, "At least one value supplier must be defined");
+      Validate.isTrue(!hasLabelDomains(), "The children of a gauge are its value suppliers, its labels may not have domains");
       super.validateParams();
     }
 
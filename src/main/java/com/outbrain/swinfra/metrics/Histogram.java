@@ -1,25 +1,36 @@
 package com.outbrain.swinfra.metrics;
 
 import com.outbrain.swinfra.metrics.children.ChildMetricRepo;
-import com.outbrain.swinfra.metrics.children.LabeledChildrenRepo;
 import com.outbrain.swinfra.metrics.children.MetricData;
 import com.outbrain.swinfra.metrics.children.UnlabeledChildRepo;
 import com.outbrain.swinfra.metrics.data.HistogramBucketsConsumer;
+import com.outbrain.swinfra.metrics.data.HistogramCountsConsumer;
 import com.outbrain.swinfra.metrics.data.HistogramData;
 import com.outbrain.swinfra.metrics.data.MetricDataConsumer;
+import com.outbrain.swinfra.metrics.exemplars.Exemplar;
+import com.outbrain.swinfra.metrics.exemplars.ExemplarSampler;
+import com.outbrain.swinfra.metrics.exemplars.ExemplarSlots;
 import com.outbrain.swinfra.metrics.timing.Clock;
+import com.outbrain.swinfra.metrics.timing.IntervalRecorder;
 import com.outbrain.swinfra.metrics.timing.Timer;
 import com.outbrain.swinfra.metrics.timing.TimingMetric;
+import com.outbrain.swinfra.metrics.utils.MemoryEstimates;
 import com.outbrain.swinfra.metrics.utils.MetricType;
 import org.apache.commons.lang3.Validate;
 
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.concurrent.atomic.DoubleAdder;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
 import java.util.stream.DoubleStream;
 
 import static com.outbrain.swinfra.metrics.timing.Clock.DEFAULT_CLOCK;
 import static com.outbrain.swinfra.metrics.utils.MetricType.HISTOGRAM;
+import static java.util.Objects.requireNonNull;
 
 //todo document the fact that I favored throughput over consistency
 
@@ -51,34 +62,78 @@ import static com.outbrain.swinfra.metrics.utils.MetricType.HISTOGRAM;
  * @see <a href="https://prometheus.io/docs/concepts/metric_types/#histogram">Prometheus summary metric</a>
  * @see <a href="https://prometheus.io/docs/practices/histograms/">Prometheus summary vs. histogram</a>
  */
-public class Histogram extends AbstractMetric<Histogram.Buckets> implements TimingMetric {
+public class Histogram extends AbstractMetric<Histogram.AbstractBuckets> implements TimingMetric, IntervalRecorder {
 
   private final double[] buckets;
   private final Clock clock;
+  private final ExemplarSampler exemplarSampler;
+  private final double expectedInterval;
+  private final DeferredRecording deferredRecording;
+  private final boolean singleWriter;
 
   private Histogram(final String name,
                     final String help,
                     final String[] labelNames,
                     final double[] buckets,
-                    final Clock clock) {
+                    final Clock clock,
+                    final ExemplarSampler exemplarSampler,
+                    final double expectedInterval,
+                    final DeferredRecording deferredRecording,
+                    final boolean singleWriter) {
     super(name, help, labelNames);
     this.buckets = buckets;
     this.clock = clock;
+    this.exemplarSampler = exemplarSampler;
+    this.expectedInterval = expectedInterval;
+    this.deferredRecording = deferredRecording;
+    this.singleWriter = singleWriter;
   }
 
   @Override
-  ChildMetricRepo<Buckets> createChildMetricRepo() {
+  ChildMetricRepo<AbstractBuckets> createChildMetricRepo() {
     if (getLabelNames().isEmpty()) {
-      return new UnlabeledChildRepo<>(new MetricData<>(new Buckets(buckets)));
+      return new UnlabeledChildRepo<>(new MetricData<>(createBuckets()));
     } else {
-      return new LabeledChildrenRepo<>(labelValues -> new MetricData<>(new Buckets(buckets), labelValues));
+      return createLabeledChildMetricRepo(labelValues -> new MetricData<>(createBuckets(), labelValues));
     }
   }
 
   @Override
-  public void forEachMetricData(final MetricDataConsumer consumer) {
-    forEachChild(metricData -> {
+  long estimateChildBytes(final AbstractBuckets child) {
+    return child.estimateBytes();
+  }
+
+  private AbstractBuckets createBuckets() {
+    final AbstractBuckets childBuckets;
+    if (singleWriter) {
+      childBuckets = new SingleWriterBuckets(buckets);
+    } else {
+      childBuckets = exemplarSampler == null ? new Buckets(buckets) : new ExemplarBuckets(exemplarSampler, buckets);
+    }
+    childBuckets.setExpectedInterval(expectedInterval);
+    return childBuckets;
+  }
+
+  @Override
+  public void forEachMetricData(final MetricDataConsumer consumer, final Predicate<List<String>> labelValuesFilter) {
+    if (deferredRecording != null) {
+      deferredRecording.flush();
+    }
+    if (consumer instanceof HistogramCountsConsumer) {
+      final HistogramCountsConsumer countsConsumer = (HistogramCountsConsumer) consumer;
+      forEachChild(labelValuesFilter, metricData -> {
+        final AbstractBuckets buckets = metricData.getMetric();
+        final int bucketCount = buckets.bucketBounds.length;
+        final long[] counts = countsConsumer.bucketCountsBuffer(bucketCount);
+        final double sum = buckets.copyValuesTo(counts);
+        consumeCreated(consumer, metricData);
+        countsConsumer.consumeHistogram(this, metricData.getLabelValues(), buckets.bucketBounds, counts, bucketCount, sum);
+      });
+      return;
+    }
+    forEachChild(labelValuesFilter, metricData -> {
       final HistogramData snapshot = metricData.getMetric().getValues();
+      consumeCreated(consumer, metricData);
       consumer.consumeHistogram(this, metricData.getLabelValues(), snapshot);
     });
   }
@@ -93,12 +148,117 @@ public class Histogram extends AbstractMetric<Histogram.Buckets> implements Timi
     metricForLabels(labelValues).add(value);
   }
 
+  /**
+   * Observes a value that took longer than the expected interval between observations, and the observations that the
+   * delay kept from being made - one for every expected interval beyond the first, each smaller than the previous one
+   * by the interval, like HdrHistogram's {@code recordValueWithExpectedInterval}. When observations are made by a
+   * thread that stalls, this corrects the coordinated omission of the requests that would have been observed during
+   * the stall. The missing observations are added to the buckets they fall into in O(buckets), however many there are.
+   * <p>
+   * See {@link HistogramBuilder#withExpectedInterval(double)} for correcting all the observations of a histogram
+   * </p>
+   *
+   * @param expectedInterval the expected interval between observations, in the units of the value
+   */
+  public void observeWithExpectedInterval(final double value, final double expectedInterval, final String... labelValues) {
+    validateLabelValues(labelValues);
+    metricForLabels(labelValues).addWithExpectedInterval(value, expectedInterval);
+  }
+
+  /**
+   * Observes a value in the child of a histogram whose single label has an enum domain
+   * ({@link HistogramBuilder#withLabelDomain(String, Class)}), without hashing or label value strings
+   */
+  public void observe(final double value, final Enum<?> labelValue) {
+    metricForLabel(labelValue).add(value);
+  }
+
+  /**
+   * Observes a value in the child of a histogram whose single label has an int domain ({@link HistogramBuilder#withIntLabel})
+   */
+  public void observe(final double value, final int labelValue) {
+    metricForLabel(labelValue).add(value);
+  }
+
+  /**
+   * Observes a value in the child of a histogram whose labels are an enum domain followed by an int domain
+   */
+  public void observe(final double value, final Enum<?> firstLabelValue, final int secondLabelValue) {
+    metricForLabels(firstLabelValue, secondLabelValue).add(value);
+  }
+
+  /**
+   * Observes the given value and offers it as the exemplar of the bucket it falls into. The exemplar is kept only if
+   * the histogram was built with exemplars ({@link HistogramBuilder#withExemplars()}) and the sampler accepts it,
+   * otherwise this method is equivalent to {@link #observe(double, String...)}
+   *
+   * @param exemplarLabels the labels that identify this observation, i.e. a trace ID
+   */
+  public void observeWithExemplar(final double value, final Map<String, String> exemplarLabels, final String... labelValues) {
+    validateLabelValues(labelValues);
+    metricForLabels(labelValues).addWithExemplar(value, exemplarLabels);
+  }
+
   @Override
   public Timer startTimer(final String... labelValues) {
-    final Buckets buckets = metricForLabels(labelValues);
+    validateLabelValues(labelValues);
+    final AbstractBuckets buckets = metricForLabels(labelValues);
     return new Timer(clock, buckets::add);
   }
 
+  @Override
+  public Clock getClock() {
+    return clock;
+  }
+
+  /**
+   * Observes an interval in the ticks of this histogram's clock, for histograms without labels.
+   * See {@link #bind(String...)} for histograms with labels
+   */
+  @Override
+  public void recordTicks(final long ticks) {
+    unlabeledMetric().add(ticks);
+  }
+
+  /**
+   * @return the child with the given label values, which can be kept and updated without looking it up again.
+   * The observations of a bound child are deferred if the histogram was built with {@link HistogramBuilder#withBatching}
+   * or {@link HistogramBuilder#withAsyncRecording}
+   */
+  public Child bind(final String... labelValues) {
+    validateLabelValues(labelValues);
+    final AbstractBuckets childBuckets = metricForLabels(labelValues);
+    return deferredRecording == null ? new Child(childBuckets, clock) : deferredRecording.histogramChild(childBuckets, clock);
+  }
+
+  /**
+   * A single child of a histogram, bound to its label values
+   */
+  public static class Child implements IntervalRecorder {
+
+    private final AbstractBuckets buckets;
+    private final Clock clock;
+
+    Child(final AbstractBuckets buckets, final Clock clock) {
+      this.buckets = buckets;
+      this.clock = clock;
+    }
+
+    public void observe(final double value) {
+      buckets.add(value);
+    }
+
+    @Override
+    public Clock getClock() {
+      return clock;
+    }
+
+    @Override
+    public void recordTicks(final long ticks) {
+      buckets.add(ticks);
+    }
+  }
+
   /**
    * Contains bucket-related logic for the histogram.
    * When adding a value, only a single bucket is incremented, which is the first bucket in the array
@@ -111,34 +271,163 @@ public class Histogram extends AbstractMetric<Histogram.Buckets> implements Timi
    * [3, 2, 1, 10]
    * when extracting the values, the following array will be created:
    * [3, 5, 6, 16]
+   * <p>
+   * Subclasses only decide how the counts and the sum are stored, see {@link Buckets} and {@link SingleWriterBuckets}
    */
-  static class Buckets {
+  abstract static class AbstractBuckets {
 
     final double[] bucketBounds;
-    final LongAdder[] buckets;
-    final DoubleAdder sum = new DoubleAdder();
+    /**
+     * The expected interval that every value is corrected with, and the smallest value that has missing values
+     * (infinite when values are not corrected), so that values that are not corrected only pay a comparison
+     */
+    double expectedInterval;
+    double smallestCorrectedValue = Double.POSITIVE_INFINITY;
 
-    Buckets(final double... bucketBounds) {
+    AbstractBuckets(final double[] bucketBounds) {
       this.bucketBounds = Arrays.copyOf(bucketBounds, bucketBounds.length + 1);
       this.bucketBounds[this.bucketBounds.length - 1] = Double.POSITIVE_INFINITY;
-      this.buckets = new LongAdder[this.bucketBounds.length];
-      for (int i = 0; i < this.bucketBounds.length; i++) {
-        buckets[i] = new LongAdder();
+    }
+
+    void setExpectedInterval(final double expectedInterval) {
+      if (expectedInterval > 0) {
+        this.expectedInterval = expectedInterval;
+        this.smallestCorrectedValue = 2 * expectedInterval;
       }
     }
 
     void add(final double value) {
-      for (int i = 0; i < buckets.length; i++) {
+      addObserved(value);
+      if (value >= smallestCorrectedValue) {
+        addMissing(value, expectedInterval);
+      }
+    }
+
+    void addWithExpectedInterval(final double value, final double expectedInterval) {
+      addObserved(value);
+      if (expectedInterval > 0 && value >= 2 * expectedInterval) {
+        addMissing(value, expectedInterval);
+      }
+    }
+
+    private void addObserved(final double value) {
+      final int bucket = bucketIndex(value);
+      if (bucket >= 0) {
+        addToBucket(bucket, 1);
+      }
+      addToSum(value);
+    }
+
+    /**
+     * @return the index of the first bucket whose bound is at least the given value, or -1 for NaN
+     */
+    int bucketIndex(final double value) {
+      for (int i = 0; i < bucketBounds.length; i++) {
         if (value <= bucketBounds[i]) {
-          buckets[i].add(1);
-          break;
+          return i;
         }
       }
-      sum.add(value);
+      return -1;
+    }
+
+    /**
+     * Adds the values {@code value - k * interval} for every k from 1 up to the last one that is still at least the
+     * interval, by counting how many of them fall into each bucket rather than adding them one by one
+     */
+    void addMissing(final double value, final double interval) {
+      if (!Double.isFinite(value)) {
+        return;
+      }
+      final long missing = (long) (value / interval) - 1;
+      long belowPreviousBound = 0;
+      for (int i = 0; i < bucketBounds.length && belowPreviousBound < missing; i++) {
+        final long belowBound = countMissingUpTo(bucketBounds[i], value, interval, missing);
+        if (belowBound > belowPreviousBound) {
+          addToBucket(i, belowBound - belowPreviousBound);
+          belowPreviousBound = belowBound;
+        }
+      }
+      // The sum of the arithmetic sequence value - interval, value - 2 * interval, ...
+      addToSum(missing * value - interval * (missing * (missing + 1) / 2.0));
+    }
+
+    abstract void addToBucket(int bucket, long count);
+
+    abstract void addToSum(double value);
+
+    /**
+     * @return the number of missing values that are lower than or equal to the given bound
+     */
+    private static long countMissingUpTo(final double bound, final double value, final double interval, final long missing) {
+      if (bound == Double.POSITIVE_INFINITY) {
+        return missing;
+      }
+      // value - k * interval <= bound for every k from this one on
+      final double firstK = Math.max(1, Math.ceil((value - bound) / interval));
+      return firstK > missing ? 0 : missing - (long) firstK + 1;
+    }
+
+    void addWithExemplar(final double value, final Map<String, String> exemplarLabels) {
+      add(value);
     }
 
     BucketValues getValues() {
-      final long[] cummulativeBuckets = new long[this.buckets.length];
+      final long[] cummulativeBuckets = new long[bucketBounds.length];
+      final double sumSnapshot = copyValuesTo(cummulativeBuckets);
+      return new BucketValues(sumSnapshot, cummulativeBuckets, bucketBounds);
+    }
+
+    abstract long estimateBytes();
+
+    /**
+     * Writes the cumulative bucket counts into the given array
+     *
+     * @return the sum of the observed values
+     */
+    abstract double copyValuesTo(long[] cummulativeBuckets);
+  }
+
+  /**
+   * Buckets whose counts and sum are adders, so they can be updated by any number of threads
+   */
+  static class Buckets extends AbstractBuckets {
+
+    final LongAdder[] buckets;
+    final DoubleAdder sum;
+
+    Buckets(final double... bucketBounds) {
+      super(bucketBounds);
+      this.buckets = new LongAdder[this.bucketBounds.length];
+      for (int i = 0; i < this.bucketBounds.length; i++) {
+        buckets[i] = new LongAdder();
+      }
+      this.sum = new DoubleAdder();
+    }
+
+    @Override
+    void addToBucket(final int bucket, final long count) {
+      buckets[bucket].add(count);
+    }
+
+    @Override
+    void addToSum(final double value) {
+      sum.add(value);
+    }
+
+    @Override
+    long estimateBytes() {
+      long bytes = MemoryEstimates.align(MemoryEstimates.OBJECT_HEADER + 3 * MemoryEstimates.REFERENCE + 2 * 8) +
+                   MemoryEstimates.ofDoubleArray(bucketBounds.length) +
+                   MemoryEstimates.ofReferenceArray(buckets.length) +
+                   MemoryEstimates.ofAdder(sum);
+      for (final LongAdder bucket : buckets) {
+        bytes += MemoryEstimates.ofAdder(bucket);
+      }
+      return bytes;
+    }
+
+    @Override
+    double copyValuesTo(final long[] cummulativeBuckets) {
       long accumulator = 0;
 
       //Saving a snapshot of the sum so it will not be affected by values added while the buckets are calculated
@@ -148,8 +437,108 @@ public class Histogram extends AbstractMetric<Histogram.Buckets> implements Timi
         accumulator += buckets[i].sum();
         cummulativeBuckets[i] = accumulator;
       }
+      return sumSnapshot;
+    }
+  }
 
-      return new BucketValues(sumSnapshot, cummulativeBuckets, bucketBounds);
+  /**
+   * Buckets that are only updated by a single thread, see {@link HistogramBuilder#withSingleWriter()}. The counts and
+   * the sum are plain values that the writer publishes with {@code lazySet}, rather than adders
+   */
+  static class SingleWriterBuckets extends AbstractBuckets {
+
+    private static final AtomicLongFieldUpdater<SingleWriterBuckets> SUM_BITS = AtomicLongFieldUpdater.newUpdater(SingleWriterBuckets.class, "sumBits");
+
+    private final AtomicLongArray counts;
+    private final WriterAssertion writer = WriterAssertion.create();
+    private volatile long sumBits;
+
+    SingleWriterBuckets(final double... bucketBounds) {
+      super(bucketBounds);
+      this.counts = new AtomicLongArray(this.bucketBounds.length);
+    }
+
+    @Override
+    void add(final double value) {
+      assert writer.isOnlyWriter();
+      super.add(value);
+    }
+
+    @Override
+    void addWithExpectedInterval(final double value, final double expectedInterval) {
+      assert writer.isOnlyWriter();
+      super.addWithExpectedInterval(value, expectedInterval);
+    }
+
+    @Override
+    void addToBucket(final int bucket, final long count) {
+      counts.lazySet(bucket, counts.get(bucket) + count);
+    }
+
+    @Override
+    void addToSum(final double value) {
+      SUM_BITS.lazySet(this, Double.doubleToRawLongBits(Double.longBitsToDouble(sumBits) + value));
+    }
+
+    @Override
+    double copyValuesTo(final long[] cummulativeBuckets) {
+      final double sumSnapshot = Double.longBitsToDouble(sumBits);
+      long accumulator = 0;
+      for (int i = 0; i < bucketBounds.length; i++) {
+        accumulator += counts.get(i);
+        cummulativeBuckets[i] = accumulator;
+      }
+      return sumSnapshot;
+    }
+
+    @Override
+    long estimateBytes() {
+      return MemoryEstimates.align(MemoryEstimates.OBJECT_HEADER + 3 * MemoryEstimates.REFERENCE + 3 * 8) +
+             MemoryEstimates.ofDoubleArray(bucketBounds.length) +
+             MemoryEstimates.align(MemoryEstimates.OBJECT_HEADER + MemoryEstimates.REFERENCE) +
+             MemoryEstimates.ofLongArray(bucketBounds.length);
+    }
+  }
+
+  /**
+   * Buckets that also keep an exemplar per bucket. Only histograms that were built with exemplars use this class, so
+   * the plain {@link #add(double)} path is not affected by exemplar support.
+   */
+  static class ExemplarBuckets extends Buckets {
+
+    private final ExemplarSlots exemplars;
+
+    ExemplarBuckets(final ExemplarSampler sampler, final double... bucketBounds) {
+      super(bucketBounds);
+      this.exemplars = new ExemplarSlots(sampler, this.bucketBounds.length);
+    }
+
+    @Override
+    void addWithExemplar(final double value, final Map<String, String> exemplarLabels) {
+      final int bucket = bucketIndex(value);
+      if (bucket >= 0) {
+        addToBucket(bucket, 1);
+        exemplars.offer(bucket, value, exemplarLabels);
+      }
+      addToSum(value);
+      if (value >= smallestCorrectedValue) {
+        addMissing(value, expectedInterval);
+      }
+    }
+
+    @Override
+    long estimateBytes() {
+      return super.estimateBytes() + MemoryEstimates.REFERENCE + MemoryEstimates.ofExemplarSlots(exemplars.size());
+    }
+
+    @Override
+    BucketValues getValues() {
+      final BucketValues values = super.getValues();
+      final Exemplar[] exemplarsSnapshot = new Exemplar[exemplars.size()];
+      for (int i = 0; i < exemplarsSnapshot.length; i++) {
+        exemplarsSnapshot[i] = exemplars.get(i);
+      }
+      return new BucketValues(values.sum, values.buckets, bucketBounds, exemplarsSnapshot);
     }
   }
 
@@ -157,13 +546,22 @@ public class Histogram extends AbstractMetric<Histogram.Buckets> implements Timi
     private final double sum;
     private final long[] buckets;
     private final double[] bucketBounds;
+    private final Exemplar[] exemplars;
 
     BucketValues(final double sum,
                  final long[] buckets,
                  final double[] bucketBounds) {
+      this(sum, buckets, bucketBounds, null);
+    }
+
+    BucketValues(final double sum,
+                 final long[] buckets,
+                 final double[] bucketBounds,
+                 final Exemplar[] exemplars) {
       this.sum = sum;
       this.buckets = buckets;
       this.bucketBounds = bucketBounds;
+      this.exemplars = exemplars;
     }
 
     @Override
@@ -183,6 +581,11 @@ public class Histogram extends AbstractMetric<Histogram.Buckets> implements Timi
       }
     }
 
+    @Override
+    public Exemplar getExemplar(final int bucketIndex) {
+      return exemplars == null ? null : exemplars[bucketIndex];
+    }
+
     public long[] getBuckets() {
       return buckets;
     }
@@ -205,6 +608,10 @@ public class Histogram extends AbstractMetric<Histogram.Buckets> implements Timi
 
     private double[] buckets = new double[]{.005, .01, .025, .05, .075, .1, .25, .5, .75, 1, 2.5, 5, 7.5, 10};
     private Clock clock = DEFAULT_CLOCK;
+    private ExemplarSampler exemplarSampler;
+    private double expectedInterval;
+    private DeferredRecording deferredRecording;
+    private boolean singleWriter;
 
     public HistogramBuilder(final String name, final String help) {
       super(name, help);
@@ -215,6 +622,7 @@ public class Histogram extends AbstractMetric<Histogram.Buckets> implements Timi
       super.validateParams();
       //Validate buckets all contain finite Double values
       Arrays.stream(buckets).forEach(this::validateBucket);
+      Validate.isTrue(!singleWriter || exemplarSampler == null, "A single writer histogram cannot keep exemplars");
     }
 
     private void validateBucket(final double bucket) {
@@ -261,14 +669,78 @@ public class Histogram extends AbstractMetric<Histogram.Buckets> implements Timi
       return withBuckets(DoubleStream.iterate(start, d -> d + width).limit(count).toArray());
     }
 
+    /**
+     * The clock that timers and the timing helpers measure intervals with, defaults to {@link Clock#DEFAULT_CLOCK}.
+     * A shared {@link com.outbrain.swinfra.metrics.timing.CoarseClock} is cheaper to read, at the cost of resolution
+     */
     public HistogramBuilder withClock(final Clock clock) {
       this.clock = clock;
       return this;
     }
 
+    /**
+     * Keeps an exemplar for each bucket, replaced at most once in {@link ExemplarSampler#DEFAULT_MIN_INTERVAL_MILLIS}
+     */
+    public HistogramBuilder withExemplars() {
+      return withExemplars(ExemplarSampler.rateLimited(ExemplarSampler.DEFAULT_MIN_INTERVAL_MILLIS));
+    }
+
+    /**
+     * Keeps an exemplar for each bucket, replaced according to the given sampler.
+     * Histograms that are built without exemplars pay nothing for this feature.
+     */
+    public HistogramBuilder withExemplars(final ExemplarSampler exemplarSampler) {
+      this.exemplarSampler = requireNonNull(exemplarSampler, "exemplarSampler may not be null");
+      return this;
+    }
+
+    /**
+     * Corrects every observation of the histogram for coordinated omission, see
+     * {@link Histogram#observeWithExpectedInterval(double, double, String...)}. This includes the intervals recorded by timers
+     * and the timing helpers, in which case the expected interval is in the ticks of the histogram's clock
+     *
+     * @param expectedInterval the expected interval between observations, in the units of the observed values
+     */
+    public HistogramBuilder withExpectedInterval(final double expectedInterval) {
+      Validate.isTrue(expectedInterval > 0 && Double.isFinite(expectedInterval), "The expected interval must be positive");
+      this.expectedInterval = expectedInterval;
+      return this;
+    }
+
+    /**
+     * Keeps the observations of the bound children ({@link Histogram#bind(String...)}) in buffers of the observing
+     * threads, and assigns them to their buckets in batches, see {@link RecordingBatcher}. The histogram is flushed
+     * before it is exported
+     */
+    public HistogramBuilder withBatching(final RecordingBatcher batcher) {
+      this.deferredRecording = requireNonNull(batcher, "batcher may not be null");
+      return this;
+    }
+
+    /**
+     * Publishes the observations of the bound children ({@link Histogram#bind(String...)}) to the given recorder, whose
+     * thread applies them to the histogram, see {@link AsyncRecorder}. Replaces {@link #withBatching(RecordingBatcher)}
+     */
+    public HistogramBuilder withAsyncRecording(final AsyncRecorder recorder) {
+      this.deferredRecording = requireNonNull(recorder, "recorder may not be null");
+      return this;
+    }
+
+    /**
+     * Keeps the bucket counts and the sum of every child in plain fields that are published with {@code lazySet}, rather
+     * than in adders, for histograms whose children are each only updated by a single thread - i.e. an event loop, or the
+     * aggregator of an {@link AsyncRecorder} when the histogram is only updated through bound children. An update then
+     * costs plain memory writes. When assertions are enabled, a child that is updated by a second thread throws an
+     * {@link AssertionError}; otherwise concurrent updates may be lost
+     */
+    public HistogramBuilder withSingleWriter() {
+      this.singleWriter = true;
+      return this;
+    }
+
     @Override
     protected Histogram create(final String fullName, final String help, final String[] labelNames) {
-      return new Histogram(fullName, help, labelNames, buckets, clock);
+      return new Histogram(fullName, help, labelNames, buckets, clock, exemplarSampler, expectedInterval, deferredRecording, singleWriter);
     }
 
   }
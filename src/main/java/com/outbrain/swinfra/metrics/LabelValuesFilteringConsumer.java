@@ -0,0 +1,68 @@
+package com.outbrain.swinfra.metrics;
+
+import com.outbrain.swinfra.metrics.data.CreatedTimestampConsumer;
+import com.outbrain.swinfra.metrics.data.ExemplarConsumer;
+import com.outbrain.swinfra.metrics.data.HistogramData;
+import com.outbrain.swinfra.metrics.data.MetricDataConsumer;
+import com.outbrain.swinfra.metrics.data.SummaryData;
+import com.outbrain.swinfra.metrics.exemplars.Exemplar;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Passes on to the wrapped consumer only the data of children whose label values are accepted by a filter.
+ * This is used for {@link Metric} implementations that cannot filter their children before reading them.
+ */
+class LabelValuesFilteringConsumer implements MetricDataConsumer, CreatedTimestampConsumer, ExemplarConsumer {
+
+  private final MetricDataConsumer consumer;
+  private final Predicate<List<String>> labelValuesFilter;
+
+  LabelValuesFilteringConsumer(final MetricDataConsumer consumer, final Predicate<List<String>> labelValuesFilter) {
+    this.consumer = consumer;
+    this.labelValuesFilter = labelValuesFilter;
+  }
+
+  @Override
+  public void consumeCreated(final Metric metric, final List<String> labelValues, final long createdTimeMillis) {
+    if (consumer instanceof CreatedTimestampConsumer && labelValuesFilter.test(labelValues)) {
+      ((CreatedTimestampConsumer) consumer).consumeCreated(metric, labelValues, createdTimeMillis);
+    }
+  }
+
+  @Override
+  public void consumeExemplar(final Metric metric, final List<String> labelValues, final Exemplar exemplar) {
+    if (consumer instanceof ExemplarConsumer && labelValuesFilter.test(labelValues)) {
+      ((ExemplarConsumer) consumer).consumeExemplar(metric, labelValues, exemplar);
+    }
+  }
+
+  @Override
+  public void consumeCounter(final Metric metric, final List<String> labelValues, final double value) {
+    if (labelValuesFilter.test(labelValues)) {
+      consumer.consumeCounter(metric, labelValues, value);
+    }
+  }
+
+  @Override
+  public void consumeGauge(final Metric metric, final List<String> labelValues, final double value) {
+    if (labelValuesFilter.test(labelValues)) {
+      consumer.consumeGauge(metric, labelValues, value);
+    }
+  }
+
+  @Override
+  public void consumeSummary(final Metric metric, final List<String> labelValues, final SummaryData data) {
+    if (labelValuesFilter.test(labelValues)) {
+      consumer.consumeSummary(metric, labelValues, data);
+    }
+  }
+
+  @Override
+  public void consumeHistogram(final Metric metric, final List<String> labelValues, final HistogramData data) {
+    if (labelValuesFilter.test(labelValues)) {
+      consumer.consumeHistogram(metric, labelValues, data);
+    }
+  }
+}
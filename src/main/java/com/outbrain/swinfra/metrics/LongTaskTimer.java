@@ -0,0 +1,449 @@
+package com.outbrain.swinfra.metrics;
+
+import com.outbrain.swinfra.metrics.data.HistogramBucketsConsumer;
+import com.outbrain.swinfra.metrics.data.HistogramData;
+import com.outbrain.swinfra.metrics.data.MetricDataConsumer;
+import com.outbrain.swinfra.metrics.timing.Clock;
+import com.outbrain.swinfra.metrics.utils.MetricType;
+import org.apache.commons.lang3.Validate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.ToDoubleFunction;
+
+import static com.outbrain.swinfra.metrics.timing.Clock.DEFAULT_CLOCK;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Tracks tasks while they are running, so a task that is stuck shows up long before it completes (if it ever does).
+ * A {@link com.outbrain.swinfra.metrics.timing.Timer} only reports a task once it is done.
+ * <p>
+ * Every running task takes a slot in a fixed set of slots, which is split into stripes so that threads mostly take
+ * slots from different stripes. Each stripe keeps its free slots in a lock-free stack, so starting and stopping a task
+ * is O(1) and allocates nothing - the slot of a stopped task is recycled by the next task that starts. The id that
+ * {@link #start()} returns includes a generation of its slot, so stopping a task twice does not stop the task that took
+ * its slot. Tasks that start when all the slots are taken are not tracked, and are counted as overflows.
+ * </p>
+ * <p>
+ * The metrics are computed when they are exported, by reading all the slots:
+ * </p>
+ * <ul>
+ * <li>{@code <name>_active_tasks} - the number of running tasks</li>
+ * <li>{@code <name>_active_seconds} - the total time the running tasks have been running</li>
+ * <li>{@code <name>_active_max_seconds} - the time the longest running task has been running</li>
+ * <li>{@code <name>_active_duration_seconds} - a histogram of the times the running tasks have been running, only with
+ * {@link LongTaskTimerBuilder#withBuckets(double...)}</li>
+ * <li>{@code <name>_overflows_total} - the number of tasks that were not tracked</li>
+ * </ul>
+ * <pre>
+ * final LongTaskTimer inFlight = new LongTaskTimer.LongTaskTimerBuilder("requests", "Requests being handled").build();
+ * inFlight.registerMetricsTo(registry);
+ *
+ * final long task = inFlight.start();
+ * try {
+ *   handle(request);
+ * } finally {
+ *   inFlight.stop(task);
+ * }
+ * </pre>
+ */
+public class LongTaskTimer {
+
+  /**
+   * The id of a task that was not tracked, stopping it does nothing
+   */
+  public static final long UNTRACKED = -1;
+
+  public static final int DEFAULT_MAX_ACTIVE_TASKS = 4096;
+
+  private static final double SECONDS_PER_NANO = 1.0 / TimeUnit.SECONDS.toNanos(1);
+  private static final long FREE = Long.MIN_VALUE;
+  private static final int EMPTY = -1;
+  private static final long INDEX_MASK = 0xFFFFFFFFL;
+
+  private final String name;
+  private final String help;
+  private final Clock clock;
+  private final double[] buckets;
+  private final int slotsPerStripe;
+  private final int stripeMask;
+  private final AtomicLongArray startTimes;
+  private final AtomicIntegerArray generations;
+  /**
+   * The free slot stacks link their slots through this array
+   */
+  private final AtomicIntegerArray nextFree;
+  /**
+   * The top of the free slot stack of every stripe, with a tag in the high bits that changes on every push and pop,
+   * so a thread that was preempted during a pop cannot corrupt the stack
+   */
+  private final AtomicLongArray freeTops;
+  private final Counter overflows;
+
+  private LongTaskTimer(final LongTaskTimerBuilder builder) {
+    this.name = builder.name;
+    this.help = builder.help;
+    this.clock = builder.clock;
+    this.buckets = builder.buckets;
+    // Both are powers of 2, so the stripes can be picked with a mask
+    final int stripes = Math.min(builder.stripes, Integer.highestOneBit(builder.maxActiveTasks));
+    this.stripeMask = stripes - 1;
+    this.slotsPerStripe = (builder.maxActiveTasks + stripes - 1) / stripes;
+    final int slots = stripes * slotsPerStripe;
+    final long[] freeStartTimes = new long[slots];
+    Arrays.fill(freeStartTimes, FREE);
+    this.startTimes = new AtomicLongArray(freeStartTimes);
+    this.generations = new AtomicIntegerArray(slots);
+    this.nextFree = new AtomicIntegerArray(slots);
+    this.freeTops = new AtomicLongArray(stripes);
+    for (int stripe = 0; stripe < stripes; stripe++) {
+      final int first = stripe * slotsPerStripe;
+      for (int slot = first; slot < first + slotsPerStripe - 1; slot++) {
+        nextFree.set(slot, slot + 1);
+      }
+      nextFree.set(first + slotsPerStripe - 1, EMPTY);
+      freeTops.set(stripe, first);
+    }
+    this.overflows = new Counter.CounterBuilder(name + "_overflows_total",
+                                                "The number of tasks that were not tracked because all the slots were taken")
+        .build();
+  }
+
+  /**
+   * Starts tracking a task
+   *
+   * @return the id of the task, to stop it with, or {@link #UNTRACKED} if all the slots were taken
+   */
+  public long start() {
+    final int firstStripe = (int) Thread.currentThread().getId() & stripeMask;
+    for (int i = 0; i <= stripeMask; i++) {
+      final int slot = pop((firstStripe + i) & stripeMask);
+      if (slot != EMPTY) {
+        startTimes.lazySet(slot, now());
+        return (long) generations.get(slot) << 32 | slot;
+      }
+    }
+    overflows.inc();
+    return UNTRACKED;
+  }
+
+  /**
+   * Stops tracking a task
+   *
+   * @return the time the task ran in nanoseconds, or -1 if the task is not tracked - it was stopped already, or was
+   * never tracked
+   */
+  public long stop(final long taskId) {
+    if (taskId == UNTRACKED) {
+      return -1;
+    }
+    final int slot = (int) (taskId & INDEX_MASK);
+    final int generation = (int) (taskId >>> 32);
+    if (slot < 0 || slot >= startTimes.length() || !generations.compareAndSet(slot, generation, generation + 1)) {
+      return -1;
+    }
+    final long duration = now() - startTimes.get(slot);
+    startTimes.set(slot, FREE);
+    push(slot / slotsPerStripe, slot);
+    return duration;
+  }
+
+  public int getActiveTasks() {
+    int active = 0;
+    for (int slot = 0; slot < startTimes.length(); slot++) {
+      if (startTimes.get(slot) != FREE) {
+        active++;
+      }
+    }
+    return active;
+  }
+
+  /**
+   * @return the total time the running tasks have been running in nanoseconds
+   */
+  public long getActiveNanos() {
+    final long now = now();
+    long total = 0;
+    for (int slot = 0; slot < startTimes.length(); slot++) {
+      final long start = startTimes.get(slot);
+      if (start != FREE) {
+        total += Math.max(0, now - start);
+      }
+    }
+    return total;
+  }
+
+  /**
+   * @return the time the longest running task has been running in nanoseconds, 0 if no task is running
+   */
+  public long getMaxActiveNanos() {
+    final long now = now();
+    long max = 0;
+    for (int slot = 0; slot < startTimes.length(); slot++) {
+      final long start = startTimes.get(slot);
+      if (start != FREE) {
+        max = Math.max(max, now - start);
+      }
+    }
+    return max;
+  }
+
+  /**
+   * @return the number of tasks that could be tracked at once
+   */
+  public int getMaxActiveTasks() {
+    return startTimes.length();
+  }
+
+  public void registerMetricsTo(final MetricRegistry registry) {
+    registry.getOrRegister(new ActiveGauge(name + "_active_tasks", help + " - running tasks",
+                                           timer -> timer.getActiveTasks()));
+    registry.getOrRegister(new ActiveGauge(name + "_active_seconds", help + " - total time of the running tasks in seconds",
+                                           timer -> timer.getActiveNanos() * SECONDS_PER_NANO));
+    registry.getOrRegister(new ActiveGauge(name + "_active_max_seconds", help + " - time of the longest running task in seconds",
+                                           timer -> timer.getMaxActiveNanos() * SECONDS_PER_NANO));
+    if (buckets != null) {
+      registry.getOrRegister(new ActiveHistogram(name + "_active_duration_seconds",
+                                                 help + " - times of the running tasks in seconds"));
+    }
+    registry.getOrRegister(overflows);
+  }
+
+  ActiveDurations activeDurations() {
+    final long now = now();
+    final long[] counts = new long[buckets.length + 1];
+    double sum = 0;
+    for (int slot = 0; slot < startTimes.length(); slot++) {
+      final long start = startTimes.get(slot);
+      if (start != FREE) {
+        final double seconds = Math.max(0, now - start) * SECONDS_PER_NANO;
+        sum += seconds;
+        int bucket = 0;
+        while (bucket < buckets.length && seconds > buckets[bucket]) {
+          bucket++;
+        }
+        // Cumulative, like the buckets of a histogram
+        for (int i = bucket; i < counts.length; i++) {
+          counts[i]++;
+        }
+      }
+    }
+    return new ActiveDurations(sum, counts, buckets);
+  }
+
+  private int pop(final int stripe) {
+    while (true) {
+      final long top = freeTops.get(stripe);
+      final int slot = (int) top;
+      if (slot == EMPTY) {
+        return EMPTY;
+      }
+      final long newTop = nextTag(top) | (nextFree.get(slot) & INDEX_MASK);
+      if (freeTops.compareAndSet(stripe, top, newTop)) {
+        return slot;
+      }
+    }
+  }
+
+  private void push(final int stripe, final int slot) {
+    while (true) {
+      final long top = freeTops.get(stripe);
+      nextFree.set(slot, (int) top);
+      if (freeTops.compareAndSet(stripe, top, nextTag(top) | slot)) {
+        return;
+      }
+    }
+  }
+
+  private static long nextTag(final long top) {
+    return ((top >>> 32) + 1) << 32;
+  }
+
+  private long now() {
+    return clock.getTick(TimeUnit.NANOSECONDS);
+  }
+
+  private class ActiveGauge implements Metric {
+
+    private final String gaugeName;
+    private final String gaugeHelp;
+    private final ToDoubleFunction<LongTaskTimer> value;
+
+    private ActiveGauge(final String gaugeName, final String gaugeHelp, final ToDoubleFunction<LongTaskTimer> value) {
+      this.gaugeName = gaugeName;
+      this.gaugeHelp = gaugeHelp;
+      this.value = value;
+    }
+
+    @Override
+    public MetricType getType() {
+      return MetricType.GAUGE;
+    }
+
+    @Override
+    public String getName() {
+      return gaugeName;
+    }
+
+    @Override
+    public String getHelp() {
+      return gaugeHelp;
+    }
+
+    @Override
+    public List<String> getLabelNames() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public void forEachMetricData(final MetricDataConsumer consumer) {
+      consumer.consumeGauge(this, Collections.emptyList(), value.applyAsDouble(LongTaskTimer.this));
+    }
+
+    @Override
+    public int getChildCount() {
+      return 1;
+    }
+  }
+
+  private class ActiveHistogram implements Metric {
+
+    private final String histogramName;
+    private final String histogramHelp;
+
+    private ActiveHistogram(final String histogramName, final String histogramHelp) {
+      this.histogramName = histogramName;
+      this.histogramHelp = histogramHelp;
+    }
+
+    @Override
+    public MetricType getType() {
+      return MetricType.HISTOGRAM;
+    }
+
+    @Override
+    public String getName() {
+      return histogramName;
+    }
+
+    @Override
+    public String getHelp() {
+      return histogramHelp;
+    }
+
+    @Override
+    public List<String> getLabelNames() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public void forEachMetricData(final MetricDataConsumer consumer) {
+      consumer.consumeHistogram(this, Collections.emptyList(), activeDurations());
+    }
+
+    @Override
+    public int getChildCount() {
+      return 1;
+    }
+  }
+
+  static class ActiveDurations implements HistogramData {
+
+    private final double sum;
+    private final long[] counts;
+    private final double[] bounds;
+
+    private ActiveDurations(final double sum, final long[] counts, final double[] bounds) {
+      this.sum = sum;
+      this.counts = counts;
+      this.bounds = bounds;
+    }
+
+    @Override
+    public long getCount() {
+      return counts[counts.length - 1];
+    }
+
+    @Override
+    public double getSum() {
+      return sum;
+    }
+
+    @Override
+    public void consumeBuckets(final HistogramBucketsConsumer consumer) {
+      for (int i = 0; i < counts.length; i++) {
+        consumer.apply(i < bounds.length ? bounds[i] : Double.POSITIVE_INFINITY, counts[i]);
+      }
+    }
+
+    long[] getCounts() {
+      return counts;
+    }
+  }
+
+  public static class LongTaskTimerBuilder {
+
+    private final String name;
+    private final String help;
+    private Clock clock = DEFAULT_CLOCK;
+    private double[] buckets;
+    private int maxActiveTasks = DEFAULT_MAX_ACTIVE_TASKS;
+    private int stripes = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+
+    /**
+     * @param name the prefix of the names of the metrics of the timer
+     */
+    public LongTaskTimerBuilder(final String name, final String help) {
+      Validate.notBlank(name, "The metric's name must contain text");
+      Validate.notBlank(help, "The metric's help must contain text");
+      this.name = name;
+      this.help = help;
+    }
+
+    public LongTaskTimerBuilder withClock(final Clock clock) {
+      this.clock = requireNonNull(clock, "clock may not be null");
+      return this;
+    }
+
+    /**
+     * Adds a histogram of the times the running tasks have been running, with the given buckets in seconds
+     */
+    public LongTaskTimerBuilder withBuckets(final double... buckets) {
+      Validate.isTrue(buckets.length > 0, "The buckets may not be empty");
+      final double[] sorted = buckets.clone();
+      Arrays.sort(sorted);
+      Validate.isTrue(Double.isFinite(sorted[0]) && Double.isFinite(sorted[sorted.length - 1]), "The buckets must be finite");
+      this.buckets = sorted;
+      return this;
+    }
+
+    /**
+     * The number of tasks that can be tracked at once, defaults to {@link #DEFAULT_MAX_ACTIVE_TASKS}. The slots of all
+     * of them are allocated when the timer is built
+     */
+    public LongTaskTimerBuilder withMaxActiveTasks(final int maxActiveTasks) {
+      Validate.isTrue(maxActiveTasks > 0, "The maximal number of active tasks must be positive");
+      this.maxActiveTasks = maxActiveTasks;
+      return this;
+    }
+
+    /**
+     * The number of stripes the slots are split into, rounded up to a power of 2. Defaults to twice the number of
+     * processors
+     */
+    public LongTaskTimerBuilder withStripes(final int stripes) {
+      Validate.inclusiveBetween(1, 1 << 16, stripes, "The number of stripes must be between 1 and 65536");
+      this.stripes = stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+      return this;
+    }
+
+    public LongTaskTimer build() {
+      return new LongTaskTimer(this);
+    }
+  }
+}
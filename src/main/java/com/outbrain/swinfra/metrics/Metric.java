@@ -4,8 +4,15 @@ import com.outbrain.swinfra.metrics.data.MetricDataConsumer;
 import com.outbrain.swinfra.metrics.utils.MetricType;
 
 import java.util.List;
+import java.util.function.Predicate;
 
 public interface Metric {
+
+  /**
+   * A label values filter that accepts all the children of a metric
+   */
+  Predicate<List<String>> ALL_LABEL_VALUES = labelValues -> true;
+
   MetricType getType();
 
   String getName();
@@ -14,5 +21,46 @@ public interface Metric {
 
   List<String> getLabelNames();
 
+  /**
+   * The unit of this metric's values (i.e. <i>seconds</i> or <i>bytes</i>), or an empty string if no unit was declared
+   */
+  default String getUnit() {
+    return "";
+  }
+
   void forEachMetricData(MetricDataConsumer consumer);
+
+  /**
+   * The number of children (label value combinations) this metric currently has. The metrics of this library know it
+   * without reading their children, this default implementation is for other metrics and reads all of them.
+   */
+  default int getChildCount() {
+    final ChildCountingConsumer counter = new ChildCountingConsumer();
+    forEachMetricData(counter);
+    return counter.getCount();
+  }
+
+  /**
+   * The approximate retained size of this metric's children, including their label values, or 0 if it is unknown.
+   * The metrics of this library estimate their adders, bucket arrays and reservoirs (see
+   * {@link com.outbrain.swinfra.metrics.utils.MemoryEstimates}).
+   */
+  default long getEstimatedBytes() {
+    return 0;
+  }
+
+  /**
+   * Consumes only the children whose label values are accepted by the given filter.
+   * <p>
+   * The metrics of this library test the label values before taking a child's snapshot, so rejected children cost
+   * nothing but the test. This default implementation is for other metrics, and filters the consumed data instead.
+   * </p>
+   */
+  default void forEachMetricData(final MetricDataConsumer consumer, final Predicate<List<String>> labelValuesFilter) {
+    if (labelValuesFilter == ALL_LABEL_VALUES) {
+      forEachMetricData(consumer);
+    } else {
+      forEachMetricData(new LabelValuesFilteringConsumer(consumer, labelValuesFilter));
+    }
+  }
 }
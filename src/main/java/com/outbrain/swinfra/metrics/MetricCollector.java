@@ -27,6 +27,20 @@ public class MetricCollector implements Iterable<Metric> {
     return staticLabels;
   }
 
+  /**
+   * @return the metric with the given name, or null if there is no such metric
+   */
+  public Metric getMetric(final String name) {
+    return metricRegistry.get(name);
+  }
+
+  /**
+   * @return the metrics whose names start with the given prefix, in name order
+   */
+  public Iterable<Metric> metricsWithPrefix(final String prefix) {
+    return metricRegistry.allWithPrefix(prefix);
+  }
+
   @Override
   public Iterator<Metric> iterator() {
     return metricRegistry.all().iterator();
@@ -1,17 +1,39 @@
 package com.outbrain.swinfra.metrics;
 
+import org.apache.commons.lang3.Validate;
+
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.util.Objects.requireNonNull;
 
 public class MetricRegistry {
 
-  private final ConcurrentMap<String, Metric> allMetrics = new ConcurrentHashMap<>(100);
-  private final Map<String, Metric> allMetricsView = Collections.unmodifiableMap(allMetrics);
+  /**
+   * The metrics are indexed by name, in name order, so exporting only some of them (by name or by prefix) does not
+   * visit the others
+   */
+  private final ConcurrentNavigableMap<String, Metric> allMetrics = new ConcurrentSkipListMap<>();
+  private final AtomicLong version = new AtomicLong();
+  private volatile SortedMetrics sortedMetrics = new SortedMetrics(0, Collections.emptyList());
+  private final SeriesBudget seriesBudget;
+
+  public MetricRegistry() {
+    this(null);
+  }
+
+  /**
+   * @param seriesBudget accounts for the children of the metrics that are registered in this registry and limits them,
+   *                     may be shared with other registries, or null for no limit
+   */
+  public MetricRegistry(final SeriesBudget seriesBudget) {
+    this.seriesBudget = seriesBudget;
+  }
 
   /**
    * Registers a metric in this registry if it doesn't already exist, and returns the existing metric if the same
@@ -34,7 +56,25 @@ public class MetricRegistry {
   public <T extends Metric> T getOrRegister(final Metric metric) {
     requireNonNull(metric, "metric may not be null");
     final Metric result = allMetrics.putIfAbsent(metric.getName(), metric);
-    return (T) (result == null ? metric : result);
+    if (result == null) {
+      version.incrementAndGet();
+      if (seriesBudget != null && metric instanceof AbstractMetric) {
+        ((AbstractMetric<?>) metric).attachBudget(seriesBudget);
+      }
+      return (T) metric;
+    }
+    return (T) result;
+  }
+
+  /**
+   * Registers a metric that may not be replaced by another metric with the same name, for components that register
+   * the metrics they update themselves. Registering the same metric again does nothing.
+   *
+   * @throws IllegalArgumentException if a different metric with the same name was already registered
+   */
+  public void register(final Metric metric) {
+    final Metric registered = getOrRegister(metric);
+    Validate.isTrue(registered == metric, "A different metric named %s is already registered", metric.getName());
   }
 
   /**
@@ -44,11 +84,51 @@ public class MetricRegistry {
    * @return true if and only if the given metric existed in the registry prior to removal
    */
   public boolean deregister(final Metric metric) {
-    return allMetrics.remove(metric.getName(), metric);
+    final boolean removed = allMetrics.remove(metric.getName(), metric);
+    if (removed) {
+      version.incrementAndGet();
+      if (seriesBudget != null && metric instanceof AbstractMetric) {
+        ((AbstractMetric<?>) metric).detachBudget(seriesBudget);
+      }
+    }
+    return removed;
   }
 
+  /**
+   * All the metrics, sorted by name. The sorted list is cached until a metric is registered or deregistered, so
+   * exports iterate over a plain list rather than the index
+   */
   Collection<Metric> all() {
-    return allMetricsView.values();
+    final long currentVersion = version.get();
+    final SortedMetrics cached = sortedMetrics;
+    if (cached.version == currentVersion) {
+      return cached.metrics;
+    }
+    // The version is incremented only after the index changed, so a list that misses a concurrent change is stale
+    final Collection<Metric> metrics = Collections.unmodifiableCollection(new ArrayList<>(allMetrics.values()));
+    sortedMetrics = new SortedMetrics(currentVersion, metrics);
+    return metrics;
+  }
+
+  private static class SortedMetrics {
+    private final long version;
+    private final Collection<Metric> metrics;
+
+    private SortedMetrics(final long version, final Collection<Metric> metrics) {
+      this.version = version;
+      this.metrics = metrics;
+    }
+  }
+
+  Metric get(final String name) {
+    return allMetrics.get(name);
+  }
+
+  /**
+   * The metrics whose names start with the given prefix, in name order
+   */
+  Collection<Metric> allWithPrefix(final String prefix) {
+    return Collections.unmodifiableCollection(allMetrics.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values());
   }
 
 }
@@ -0,0 +1,298 @@
+package com.outbrain.swinfra.metrics;
+
+import com.outbrain.swinfra.metrics.timing.Clock;
+import org.apache.commons.lang3.Validate;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Batches the updates of the bound children of counters and histograms that were built with it
+ * ({@link Counter.CounterBuilder#withBatching(RecordingBatcher)}, {@link Histogram.HistogramBuilder#withBatching(RecordingBatcher)}),
+ * for children that are updated millions of times a second, where even an uncontended {@link LongAdder} and the
+ * search for a bucket cost too much.
+ * <p>
+ * Every thread that updates a bound child gets a buffer of its own, which it updates with plain writes. A buffer is
+ * flushed into the shared child when it holds {@link RecordingBatcherBuilder#withBatchSize(int) a batch} of updates, by
+ * a daemon thread at least once in {@link RecordingBatcherBuilder#withMaxDelay(long, TimeUnit) the maximal delay}, and
+ * before the metric is exported or read. The exported values are therefore at most the maximal delay behind. Flushing a
+ * buffer and updating it may run at the same time, an update is flushed either by this flush or by the next one, so
+ * no update is lost. The buffers of threads that terminated are flushed once more and dropped, so thread pools that
+ * replace their threads do not leak buffers.
+ * </p>
+ * <p>
+ * Only the updates of bound children ({@code bind(...)}) are batched, as the buffer of a thread is found through the
+ * child. Updates by label values are recorded directly. Bind a child once and keep it - every bound child has buffers
+ * of its own.
+ * </p>
+ * <pre>
+ * final RecordingBatcher batcher = new RecordingBatcher.RecordingBatcherBuilder().build();
+ * final Counter.Child events = new Counter.CounterBuilder("events_total", "Events").withBatching(batcher).build().bind();
+ * </pre>
+ */
+public class RecordingBatcher extends DeferredRecording implements AutoCloseable {
+
+  public static final int DEFAULT_BATCH_SIZE = 1024;
+  public static final long DEFAULT_MAX_DELAY_MILLIS = 1000;
+
+  private final int batchSize;
+  private final long maxDelayNanos;
+  private final ConcurrentLinkedQueue<Buffer> buffers = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean started = new AtomicBoolean();
+  private final Thread flusher;
+  private volatile boolean closed;
+
+  private RecordingBatcher(final RecordingBatcherBuilder builder) {
+    this.batchSize = builder.batchSize;
+    this.maxDelayNanos = builder.maxDelayNanos;
+    this.flusher = new Thread(this::flushPeriodically, "metrics-batch-flusher");
+    flusher.setDaemon(true);
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  public long getMaxDelayNanos() {
+    return maxDelayNanos;
+  }
+
+  /**
+   * @return the number of thread buffers, including those of threads that terminated since the last flush
+   */
+  public int getBufferCount() {
+    return buffers.size();
+  }
+
+  /**
+   * Flushes the buffers of all the threads into their children, and drops the buffers of threads that terminated
+   */
+  @Override
+  public void flush() {
+    for (final Iterator<Buffer> iterator = buffers.iterator(); iterator.hasNext(); ) {
+      final Buffer buffer = iterator.next();
+      // Checked before flushing, so the last updates of a thread that terminated are flushed before its buffer is dropped
+      final boolean terminated = !buffer.owner.isAlive();
+      buffer.flush();
+      if (terminated) {
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Stops the flushing thread and flushes all the buffers. Updates that are made after the batcher is closed are
+   * still flushed when a buffer fills up and when the metric is exported
+   */
+  @Override
+  public void close() {
+    closed = true;
+    LockSupport.unpark(flusher);
+    flush();
+  }
+
+  @Override
+  Counter.Child counterChild(final LongAdder child) {
+    return new BatchedCounterChild(child, this);
+  }
+
+  @Override
+  Histogram.Child histogramChild(final Histogram.AbstractBuckets child, final Clock clock) {
+    return new BatchedHistogramChild(child, clock, this);
+  }
+
+  <B extends Buffer> B register(final B buffer) {
+    buffers.add(buffer);
+    if (!closed && started.compareAndSet(false, true)) {
+      flusher.start();
+    }
+    return buffer;
+  }
+
+  private void flushPeriodically() {
+    while (!closed) {
+      LockSupport.parkNanos(maxDelayNanos);
+      flush();
+    }
+  }
+
+  /**
+   * A counter child whose increments are counted in a buffer of the incrementing thread
+   */
+  private static class BatchedCounterChild extends Counter.Child {
+
+    private final RecordingBatcher batcher;
+    private final ThreadLocal<CounterBuffer> buffers;
+
+    private BatchedCounterChild(final LongAdder child, final RecordingBatcher batcher) {
+      super(child);
+      this.batcher = batcher;
+      this.buffers = ThreadLocal.withInitial(() -> batcher.register(new CounterBuffer(child, batcher.batchSize)));
+    }
+
+    @Override
+    public void inc() {
+      buffers.get().add(1);
+    }
+
+    @Override
+    public void inc(final long n) {
+      buffers.get().add(n);
+    }
+
+    @Override
+    public long getValue() {
+      batcher.flush();
+      return super.getValue();
+    }
+  }
+
+  /**
+   * A histogram child whose observations are kept in a buffer of the observing thread
+   */
+  private static class BatchedHistogramChild extends Histogram.Child {
+
+    private final ThreadLocal<HistogramBuffer> buffers;
+
+    private BatchedHistogramChild(final Histogram.AbstractBuckets child, final Clock clock, final RecordingBatcher batcher) {
+      super(child, clock);
+      this.buffers = ThreadLocal.withInitial(() -> batcher.register(new HistogramBuffer(child, batcher.batchSize)));
+    }
+
+    @Override
+    public void observe(final double value) {
+      buffers.get().add(value);
+    }
+
+    @Override
+    public void recordTicks(final long ticks) {
+      buffers.get().add(ticks);
+    }
+  }
+
+  /**
+   * The updates of a single thread (the owner) to a single child. Only the owner updates the buffer, flushing is
+   * synchronized between the owner and the threads that flush all the buffers
+   */
+  abstract static class Buffer {
+
+    final Thread owner = Thread.currentThread();
+
+    abstract void flush();
+  }
+
+  /**
+   * Counts the increments of the owner. The count only grows, every flush adds what was counted since the previous one
+   */
+  static class CounterBuffer extends Buffer {
+
+    private static final AtomicLongFieldUpdater<CounterBuffer> COUNT = AtomicLongFieldUpdater.newUpdater(CounterBuffer.class, "count");
+
+    private final LongAdder child;
+    private final long batchSize;
+    private volatile long count;
+    private volatile long flushedCount;
+
+    CounterBuffer(final LongAdder child, final int batchSize) {
+      this.child = child;
+      this.batchSize = batchSize;
+    }
+
+    void add(final long n) {
+      final long updated = count + n;
+      COUNT.lazySet(this, updated);
+      if (updated - flushedCount >= batchSize) {
+        flush();
+      }
+    }
+
+    @Override
+    synchronized void flush() {
+      final long current = count;
+      if (current != flushedCount) {
+        child.add(current - flushedCount);
+        flushedCount = current;
+      }
+    }
+  }
+
+  /**
+   * Keeps the values the owner observed in a ring, so the owner does not even search for their buckets. A value is
+   * written before the written position is published, and the owner flushes the ring before it overwrites a value
+   * that was not flushed yet
+   */
+  static class HistogramBuffer extends Buffer {
+
+    private static final AtomicLongFieldUpdater<HistogramBuffer> WRITTEN = AtomicLongFieldUpdater.newUpdater(HistogramBuffer.class, "written");
+
+    private final Histogram.AbstractBuckets child;
+    private final double[] values;
+    private final int mask;
+    private volatile long written;
+    private volatile long flushed;
+
+    HistogramBuffer(final Histogram.AbstractBuckets child, final int batchSize) {
+      this.child = child;
+      // A power of two, so that positions are mapped to the ring with a mask
+      this.values = new double[ceilingPowerOfTwo(batchSize)];
+      this.mask = values.length - 1;
+    }
+
+    void add(final double value) {
+      final long position = written;
+      if (position - flushed == values.length) {
+        flush();
+      }
+      values[(int) position & mask] = value;
+      WRITTEN.lazySet(this, position + 1);
+    }
+
+    @Override
+    synchronized void flush() {
+      final long end = written;
+      for (long position = flushed; position < end; position++) {
+        child.add(values[(int) position & mask]);
+      }
+      flushed = end;
+    }
+
+    private static int ceilingPowerOfTwo(final int n) {
+      return n == 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+  }
+
+  public static class RecordingBatcherBuilder {
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_DELAY_MILLIS);
+
+    /**
+     * The number of updates a thread buffers before it flushes them itself, defaults to {@link RecordingBatcher#DEFAULT_BATCH_SIZE}.
+     * A histogram buffer keeps this many values (rounded up to a power of two)
+     */
+    public RecordingBatcherBuilder withBatchSize(final int batchSize) {
+      Validate.isTrue(batchSize > 0 && batchSize <= 1 << 20, "The batch size must be between 1 and 2^20");
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    /**
+     * The longest time an update may stay in a buffer before the flushing thread flushes it, defaults to
+     * {@link RecordingBatcher#DEFAULT_MAX_DELAY_MILLIS} milliseconds
+     */
+    public RecordingBatcherBuilder withMaxDelay(final long maxDelay, final TimeUnit unit) {
+      Validate.isTrue(maxDelay > 0, "The maximal delay must be positive");
+      this.maxDelayNanos = unit.toNanos(maxDelay);
+      return this;
+    }
+
+    public RecordingBatcher build() {
+      return new RecordingBatcher(this);
+    }
+  }
+}
@@ -0,0 +1,192 @@
+package com.outbrain.swinfra.metrics;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A limit on the number of series (children) and their approximate retained size, shared by all the
+ * {@link MetricRegistry registries} that were created with it - i.e. by all the tenants of a process.
+ * <p>
+ * The children that exist when a metric is registered are always accounted for. Once the budget is exhausted, a new
+ * child of a labeled metric is handled according to the {@link OverflowPolicy}, and deregistering a metric returns its
+ * children to the budget. The sizes are estimated when a child is created (see {@link Metric#getEstimatedBytes()}).
+ * </p>
+ * <p>
+ * A new child is admitted before it is created, while the budget has room for another series and is still below its
+ * maximal size, so the last admitted child may take the budget over its maximal size by its own size. Nothing is
+ * created or interned for a refused child, and each refused set of label values is counted once as an overflow.
+ * </p>
+ * <pre>
+ * final SeriesBudget budget = new SeriesBudget.SeriesBudgetBuilder()
+ *                                             .withMaxSeries(100_000)
+ *                                             .withMaxBytes(256 * 1024 * 1024)
+ *                                             .withOverflowPolicy(SeriesBudget.OverflowPolicy.FOLD)
+ *                                             .build();
+ * final MetricRegistry tenantRegistry = new MetricRegistry(budget);
+ * </pre>
+ */
+public class SeriesBudget {
+
+  public static final String DEFAULT_FOLDED_LABEL_VALUE = "other";
+
+  public enum OverflowPolicy {
+    /**
+     * A new child that does not fit is not kept, its updates are dropped
+     */
+    REFUSE,
+    /**
+     * A new child that does not fit is folded into a single child of its metric, whose label values are all the
+     * folded label value
+     */
+    FOLD
+  }
+
+  private final long maxSeries;
+  private final long maxBytes;
+  private final OverflowPolicy overflowPolicy;
+  private final String foldedLabelValue;
+  private final AtomicLong series = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+  private final Counter overflows;
+
+  private SeriesBudget(final SeriesBudgetBuilder builder) {
+    this.maxSeries = builder.maxSeries;
+    this.maxBytes = builder.maxBytes;
+    this.overflowPolicy = builder.overflowPolicy;
+    this.foldedLabelValue = builder.foldedLabelValue;
+    this.overflows = new Counter.CounterBuilder("metrics_budget_overflows_total",
+                                                "The number of new sets of label values that did not fit in the series budget")
+        .build();
+  }
+
+  public long getSeries() {
+    return series.get();
+  }
+
+  public long getBytes() {
+    return bytes.get();
+  }
+
+  public long getMaxSeries() {
+    return maxSeries;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  /**
+   * Registers the usage and limits of this budget, and the number of overflows, in the given registry
+   */
+  public void registerMetricsTo(final MetricRegistry registry) {
+    registry.getOrRegister(new Gauge.GaugeBuilder("metrics_budget_series", "The number of series in the series budget")
+                               .withValueSupplier(series::get)
+                               .build());
+    registry.getOrRegister(new Gauge.GaugeBuilder("metrics_budget_bytes", "The estimated size of the series in the series budget")
+                               .withValueSupplier(bytes::get)
+                               .build());
+    registry.getOrRegister(new Gauge.GaugeBuilder("metrics_budget_max_series", "The maximal number of series in the series budget")
+                               .withValueSupplier(() -> maxSeries)
+                               .build());
+    registry.getOrRegister(new Gauge.GaugeBuilder("metrics_budget_max_bytes", "The maximal size of the series in the series budget")
+                               .withValueSupplier(() -> maxBytes)
+                               .build());
+    registry.getOrRegister(overflows);
+  }
+
+  /**
+   * Reserves a series for a new child if the budget has room for it. The child is created only once it was admitted,
+   * and its size is accounted for afterwards with {@link #acquire}
+   */
+  boolean tryAcquire() {
+    // Read first, so a full budget is not updated by every refused child
+    if (bytes.get() >= maxBytes || series.get() >= maxSeries) {
+      return false;
+    }
+    if (series.incrementAndGet() > maxSeries) {
+      series.decrementAndGet();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Accounts for children that are kept regardless of the budget
+   */
+  void acquire(final long childCount, final long childBytes) {
+    series.addAndGet(childCount);
+    bytes.addAndGet(childBytes);
+  }
+
+  void release(final long childCount, final long childBytes) {
+    series.addAndGet(-childCount);
+    bytes.addAndGet(-childBytes);
+  }
+
+  /**
+   * @return the label value that children that do not fit are folded into, or null if they are refused
+   */
+  String getFoldedLabelValue() {
+    return overflowPolicy == OverflowPolicy.FOLD ? foldedLabelValue : null;
+  }
+
+  void overflow() {
+    // Not labeled, so counting an overflow never needs a new child of its own
+    overflows.inc();
+  }
+
+  public static class SeriesBudgetBuilder {
+
+    private long maxSeries = Long.MAX_VALUE;
+    private long maxBytes = Long.MAX_VALUE;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.REFUSE;
+    private String foldedLabelValue = DEFAULT_FOLDED_LABEL_VALUE;
+
+    /**
+     * The maximal number of children of all the metrics, unlimited by default
+     */
+    public SeriesBudgetBuilder withMaxSeries(final long maxSeries) {
+      Validate.isTrue(maxSeries > 0, "The maximal number of series must be positive");
+      this.maxSeries = maxSeries;
+      return this;
+    }
+
+    /**
+     * The maximal estimated size of the children of all the metrics, unlimited by default
+     */
+    public SeriesBudgetBuilder withMaxBytes(final long maxBytes) {
+      Validate.isTrue(maxBytes > 0, "The maximal number of bytes must be positive");
+      this.maxBytes = maxBytes;
+      return this;
+    }
+
+    /**
+     * What to do with a new child that does not fit, defaults to {@link OverflowPolicy#REFUSE}
+     */
+    public SeriesBudgetBuilder withOverflowPolicy(final OverflowPolicy overflowPolicy) {
+      this.overflowPolicy = requireNonNull(overflowPolicy, "overflowPolicy may not be null");
+      return this;
+    }
+
+    /**
+     * The label value of the child that children that do not fit are folded into, defaults to
+     * {@link #DEFAULT_FOLDED_LABEL_VALUE}
+     */
+    public SeriesBudgetBuilder withFoldedLabelValue(final String foldedLabelValue) {
+      Validate.notBlank(foldedLabelValue, "The folded label value must contain text");
+      this.foldedLabelValue = foldedLabelValue;
+      return this;
+    }
+
+    public SeriesBudget build() {
+      return new SeriesBudget(this);
+    }
+  }
+}
@@ -2,13 +2,17 @@ package com.outbrain.swinfra.metrics;
 
 import com.outbrain.swinfra.metrics.SettableGauge.SettableDoubleSupplier;
 import com.outbrain.swinfra.metrics.children.ChildMetricRepo;
-import com.outbrain.swinfra.metrics.children.LabeledChildrenRepo;
 import com.outbrain.swinfra.metrics.children.MetricData;
 import com.outbrain.swinfra.metrics.children.UnlabeledChildRepo;
 import com.outbrain.swinfra.metrics.data.MetricDataConsumer;
+import com.outbrain.swinfra.metrics.utils.MemoryEstimates;
 import com.outbrain.swinfra.metrics.utils.MetricType;
 
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.function.DoubleSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
  * An implementation of a Gauge metric. A gauge is a decimal value that can increase or decrease.
@@ -24,20 +28,32 @@ import java.util.function.DoubleSupplier;
  */
 public class SettableGauge extends AbstractMetric<SettableDoubleSupplier> {
 
-  SettableGauge(final String name, final String help, final String[] labelNames) {
+  private final boolean singleWriter;
+
+  SettableGauge(final String name, final String help, final String[] labelNames, final boolean singleWriter) {
     super(name, help, labelNames);
+    this.singleWriter = singleWriter;
   }
 
   public double getValue(final String... labelValues) {
     return metricForLabels(labelValues).getAsDouble();
   }
 
+  @Override
+  long estimateChildBytes(final SettableDoubleSupplier child) {
+    if (child instanceof SingleWriterDoubleSupplier) {
+      return MemoryEstimates.align(MemoryEstimates.OBJECT_HEADER + 2 * 8 + MemoryEstimates.REFERENCE);
+    }
+    return MemoryEstimates.align(MemoryEstimates.OBJECT_HEADER + 8);
+  }
+
   @Override
   ChildMetricRepo<SettableDoubleSupplier> createChildMetricRepo() {
+    final Supplier<SettableDoubleSupplier> childSupplier = singleWriter ? SingleWriterDoubleSupplier::new : SettableDoubleSupplier::new;
     if (getLabelNames().isEmpty()) {
-      return new UnlabeledChildRepo<>(new MetricData<>(new SettableDoubleSupplier()));
+      return new UnlabeledChildRepo<>(new MetricData<>(childSupplier.get()));
     } else {
-      return new LabeledChildrenRepo<>(labelValues -> new MetricData<>(new SettableDoubleSupplier(), labelValues));
+      return createLabeledChildMetricRepo(labelValues -> new MetricData<>(childSupplier.get(), labelValues));
     }
   }
 
@@ -48,8 +64,8 @@ public class SettableGauge extends AbstractMetric<SettableDoubleSupplier> {
   }
 
   @Override
-  public void forEachMetricData(final MetricDataConsumer consumer) {
-    forEachChild(metricData -> {
+  public void forEachMetricData(final MetricDataConsumer consumer, final Predicate<List<String>> labelValuesFilter) {
+    forEachChild(labelValuesFilter, metricData -> {
       final double value = metricData.getMetric().getAsDouble();
       consumer.consumeGauge(this, metricData.getLabelValues(), value);
     });
@@ -61,13 +77,25 @@ public class SettableGauge extends AbstractMetric<SettableDoubleSupplier> {
 
   public static class SettableGaugeBuilder extends AbstractMetricBuilder<SettableGauge, SettableGauge.SettableGaugeBuilder> {
 
+    private boolean singleWriter;
+
     public SettableGaugeBuilder(final String name, final String help) {
       super(name, help);
     }
 
+    /**
+     * Publishes the value of every child with {@code lazySet} rather than with a volatile write, for gauges whose
+     * children are each only set by a single thread - i.e. an event loop. Setting a value then costs a plain memory
+     * write. When assertions are enabled, a child that is set by a second thread throws an {@link AssertionError}
+     */
+    public SettableGaugeBuilder withSingleWriter() {
+      this.singleWriter = true;
+      return this;
+    }
+
     @Override
     protected SettableGauge create(final String fullName, final String help, final String[] labelNames) {
-      return new SettableGauge(fullName, help, labelNames);
+      return new SettableGauge(fullName, help, labelNames, singleWriter);
     }
 
   }
@@ -86,4 +114,26 @@ public class SettableGauge extends AbstractMetric<SettableDoubleSupplier> {
     }
   }
 
+  /**
+   * A child that is only set by a single thread, see {@link SettableGaugeBuilder#withSingleWriter()}
+   */
+  static class SingleWriterDoubleSupplier extends SettableDoubleSupplier {
+
+    private static final AtomicLongFieldUpdater<SingleWriterDoubleSupplier> BITS = AtomicLongFieldUpdater.newUpdater(SingleWriterDoubleSupplier.class, "bits");
+
+    private final WriterAssertion writer = WriterAssertion.create();
+    private volatile long bits;
+
+    @Override
+    void set(final double value) {
+      assert writer.isOnlyWriter();
+      BITS.lazySet(this, Double.doubleToRawLongBits(value));
+    }
+
+    @Override
+    public double getAsDouble() {
+      return Double.longBitsToDouble(bits);
+    }
+  }
+
 }
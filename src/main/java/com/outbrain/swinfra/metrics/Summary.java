@@ -8,18 +8,23 @@ import com.codahale.metrics.SlidingWindowReservoir;
 import com.codahale.metrics.Snapshot;
 import com.codahale.metrics.UniformReservoir;
 import com.outbrain.swinfra.metrics.children.ChildMetricRepo;
-import com.outbrain.swinfra.metrics.children.LabeledChildrenRepo;
 import com.outbrain.swinfra.metrics.children.MetricData;
 import com.outbrain.swinfra.metrics.children.UnlabeledChildRepo;
 import com.outbrain.swinfra.metrics.data.MetricDataConsumer;
 import com.outbrain.swinfra.metrics.data.SummaryData;
 import com.outbrain.swinfra.metrics.timing.Clock;
+import com.outbrain.swinfra.metrics.timing.IntervalRecorder;
 import com.outbrain.swinfra.metrics.timing.Timer;
 import com.outbrain.swinfra.metrics.timing.TimingMetric;
+import com.outbrain.swinfra.metrics.utils.MemoryEstimates;
 import com.outbrain.swinfra.metrics.utils.MetricType;
+import org.apache.commons.lang3.Validate;
 
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 
 import static com.outbrain.swinfra.metrics.timing.Clock.DEFAULT_CLOCK;
 import static com.outbrain.swinfra.metrics.utils.MetricType.SUMMARY;
@@ -47,20 +52,32 @@ import static com.outbrain.swinfra.metrics.utils.MetricType.SUMMARY;
  * @see <a href="https://prometheus.io/docs/concepts/metric_types/#summary">Prometheus summary metric</a>
  * @see <a href="https://prometheus.io/docs/practices/histograms/">Prometheus summary vs. histogram</a>
  */
-public class Summary extends AbstractMetric<Histogram> implements TimingMetric {
+public class Summary extends AbstractMetric<Histogram> implements TimingMetric, IntervalRecorder {
 
 
+  /**
+   * The maximal number of missing values that a single observation is corrected with. Unlike the buckets of a
+   * histogram, a reservoir has to be updated with every value
+   */
+  public static final int MAX_MISSING_VALUES = 10_000;
+
   private final Supplier<Reservoir> reservoirSupplier;
+  private final ToLongFunction<Reservoir> reservoirBytes;
   private final Clock clock;
+  private final long expectedInterval;
 
   private Summary(final String name,
                   final String help,
                   final String[] labelNames,
                   final Supplier<Reservoir> reservoirSupplier,
-                  final Clock clock) {
+                  final ToLongFunction<Reservoir> reservoirBytes,
+                  final Clock clock,
+                  final long expectedInterval) {
     super(name, help, labelNames);
     this.reservoirSupplier = reservoirSupplier;
+    this.reservoirBytes = reservoirBytes;
     this.clock = clock;
+    this.expectedInterval = expectedInterval;
   }
 
   public void observe(final long value, final String... labelValues) {
@@ -68,17 +85,40 @@ public class Summary extends AbstractMetric<Histogram> implements TimingMetric {
     metricForLabels(labelValues).update(value);
   }
 
+  /**
+   * Observes a value that took longer than the expected interval between observations, and the observations that the
+   * delay kept from being made - one for every expected interval beyond the first, each smaller than the previous one
+   * by the interval (up to {@link #MAX_MISSING_VALUES} of them, the largest first). See
+   * {@link Histogram#observeWithExpectedInterval(double, double, String...)}, which does the same in O(buckets).
+   * <p>
+   * See {@link SummaryBuilder#withExpectedInterval(long)} for correcting all the observations of a summary
+   * </p>
+   *
+   * @param expectedInterval the expected interval between observations, in the units of the value
+   */
+  public void observeWithExpectedInterval(final long value, final long expectedInterval, final String... labelValues) {
+    validateLabelValues(labelValues);
+    ((ReservoirHistogram) metricForLabels(labelValues)).updateWithExpectedInterval(value, expectedInterval);
+  }
+
   @Override
   ChildMetricRepo<Histogram> createChildMetricRepo() {
     if (getLabelNames().isEmpty()) {
       return new UnlabeledChildRepo<>(new MetricData<>(createHistogram()));
     } else {
-      return new LabeledChildrenRepo<>(labelValues -> new MetricData<>(createHistogram(), labelValues));
+      return createLabeledChildMetricRepo(labelValues -> new MetricData<>(createHistogram(), labelValues));
     }
   }
 
   private Histogram createHistogram() {
-    return new Histogram(reservoirSupplier.get());
+    return new ReservoirHistogram(reservoirSupplier.get(), expectedInterval);
+  }
+
+  @Override
+  long estimateChildBytes(final Histogram child) {
+    final long histogramBytes = MemoryEstimates.align(MemoryEstimates.OBJECT_HEADER + 2 * MemoryEstimates.REFERENCE) +
+                                MemoryEstimates.ADDER;
+    return histogramBytes + reservoirBytes.applyAsLong(((ReservoirHistogram) child).reservoir);
   }
 
   @Override
@@ -87,39 +127,159 @@ public class Summary extends AbstractMetric<Histogram> implements TimingMetric {
   }
 
   @Override
-  public void forEachMetricData(final MetricDataConsumer consumer) {
-    forEachChild(metricData -> {
+  public void forEachMetricData(final MetricDataConsumer consumer, final Predicate<List<String>> labelValuesFilter) {
+    forEachChild(labelValuesFilter, metricData -> {
       final CodahaleSummaryData snapshot = new CodahaleSummaryData(metricData.getMetric().getCount(), metricData.getMetric().getSnapshot());
+      consumeCreated(consumer, metricData);
       consumer.consumeSummary(this, metricData.getLabelValues(), snapshot);
     });
   }
 
   @Override
   public Timer startTimer(final String... labelValues) {
+    validateLabelValues(labelValues);
     final Histogram histogram = metricForLabels(labelValues);
     return new Timer(clock, histogram::update);
   }
 
+  @Override
+  public Clock getClock() {
+    return clock;
+  }
+
+  /**
+   * Observes an interval in the ticks of this summary's clock, for summaries without labels.
+   * See {@link #bind(String...)} for summaries with labels
+   */
+  @Override
+  public void recordTicks(final long ticks) {
+    unlabeledMetric().update(ticks);
+  }
+
+  /**
+   * @return the child with the given label values, which can be kept and updated without looking it up again
+   */
+  public Child bind(final String... labelValues) {
+    validateLabelValues(labelValues);
+    return new Child(metricForLabels(labelValues), clock);
+  }
+
+  /**
+   * A single child of a summary, bound to its label values
+   */
+  public static class Child implements IntervalRecorder {
+
+    private final Histogram histogram;
+    private final Clock clock;
+
+    private Child(final Histogram histogram, final Clock clock) {
+      this.histogram = histogram;
+      this.clock = clock;
+    }
+
+    public void observe(final long value) {
+      histogram.update(value);
+    }
+
+    @Override
+    public Clock getClock() {
+      return clock;
+    }
+
+    @Override
+    public void recordTicks(final long ticks) {
+      histogram.update(ticks);
+    }
+  }
+
+  /**
+   * A histogram that keeps a reference to its reservoir, so the reservoir's size can be estimated, and corrects its
+   * values with the expected interval of the summary
+   */
+  private static class ReservoirHistogram extends Histogram {
+
+    private final Reservoir reservoir;
+    private final long expectedInterval;
+
+    private ReservoirHistogram(final Reservoir reservoir, final long expectedInterval) {
+      super(reservoir);
+      this.reservoir = reservoir;
+      this.expectedInterval = expectedInterval;
+    }
+
+    @Override
+    public void update(final long value) {
+      super.update(value);
+      if (expectedInterval > 0) {
+        addMissing(value, expectedInterval);
+      }
+    }
+
+    void updateWithExpectedInterval(final long value, final long expectedInterval) {
+      super.update(value);
+      if (expectedInterval > 0) {
+        addMissing(value, expectedInterval);
+      }
+    }
+
+    private void addMissing(final long value, final long interval) {
+      int added = 0;
+      for (long missing = value - interval; missing >= interval && added < MAX_MISSING_VALUES; missing -= interval) {
+        super.update(missing);
+        added++;
+      }
+    }
+  }
+
   public static class SummaryBuilder extends AbstractMetricBuilder<Summary, SummaryBuilder> {
 
     private static final int DEFAULT_SIZE = 1028;
     private static final double DEFAULT_ALPHA = 0.015;
 
+    /**
+     * The approximate size of a reservoir object and its fields, without its samples
+     */
+    private static final long RESERVOIR_BYTES = 64;
+    /**
+     * The approximate size of a sample in a skip list based reservoir: its node, key, value and share of the index
+     */
+    private static final long DECAYING_SAMPLE_BYTES = 88;
+    private static final long TIME_WINDOW_SAMPLE_BYTES = 72;
+
     private Clock clock = DEFAULT_CLOCK;
     private com.codahale.metrics.Clock codahaleClock = toCodahaleClock(DEFAULT_CLOCK);
     private Supplier<Reservoir> reservoirSupplier = () -> new ExponentiallyDecayingReservoir(DEFAULT_SIZE, DEFAULT_ALPHA,
                                                                                              codahaleClock);
+    private ToLongFunction<Reservoir> reservoirBytes = reservoir -> RESERVOIR_BYTES + reservoir.size() * DECAYING_SAMPLE_BYTES;
+    private long expectedInterval;
 
     public SummaryBuilder(final String name, final String help) {
       super(name, help);
     }
 
+    /**
+     * The clock that timers and the timing helpers measure intervals with, defaults to {@link Clock#DEFAULT_CLOCK}.
+     * A shared {@link com.outbrain.swinfra.metrics.timing.CoarseClock} is cheaper to read, at the cost of resolution
+     */
     public SummaryBuilder withClock(final Clock clock) {
       this.clock = clock;
       this.codahaleClock = toCodahaleClock(clock);
       return this;
     }
 
+    /**
+     * Corrects every observation of the summary for coordinated omission, see
+     * {@link Summary#observeWithExpectedInterval(long, long, String...)}. This includes the intervals recorded by timers
+     * and the timing helpers, in which case the expected interval is in the ticks of the summary's clock
+     *
+     * @param expectedInterval the expected interval between observations, in the units of the observed values
+     */
+    public SummaryBuilder withExpectedInterval(final long expectedInterval) {
+      Validate.isTrue(expectedInterval > 0, "The expected interval must be positive");
+      this.expectedInterval = expectedInterval;
+      return this;
+    }
+
     public ReservoirBuilder withReservoir() {
       return new ReservoirBuilder();
     }
@@ -147,6 +307,7 @@ public class Summary extends AbstractMetric<Histogram> implements TimingMetric {
        */
       public SummaryBuilder withExponentiallyDecayingReservoir(final int size, final double alpha) {
         reservoirSupplier = () -> new ExponentiallyDecayingReservoir(size, alpha, codahaleClock);
+        reservoirBytes = reservoir -> RESERVOIR_BYTES + reservoir.size() * DECAYING_SAMPLE_BYTES;
         return SummaryBuilder.this;
       }
 
@@ -159,6 +320,7 @@ public class Summary extends AbstractMetric<Histogram> implements TimingMetric {
        */
       public SummaryBuilder withSlidingTimeWindowReservoir(final int window, final TimeUnit windowUnit) {
         reservoirSupplier = () -> new SlidingTimeWindowReservoir(window, windowUnit, codahaleClock);
+        reservoirBytes = reservoir -> RESERVOIR_BYTES + reservoir.size() * TIME_WINDOW_SAMPLE_BYTES;
         return SummaryBuilder.this;
       }
 
@@ -170,6 +332,7 @@ public class Summary extends AbstractMetric<Histogram> implements TimingMetric {
        */
       public SummaryBuilder withSlidingWindowReservoir(final int size) {
         reservoirSupplier = () -> new SlidingWindowReservoir(size);
+        reservoirBytes = reservoir -> RESERVOIR_BYTES + MemoryEstimates.ofLongArray(size);
         return SummaryBuilder.this;
       }
 
@@ -183,13 +346,14 @@ public class Summary extends AbstractMetric<Histogram> implements TimingMetric {
        */
       public SummaryBuilder withUniformReservoir(final int size) {
         reservoirSupplier = () -> new UniformReservoir(size);
+        reservoirBytes = reservoir -> RESERVOIR_BYTES + MemoryEstimates.ofLongArray(size);
         return SummaryBuilder.this;
       }
     }
 
     @Override
     protected Summary create(final String fullName, final String help, final String[] labelNames) {
-      return new Summary(fullName, help, labelNames, reservoirSupplier, clock);
+      return new Summary(fullName, help, labelNames, reservoirSupplier, reservoirBytes, clock, expectedInterval);
     }
   }
 
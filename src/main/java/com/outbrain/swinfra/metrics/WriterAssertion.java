@@ -0,0 +1,52 @@
+package com.outbrain.swinfra.metrics;
+
+/**
+ * Detects a second thread that updates a child which was built for a single writer, when assertions are enabled
+ * ({@code -ea}). Children check it with {@code assert writer.isOnlyWriter()}, so the check costs nothing otherwise.
+ */
+final class WriterAssertion {
+
+  private static final WriterAssertion DISABLED = new WriterAssertion(false);
+  private static final boolean ENABLED = assertionsEnabled();
+
+  private final boolean enabled;
+  private volatile Thread writer;
+
+  private WriterAssertion(final boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * @return a new assertion if assertions are enabled, or a shared one that checks nothing, so children do not keep
+   * the state of the check when it is never made
+   */
+  static WriterAssertion create() {
+    return ENABLED ? new WriterAssertion(true) : DISABLED;
+  }
+
+  /**
+   * @return true if the current thread is the first thread that called this method
+   * @throws AssertionError if another thread called it first
+   */
+  boolean isOnlyWriter() {
+    if (!enabled) {
+      return true;
+    }
+    final Thread current = Thread.currentThread();
+    final Thread first = writer;
+    if (first == null) {
+      writer = current;
+    } else if (first != current) {
+      throw new AssertionError("A single writer child was updated by " + current.getName() + " after it was updated by " +
+                               first.getName());
+    }
+    return true;
+  }
+
+  @SuppressWarnings({"AssertWithSideEffects", "ConstantConditions"})
+  private static boolean assertionsEnabled() {
+    boolean enabled = false;
+    assert enabled = true;
+    return enabled;
+  }
+}
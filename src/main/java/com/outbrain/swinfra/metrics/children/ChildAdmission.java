@@ -0,0 +1,44 @@
+package com.outbrain.swinfra.metrics.children;
+
+/**
+ * Decides whether a labeled metric may add a new child, i.e. to keep the number of series within a budget.
+ * <p>
+ * A new child is admitted before it is created, so a refused child costs nothing. A refused child is either folded
+ * into a single child whose label values are all {@link #getFoldedLabelValue()}, or dropped - its updates go to a child
+ * that is never exported.
+ * </p>
+ */
+public interface ChildAdmission<T> {
+
+  /**
+   * Reserves a series for a new child before it is created
+   *
+   * @return true if the new child may be added, in which case it must be accounted for with {@link #admitted}
+   */
+  boolean tryAdmit();
+
+  /**
+   * Accounts for the size of a new child that {@link #tryAdmit()} reserved a series for
+   */
+  void admitted(MetricData<T> child);
+
+  /**
+   * Returns the series that {@link #tryAdmit()} reserved for a child that was not added after all
+   */
+  void cancel();
+
+  /**
+   * Counts a new child that was refused. Called once for each refused set of label values, not for each update
+   */
+  void refused();
+
+  /**
+   * Accounts for a child that is added regardless of the budget, the child that refused children are folded into
+   */
+  void admit(MetricData<T> child);
+
+  /**
+   * @return the label value that refused children are folded into, or null if they are dropped
+   */
+  String getFoldedLabelValue();
+}
@@ -2,6 +2,7 @@ package com.outbrain.swinfra.metrics.children;
 
 import java.util.List;
 import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
 
 /**
  * A container for children metrics for a specific metric name.
@@ -12,4 +13,16 @@ public interface ChildMetricRepo<T> {
   T metricForLabels(final String... labelValues);
   T metricForLabels(final List<String> labelValues);
   void forEachMetricData(Consumer<MetricData<T>> consumer);
+  int size();
+
+  /**
+   * @param childBytes estimates the retained size of a single child metric
+   * @return the approximate retained size of all the children, including their label values
+   */
+  long estimateBytes(ToLongFunction<T> childBytes);
+
+  /**
+   * Limits the children that may be added from now on, a null admission allows all of them
+   */
+  void setAdmission(ChildAdmission<T> admission);
 }
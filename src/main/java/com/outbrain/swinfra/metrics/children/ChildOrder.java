@@ -0,0 +1,22 @@
+package com.outbrain.swinfra.metrics.children;
+
+/**
+ * The order in which the children of a labeled metric are exported
+ */
+public enum ChildOrder {
+
+  /**
+   * The children's hash order, which may differ between JVMs and versions. This order costs nothing to maintain.
+   */
+  UNORDERED,
+
+  /**
+   * The order in which the children were created
+   */
+  INSERTION,
+
+  /**
+   * The lexicographic order of the children's label values, compared label by label
+   */
+  LABEL_VALUES
+}
@@ -0,0 +1,128 @@
+package com.outbrain.swinfra.metrics.children;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import static com.outbrain.swinfra.metrics.utils.MemoryEstimates.METRIC_DATA;
+import static com.outbrain.swinfra.metrics.utils.MemoryEstimates.ofReferenceArray;
+
+/**
+ * A child metric container for metrics whose labels all have a {@link LabelDomain}.
+ * <p>
+ * All the children are created up front in a flat array, in the order of their labels' domains, and a child is found by
+ * the ordinals of its label values - no hashing and no {@code String} label values when it is reached through
+ * {@link #metricForOrdinal(int)} or {@link #metricForOrdinals(int, int)}. Every child is exported, including those
+ * that were never updated, and in a fixed order.
+ * </p>
+ */
+public class DenseChildrenRepo<T> implements ChildMetricRepo<T> {
+
+  /**
+   * The maximal number of children, i.e. the product of the sizes of the domains
+   */
+  public static final int MAX_CHILDREN = 1 << 16;
+
+  private final LabelDomain[] domains;
+  private final MetricData<T>[] children;
+
+  @SuppressWarnings("unchecked")
+  public DenseChildrenRepo(final List<LabelDomain> domains, final Function<List<String>, MetricData<T>> mappingFunction) {
+    Validate.notEmpty(domains, "A dense repo needs at least one label domain");
+    this.domains = domains.toArray(new LabelDomain[0]);
+    long size = 1;
+    for (final LabelDomain domain : this.domains) {
+      size *= domain.size();
+      Validate.isTrue(size <= MAX_CHILDREN, "Label domains may have at most %d combinations", MAX_CHILDREN);
+    }
+    this.children = (MetricData<T>[]) new MetricData<?>[(int) size];
+    final LabelValueDictionary dictionary = LabelValueDictionary.shared();
+    final List<String> labelValues = new ArrayList<>(this.domains.length);
+    for (int index = 0; index < children.length; index++) {
+      labelValues.clear();
+      int remainder = index;
+      for (int label = this.domains.length - 1; label >= 0; label--) {
+        labelValues.add(0, this.domains[label].getValue(remainder % this.domains[label].size()));
+        remainder /= this.domains[label].size();
+      }
+      children[index] = mappingFunction.apply(LabelValues.of(labelValues, dictionary));
+    }
+  }
+
+  public LabelDomain getDomain(final int label) {
+    return domains[label];
+  }
+
+  /**
+   * @return the child of a metric with a single label, by the ordinal of its value
+   */
+  public T metricForOrdinal(final int ordinal) {
+    return children[ordinal].getMetric();
+  }
+
+  /**
+   * @return the child of a metric with two labels, by the ordinals of their values
+   */
+  public T metricForOrdinals(final int first, final int second) {
+    return children[first * domains[1].size() + second].getMetric();
+  }
+
+  @Override
+  public T metricForLabels(final String... labelValues) {
+    int index = 0;
+    for (int label = 0; label < domains.length; label++) {
+      index = index * domains[label].size() + ordinalOf(label, labelValues[label]);
+    }
+    return children[index].getMetric();
+  }
+
+  @Override
+  public T metricForLabels(final List<String> labelValues) {
+    int index = 0;
+    for (int label = 0; label < domains.length; label++) {
+      index = index * domains[label].size() + ordinalOf(label, labelValues.get(label));
+    }
+    return children[index].getMetric();
+  }
+
+  private int ordinalOf(final int label, final String value) {
+    final int ordinal = domains[label].ordinalOf(value);
+    if (ordinal < 0) {
+      throw new IllegalArgumentException(value + " is not in the domain of label " + label);
+    }
+    return ordinal;
+  }
+
+  @Override
+  public void forEachMetricData(final Consumer<MetricData<T>> consumer) {
+    for (final MetricData<T> child : children) {
+      consumer.accept(child);
+    }
+  }
+
+  @Override
+  public int size() {
+    return children.length;
+  }
+
+  @Override
+  public long estimateBytes(final ToLongFunction<T> childBytes) {
+    long bytes = ofReferenceArray(children.length);
+    for (final MetricData<T> child : children) {
+      bytes += METRIC_DATA + ((LabelValues) child.getLabelValues()).estimateBytes() + childBytes.applyAsLong(child.getMetric());
+    }
+    return bytes;
+  }
+
+  /**
+   * All the children exist from the start and are accounted for when the metric is registered, so there is nothing
+   * to admit
+   */
+  @Override
+  public void setAdmission(final ChildAdmission<T> admission) {
+  }
+}
@@ -0,0 +1,95 @@
+package com.outbrain.swinfra.metrics.children;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The fixed, small set of values a label may take, such as an {@code enum} of operations or a range of status codes.
+ * <p>
+ * Every value has an ordinal - its position in the domain - so the children of a metric whose labels all have domains
+ * can be kept in an array and found without hashing, see {@link DenseChildrenRepo}.
+ * </p>
+ */
+public final class LabelDomain {
+
+  private final String[] values;
+  private final Map<String, Integer> ordinalByValue;
+  private final Class<?> enumClass;
+  private final int minInt;
+
+  private LabelDomain(final String[] values, final Class<?> enumClass, final int minInt) {
+    this.values = values;
+    this.enumClass = enumClass;
+    this.minInt = minInt;
+    this.ordinalByValue = new HashMap<>(values.length * 2);
+    for (int i = 0; i < values.length; i++) {
+      ordinalByValue.put(values[i], i);
+    }
+  }
+
+  /**
+   * A domain whose values are the names of the constants of the given enum
+   */
+  public static <E extends Enum<E>> LabelDomain ofEnum(final Class<E> enumClass) {
+    requireNonNull(enumClass, "enumClass may not be null");
+    final E[] constants = enumClass.getEnumConstants();
+    Validate.isTrue(constants.length > 0, "The enum %s has no constants", enumClass.getName());
+    final String[] values = new String[constants.length];
+    for (int i = 0; i < constants.length; i++) {
+      values[i] = constants[i].name();
+    }
+    return new LabelDomain(values, enumClass, 0);
+  }
+
+  /**
+   * A domain whose values are the integers between {@code min} and {@code max}, inclusive
+   *
+   * @throws IllegalArgumentException if the range has more than {@link DenseChildrenRepo#MAX_CHILDREN} values, before
+   *                                  any of them is created
+   */
+  public static LabelDomain ofInts(final int min, final int max) {
+    Validate.isTrue(min <= max, "The minimal value of an int label must not be greater than its maximal value");
+    Validate.isTrue((long) max - min + 1 <= DenseChildrenRepo.MAX_CHILDREN,
+                    "An int label may have at most %d values", DenseChildrenRepo.MAX_CHILDREN);
+    final String[] values = new String[max - min + 1];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = Integer.toString(min + i);
+    }
+    return new LabelDomain(values, null, min);
+  }
+
+  public int size() {
+    return values.length;
+  }
+
+  public String getValue(final int ordinal) {
+    return values[ordinal];
+  }
+
+  /**
+   * @return the ordinal of the given value, or -1 if it is not in this domain
+   */
+  public int ordinalOf(final String value) {
+    final Integer ordinal = ordinalByValue.get(value);
+    return ordinal == null ? -1 : ordinal;
+  }
+
+  public int ordinalOf(final Enum<?> value) {
+    if (value.getDeclaringClass() != enumClass) {
+      throw new IllegalArgumentException(value.getDeclaringClass().getName() + " is not the domain of this label");
+    }
+    return value.ordinal();
+  }
+
+  public int ordinalOf(final int value) {
+    final int ordinal = value - minInt;
+    if (enumClass != null || ordinal < 0 || ordinal >= values.length) {
+      throw new IllegalArgumentException(value + " is not in the domain of this label");
+    }
+    return ordinal;
+  }
+}
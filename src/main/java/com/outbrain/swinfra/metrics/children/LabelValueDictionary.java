@@ -0,0 +1,95 @@
+package com.outbrain.swinfra.metrics.children;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.outbrain.swinfra.metrics.utils.MemoryEstimates.MAP_ENTRY;
+import static com.outbrain.swinfra.metrics.utils.MemoryEstimates.ofString;
+
+/**
+ * A bounded dictionary of label values, so that children with the same label value (such as "GET" or "200") share a
+ * single string instead of each keeping its own copy.
+ * <p>
+ * Values are interned when a child is created, never on the update path, and only once the child was admitted, so
+ * children that a series budget refuses do not take the place of others. Once the dictionary holds
+ * {@link #getMaxSize()} values it is full (see {@link #isFull()}): it stops growing, and new values are kept by their
+ * children as they are - they still work, but each child keeps its own copy. Values are never evicted, so a dictionary
+ * should be large enough for the values that repeat, not for all the values.
+ * </p>
+ */
+public class LabelValueDictionary {
+
+  public static final int DEFAULT_MAX_SIZE = 100_000;
+
+  private static final LabelValueDictionary SHARED = new LabelValueDictionary(DEFAULT_MAX_SIZE);
+
+  private final int maxSize;
+  private final ConcurrentMap<String, String> values = new ConcurrentHashMap<>();
+
+  public LabelValueDictionary(final int maxSize) {
+    Validate.isTrue(maxSize >= 0, "The maximal size of a label value dictionary may not be negative");
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * @return the dictionary that is shared by all the metrics that do not specify one
+   */
+  public static LabelValueDictionary shared() {
+    return SHARED;
+  }
+
+  /**
+   * @return the dictionary's copy of the given value, or the value itself if the dictionary is full
+   */
+  public String intern(final String value) {
+    if (value == null) {
+      return null;
+    }
+    final String existing = values.get(value);
+    if (existing != null) {
+      return existing;
+    }
+    // Concurrent additions may overshoot the maximal size slightly, which is harmless
+    if (values.size() >= maxSize) {
+      return value;
+    }
+    final String previous = values.putIfAbsent(value, value);
+    return previous == null ? value : previous;
+  }
+
+  /**
+   * @return true if the given string is the dictionary's copy of its value
+   */
+  public boolean isInterned(final String value) {
+    return value != null && values.get(value) == value;
+  }
+
+  public int size() {
+    return values.size();
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * @return true if the dictionary no longer interns new values, in which case it may be too small for the label values
+   * that repeat
+   */
+  public boolean isFull() {
+    return values.size() >= maxSize;
+  }
+
+  /**
+   * The approximate retained size of the dictionary, including its values
+   */
+  public long estimateBytes() {
+    long bytes = 0;
+    for (final String value : values.keySet()) {
+      bytes += MAP_ENTRY + ofString(value);
+    }
+    return bytes;
+  }
+}
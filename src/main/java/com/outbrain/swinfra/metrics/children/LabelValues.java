@@ -0,0 +1,89 @@
+package com.outbrain.swinfra.metrics.children;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import static com.outbrain.swinfra.metrics.utils.MemoryEstimates.OBJECT_HEADER;
+import static com.outbrain.swinfra.metrics.utils.MemoryEstimates.REFERENCE;
+import static com.outbrain.swinfra.metrics.utils.MemoryEstimates.align;
+import static com.outbrain.swinfra.metrics.utils.MemoryEstimates.ofReferenceArray;
+import static com.outbrain.swinfra.metrics.utils.MemoryEstimates.ofString;
+
+/**
+ * The immutable label values of a child, kept in a packed array of {@link LabelValueDictionary interned} strings.
+ * <p>
+ * The hash code is computed once, and equals any {@link List} with the same values, so a child can be looked up with
+ * a plain list of label values.
+ * </p>
+ */
+public final class LabelValues extends AbstractList<String> implements RandomAccess {
+
+  private final String[] values;
+  private final int hash;
+  private final boolean interned;
+
+  private LabelValues(final String[] values, final boolean interned) {
+    this.values = values;
+    this.hash = Arrays.hashCode(values);
+    this.interned = interned;
+  }
+
+  /**
+   * @return the given label values, copied and interned in the given dictionary unless they already are
+   */
+  public static LabelValues of(final List<String> labelValues, final LabelValueDictionary dictionary) {
+    if (labelValues instanceof LabelValues) {
+      return (LabelValues) labelValues;
+    }
+    final String[] values = new String[labelValues.size()];
+    boolean interned = true;
+    for (int i = 0; i < values.length; i++) {
+      final String value = labelValues.get(i);
+      values[i] = dictionary.intern(value);
+      interned &= dictionary.isInterned(values[i]);
+    }
+    return new LabelValues(values, interned);
+  }
+
+  @Override
+  public String get(final int index) {
+    return values[index];
+  }
+
+  @Override
+  public int size() {
+    return values.length;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o instanceof LabelValues) {
+      final LabelValues other = (LabelValues) o;
+      return hash == other.hash && Arrays.equals(values, other.values);
+    }
+    return super.equals(o);
+  }
+
+  /**
+   * The approximate retained size of these label values. Interned strings are accounted for by their dictionary
+   */
+  public long estimateBytes() {
+    long bytes = align(OBJECT_HEADER + REFERENCE + 4 + 1) + ofReferenceArray(values.length);
+    if (!interned) {
+      for (final String value : values) {
+        bytes += ofString(value);
+      }
+    }
+    return bytes;
+  }
+}
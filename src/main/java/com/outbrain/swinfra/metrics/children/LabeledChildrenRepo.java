@@ -1,24 +1,93 @@
 package com.outbrain.swinfra.metrics.children;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.ToLongFunction;
 
+import static com.outbrain.swinfra.metrics.utils.MemoryEstimates.MAP_ENTRY;
+import static com.outbrain.swinfra.metrics.utils.MemoryEstimates.METRIC_DATA;
+import static com.outbrain.swinfra.metrics.utils.MemoryEstimates.ofLabelValues;
 import static java.util.Arrays.asList;
 
 /**
  * A child metric container implementation for metrics that have labels.
  * Such metrics can expect multiple children.
+ * <p>
+ * Unless the children are {@link ChildOrder#UNORDERED}, their order is computed once and cached until a child is
+ * added, so iterating over them does not sort anything.
+ * </p>
+ * <p>
+ * A new child keeps its label values as {@link LabelValues}, interned in a {@link LabelValueDictionary}, so children
+ * share their common values and never keep a reference to the caller's array.
+ * </p>
  */
 public class LabeledChildrenRepo<T> implements ChildMetricRepo<T> {
 
+  private static final Comparator<MetricData<?>> LABEL_VALUES_ORDER = (first, second) -> {
+    final List<String> firstValues = first.getLabelValues();
+    final List<String> secondValues = second.getLabelValues();
+    for (int i = 0; i < Math.min(firstValues.size(), secondValues.size()); i++) {
+      final int result = firstValues.get(i).compareTo(secondValues.get(i));
+      if (result != 0) {
+        return result;
+      }
+    }
+    return Integer.compare(firstValues.size(), secondValues.size());
+  };
+
+  /**
+   * The maximal number of refused sets of label values that are remembered, so that each is counted once
+   */
+  static final int MAX_REFUSED_LABEL_VALUES = 1024;
+
   private final ConcurrentMap<List<String>, MetricData<T>> children = new ConcurrentHashMap<>();
   private final Function<List<String>, MetricData<T>> mappingFunction;
+  private final Function<List<String>, MetricData<T>> createChild;
+  private final ChildOrder order;
+  private final LabelValueDictionary dictionary;
+  private final Queue<MetricData<T>> insertionOrder;
+  private final AtomicLong version = new AtomicLong();
+  private final Set<List<String>> refusedLabelValues = ConcurrentHashMap.newKeySet();
+  private volatile OrderedChildren<T> orderedChildren;
+  private volatile ChildAdmission<T> admission;
+  private volatile MetricData<T> refusedChild;
+  private volatile MetricData<T> foldedChild;
 
   public LabeledChildrenRepo(final Function<List<String>, MetricData<T>> mappingFunction) {
-    this.mappingFunction = mappingFunction;
+    this(mappingFunction, ChildOrder.UNORDERED);
+  }
+
+  public LabeledChildrenRepo(final Function<List<String>, MetricData<T>> mappingFunction, final ChildOrder order) {
+    this(mappingFunction, order, LabelValueDictionary.shared());
+  }
+
+  public LabeledChildrenRepo(final Function<List<String>, MetricData<T>> mappingFunction,
+                             final ChildOrder order,
+                             final LabelValueDictionary dictionary) {
+    this.order = order;
+    this.dictionary = dictionary;
+    this.createChild = mappingFunction;
+    if (order == ChildOrder.INSERTION) {
+      this.insertionOrder = new ConcurrentLinkedQueue<>();
+      this.mappingFunction = labelValues -> {
+        final MetricData<T> metricData = mappingFunction.apply(labelValues);
+        insertionOrder.add(metricData);
+        return metricData;
+      };
+    } else {
+      this.insertionOrder = null;
+      this.mappingFunction = mappingFunction;
+    }
   }
 
   @Override
@@ -29,13 +98,168 @@ public class LabeledChildrenRepo<T> implements ChildMetricRepo<T> {
 
   @Override
   public T metricForLabels(List<String> labelValues) {
-    return children.computeIfAbsent(labelValues, mappingFunction).getMetric();
+    final ChildAdmission<T> currentAdmission = admission;
+    if (currentAdmission != null) {
+      return admittedMetricForLabels(labelValues, currentAdmission);
+    }
+    final MetricData<T> existing = children.get(labelValues);
+    if (existing != null) {
+      return existing.getMetric();
+    }
+    final MetricData<T> metricData = children.computeIfAbsent(LabelValues.of(labelValues, dictionary), mappingFunction);
+    if (order == ChildOrder.UNORDERED) {
+      return metricData.getMetric();
+    }
+    // Invalidated only after the child is visible in the map, so a concurrent reorder either includes it or is
+    // considered stale
+    version.incrementAndGet();
+    return metricData.getMetric();
+  }
+
+  private T admittedMetricForLabels(final List<String> labelValues, final ChildAdmission<T> admission) {
+    final MetricData<T> existing = children.get(labelValues);
+    if (existing != null) {
+      return existing.getMetric();
+    }
+    if (!admission.tryAdmit()) {
+      return refusedMetricForLabels(labelValues, admission);
+    }
+    // Interned only once admitted, so the values of refused children never take the place of others in the dictionary
+    final boolean[] created = new boolean[1];
+    final MetricData<T> metricData = children.computeIfAbsent(LabelValues.of(labelValues, dictionary), values -> {
+      final MetricData<T> child = createChild.apply(values);
+      admission.admitted(child);
+      addInInsertionOrder(child);
+      created[0] = true;
+      return child;
+    });
+    if (created[0]) {
+      refusedLabelValues.remove(labelValues);
+      version.incrementAndGet();
+    } else {
+      admission.cancel();
+    }
+    return metricData.getMetric();
+  }
+
+  /**
+   * Nothing is created for a refused child, and its label values are remembered so that it is counted as refused
+   * only once. Beyond {@link #MAX_REFUSED_LABEL_VALUES} they are no longer remembered, and are counted on each update
+   */
+  private T refusedMetricForLabels(final List<String> labelValues, final ChildAdmission<T> admission) {
+    if (!refusedLabelValues.contains(labelValues) &&
+        (refusedLabelValues.size() >= MAX_REFUSED_LABEL_VALUES ||
+         refusedLabelValues.add(asList(labelValues.toArray(new String[0]))))) {
+      admission.refused();
+    }
+
+    final String foldedLabelValue = admission.getFoldedLabelValue();
+    if (foldedLabelValue == null) {
+      MetricData<T> refused = refusedChild;
+      if (refused == null) {
+        refused = createChild.apply(labelValues);
+        refusedChild = refused;
+      }
+      return refused.getMetric();
+    }
+    final MetricData<T> cachedFolded = foldedChild;
+    if (cachedFolded != null) {
+      return cachedFolded.getMetric();
+    }
+    final List<String> foldedLabelValues = LabelValues.of(Collections.nCopies(labelValues.size(), foldedLabelValue), dictionary);
+    MetricData<T> folded = children.get(foldedLabelValues);
+    if (folded == null) {
+      folded = children.computeIfAbsent(foldedLabelValues, values -> {
+        final MetricData<T> child = createChild.apply(values);
+        admission.admit(child);
+        addInInsertionOrder(child);
+        return child;
+      });
+      version.incrementAndGet();
+    }
+    foldedChild = folded;
+    return folded.getMetric();
+  }
+
+  private void addInInsertionOrder(final MetricData<T> child) {
+    if (insertionOrder != null) {
+      insertionOrder.add(child);
+    }
+  }
+
+  /**
+   * Limits the children that may be added from now on, children that already exist are not affected.
+   * A null admission allows all the children.
+   */
+  @Override
+  public void setAdmission(final ChildAdmission<T> admission) {
+    this.admission = admission;
+    refusedLabelValues.clear();
+    foldedChild = null;
+  }
+
+  @Override
+  public long estimateBytes(final ToLongFunction<T> childBytes) {
+    long bytes = 0;
+    for (final MetricData<T> metricData : children.values()) {
+      bytes += estimateChildBytes(metricData, childBytes);
+    }
+    return bytes;
+  }
+
+  /**
+   * The approximate retained size of a child of a labeled metric, including its entry and label values
+   */
+  public static <T> long estimateChildBytes(final MetricData<T> child, final ToLongFunction<T> childBytes) {
+    final List<String> labelValues = child.getLabelValues();
+    final long labelValuesBytes = labelValues instanceof LabelValues ? ((LabelValues) labelValues).estimateBytes()
+                                                                     : ofLabelValues(labelValues);
+    return MAP_ENTRY + METRIC_DATA + labelValuesBytes + childBytes.applyAsLong(child.getMetric());
   }
 
   @Override
   public void forEachMetricData(final Consumer<MetricData<T>> consumer) {
-    for (MetricData<T> metricData : children.values()) {
-      consumer.accept(metricData);
+    if (order == ChildOrder.UNORDERED) {
+      for (MetricData<T> metricData : children.values()) {
+        consumer.accept(metricData);
+      }
+    } else {
+      final List<MetricData<T>> ordered = orderedChildren();
+      for (int i = 0; i < ordered.size(); i++) {
+        consumer.accept(ordered.get(i));
+      }
+    }
+  }
+
+  @Override
+  public int size() {
+    return children.size();
+  }
+
+  private List<MetricData<T>> orderedChildren() {
+    final long currentVersion = version.get();
+    final OrderedChildren<T> cached = orderedChildren;
+    if (cached != null && cached.version == currentVersion) {
+      return cached.children;
+    }
+    final List<MetricData<T>> ordered;
+    if (order == ChildOrder.INSERTION) {
+      ordered = new ArrayList<>(insertionOrder);
+    } else {
+      ordered = new ArrayList<>(children.values());
+      ordered.sort(LABEL_VALUES_ORDER);
+    }
+    orderedChildren = new OrderedChildren<>(currentVersion, ordered);
+    return ordered;
+  }
+
+  private static class OrderedChildren<T> {
+    private final long version;
+    private final List<MetricData<T>> children;
+
+    private OrderedChildren(final long version, final List<MetricData<T>> children) {
+      this.version = version;
+      this.children = children;
     }
   }
 }
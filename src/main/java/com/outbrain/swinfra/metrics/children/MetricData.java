@@ -8,6 +8,7 @@ import static java.util.Collections.emptyList;
 public class MetricData<T> {
   private final T metric;
   private final List<String> labelValues;
+  private final long createdTimeMillis;
 
   public MetricData(final T metric) {
     this(metric, null);
@@ -16,6 +17,7 @@ public class MetricData<T> {
   public MetricData(final T metric, final List<String> labelValues) {
     this.metric = metric;
     this.labelValues = labelValues == null ? emptyList() : labelValues;
+    this.createdTimeMillis = System.currentTimeMillis();
   }
 
   public T getMetric() {
@@ -25,4 +27,11 @@ public class MetricData<T> {
   public List<String> getLabelValues() {
     return labelValues;
   }
+
+  /**
+   * The wall-clock time, in milliseconds since the epoch, in which this child was created
+   */
+  public long getCreatedTimeMillis() {
+    return createdTimeMillis;
+  }
 }
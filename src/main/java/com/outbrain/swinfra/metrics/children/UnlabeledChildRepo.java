@@ -2,6 +2,9 @@ package com.outbrain.swinfra.metrics.children;
 
 import java.util.List;
 import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+import static com.outbrain.swinfra.metrics.utils.MemoryEstimates.METRIC_DATA;
 
 /**
  * A child metric container implementation for metrics that do not have labels.
@@ -29,4 +32,21 @@ public class UnlabeledChildRepo<T> implements ChildMetricRepo<T> {
   public void forEachMetricData(final Consumer<MetricData<T>> consumer) {
     consumer.accept(metricData);
   }
+
+  @Override
+  public int size() {
+    return 1;
+  }
+
+  @Override
+  public long estimateBytes(final ToLongFunction<T> childBytes) {
+    return METRIC_DATA + childBytes.applyAsLong(metricData.getMetric());
+  }
+
+  /**
+   * A metric without labels has a single child, which always exists, so there is nothing to admit
+   */
+  @Override
+  public void setAdmission(final ChildAdmission<T> admission) {
+  }
 }
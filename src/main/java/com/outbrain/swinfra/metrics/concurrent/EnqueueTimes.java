@@ -0,0 +1,82 @@
+package com.outbrain.swinfra.metrics.concurrent;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The times the elements of a FIFO queue were enqueued, kept in a ring of primitives next to the queue instead of in
+ * a wrapper around every element.
+ * <p>
+ * The n-th element enqueued is expected to be the n-th element dequeued, so enqueuing and dequeuing each take the
+ * next sequence of their own, and the ring keeps the time of every sequence in the slot it maps to. Concurrent
+ * producers (or consumers) may take their sequences in a different order than they reached the queue, which swaps the
+ * times of elements that were enqueued within nanoseconds of each other. A slot also keeps the sequence it was
+ * written for, so an element whose time was not written yet, or was overwritten by an element a full ring later, is
+ * reported as unknown rather than with a wrong time.
+ * </p>
+ */
+final class EnqueueTimes {
+
+  static final long UNKNOWN = Long.MIN_VALUE;
+
+  private final int mask;
+  private final AtomicLongArray times;
+  private final AtomicLongArray sequences;
+  private final AtomicLong tail = new AtomicLong();
+  private final AtomicLong head = new AtomicLong();
+
+  /**
+   * @param size the number of elements whose times are kept, rounded up to a power of 2
+   */
+  EnqueueTimes(final int size) {
+    final int ringSize = size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+    this.mask = ringSize - 1;
+    this.times = new AtomicLongArray(ringSize);
+    final long[] initialSequences = new long[ringSize];
+    Arrays.fill(initialSequences, -1);
+    this.sequences = new AtomicLongArray(initialSequences);
+  }
+
+  int size() {
+    return times.length();
+  }
+
+  void enqueued(final long now) {
+    final long sequence = tail.getAndIncrement();
+    final int slot = (int) sequence & mask;
+    // Ordered stores, so a reader that sees the sequence sees its time, and a reader that sees a newer time sees the
+    // slot invalidated when it checks the sequence again
+    sequences.lazySet(slot, -1);
+    times.lazySet(slot, now);
+    sequences.lazySet(slot, sequence);
+  }
+
+  /**
+   * Accounts for elements that were enqueued without being timed, which are reported as unknown when they are dequeued
+   */
+  void untimed(final int count) {
+    tail.addAndGet(count);
+  }
+
+  /**
+   * @return the time the dequeued element was enqueued, or {@link #UNKNOWN}
+   */
+  long dequeued() {
+    final long sequence = head.getAndIncrement();
+    final int slot = (int) sequence & mask;
+    if (sequences.get(slot) != sequence) {
+      return UNKNOWN;
+    }
+    final long time = times.get(slot);
+    return sequences.get(slot) == sequence ? time : UNKNOWN;
+  }
+
+  /**
+   * Accounts for elements that left the queue without being measured, e.g. removed from its middle. The elements
+   * before them are then measured with the times of the elements that follow them, until the queue moves past them
+   */
+  void skipped(final int count) {
+    head.addAndGet(count);
+  }
+}
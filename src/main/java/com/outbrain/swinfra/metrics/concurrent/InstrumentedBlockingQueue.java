@@ -0,0 +1,216 @@
+package com.outbrain.swinfra.metrics.concurrent;
+
+import com.outbrain.swinfra.metrics.Counter;
+import com.outbrain.swinfra.metrics.Histogram;
+import com.outbrain.swinfra.metrics.timing.Clock;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link BlockingQueue} that records the time its elements spend in the queue, and counts the offers, polls and
+ * rejected offers, into the metrics of {@link InstrumentedQueues}.
+ * <p>
+ * The elements are kept in the wrapped queue as they are. The times they were enqueued are kept in a ring of
+ * primitives (see {@link EnqueueTimes}), which assumes the wrapped queue is FIFO - with other orders (e.g. a
+ * {@link java.util.concurrent.PriorityBlockingQueue}) the recorded waits are the waits of elements in FIFO order rather
+ * than of the elements that were actually taken. Elements deeper in the queue than the ring are not measured.
+ * </p>
+ * <p>
+ * Elements must be added and taken through this queue, elements that the wrapped queue is changed with directly throw
+ * the ring off.
+ * </p>
+ */
+public class InstrumentedBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+  private static final double SECONDS_PER_NANO = 1.0 / TimeUnit.SECONDS.toNanos(1);
+
+  private final BlockingQueue<E> delegate;
+  private final Clock clock;
+  private final EnqueueTimes enqueueTimes;
+  private final Histogram.Child wait;
+  private final Counter.Child offers;
+  private final Counter.Child polls;
+  private final Counter.Child rejections;
+
+  InstrumentedBlockingQueue(final BlockingQueue<E> delegate,
+                            final Clock clock,
+                            final int maxRingSize,
+                            final Histogram.Child wait,
+                            final Counter.Child offers,
+                            final Counter.Child polls,
+                            final Counter.Child rejections) {
+    this.delegate = delegate;
+    this.clock = clock;
+    final long capacity = (long) delegate.size() + delegate.remainingCapacity();
+    this.enqueueTimes = new EnqueueTimes((int) Math.min(capacity, maxRingSize));
+    // Elements that were in the queue before it was instrumented were never timed
+    enqueueTimes.untimed(delegate.size());
+    this.wait = wait;
+    this.offers = offers;
+    this.polls = polls;
+    this.rejections = rejections;
+  }
+
+  @Override
+  public boolean offer(final E e) {
+    offers.inc();
+    if (delegate.offer(e)) {
+      enqueueTimes.enqueued(now());
+      return true;
+    }
+    rejections.inc();
+    return false;
+  }
+
+  @Override
+  public boolean offer(final E e, final long timeout, final TimeUnit unit) throws InterruptedException {
+    offers.inc();
+    if (delegate.offer(e, timeout, unit)) {
+      enqueueTimes.enqueued(now());
+      return true;
+    }
+    rejections.inc();
+    return false;
+  }
+
+  @Override
+  public void put(final E e) throws InterruptedException {
+    offers.inc();
+    delegate.put(e);
+    enqueueTimes.enqueued(now());
+  }
+
+  @Override
+  public E poll() {
+    final E e = delegate.poll();
+    if (e != null) {
+      dequeued(now());
+    }
+    return e;
+  }
+
+  @Override
+  public E poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+    final E e = delegate.poll(timeout, unit);
+    if (e != null) {
+      dequeued(now());
+    }
+    return e;
+  }
+
+  @Override
+  public E take() throws InterruptedException {
+    final E e = delegate.take();
+    dequeued(now());
+    return e;
+  }
+
+  @Override
+  public int drainTo(final Collection<? super E> c) {
+    return drained(delegate.drainTo(c));
+  }
+
+  @Override
+  public int drainTo(final Collection<? super E> c, final int maxElements) {
+    return drained(delegate.drainTo(c, maxElements));
+  }
+
+  @Override
+  public boolean remove(final Object o) {
+    if (delegate.remove(o)) {
+      enqueueTimes.skipped(1);
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public void clear() {
+    while (delegate.poll() != null) {
+      enqueueTimes.skipped(1);
+    }
+  }
+
+  @Override
+  public E peek() {
+    return delegate.peek();
+  }
+
+  @Override
+  public int size() {
+    return delegate.size();
+  }
+
+  @Override
+  public int remainingCapacity() {
+    return delegate.remainingCapacity();
+  }
+
+  @Override
+  public boolean contains(final Object o) {
+    return delegate.contains(o);
+  }
+
+  @Override
+  public Object[] toArray() {
+    return delegate.toArray();
+  }
+
+  @Override
+  public <T> T[] toArray(final T[] a) {
+    return delegate.toArray(a);
+  }
+
+  @Override
+  public Iterator<E> iterator() {
+    final Iterator<E> iterator = delegate.iterator();
+    return new Iterator<E>() {
+      @Override
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
+
+      @Override
+      public E next() {
+        return iterator.next();
+      }
+
+      @Override
+      public void remove() {
+        iterator.remove();
+        enqueueTimes.skipped(1);
+      }
+    };
+  }
+
+  @Override
+  public String toString() {
+    return delegate.toString();
+  }
+
+  private long now() {
+    return clock.getTick(TimeUnit.NANOSECONDS);
+  }
+
+  private void dequeued(final long now) {
+    polls.inc();
+    final long enqueued = enqueueTimes.dequeued();
+    if (enqueued != EnqueueTimes.UNKNOWN) {
+      wait.observe(Math.max(0, now - enqueued) * SECONDS_PER_NANO);
+    }
+  }
+
+  private int drained(final int count) {
+    if (count > 0) {
+      final long now = now();
+      for (int i = 0; i < count; i++) {
+        dequeued(now);
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,209 @@
+package com.outbrain.swinfra.metrics.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * An {@link ExecutorService} that records the tasks submitted through it into the metrics of its pool.
+ * <p>
+ * Every task is wrapped in a single object that keeps the time it was submitted, the clock is read once when the task
+ * is submitted, once when it starts and once when it ends.
+ * </p>
+ */
+class InstrumentedExecutorService implements ExecutorService {
+
+  private final ExecutorService delegate;
+  final PoolMetrics metrics;
+
+  InstrumentedExecutorService(final ExecutorService delegate, final PoolMetrics metrics) {
+    this.delegate = delegate;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public void execute(final Runnable command) {
+    metrics.submitted();
+    try {
+      delegate.execute(new InstrumentedRunnable(metrics, command));
+    } catch (final RejectedExecutionException e) {
+      metrics.rejected();
+      throw e;
+    }
+  }
+
+  @Override
+  public Future<?> submit(final Runnable task) {
+    metrics.submitted();
+    try {
+      return delegate.submit(new InstrumentedRunnable(metrics, task));
+    } catch (final RejectedExecutionException e) {
+      metrics.rejected();
+      throw e;
+    }
+  }
+
+  @Override
+  public <T> Future<T> submit(final Runnable task, final T result) {
+    metrics.submitted();
+    try {
+      return delegate.submit(new InstrumentedRunnable(metrics, task), result);
+    } catch (final RejectedExecutionException e) {
+      metrics.rejected();
+      throw e;
+    }
+  }
+
+  @Override
+  public <T> Future<T> submit(final Callable<T> task) {
+    metrics.submitted();
+    try {
+      return delegate.submit(new InstrumentedCallable<>(metrics, task));
+    } catch (final RejectedExecutionException e) {
+      metrics.rejected();
+      throw e;
+    }
+  }
+
+  @Override
+  public <T> List<Future<T>> invokeAll(final Collection<? extends Callable<T>> tasks) throws InterruptedException {
+    final List<Callable<T>> instrumented = instrument(tasks);
+    try {
+      return delegate.invokeAll(instrumented);
+    } catch (final RejectedExecutionException e) {
+      metrics.rejected();
+      throw e;
+    }
+  }
+
+  @Override
+  public <T> List<Future<T>> invokeAll(final Collection<? extends Callable<T>> tasks,
+                                       final long timeout,
+                                       final TimeUnit unit) throws InterruptedException {
+    final List<Callable<T>> instrumented = instrument(tasks);
+    try {
+      return delegate.invokeAll(instrumented, timeout, unit);
+    } catch (final RejectedExecutionException e) {
+      metrics.rejected();
+      throw e;
+    }
+  }
+
+  @Override
+  public <T> T invokeAny(final Collection<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException {
+    final List<Callable<T>> instrumented = instrument(tasks);
+    try {
+      return delegate.invokeAny(instrumented);
+    } catch (final RejectedExecutionException e) {
+      metrics.rejected();
+      throw e;
+    }
+  }
+
+  @Override
+  public <T> T invokeAny(final Collection<? extends Callable<T>> tasks,
+                         final long timeout,
+                         final TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+    final List<Callable<T>> instrumented = instrument(tasks);
+    try {
+      return delegate.invokeAny(instrumented, timeout, unit);
+    } catch (final RejectedExecutionException e) {
+      metrics.rejected();
+      throw e;
+    }
+  }
+
+  private <T> List<Callable<T>> instrument(final Collection<? extends Callable<T>> tasks) {
+    final List<Callable<T>> instrumented = new ArrayList<>(tasks.size());
+    for (final Callable<T> task : tasks) {
+      metrics.submitted();
+      instrumented.add(new InstrumentedCallable<>(metrics, task));
+    }
+    return instrumented;
+  }
+
+  @Override
+  public void shutdown() {
+    delegate.shutdown();
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    return delegate.shutdownNow();
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return delegate.isShutdown();
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return delegate.isTerminated();
+  }
+
+  @Override
+  public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+    return delegate.awaitTermination(timeout, unit);
+  }
+
+  @Override
+  public String toString() {
+    return "Instrumented" + delegate;
+  }
+
+  static class InstrumentedRunnable implements Runnable {
+
+    private final PoolMetrics metrics;
+    private final Runnable task;
+    private final long submittedNanos;
+
+    InstrumentedRunnable(final PoolMetrics metrics, final Runnable task) {
+      this.metrics = metrics;
+      this.task = task;
+      this.submittedNanos = metrics.now();
+    }
+
+    @Override
+    public void run() {
+      final long start = metrics.now();
+      metrics.started(start - submittedNanos);
+      try {
+        task.run();
+      } finally {
+        metrics.completed(metrics.now() - start);
+      }
+    }
+  }
+
+  static class InstrumentedCallable<T> implements Callable<T> {
+
+    private final PoolMetrics metrics;
+    private final Callable<T> task;
+    private final long submittedNanos;
+
+    InstrumentedCallable(final PoolMetrics metrics, final Callable<T> task) {
+      this.metrics = metrics;
+      this.task = task;
+      this.submittedNanos = metrics.now();
+    }
+
+    @Override
+    public T call() throws Exception {
+      final long start = metrics.now();
+      metrics.started(start - submittedNanos);
+      try {
+        return task.call();
+      } finally {
+        metrics.completed(metrics.now() - start);
+      }
+    }
+  }
+}
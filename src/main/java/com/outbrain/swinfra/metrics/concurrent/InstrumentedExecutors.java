@@ -0,0 +1,167 @@
+package com.outbrain.swinfra.metrics.concurrent;
+
+import com.outbrain.swinfra.metrics.Counter;
+import com.outbrain.swinfra.metrics.Histogram;
+import com.outbrain.swinfra.metrics.MetricRegistry;
+import com.outbrain.swinfra.metrics.timing.Clock;
+import org.apache.commons.lang3.Validate;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.LongSupplier;
+
+import static com.outbrain.swinfra.metrics.timing.Clock.DEFAULT_CLOCK;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Wraps executors so that the tasks submitted through them are measured, with the metrics of every executor labeled
+ * by the name of its pool:
+ * <ul>
+ * <li>{@code executor_queue_wait_seconds} - the time from submitting a task (or from the time a scheduled task was
+ * due) until it starts</li>
+ * <li>{@code executor_execution_seconds} - the time a task runs</li>
+ * <li>{@code executor_submitted_total}, {@code executor_completed_total} and {@code executor_rejected_total}</li>
+ * <li>{@code executor_active_threads} and {@code executor_queued_tasks} - read from the pool when it reports them
+ * ({@link ThreadPoolExecutor} and {@link ForkJoinPool}), and estimated from the task counts otherwise</li>
+ * </ul>
+ * <p>
+ * The children of a pool are bound when it is instrumented, so a task costs a wrapper object, one clock read when it is
+ * submitted, started and completed, and an update of each bound child.
+ * </p>
+ * <pre>
+ * final InstrumentedExecutors executors = new InstrumentedExecutors.InstrumentedExecutorsBuilder().build();
+ * executors.registerMetricsTo(registry);
+ * final ExecutorService workers = executors.instrument("workers", Executors.newFixedThreadPool(8));
+ * </pre>
+ */
+public class InstrumentedExecutors {
+
+  private static final String POOL_LABEL = "pool";
+
+  private final Clock clock;
+  private final Histogram queueWait;
+  private final Histogram execution;
+  private final Counter submitted;
+  private final Counter completed;
+  private final Counter rejected;
+  private final NamedGauge<PoolMetrics> activeThreads;
+  private final NamedGauge<PoolMetrics> queuedTasks;
+  private final ConcurrentMap<String, PoolMetrics> metricsByPool = new ConcurrentSkipListMap<>();
+
+  private InstrumentedExecutors(final InstrumentedExecutorsBuilder builder) {
+    this.clock = builder.clock;
+    queueWait = histogram(builder, "executor_queue_wait_seconds", "The time tasks waited in the queue of an executor in seconds");
+    execution = histogram(builder, "executor_execution_seconds", "The time tasks of an executor ran in seconds");
+    submitted = counter("executor_submitted_total", "The number of tasks submitted to an executor");
+    completed = counter("executor_completed_total", "The number of tasks of an executor that completed, successfully or not");
+    rejected = counter("executor_rejected_total", "The number of tasks an executor rejected");
+    activeThreads = new NamedGauge<>("executor_active_threads", "The number of threads of an executor that run tasks",
+                                     POOL_LABEL, metricsByPool, PoolMetrics::getActiveThreads);
+    queuedTasks = new NamedGauge<>("executor_queued_tasks", "The number of tasks waiting in the queue of an executor",
+                                   POOL_LABEL, metricsByPool, PoolMetrics::getQueuedTasks);
+  }
+
+  /**
+   * Registers the metrics of all the pools, including the pools that are instrumented later, in the given registry
+   *
+   * @throws IllegalArgumentException if the registry already has other metrics with the same names, i.e. those of
+   *                                  another {@link InstrumentedExecutors}
+   */
+  public void registerMetricsTo(final MetricRegistry registry) {
+    registry.register(queueWait);
+    registry.register(execution);
+    registry.register(submitted);
+    registry.register(completed);
+    registry.register(rejected);
+    registry.register(activeThreads);
+    registry.register(queuedTasks);
+  }
+
+  public ExecutorService instrument(final String poolName, final ExecutorService executor) {
+    requireNonNull(executor, "executor may not be null");
+    if (executor instanceof ThreadPoolExecutor) {
+      final ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+      return new InstrumentedExecutorService(executor, newPool(poolName, pool::getActiveCount, () -> pool.getQueue().size()));
+    }
+    return new InstrumentedExecutorService(executor, newPool(poolName, null, null));
+  }
+
+  /**
+   * Scheduled tasks wait from the time they were due to run, and every run of a periodic task counts as a completed task
+   */
+  public ScheduledExecutorService instrument(final String poolName, final ScheduledExecutorService executor) {
+    requireNonNull(executor, "executor may not be null");
+    if (executor instanceof ThreadPoolExecutor) {
+      final ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+      return new InstrumentedScheduledExecutorService(executor, newPool(poolName, pool::getActiveCount, () -> pool.getQueue().size()));
+    }
+    return new InstrumentedScheduledExecutorService(executor, newPool(poolName, null, null));
+  }
+
+  /**
+   * Only the tasks submitted through the returned executor are timed, the tasks they fork run in the pool directly
+   */
+  public ExecutorService instrument(final String poolName, final ForkJoinPool pool) {
+    requireNonNull(pool, "pool may not be null");
+    return new InstrumentedExecutorService(pool, newPool(poolName, pool::getActiveThreadCount,
+                                                         () -> pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount()));
+  }
+
+  private PoolMetrics newPool(final String poolName, final LongSupplier activeThreads, final LongSupplier queuedTasks) {
+    Validate.notBlank(poolName, "The pool name must contain text");
+    final PoolMetrics pool = new PoolMetrics(clock,
+                                             queueWait.bind(poolName),
+                                             execution.bind(poolName),
+                                             submitted.bind(poolName),
+                                             completed.bind(poolName),
+                                             rejected.bind(poolName),
+                                             activeThreads,
+                                             queuedTasks);
+    Validate.isTrue(metricsByPool.putIfAbsent(poolName, pool) == null, "A pool named %s is already instrumented", poolName);
+    return pool;
+  }
+
+  private static Histogram histogram(final InstrumentedExecutorsBuilder builder, final String name, final String help) {
+    final Histogram.HistogramBuilder histogramBuilder = new Histogram.HistogramBuilder(name, help).withLabels(POOL_LABEL);
+    if (builder.buckets != null) {
+      histogramBuilder.withBuckets(builder.buckets);
+    }
+    return histogramBuilder.build();
+  }
+
+  private static Counter counter(final String name, final String help) {
+    return new Counter.CounterBuilder(name, help).withLabels(POOL_LABEL).build();
+  }
+
+  public static class InstrumentedExecutorsBuilder {
+
+    private Clock clock = DEFAULT_CLOCK;
+    private double[] buckets;
+
+    /**
+     * The clock that tasks are timed with, a {@link com.outbrain.swinfra.metrics.timing.CoarseClock} makes timing
+     * cheaper for pools of short tasks
+     */
+    public InstrumentedExecutorsBuilder withClock(final Clock clock) {
+      this.clock = requireNonNull(clock, "clock may not be null");
+      return this;
+    }
+
+    /**
+     * The buckets of the wait and execution histograms in seconds, the default buckets of a histogram otherwise
+     */
+    public InstrumentedExecutorsBuilder withBuckets(final double... buckets) {
+      Validate.isTrue(buckets.length > 0, "The buckets may not be empty");
+      this.buckets = buckets.clone();
+      return this;
+    }
+
+    public InstrumentedExecutors build() {
+      return new InstrumentedExecutors(this);
+    }
+  }
+}
@@ -0,0 +1,206 @@
+package com.outbrain.swinfra.metrics.concurrent;
+
+import com.outbrain.swinfra.metrics.Counter;
+import com.outbrain.swinfra.metrics.Histogram;
+import com.outbrain.swinfra.metrics.timing.Clock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A {@link Lock} that times its contended acquisitions into the metrics of {@link InstrumentedLocks}.
+ * <p>
+ * Every acquisition first tries the wrapped lock without waiting. An acquisition that succeeds that way is only
+ * counted, so an uncontended lock costs a counter increment and never reads the clock. An acquisition that has to wait
+ * is timed, and if the lock is exclusive, the time it is then held (until it is fully released by the same thread) is
+ * timed as well - holds of uncontended acquisitions are not timed. The hold time includes the time spent awaiting a
+ * {@link Condition} of the lock.
+ * </p>
+ */
+class InstrumentedLock implements Lock {
+
+  private static final double SECONDS_PER_NANO = 1.0 / TimeUnit.SECONDS.toNanos(1);
+
+  private final Lock delegate;
+  private final Clock clock;
+  /**
+   * Tells whether threads are waiting for a fair lock, which an acquisition must not barge ahead of, null if the lock
+   * is not fair
+   */
+  private final BooleanSupplier hasWaiters;
+  /**
+   * Tells whether the current thread holds the lock, so that an unlock by another thread fails before it changes the
+   * fields of the holder. Null if the lock cannot tell, in which case the fields are restored when the unlock fails
+   */
+  private final BooleanSupplier heldByCurrentThread;
+  private final Counter.Child acquisitions;
+  private final Counter.Child contended;
+  private final Histogram.Child wait;
+  /**
+   * Null if the lock may be held by several threads at once, whose holds cannot be kept in fields of this lock
+   */
+  private final Histogram.Child hold;
+
+  // Only accessed by the thread that holds the lock, which the lock itself makes visible to the next holder
+  private int holdDepth;
+  private boolean holdTimed;
+  private long holdStart;
+
+  InstrumentedLock(final Lock delegate,
+                   final Clock clock,
+                   final BooleanSupplier hasWaiters,
+                   final BooleanSupplier heldByCurrentThread,
+                   final Counter.Child acquisitions,
+                   final Counter.Child contended,
+                   final Histogram.Child wait,
+                   final Histogram.Child hold) {
+    this.delegate = delegate;
+    this.clock = clock;
+    this.hasWaiters = hasWaiters;
+    this.heldByCurrentThread = heldByCurrentThread;
+    this.acquisitions = acquisitions;
+    this.contended = contended;
+    this.wait = wait;
+    this.hold = hold;
+  }
+
+  @Override
+  public void lock() {
+    if (tryUncontended()) {
+      return;
+    }
+    contended.inc();
+    final long start = now();
+    delegate.lock();
+    acquiredAfterWaiting(start);
+  }
+
+  @Override
+  public void lockInterruptibly() throws InterruptedException {
+    // The uncontended attempt ignores interrupts, so an interrupted thread must fail before it, as it would with the lock
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+    if (tryUncontended()) {
+      return;
+    }
+    contended.inc();
+    final long start = now();
+    try {
+      delegate.lockInterruptibly();
+    } catch (final InterruptedException e) {
+      waited(start, now());
+      throw e;
+    }
+    acquiredAfterWaiting(start);
+  }
+
+  /**
+   * A failed attempt is counted as contended, and is not timed since it did not wait
+   */
+  @Override
+  public boolean tryLock() {
+    if (delegate.tryLock()) {
+      acquired(false, 0);
+      return true;
+    }
+    contended.inc();
+    return false;
+  }
+
+  @Override
+  public boolean tryLock(final long time, final TimeUnit unit) throws InterruptedException {
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+    if (tryUncontended()) {
+      return true;
+    }
+    contended.inc();
+    final long start = now();
+    final boolean locked;
+    try {
+      locked = delegate.tryLock(time, unit);
+    } catch (final InterruptedException e) {
+      waited(start, now());
+      throw e;
+    }
+    if (locked) {
+      acquiredAfterWaiting(start);
+    } else {
+      waited(start, now());
+    }
+    return locked;
+  }
+
+  /**
+   * The hold fields are updated before the delegate is released, since the next holder owns them once it is. A thread
+   * that does not hold the lock must not update them, so it is left to the delegate to throw
+   */
+  @Override
+  public void unlock() {
+    if (hold == null || (heldByCurrentThread != null && !heldByCurrentThread.getAsBoolean())) {
+      delegate.unlock();
+      return;
+    }
+    final int depth = holdDepth;
+    final boolean timed = holdTimed;
+    final long start = holdStart;
+    holdDepth = depth - 1;
+    if (holdDepth == 0) {
+      holdTimed = false;
+    }
+    try {
+      delegate.unlock();
+    } catch (final IllegalMonitorStateException e) {
+      holdDepth = depth;
+      holdTimed = timed;
+      throw e;
+    }
+    if (depth == 1 && timed) {
+      hold.observe(Math.max(0, now() - start) * SECONDS_PER_NANO);
+    }
+  }
+
+  @Override
+  public Condition newCondition() {
+    return delegate.newCondition();
+  }
+
+  @Override
+  public String toString() {
+    return delegate.toString();
+  }
+
+  private boolean tryUncontended() {
+    if ((hasWaiters == null || !hasWaiters.getAsBoolean()) && delegate.tryLock()) {
+      acquired(false, 0);
+      return true;
+    }
+    return false;
+  }
+
+  private void acquiredAfterWaiting(final long start) {
+    final long end = now();
+    waited(start, end);
+    acquired(true, end);
+  }
+
+  private void acquired(final boolean timed, final long start) {
+    acquisitions.inc();
+    if (hold != null && holdDepth++ == 0) {
+      holdTimed = timed;
+      holdStart = start;
+    }
+  }
+
+  private void waited(final long start, final long end) {
+    wait.observe(Math.max(0, end - start) * SECONDS_PER_NANO);
+  }
+
+  private long now() {
+    return clock.getTick(TimeUnit.NANOSECONDS);
+  }
+}
@@ -0,0 +1,157 @@
+package com.outbrain.swinfra.metrics.concurrent;
+
+import com.outbrain.swinfra.metrics.Counter;
+import com.outbrain.swinfra.metrics.Histogram;
+import com.outbrain.swinfra.metrics.MetricRegistry;
+import com.outbrain.swinfra.metrics.timing.Clock;
+import org.apache.commons.lang3.Validate;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+
+import static com.outbrain.swinfra.metrics.timing.Clock.DEFAULT_CLOCK;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Wraps locks to find out whether they are contended, with the metrics of every lock labeled by its name and by its
+ * mode ({@code exclusive} for a {@link Lock}, {@code read} and {@code write} for a {@link ReadWriteLock}):
+ * <ul>
+ * <li>{@code lock_acquisitions_total} - all the acquisitions</li>
+ * <li>{@code lock_contended_total} - the acquisitions that found the lock held, including failed {@code tryLock()}
+ * calls</li>
+ * <li>{@code lock_wait_seconds} - the time contended acquisitions waited</li>
+ * <li>{@code lock_hold_seconds} - the time an exclusive lock was held after a contended acquisition</li>
+ * </ul>
+ * <p>
+ * Uncontended acquisitions are only counted, so the instrumentation reads the clock only when the lock is contended
+ * anyway, and does not become a source of contention itself. See {@link InstrumentedLock}.
+ * </p>
+ * <p>
+ * Fair {@link ReentrantLock}s and {@link ReentrantReadWriteLock}s stay fair. A
+ * {@link java.util.concurrent.locks.StampedLock} can be instrumented through its {@code asReadWriteLock()} view.
+ * </p>
+ * <pre>
+ * final InstrumentedLocks locks = new InstrumentedLocks.InstrumentedLocksBuilder().build();
+ * locks.registerMetricsTo(registry);
+ * final Lock cacheLock = locks.instrument("cache", new ReentrantLock());
+ * </pre>
+ */
+public class InstrumentedLocks {
+
+  private static final String EXCLUSIVE = "exclusive";
+  private static final String READ = "read";
+  private static final String WRITE = "write";
+
+  private final Clock clock;
+  private final Counter acquisitions;
+  private final Counter contended;
+  private final Histogram wait;
+  private final Histogram hold;
+  private final Set<String> lockNames = ConcurrentHashMap.newKeySet();
+
+  private InstrumentedLocks(final InstrumentedLocksBuilder builder) {
+    this.clock = builder.clock;
+    acquisitions = counter("lock_acquisitions_total", "The number of times a lock was acquired");
+    contended = counter("lock_contended_total", "The number of times a lock was found held when it was acquired");
+    wait = histogram(builder, "lock_wait_seconds", "The time contended acquisitions of a lock waited in seconds");
+    hold = histogram(builder, "lock_hold_seconds", "The time a lock was held after a contended acquisition in seconds");
+  }
+
+  /**
+   * Registers the metrics of all the locks, including the locks that are instrumented later, in the given registry
+   *
+   * @throws IllegalArgumentException if the registry already has other metrics with the same names, i.e. those of
+   *                                  another {@link InstrumentedLocks}
+   */
+  public void registerMetricsTo(final MetricRegistry registry) {
+    registry.register(acquisitions);
+    registry.register(contended);
+    registry.register(wait);
+    registry.register(hold);
+  }
+
+  public Lock instrument(final String lockName, final Lock lock) {
+    requireNonNull(lock, "lock may not be null");
+    addLockName(lockName);
+    final BooleanSupplier hasWaiters = lock instanceof ReentrantLock && ((ReentrantLock) lock).isFair() ?
+                                       ((ReentrantLock) lock)::hasQueuedThreads : null;
+    final BooleanSupplier heldByCurrentThread = lock instanceof ReentrantLock ? ((ReentrantLock) lock)::isHeldByCurrentThread : null;
+    return newLock(lockName, EXCLUSIVE, lock, hasWaiters, heldByCurrentThread, true);
+  }
+
+  public ReadWriteLock instrument(final String lockName, final ReadWriteLock lock) {
+    requireNonNull(lock, "lock may not be null");
+    addLockName(lockName);
+    final BooleanSupplier hasWaiters = lock instanceof ReentrantReadWriteLock && ((ReentrantReadWriteLock) lock).isFair() ?
+                                       ((ReentrantReadWriteLock) lock)::hasQueuedThreads : null;
+    final BooleanSupplier writeHeldByCurrentThread = lock instanceof ReentrantReadWriteLock ?
+                                                     ((ReentrantReadWriteLock) lock)::isWriteLockedByCurrentThread : null;
+    return new InstrumentedReadWriteLock(newLock(lockName, READ, lock.readLock(), hasWaiters, null, false),
+                                         newLock(lockName, WRITE, lock.writeLock(), hasWaiters, writeHeldByCurrentThread, true));
+  }
+
+  private void addLockName(final String lockName) {
+    Validate.notBlank(lockName, "The lock name must contain text");
+    Validate.isTrue(lockNames.add(lockName), "A lock named %s is already instrumented", lockName);
+  }
+
+  private Lock newLock(final String lockName,
+                       final String mode,
+                       final Lock lock,
+                       final BooleanSupplier hasWaiters,
+                       final BooleanSupplier heldByCurrentThread,
+                       final boolean exclusive) {
+    return new InstrumentedLock(lock,
+                                clock,
+                                hasWaiters,
+                                heldByCurrentThread,
+                                acquisitions.bind(lockName, mode),
+                                contended.bind(lockName, mode),
+                                wait.bind(lockName, mode),
+                                exclusive ? hold.bind(lockName, mode) : null);
+  }
+
+  private static Counter counter(final String name, final String help) {
+    return new Counter.CounterBuilder(name, help).withLabels("lock", "mode").build();
+  }
+
+  private static Histogram histogram(final InstrumentedLocksBuilder builder, final String name, final String help) {
+    final Histogram.HistogramBuilder histogramBuilder = new Histogram.HistogramBuilder(name, help).withLabels("lock", "mode");
+    if (builder.buckets != null) {
+      histogramBuilder.withBuckets(builder.buckets);
+    }
+    return histogramBuilder.build();
+  }
+
+  public static class InstrumentedLocksBuilder {
+
+    private Clock clock = DEFAULT_CLOCK;
+    private double[] buckets;
+
+    /**
+     * The clock that contended acquisitions and holds are timed with
+     */
+    public InstrumentedLocksBuilder withClock(final Clock clock) {
+      this.clock = requireNonNull(clock, "clock may not be null");
+      return this;
+    }
+
+    /**
+     * The buckets of the wait and hold histograms in seconds, the default buckets of a histogram otherwise
+     */
+    public InstrumentedLocksBuilder withBuckets(final double... buckets) {
+      Validate.isTrue(buckets.length > 0, "The buckets may not be empty");
+      this.buckets = buckets.clone();
+      return this;
+    }
+
+    public InstrumentedLocks build() {
+      return new InstrumentedLocks(this);
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package com.outbrain.swinfra.metrics.concurrent;
+
+import com.outbrain.swinfra.metrics.Counter;
+import com.outbrain.swinfra.metrics.Histogram;
+import com.outbrain.swinfra.metrics.MetricRegistry;
+import com.outbrain.swinfra.metrics.timing.Clock;
+import org.apache.commons.lang3.Validate;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static com.outbrain.swinfra.metrics.timing.Clock.DEFAULT_CLOCK;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Wraps blocking queues so that the backpressure between the stages they connect is visible, with the metrics of every
+ * queue labeled by its name:
+ * <ul>
+ * <li>{@code queue_wait_seconds} - the time elements spent in the queue</li>
+ * <li>{@code queue_offers_total}, {@code queue_polls_total} and {@code queue_rejections_total} - every attempt to
+ * add an element is an offer, and an offer that found the queue full (or timed out) is a rejection</li>
+ * <li>{@code queue_depth} and {@code queue_remaining_capacity}</li>
+ * </ul>
+ * <p>
+ * See {@link InstrumentedBlockingQueue} for how the time in the queue is measured.
+ * </p>
+ * <pre>
+ * final InstrumentedQueues queues = new InstrumentedQueues.InstrumentedQueuesBuilder().build();
+ * queues.registerMetricsTo(registry);
+ * final BlockingQueue&lt;Event&gt; events = queues.instrument("events", new ArrayBlockingQueue&lt;&gt;(1024));
+ * </pre>
+ */
+public class InstrumentedQueues {
+
+  public static final int DEFAULT_MAX_RING_SIZE = 1 << 16;
+
+  private static final String QUEUE_LABEL = "queue";
+
+  private final Clock clock;
+  private final int maxRingSize;
+  private final Histogram wait;
+  private final Counter offers;
+  private final Counter polls;
+  private final Counter rejections;
+  private final NamedGauge<InstrumentedBlockingQueue<?>> depth;
+  private final NamedGauge<InstrumentedBlockingQueue<?>> remainingCapacity;
+  private final ConcurrentMap<String, InstrumentedBlockingQueue<?>> queuesByName = new ConcurrentSkipListMap<>();
+
+  private InstrumentedQueues(final InstrumentedQueuesBuilder builder) {
+    this.clock = builder.clock;
+    this.maxRingSize = builder.maxRingSize;
+    final Histogram.HistogramBuilder waitBuilder = new Histogram.HistogramBuilder("queue_wait_seconds",
+                                                                                  "The time elements spent in a queue in seconds")
+        .withLabels(QUEUE_LABEL);
+    if (builder.buckets != null) {
+      waitBuilder.withBuckets(builder.buckets);
+    }
+    wait = waitBuilder.build();
+    offers = counter("queue_offers_total", "The number of elements offered to a queue");
+    polls = counter("queue_polls_total", "The number of elements taken from a queue");
+    rejections = counter("queue_rejections_total", "The number of elements a queue rejected because it was full");
+    depth = new NamedGauge<>("queue_depth", "The number of elements in a queue",
+                             QUEUE_LABEL, queuesByName, BlockingQueue::size);
+    remainingCapacity = new NamedGauge<>("queue_remaining_capacity", "The number of elements a queue can still accept",
+                                         QUEUE_LABEL, queuesByName, BlockingQueue::remainingCapacity);
+  }
+
+  /**
+   * Registers the metrics of all the queues, including the queues that are instrumented later, in the given registry
+   *
+   * @throws IllegalArgumentException if the registry already has other metrics with the same names, i.e. those of
+   *                                  another {@link InstrumentedQueues}
+   */
+  public void registerMetricsTo(final MetricRegistry registry) {
+    registry.register(wait);
+    registry.register(offers);
+    registry.register(polls);
+    registry.register(rejections);
+    registry.register(depth);
+    registry.register(remainingCapacity);
+  }
+
+  public <E> InstrumentedBlockingQueue<E> instrument(final String queueName, final BlockingQueue<E> queue) {
+    Validate.notBlank(queueName, "The queue name must contain text");
+    requireNonNull(queue, "queue may not be null");
+    final InstrumentedBlockingQueue<E> instrumented = new InstrumentedBlockingQueue<>(queue,
+                                                                                       clock,
+                                                                                       maxRingSize,
+                                                                                       wait.bind(queueName),
+                                                                                       offers.bind(queueName),
+                                                                                       polls.bind(queueName),
+                                                                                       rejections.bind(queueName));
+    Validate.isTrue(queuesByName.putIfAbsent(queueName, instrumented) == null, "A queue named %s is already instrumented", queueName);
+    return instrumented;
+  }
+
+  private static Counter counter(final String name, final String help) {
+    return new Counter.CounterBuilder(name, help).withLabels(QUEUE_LABEL).build();
+  }
+
+  public static class InstrumentedQueuesBuilder {
+
+    private Clock clock = DEFAULT_CLOCK;
+    private double[] buckets;
+    private int maxRingSize = DEFAULT_MAX_RING_SIZE;
+
+    /**
+     * The clock that elements are timed with
+     */
+    public InstrumentedQueuesBuilder withClock(final Clock clock) {
+      this.clock = requireNonNull(clock, "clock may not be null");
+      return this;
+    }
+
+    /**
+     * The buckets of the wait histogram in seconds, the default buckets of a histogram otherwise
+     */
+    public InstrumentedQueuesBuilder withBuckets(final double... buckets) {
+      Validate.isTrue(buckets.length > 0, "The buckets may not be empty");
+      this.buckets = buckets.clone();
+      return this;
+    }
+
+    /**
+     * The maximal number of enqueue times kept for a queue, defaults to {@link #DEFAULT_MAX_RING_SIZE}. A queue keeps
+     * the times of up to its capacity of elements, capped by this size, and elements deeper in the queue are not timed
+     */
+    public InstrumentedQueuesBuilder withMaxRingSize(final int maxRingSize) {
+      Validate.inclusiveBetween(1, 1 << 30, maxRingSize, "The maximal ring size must be between 1 and 2^30");
+      this.maxRingSize = maxRingSize;
+      return this;
+    }
+
+    public InstrumentedQueues build() {
+      return new InstrumentedQueues(this);
+    }
+  }
+}
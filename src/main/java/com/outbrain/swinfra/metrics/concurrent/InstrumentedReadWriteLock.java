@@ -0,0 +1,29 @@
+package com.outbrain.swinfra.metrics.concurrent;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * A {@link ReadWriteLock} whose read and write locks are each an {@link InstrumentedLock}. The read lock may be held by
+ * several threads at once, so only its acquisitions are timed, not its holds.
+ */
+class InstrumentedReadWriteLock implements ReadWriteLock {
+
+  private final Lock readLock;
+  private final Lock writeLock;
+
+  InstrumentedReadWriteLock(final Lock readLock, final Lock writeLock) {
+    this.readLock = readLock;
+    this.writeLock = writeLock;
+  }
+
+  @Override
+  public Lock readLock() {
+    return readLock;
+  }
+
+  @Override
+  public Lock writeLock() {
+    return writeLock;
+  }
+}
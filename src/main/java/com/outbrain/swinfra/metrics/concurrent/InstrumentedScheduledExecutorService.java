@@ -0,0 +1,137 @@
+package com.outbrain.swinfra.metrics.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link ScheduledExecutorService} that records the tasks submitted through it into the metrics of its pool.
+ * <p>
+ * The wait of a scheduled task is measured from the time it was due to run, so it is the task's lateness. A periodic
+ * task is submitted once, and every run of it is recorded as an execution.
+ * </p>
+ */
+class InstrumentedScheduledExecutorService extends InstrumentedExecutorService implements ScheduledExecutorService {
+
+  private final ScheduledExecutorService delegate;
+
+  InstrumentedScheduledExecutorService(final ScheduledExecutorService delegate, final PoolMetrics metrics) {
+    super(delegate, metrics);
+    this.delegate = delegate;
+  }
+
+  @Override
+  public ScheduledFuture<?> schedule(final Runnable command, final long delay, final TimeUnit unit) {
+    metrics.submitted();
+    try {
+      return delegate.schedule(new ScheduledRunnable(metrics, command, unit.toNanos(delay), 0), delay, unit);
+    } catch (final RejectedExecutionException e) {
+      metrics.rejected();
+      throw e;
+    }
+  }
+
+  @Override
+  public <V> ScheduledFuture<V> schedule(final Callable<V> callable, final long delay, final TimeUnit unit) {
+    metrics.submitted();
+    try {
+      return delegate.schedule(new ScheduledCallable<>(metrics, callable, unit.toNanos(delay)), delay, unit);
+    } catch (final RejectedExecutionException e) {
+      metrics.rejected();
+      throw e;
+    }
+  }
+
+  @Override
+  public ScheduledFuture<?> scheduleAtFixedRate(final Runnable command,
+                                                final long initialDelay,
+                                                final long period,
+                                                final TimeUnit unit) {
+    metrics.submitted();
+    try {
+      final ScheduledRunnable task = new ScheduledRunnable(metrics, command, unit.toNanos(initialDelay), unit.toNanos(period));
+      return delegate.scheduleAtFixedRate(task, initialDelay, period, unit);
+    } catch (final RejectedExecutionException e) {
+      metrics.rejected();
+      throw e;
+    }
+  }
+
+  @Override
+  public ScheduledFuture<?> scheduleWithFixedDelay(final Runnable command,
+                                                   final long initialDelay,
+                                                   final long delay,
+                                                   final TimeUnit unit) {
+    metrics.submitted();
+    try {
+      final ScheduledRunnable task = new ScheduledRunnable(metrics, command, unit.toNanos(initialDelay), -unit.toNanos(delay));
+      return delegate.scheduleWithFixedDelay(task, initialDelay, delay, unit);
+    } catch (final RejectedExecutionException e) {
+      metrics.rejected();
+      throw e;
+    }
+  }
+
+  /**
+   * A scheduled task that keeps the time its next run is due, so the wait of every run is its lateness
+   */
+  private static class ScheduledRunnable implements Runnable {
+
+    private final PoolMetrics metrics;
+    private final Runnable task;
+    /**
+     * Positive for a fixed rate, negative for a fixed delay (as in {@link java.util.concurrent.ScheduledThreadPoolExecutor}),
+     * 0 for a task that runs once
+     */
+    private final long periodNanos;
+    private long dueNanos;
+
+    private ScheduledRunnable(final PoolMetrics metrics, final Runnable task, final long delayNanos, final long periodNanos) {
+      this.metrics = metrics;
+      this.task = task;
+      this.periodNanos = periodNanos;
+      this.dueNanos = metrics.now() + delayNanos;
+    }
+
+    @Override
+    public void run() {
+      final long start = metrics.now();
+      metrics.started(start - dueNanos);
+      long end = start;
+      try {
+        task.run();
+      } finally {
+        end = metrics.now();
+        metrics.completed(end - start);
+        // Runs of a periodic task never overlap, so the next due time is only written by the running thread
+        dueNanos = periodNanos > 0 ? dueNanos + periodNanos : end - periodNanos;
+      }
+    }
+  }
+
+  private static class ScheduledCallable<V> implements Callable<V> {
+
+    private final PoolMetrics metrics;
+    private final Callable<V> task;
+    private final long dueNanos;
+
+    private ScheduledCallable(final PoolMetrics metrics, final Callable<V> task, final long delayNanos) {
+      this.metrics = metrics;
+      this.task = task;
+      this.dueNanos = metrics.now() + delayNanos;
+    }
+
+    @Override
+    public V call() throws Exception {
+      final long start = metrics.now();
+      metrics.started(start - dueNanos);
+      try {
+        return task.call();
+      } finally {
+        metrics.completed(metrics.now() - start);
+      }
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package com.outbrain.swinfra.metrics.concurrent;
+
+import com.outbrain.swinfra.metrics.Metric;
+import com.outbrain.swinfra.metrics.data.MetricDataConsumer;
+import com.outbrain.swinfra.metrics.utils.MetricType;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * A gauge with a child per instrumented object (a pool or a queue), labeled by its name and read when it is exported.
+ * Its children are added after it is built, so it is implemented directly rather than with value suppliers that are
+ * fixed when a gauge is built.
+ */
+final class NamedGauge<T> implements Metric {
+
+  private final String name;
+  private final String help;
+  private final String labelName;
+  private final Map<String, T> byName;
+  private final ToLongFunction<T> value;
+
+  NamedGauge(final String name,
+             final String help,
+             final String labelName,
+             final Map<String, T> byName,
+             final ToLongFunction<T> value) {
+    this.name = name;
+    this.help = help;
+    this.labelName = labelName;
+    this.byName = byName;
+    this.value = value;
+  }
+
+  @Override
+  public MetricType getType() {
+    return MetricType.GAUGE;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public String getHelp() {
+    return help;
+  }
+
+  @Override
+  public List<String> getLabelNames() {
+    return Collections.singletonList(labelName);
+  }
+
+  @Override
+  public void forEachMetricData(final MetricDataConsumer consumer) {
+    for (final Map.Entry<String, T> entry : byName.entrySet()) {
+      consumer.consumeGauge(this, Collections.singletonList(entry.getKey()), value.applyAsLong(entry.getValue()));
+    }
+  }
+
+  @Override
+  public int getChildCount() {
+    return byName.size();
+  }
+}
@@ -0,0 +1,80 @@
+package com.outbrain.swinfra.metrics.concurrent;
+
+import com.outbrain.swinfra.metrics.Counter;
+import com.outbrain.swinfra.metrics.Histogram;
+import com.outbrain.swinfra.metrics.timing.Clock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * The children of a single pool in the metrics of {@link InstrumentedExecutors}, bound once when the pool is
+ * instrumented so that recording a task does not look anything up
+ */
+final class PoolMetrics {
+
+  private static final double SECONDS_PER_NANO = 1.0 / TimeUnit.SECONDS.toNanos(1);
+
+  private final Clock clock;
+  private final Histogram.Child queueWait;
+  private final Histogram.Child execution;
+  private final Counter.Child submitted;
+  private final Counter.Child completed;
+  private final Counter.Child rejected;
+  private final LongAdder started = new LongAdder();
+  private final LongSupplier activeThreads;
+  private final LongSupplier queuedTasks;
+
+  PoolMetrics(final Clock clock,
+              final Histogram.Child queueWait,
+              final Histogram.Child execution,
+              final Counter.Child submitted,
+              final Counter.Child completed,
+              final Counter.Child rejected,
+              final LongSupplier activeThreads,
+              final LongSupplier queuedTasks) {
+    this.clock = clock;
+    this.queueWait = queueWait;
+    this.execution = execution;
+    this.submitted = submitted;
+    this.completed = completed;
+    this.rejected = rejected;
+    // Executors that do not report their own state are estimated from the counts of their tasks
+    this.activeThreads = activeThreads != null ? activeThreads : () -> started.sum() - completed.getValue();
+    this.queuedTasks = queuedTasks != null ? queuedTasks : () -> submitted.getValue() - rejected.getValue() - started.sum();
+  }
+
+  long now() {
+    return clock.getTick(TimeUnit.NANOSECONDS);
+  }
+
+  void submitted() {
+    submitted.inc();
+  }
+
+  void rejected() {
+    rejected.inc();
+  }
+
+  /**
+   * @param waitNanos the time the task waited since it was submitted (or was due to run)
+   */
+  void started(final long waitNanos) {
+    started.increment();
+    queueWait.observe(Math.max(0, waitNanos) * SECONDS_PER_NANO);
+  }
+
+  void completed(final long executionNanos) {
+    execution.observe(executionNanos * SECONDS_PER_NANO);
+    completed.inc();
+  }
+
+  long getActiveThreads() {
+    return activeThreads.getAsLong();
+  }
+
+  long getQueuedTasks() {
+    return queuedTasks.getAsLong();
+  }
+}
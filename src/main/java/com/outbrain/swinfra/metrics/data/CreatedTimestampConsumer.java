@@ -0,0 +1,14 @@
+package com.outbrain.swinfra.metrics.data;
+
+import com.outbrain.swinfra.metrics.Metric;
+
+import java.util.List;
+
+/**
+ * A {@link MetricDataConsumer} that also implements this interface will be told when each child of a counter,
+ * summary or histogram was created. The creation time is reported right before the child's own data is consumed.
+ */
+public interface CreatedTimestampConsumer {
+
+    void consumeCreated(Metric metric, List<String> labelValues, long createdTimeMillis);
+}
@@ -0,0 +1,18 @@
+package com.outbrain.swinfra.metrics.data;
+
+import com.outbrain.swinfra.metrics.Metric;
+import com.outbrain.swinfra.metrics.exemplars.Exemplar;
+
+import java.util.List;
+
+/**
+ * A {@link MetricDataConsumer} that also implements this interface will be given the exemplar of each counter child
+ * that has one. The exemplar is reported right before the child's own data is consumed.
+ * <p>
+ * Histogram exemplars are kept per bucket and are available through {@link HistogramData#getExemplar(int)}.
+ * </p>
+ */
+public interface ExemplarConsumer {
+
+    void consumeExemplar(Metric metric, List<String> labelValues, Exemplar exemplar);
+}
@@ -0,0 +1,30 @@
+package com.outbrain.swinfra.metrics.data;
+
+import com.outbrain.swinfra.metrics.Metric;
+
+import java.util.List;
+
+/**
+ * A {@link MetricDataConsumer} that also implements this interface is given the buckets of the library's histograms as
+ * primitive arrays, instead of through {@link MetricDataConsumer#consumeHistogram(Metric, List, HistogramData)}. The
+ * cumulative counts are written into a buffer that the consumer provides, so reading a histogram child allocates
+ * nothing.
+ * <p>
+ * Histogram exemplars are not reported through this interface.
+ * </p>
+ */
+public interface HistogramCountsConsumer {
+
+    /**
+     * @return an array of at least the given length, that the cumulative bucket counts of the next histogram child are
+     * written into
+     */
+    long[] bucketCountsBuffer(int bucketCount);
+
+    /**
+     * @param upperBounds      the upper bounds of the buckets, owned by the histogram and must not be modified
+     * @param cumulativeCounts the buffer returned by {@link #bucketCountsBuffer(int)}, holding <i>bucketCount</i> counts
+     */
+    void consumeHistogram(Metric metric, List<String> labelValues,
+                          double[] upperBounds, long[] cumulativeCounts, int bucketCount, double sum);
+}
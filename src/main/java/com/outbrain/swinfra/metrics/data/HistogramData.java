@@ -1,5 +1,7 @@
 package com.outbrain.swinfra.metrics.data;
 
+import com.outbrain.swinfra.metrics.exemplars.Exemplar;
+
 public interface HistogramData {
 
     long getCount();
@@ -7,4 +9,12 @@ public interface HistogramData {
     double getSum();
 
     void consumeBuckets(HistogramBucketsConsumer consumer);
+
+    /**
+     * @param bucketIndex the index of the bucket, in the order the buckets are consumed
+     * @return the exemplar recorded in the given bucket, or null if there is none
+     */
+    default Exemplar getExemplar(final int bucketIndex) {
+        return null;
+    }
 }
@@ -0,0 +1,51 @@
+package com.outbrain.swinfra.metrics.exemplars;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An exemplar is a single observation, along with a set of labels that identify it (usually a trace ID), that is
+ * exposed together with the counter or histogram bucket it was recorded in.
+ * <p>
+ * Exemplar instances are immutable so they can be published to readers without locking.
+ * </p>
+ *
+ * @see <a href="https://github.com/OpenObservability/OpenMetrics/blob/main/specification/OpenMetrics.md#exemplars">Exemplars</a>
+ */
+public class Exemplar {
+
+  private final Map<String, String> labels;
+  private final double value;
+  private final long timestampMillis;
+
+  public Exemplar(final Map<String, String> labels, final double value, final long timestampMillis) {
+    this.labels = Collections.unmodifiableMap(new LinkedHashMap<>(labels));
+    this.value = value;
+    this.timestampMillis = timestampMillis;
+  }
+
+  public Map<String, String> getLabels() {
+    return labels;
+  }
+
+  public double getValue() {
+    return value;
+  }
+
+  /**
+   * The wall-clock time, in milliseconds since the epoch, in which this exemplar was recorded
+   */
+  public long getTimestampMillis() {
+    return timestampMillis;
+  }
+
+  @Override
+  public String toString() {
+    return "Exemplar{" +
+        "labels=" + labels +
+        ", value=" + value +
+        ", timestampMillis=" + timestampMillis +
+        '}';
+  }
+}
@@ -0,0 +1,40 @@
+package com.outbrain.swinfra.metrics.exemplars;
+
+/**
+ * Decides whether an observation should replace the exemplar currently kept in a slot.
+ * <p>
+ * The sampler is consulted on every observation that carries an exemplar, so implementations should only read the
+ * current exemplar and never allocate. A new exemplar is created (and written to the slot) only when the sampler
+ * accepts the observation.
+ * </p>
+ */
+@FunctionalInterface
+public interface ExemplarSampler {
+
+  long DEFAULT_MIN_INTERVAL_MILLIS = 100;
+
+  /**
+   * @param current   the exemplar that is currently kept in the slot, or null if the slot is empty
+   * @param value     the observed value
+   * @param nowMillis the current wall-clock time in milliseconds
+   * @return true if the observation should replace the current exemplar
+   */
+  boolean shouldSample(Exemplar current, double value, long nowMillis);
+
+  /**
+   * A sampler that replaces an exemplar at most once in the given interval
+   */
+  static ExemplarSampler rateLimited(final long minIntervalMillis) {
+    return (current, value, nowMillis) ->
+        current == null || nowMillis - current.getTimestampMillis() >= minIntervalMillis;
+  }
+
+  /**
+   * A sampler that keeps the largest (i.e. the slowest) observation. An exemplar that is older than the given age is
+   * replaced by the next observation, so a single outlier is not kept forever.
+   */
+  static ExemplarSampler keepMax(final long maxAgeMillis) {
+    return (current, value, nowMillis) ->
+        current == null || value > current.getValue() || nowMillis - current.getTimestampMillis() >= maxAgeMillis;
+  }
+}
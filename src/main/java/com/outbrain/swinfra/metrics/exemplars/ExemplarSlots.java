@@ -0,0 +1,39 @@
+package com.outbrain.swinfra.metrics.exemplars;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed number of lock-free exemplar slots, i.e. one per histogram bucket or a single one for a counter child.
+ * <p>
+ * Offering an exemplar only reads the current slot value unless the {@link ExemplarSampler} accepts the observation,
+ * in which case the new exemplar is published with a single compare-and-set. Losing the race to a concurrent writer
+ * simply means the other observation is kept.
+ * </p>
+ */
+public class ExemplarSlots {
+
+  private final ExemplarSampler sampler;
+  private final AtomicReferenceArray<Exemplar> slots;
+
+  public ExemplarSlots(final ExemplarSampler sampler, final int size) {
+    this.sampler = sampler;
+    this.slots = new AtomicReferenceArray<>(size);
+  }
+
+  public void offer(final int slot, final double value, final Map<String, String> labels) {
+    final long nowMillis = System.currentTimeMillis();
+    final Exemplar current = slots.get(slot);
+    if (sampler.shouldSample(current, value, nowMillis)) {
+      slots.compareAndSet(slot, current, new Exemplar(labels, value, nowMillis));
+    }
+  }
+
+  public Exemplar get(final int slot) {
+    return slots.get(slot);
+  }
+
+  public int size() {
+    return slots.length();
+  }
+}
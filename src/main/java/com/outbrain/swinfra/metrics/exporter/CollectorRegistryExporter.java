@@ -2,6 +2,7 @@ package com.outbrain.swinfra.metrics.exporter;
 
 import com.outbrain.swinfra.metrics.MetricCollector;
 import com.outbrain.swinfra.metrics.MetricCollectorRegistry;
+import org.apache.commons.lang3.Validate;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -11,20 +12,93 @@ import java.util.function.Function;
 
 public class CollectorRegistryExporter {
 
+    private static final byte[] NO_TRAILER = new byte[0];
+
     private final MetricCollectorRegistry registry;
     private final Map<MetricCollector, CollectorExporter> exporterByCollectorMap = new ConcurrentHashMap<>();
     private final Function<? super MetricCollector, ? extends CollectorExporter> createExporter;
+    private final byte[] trailer;
 
     public CollectorRegistryExporter(final MetricCollectorRegistry registry, final Function<? super MetricCollector, ? extends CollectorExporter> createExporter) {
+        this(registry, createExporter, NO_TRAILER);
+    }
+
+    /**
+     * @param trailer bytes that are written once after all the collectors were exported, for formats that mark the end
+     *                of the exposition (i.e. the <i># EOF</i> line of OpenMetrics)
+     */
+    public CollectorRegistryExporter(final MetricCollectorRegistry registry,
+                                     final Function<? super MetricCollector, ? extends CollectorExporter> createExporter,
+                                     final byte[] trailer) {
         this.registry = registry;
         this.createExporter = createExporter;
+        this.trailer = trailer.clone();
     }
 
     public void export(final OutputStream outputStream) throws IOException {
         for (final MetricCollector collector : registry) {
-            final CollectorExporter exporter = exporterByCollectorMap.computeIfAbsent(collector, createExporter);
+            exporterFor(collector).exportTo(outputStream);
+        }
+        writeTrailer(outputStream);
+    }
+
+    /**
+     * Exports only the metrics and children that are selected by the given filter
+     *
+     * @throws IllegalArgumentException if this exporter does not {@link #supports(ExportFilter) support} the filter,
+     *                                  before anything is written
+     */
+    public void export(final OutputStream outputStream, final ExportFilter filter) throws IOException {
+        checkSupported(filter);
+        for (final MetricCollector collector : registry) {
+            exportTo(exporterFor(collector), outputStream, filter);
+        }
+        writeTrailer(outputStream);
+    }
+
+    /**
+     * @return true unless the given filter restricts the export and one of the collectors has an exporter that cannot
+     * filter, one that is not a {@link PartialCollectorExporter}
+     */
+    public boolean supports(final ExportFilter filter) {
+        if (filter.selectsAllMetrics() && filter.selectsAllChildren()) {
+            return true;
+        }
+        for (final MetricCollector collector : registry) {
+            if (!(exporterFor(collector) instanceof PartialCollectorExporter)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    MetricCollectorRegistry getRegistry() {
+        return registry;
+    }
+
+    CollectorExporter exporterFor(final MetricCollector collector) {
+        return exporterByCollectorMap.computeIfAbsent(collector, createExporter);
+    }
+
+    void checkSupported(final ExportFilter filter) {
+        Validate.isTrue(supports(filter), "The exporters of the registry cannot filter the export");
+    }
+
+    /**
+     * Exports what the given filter selects of the collector of the given exporter, whole unless the exporter can filter
+     * - callers check that the filter is {@link #supports(ExportFilter) supported} first
+     */
+    static void exportTo(final CollectorExporter exporter, final OutputStream outputStream, final ExportFilter filter) throws IOException {
+        if (exporter instanceof PartialCollectorExporter) {
+            ((PartialCollectorExporter) exporter).exportTo(outputStream, filter);
+        } else {
             exporter.exportTo(outputStream);
         }
+    }
 
+    void writeTrailer(final OutputStream outputStream) throws IOException {
+        if (trailer.length > 0) {
+            outputStream.write(trailer);
+        }
     }
 }
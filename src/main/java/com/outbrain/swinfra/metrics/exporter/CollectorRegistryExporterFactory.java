@@ -1,24 +1,170 @@
 package com.outbrain.swinfra.metrics.exporter;
 
+import com.outbrain.swinfra.metrics.MetricCollector;
 import com.outbrain.swinfra.metrics.MetricCollectorRegistry;
 import com.outbrain.swinfra.metrics.exporter.protobuf.ProtobufFormatter;
+import com.outbrain.swinfra.metrics.exporter.text.OpenMetricsFormatter;
 import com.outbrain.swinfra.metrics.exporter.text.TextFormatter;
 
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 public enum CollectorRegistryExporterFactory {
 
-  TEXT_004 {
-    @Override
-    public CollectorRegistryExporter create(final MetricCollectorRegistry registry) {
-      return new CollectorRegistryExporter(registry, TextFormatter::new);
+  TEXT_004(TextFormatter.CONTENT_TYPE_004, TextFormatter::new, new byte[0]),
+
+  PROTOBUF(ProtobufFormatter.CONTENT_TYPE_PROTOBUF, ProtobufFormatter::new, new byte[0]),
+
+  OPENMETRICS_1_0(OpenMetricsFormatter.CONTENT_TYPE_OPENMETRICS_100, OpenMetricsFormatter::new, OpenMetricsFormatter.EOF.getBytes(UTF_8));
+
+  private final String contentType;
+  private final Function<MetricCollector, CollectorExporter> createExporter;
+  private final byte[] trailer;
+
+  CollectorRegistryExporterFactory(final String contentType,
+                                   final Function<MetricCollector, CollectorExporter> createExporter,
+                                   final byte[] trailer) {
+    this.contentType = contentType;
+    this.createExporter = createExporter;
+    this.trailer = trailer;
+  }
+
+  /**
+   * The value of the <i>Content-Type</i> header that should accompany this format's output
+   */
+  public String getContentType() {
+    return contentType;
+  }
+
+  /**
+   * Chooses the exposition format according to the value of an HTTP <i>Accept</i> header.
+   * <p>
+   * The protobuf and OpenMetrics formats are chosen only when explicitly requested with a non-zero quality, and the
+   * format with the highest quality wins (protobuf taking precedence on a tie, as described in the Prometheus exposition
+   * formats document). The 0.0.4 text format is accepted by <i>text/plain</i>, or by a wildcard when <i>text/plain</i>
+   * is not listed. In any other case (including a missing header) the 0.0.4 text format is used.
+   * </p>
+   *
+   * @param acceptHeader the value of the <i>Accept</i> header, may be null
+   * @see <a href="https://prometheus.io/docs/instrumenting/exposition_formats/">Exposition formats</a>
+   */
+  public static CollectorRegistryExporterFactory negotiate(final String acceptHeader) {
+    if (acceptHeader == null) {
+      return TEXT_004;
+    }
+    double protobufQuality = 0;
+    double openMetricsQuality = 0;
+    double textQuality = -1;
+    double textWildcardQuality = -1;
+    double wildcardQuality = -1;
+    for (final String mediaRange : acceptHeader.split(",")) {
+      final String[] parts = mediaRange.split(";");
+      final String mediaType = parts[0].trim().toLowerCase(Locale.ROOT);
+      final double quality = parameter(parts, "q", 1);
+      switch (mediaType) {
+        case "application/vnd.google.protobuf":
+          if ("io.prometheus.client.MetricFamily".equals(parameter(parts, "proto")) &&
+              "delimited".equals(parameter(parts, "encoding"))) {
+            protobufQuality = Math.max(protobufQuality, quality);
+          }
+          break;
+        case "application/openmetrics-text":
+          openMetricsQuality = Math.max(openMetricsQuality, quality);
+          break;
+        case "text/plain":
+          textQuality = Math.max(textQuality, quality);
+          break;
+        case "text/*":
+          textWildcardQuality = Math.max(textWildcardQuality, quality);
+          break;
+        case "*/*":
+          wildcardQuality = Math.max(wildcardQuality, quality);
+          break;
+        default:
+          break;
+      }
+    }
+    // The most specific range that matches the text format sets its quality, so "text/plain;q=0, */*" does not accept it
+    final double text = textQuality >= 0 ? textQuality : textWildcardQuality >= 0 ? textWildcardQuality : wildcardQuality;
+    if (protobufQuality > 0 && protobufQuality >= openMetricsQuality && protobufQuality >= text) {
+      return PROTOBUF;
+    }
+    if (openMetricsQuality > 0 && openMetricsQuality >= text) {
+      return OPENMETRICS_1_0;
+    }
+    return TEXT_004;
+  }
+
+  /**
+   * @return the value of the given parameter of a media range, or null if it is missing
+   */
+  private static String parameter(final String[] mediaRangeAndParameters, final String name) {
+    for (int i = 1; i < mediaRangeAndParameters.length; i++) {
+      final String parameter = mediaRangeAndParameters[i];
+      final int separator = parameter.indexOf('=');
+      if (separator > 0 && parameter.substring(0, separator).trim().equalsIgnoreCase(name)) {
+        return parameter.substring(separator + 1).trim();
+      }
     }
-  },
+    return null;
+  }
 
-  PROTOBUF {
-    @Override
-    public CollectorRegistryExporter create(final MetricCollectorRegistry registry) {
-      return new CollectorRegistryExporter(registry, ProtobufFormatter::new);
+  /**
+   * @return the numeric value of the given parameter of a media range, the given default when it is missing, or 0 when
+   * it is malformed
+   */
+  private static double parameter(final String[] mediaRangeAndParameters, final String name, final double defaultValue) {
+    final String value = parameter(mediaRangeAndParameters, name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Double.parseDouble(value);
+    } catch (final NumberFormatException e) {
+      return 0;
     }
-  };
+  }
+
+  public CollectorRegistryExporter create(final MetricCollectorRegistry registry) {
+    return new CollectorRegistryExporter(registry, createExporter, trailer);
+  }
+
+  /**
+   * Creates an exporter that measures its own scrapes
+   *
+   * @see ExportInstrumentation
+   */
+  public CollectorRegistryExporter createInstrumented(final MetricCollectorRegistry registry,
+                                                      final ExportInstrumentation instrumentation) {
+    return new InstrumentedCollectorRegistryExporter(registry, createExporter, trailer, instrumentation);
+  }
+
+  /**
+   * Creates an exporter that exports registries with at least
+   * {@link ParallelCollectorRegistryExporter#DEFAULT_PARALLELISM_THRESHOLD} metric families in parallel, using the
+   * common fork-join pool
+   */
+  public CollectorRegistryExporter createParallel(final MetricCollectorRegistry registry) {
+    return createParallel(registry, ForkJoinPool.commonPool(), ParallelCollectorRegistryExporter.DEFAULT_PARALLELISM_THRESHOLD);
+  }
+
+  public CollectorRegistryExporter createParallel(final MetricCollectorRegistry registry,
+                                                  final ForkJoinPool pool,
+                                                  final int parallelismThreshold) {
+    return new ParallelCollectorRegistryExporter(registry, createExporter, trailer, pool, parallelismThreshold);
+  }
 
-  public abstract CollectorRegistryExporter create(MetricCollectorRegistry registry);
+  /**
+   * @see ParallelCollectorRegistryExporter
+   */
+  public CollectorRegistryExporter createParallel(final MetricCollectorRegistry registry,
+                                                  final Executor executor,
+                                                  final int parallelism,
+                                                  final int parallelismThreshold) {
+    return new ParallelCollectorRegistryExporter(registry, createExporter, trailer, executor, parallelism, parallelismThreshold);
+  }
 }
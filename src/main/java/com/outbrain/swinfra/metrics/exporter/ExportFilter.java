@@ -0,0 +1,249 @@
+package com.outbrain.swinfra.metrics.exporter;
+
+import com.outbrain.swinfra.metrics.Metric;
+import com.outbrain.swinfra.metrics.MetricCollector;
+import org.apache.commons.lang3.Validate;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Selects the metrics and children that a scrape exports.
+ * <p>
+ * A filter selects metrics by exact names and by name prefixes (a metric is selected if it matches any of them, and all
+ * the metrics are selected if neither was given), and then selects the children of these metrics by label matchers (a
+ * child is selected if it matches all of them). A matcher compares a label's value to an exact value - a label that a
+ * metric does not have is considered to have an empty value, as in Prometheus.
+ * </p>
+ * <p>
+ * The selected metrics are looked up in the registry's name index, so metrics that are not selected are never visited,
+ * and the label matchers are tested before a child's snapshot is taken. Static labels are matched once per collector.
+ * </p>
+ * <pre>
+ * final ExportFilter filter = new ExportFilter.ExportFilterBuilder()
+ *                                             .withNames("http_requests_total")
+ *                                             .withPrefixes("jvm_")
+ *                                             .withLabel("method", "GET")
+ *                                             .build();
+ * exporter.export(outputStream, filter);
+ * </pre>
+ */
+public class ExportFilter {
+
+    public static final ExportFilter ALL = new ExportFilterBuilder().build();
+
+    private final SortedSet<String> names;
+    private final List<String> prefixes;
+    private final List<LabelMatcher> labelMatchers;
+
+    private ExportFilter(final ExportFilterBuilder builder) {
+        this.names = Collections.unmodifiableSortedSet(new TreeSet<>(builder.names));
+        this.prefixes = Collections.unmodifiableList(new ArrayList<>(builder.prefixes));
+        this.labelMatchers = Collections.unmodifiableList(new ArrayList<>(builder.labelMatchers));
+    }
+
+    /**
+     * Parses a filter from a URL query string, which may contain any number of the parameters:
+     * <ul>
+     * <li><i>name[]=</i> - an exact metric name</li>
+     * <li><i>prefix[]=</i> - a metric name prefix</li>
+     * <li><i>label[]=</i> - a label matcher, either <i>name=value</i> or <i>name!=value</i></li>
+     * </ul>
+     * Other parameters are ignored, and a null or empty query string selects everything.
+     *
+     * @throws IllegalArgumentException if a label matcher is malformed
+     */
+    public static ExportFilter fromQueryString(final String query) {
+        if (query == null || query.isEmpty()) {
+            return ALL;
+        }
+        final ExportFilterBuilder builder = new ExportFilterBuilder();
+        for (final String parameter : query.split("&")) {
+            final int separator = parameter.indexOf('=');
+            if (separator < 0) {
+                continue;
+            }
+            final String key = decode(parameter.substring(0, separator));
+            final String value = decode(parameter.substring(separator + 1));
+            switch (key) {
+                case "name[]":
+                    builder.withNames(value);
+                    break;
+                case "prefix[]":
+                    builder.withPrefixes(value);
+                    break;
+                case "label[]":
+                    final int equals = value.indexOf('=');
+                    Validate.isTrue(equals > 0, "A label matcher must look like name=value or name!=value: %s", value);
+                    if (value.charAt(equals - 1) == '!') {
+                        builder.withLabelNotEqual(value.substring(0, equals - 1), value.substring(equals + 1));
+                    } else {
+                        builder.withLabel(value.substring(0, equals), value.substring(equals + 1));
+                    }
+                    break;
+                default:
+                    // not a filter parameter
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return true if this filter does not restrict the exported metrics by name
+     */
+    public boolean selectsAllMetrics() {
+        return names.isEmpty() && prefixes.isEmpty();
+    }
+
+    /**
+     * @return true if this filter does not restrict the exported children by their labels
+     */
+    public boolean selectsAllChildren() {
+        return labelMatchers.isEmpty();
+    }
+
+    /**
+     * @return the metrics of the given collector that this filter selects by name, in name order
+     */
+    public Iterable<Metric> select(final MetricCollector collector) {
+        if (selectsAllMetrics()) {
+            return collector;
+        }
+        final Map<String, Metric> selected = new TreeMap<>();
+        for (final String name : names) {
+            final Metric metric = collector.getMetric(name);
+            if (metric != null) {
+                selected.put(name, metric);
+            }
+        }
+        for (final String prefix : prefixes) {
+            for (final Metric metric : collector.metricsWithPrefix(prefix)) {
+                selected.put(metric.getName(), metric);
+            }
+        }
+        return selected.values();
+    }
+
+    /**
+     * Resolves the label matchers of this filter for the given metric, to be passed to
+     * {@link Metric#forEachMetricData(com.outbrain.swinfra.metrics.data.MetricDataConsumer, Predicate)}.
+     *
+     * @return a filter of the metric's children by their label values, {@link Metric#ALL_LABEL_VALUES} if all of them
+     * are selected or null if none of them can be selected (i.e. a static label does not match) so the metric should
+     * not be exported at all
+     */
+    public Predicate<List<String>> labelValuesFilter(final Metric metric, final Map<String, String> staticLabels) {
+        if (labelMatchers.isEmpty()) {
+            return Metric.ALL_LABEL_VALUES;
+        }
+        final List<String> labelNames = metric.getLabelNames();
+        final List<LabelMatcher> childMatchers = new ArrayList<>(labelMatchers.size());
+        final List<Integer> childLabelIndexes = new ArrayList<>(labelMatchers.size());
+        for (final LabelMatcher matcher : labelMatchers) {
+            final int index = labelNames.indexOf(matcher.labelName);
+            if (index >= 0) {
+                childMatchers.add(matcher);
+                childLabelIndexes.add(index);
+            } else if (!matcher.matches(staticLabels.getOrDefault(matcher.labelName, ""))) {
+                return null;
+            }
+        }
+        if (childMatchers.isEmpty()) {
+            return Metric.ALL_LABEL_VALUES;
+        }
+
+        final LabelMatcher[] matchers = childMatchers.toArray(new LabelMatcher[0]);
+        final int[] indexes = childLabelIndexes.stream().mapToInt(Integer::intValue).toArray();
+        return labelValues -> {
+            for (int i = 0; i < matchers.length; i++) {
+                if (!matchers[i].matches(labelValues.get(indexes[i]))) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    private static String decode(final String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class LabelMatcher {
+
+        private final String labelName;
+        private final String value;
+        private final boolean equal;
+
+        private LabelMatcher(final String labelName, final String value, final boolean equal) {
+            this.labelName = requireNonNull(labelName, "labelName may not be null");
+            this.value = requireNonNull(value, "value may not be null");
+            this.equal = equal;
+        }
+
+        private boolean matches(final String labelValue) {
+            return value.equals(labelValue) == equal;
+        }
+    }
+
+    public static class ExportFilterBuilder {
+
+        private final List<String> names = new ArrayList<>();
+        private final List<String> prefixes = new ArrayList<>();
+        private final List<LabelMatcher> labelMatchers = new ArrayList<>();
+
+        /**
+         * Selects the metrics with these exact names
+         */
+        public ExportFilterBuilder withNames(final String... names) {
+            for (final String name : names) {
+                this.names.add(requireNonNull(name, "name may not be null"));
+            }
+            return this;
+        }
+
+        /**
+         * Selects the metrics whose names start with any of these prefixes
+         */
+        public ExportFilterBuilder withPrefixes(final String... prefixes) {
+            for (final String prefix : prefixes) {
+                Validate.notEmpty(prefix, "A prefix may not be empty");
+                this.prefixes.add(prefix);
+            }
+            return this;
+        }
+
+        /**
+         * Selects only the children whose label has the given value
+         */
+        public ExportFilterBuilder withLabel(final String labelName, final String value) {
+            labelMatchers.add(new LabelMatcher(labelName, value, true));
+            return this;
+        }
+
+        /**
+         * Selects only the children whose label does not have the given value
+         */
+        public ExportFilterBuilder withLabelNotEqual(final String labelName, final String value) {
+            labelMatchers.add(new LabelMatcher(labelName, value, false));
+            return this;
+        }
+
+        public ExportFilter build() {
+            return new ExportFilter(this);
+        }
+    }
+}
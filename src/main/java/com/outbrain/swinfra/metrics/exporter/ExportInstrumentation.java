@@ -0,0 +1,262 @@
+package com.outbrain.swinfra.metrics.exporter;
+
+import com.outbrain.swinfra.metrics.Counter;
+import com.outbrain.swinfra.metrics.Histogram;
+import com.outbrain.swinfra.metrics.Metric;
+import com.outbrain.swinfra.metrics.MetricRegistry;
+import com.outbrain.swinfra.metrics.data.MetricDataConsumer;
+import com.outbrain.swinfra.metrics.utils.MetricType;
+import org.apache.commons.lang3.Validate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Measures the cost of the scrapes of an {@link InstrumentedCollectorRegistryExporter}.
+ * <p>
+ * Every scrape records its duration, the number of bytes it wrote and the number of series (children) it exported.
+ * With {@link ExportInstrumentationBuilder#withFamilyDetail()}, every metric family is also timed on its own, and
+ * the cost of the families in the last scrape is available both as ordinary metrics (labeled by the family's name)
+ * and through {@link #topFamilies(int)}, to find the families that make a scrape slow. Timing each family costs two
+ * calls to {@link System#nanoTime()} per family, so family detail is off by default.
+ * </p>
+ * <p>
+ * When the same family name is exported by several collectors, both the debug API and the metrics report the last one
+ * exported. The series count of a family is its number of children, even if a filtered scrape
+ * exported only some of them. A family that the last scrape of all the metrics did not export (it was deregistered)
+ * is forgotten, so it is no longer reported by either.
+ * </p>
+ * <pre>
+ * final ExportInstrumentation instrumentation = new ExportInstrumentation.ExportInstrumentationBuilder()
+ *                                                                         .withFamilyDetail()
+ *                                                                         .build();
+ * instrumentation.registerMetricsTo(registry);
+ * final CollectorRegistryExporter exporter = CollectorRegistryExporterFactory.TEXT_004.createInstrumented(collectorRegistry, instrumentation);
+ * </pre>
+ */
+public class ExportInstrumentation {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final Comparator<FamilyCost> MOST_EXPENSIVE_FIRST =
+        Comparator.comparingLong(FamilyCost::getLastNanos).reversed().thenComparing(FamilyCost::getName);
+
+    private final boolean familyDetail;
+    private final ConcurrentMap<String, FamilyCost> costByFamily = new ConcurrentHashMap<>();
+
+    private final Histogram scrapeDuration;
+    private final Counter scrapeBytes;
+    private final Counter scrapeSeries;
+    private final PerFamilyGauge familyDuration;
+    private final PerFamilyGauge familySeries;
+
+    private ExportInstrumentation(final ExportInstrumentationBuilder builder) {
+        this.familyDetail = builder.familyDetail;
+        scrapeDuration = new Histogram.HistogramBuilder("metrics_scrape_duration_seconds",
+                                                        "The time it took to serialize all the metrics of a scrape in seconds")
+            .build();
+        scrapeBytes = new Counter.CounterBuilder("metrics_scrape_bytes_total",
+                                                 "The number of bytes that scrapes serialized, before any compression")
+            .build();
+        scrapeSeries = new Counter.CounterBuilder("metrics_scrape_series_total",
+                                                  "The number of series that scrapes serialized")
+            .build();
+        familyDuration = new PerFamilyGauge("metrics_scrape_family_duration_seconds",
+                                            "The time it took to serialize a metric family in the last scrape in seconds",
+                                            cost -> cost.lastNanos / NANOS_PER_SECOND);
+        familySeries = new PerFamilyGauge("metrics_scrape_family_series",
+                                          "The number of series of a metric family in the last scrape",
+                                          cost -> cost.series);
+    }
+
+    /**
+     * @return true if every metric family is timed on its own
+     */
+    public boolean isFamilyDetail() {
+        return familyDetail;
+    }
+
+    /**
+     * Registers the scrape metrics in the given registry, and the per-family metrics if family detail is on
+     *
+     * @throws IllegalArgumentException if the registry already has other metrics with the same names, i.e. those of
+     *                                  another instrumentation
+     */
+    public void registerMetricsTo(final MetricRegistry registry) {
+        registry.register(scrapeDuration);
+        registry.register(scrapeBytes);
+        registry.register(scrapeSeries);
+        if (familyDetail) {
+            registry.register(familyDuration);
+            registry.register(familySeries);
+        }
+    }
+
+    /**
+     * @return the (up to) {@code count} families that took the longest to serialize in the last scrape they were part of,
+     * the most expensive first. Empty unless family detail is on
+     */
+    public List<FamilyCost> topFamilies(final int count) {
+        Validate.isTrue(count > 0, "The number of families must be positive");
+        final List<FamilyCost> costs = new ArrayList<>(costByFamily.values());
+        costs.sort(MOST_EXPENSIVE_FIRST);
+        return costs.size() > count ? new ArrayList<>(costs.subList(0, count)) : costs;
+    }
+
+    void recordScrape(final long nanos, final long bytes, final long series) {
+        scrapeDuration.observe(nanos / NANOS_PER_SECOND);
+        scrapeBytes.inc(bytes);
+        scrapeSeries.inc(series);
+    }
+
+    void recordFamily(final Metric metric, final long nanos, final long bytes, final int series) {
+        final String name = metric.getName();
+        // Concurrent scrapes record the same family, so the total is accumulated atomically
+        costByFamily.merge(name, new FamilyCost(name, nanos, bytes, series, nanos),
+                           (previous, cost) -> new FamilyCost(name, nanos, bytes, series, previous.totalNanos + nanos));
+    }
+
+    /**
+     * Forgets the families that are not in the given set, the families that a scrape of all the metrics exported
+     */
+    void retainFamilies(final Set<String> names) {
+        costByFamily.keySet().retainAll(names);
+    }
+
+    /**
+     * A gauge with a child per recorded family. Its children are the families of the last scrapes, so it is
+     * implemented directly rather than with settable children that would have to be removed one by one.
+     */
+    private class PerFamilyGauge implements Metric {
+
+        private final String name;
+        private final String help;
+        private final ToDoubleFunction<FamilyCost> value;
+
+        private PerFamilyGauge(final String name, final String help, final ToDoubleFunction<FamilyCost> value) {
+            this.name = name;
+            this.help = help;
+            this.value = value;
+        }
+
+        @Override
+        public MetricType getType() {
+            return MetricType.GAUGE;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String getHelp() {
+            return help;
+        }
+
+        @Override
+        public List<String> getLabelNames() {
+            return Collections.singletonList("family");
+        }
+
+        @Override
+        public void forEachMetricData(final MetricDataConsumer consumer) {
+            for (final Map.Entry<String, FamilyCost> entry : new TreeMap<>(costByFamily).entrySet()) {
+                consumer.consumeGauge(this, Collections.singletonList(entry.getKey()), value.applyAsDouble(entry.getValue()));
+            }
+        }
+
+        @Override
+        public int getChildCount() {
+            return costByFamily.size();
+        }
+    }
+
+    /**
+     * The serialization cost of a metric family
+     */
+    public static class FamilyCost {
+
+        private final String name;
+        private final long lastNanos;
+        private final long lastBytes;
+        private final int series;
+        private final long totalNanos;
+
+        FamilyCost(final String name, final long lastNanos, final long lastBytes, final int series, final long totalNanos) {
+            this.name = name;
+            this.lastNanos = lastNanos;
+            this.lastBytes = lastBytes;
+            this.series = series;
+            this.totalNanos = totalNanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the time it took to serialize the family in the last scrape
+         */
+        public long getLastNanos() {
+            return lastNanos;
+        }
+
+        /**
+         * @return the number of bytes the family took in the last scrape
+         */
+        public long getLastBytes() {
+            return lastBytes;
+        }
+
+        /**
+         * @return the number of series of the family in the last scrape
+         */
+        public int getSeries() {
+            return series;
+        }
+
+        /**
+         * @return the time spent serializing the family in all the scrapes so far
+         */
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "FamilyCost{" +
+                   "name='" + name + '\'' +
+                   ", lastNanos=" + lastNanos +
+                   ", lastBytes=" + lastBytes +
+                   ", series=" + series +
+                   ", totalNanos=" + totalNanos +
+                   '}';
+        }
+    }
+
+    public static class ExportInstrumentationBuilder {
+
+        private boolean familyDetail;
+
+        /**
+         * Times every metric family on its own, see {@link #topFamilies(int)}
+         */
+        public ExportInstrumentationBuilder withFamilyDetail() {
+            this.familyDetail = true;
+            return this;
+        }
+
+        public ExportInstrumentation build() {
+            return new ExportInstrumentation(this);
+        }
+    }
+}
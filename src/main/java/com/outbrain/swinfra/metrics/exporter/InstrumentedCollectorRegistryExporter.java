@@ -0,0 +1,96 @@
+package com.outbrain.swinfra.metrics.exporter;
+
+import com.outbrain.swinfra.metrics.Metric;
+import com.outbrain.swinfra.metrics.MetricCollector;
+import com.outbrain.swinfra.metrics.MetricCollectorRegistry;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A {@link CollectorRegistryExporter} that measures its own scrapes, see {@link ExportInstrumentation}.
+ * <p>
+ * Exporters that are not instrumented do not pay anything for this class. An instrumented scrape counts the bytes it
+ * writes and the children of the exported metrics, and with family detail each metric is serialized (and flushed) on
+ * its own. Collectors whose exporters cannot export a single family (they are not {@link PartialCollectorExporter}s)
+ * are exported whole, and their families are not timed.
+ * </p>
+ */
+public class InstrumentedCollectorRegistryExporter extends CollectorRegistryExporter {
+
+    private final ExportInstrumentation instrumentation;
+
+    public InstrumentedCollectorRegistryExporter(final MetricCollectorRegistry registry,
+                                                 final Function<? super MetricCollector, ? extends CollectorExporter> createExporter,
+                                                 final byte[] trailer,
+                                                 final ExportInstrumentation instrumentation) {
+        super(registry, createExporter, trailer);
+        this.instrumentation = requireNonNull(instrumentation, "instrumentation may not be null");
+    }
+
+    @Override
+    public void export(final OutputStream outputStream) throws IOException {
+        export(outputStream, ExportFilter.ALL);
+    }
+
+    @Override
+    public void export(final OutputStream outputStream, final ExportFilter filter) throws IOException {
+        checkSupported(filter);
+        final long start = System.nanoTime();
+        final CountingOutputStream stream = new CountingOutputStream(outputStream);
+        long series = 0;
+        final Set<String> families = instrumentation.isFamilyDetail() ? new HashSet<>() : null;
+        for (final MetricCollector collector : getRegistry()) {
+            final CollectorExporter exporter = exporterFor(collector);
+            if (instrumentation.isFamilyDetail() && exporter instanceof PartialCollectorExporter) {
+                for (final Metric metric : filter.select(collector)) {
+                    final long familyStart = System.nanoTime();
+                    final long bytesBefore = stream.count;
+                    ((PartialCollectorExporter) exporter).exportTo(stream, Collections.singletonList(metric), filter);
+                    final int familySeries = metric.getChildCount();
+                    instrumentation.recordFamily(metric, System.nanoTime() - familyStart, stream.count - bytesBefore, familySeries);
+                    series += familySeries;
+                    families.add(metric.getName());
+                }
+            } else {
+                exportTo(exporter, stream, filter);
+                for (final Metric metric : filter.select(collector)) {
+                    series += metric.getChildCount();
+                }
+            }
+        }
+        writeTrailer(stream);
+        if (families != null && filter.selectsAllMetrics()) {
+            instrumentation.retainFamilies(families);
+        }
+        instrumentation.recordScrape(System.nanoTime() - start, stream.count, series);
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        private CountingOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.outbrain.swinfra.metrics.exporter;
+
+import com.outbrain.swinfra.metrics.Metric;
+import com.outbrain.swinfra.metrics.MetricCollector;
+import com.outbrain.swinfra.metrics.MetricCollectorRegistry;
+import org.apache.commons.lang3.Validate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A {@link CollectorRegistryExporter} that exports large registries in parallel.
+ * <p>
+ * The metrics of every collector are split into chunks of consecutive metric families. Each chunk is exported by a
+ * task on the given executor into its own buffer, and the buffers are then written to the output stream in the same
+ * order the metrics would have been exported sequentially - so the output is identical to that of a sequential export.
+ * The work of a metric family (i.e. taking the snapshots of all the children of a summary) is done by a single task,
+ * a family is never split between tasks.
+ * </p>
+ * <p>
+ * Registries with fewer metric families than the parallelism threshold are exported sequentially on the calling
+ * thread, where the overhead of the tasks and the extra copy would outweigh the gain. Only collectors whose exporters
+ * are {@link PartialCollectorExporter}s are split into chunks, the others are each exported whole by a single task.
+ * </p>
+ */
+public class ParallelCollectorRegistryExporter extends CollectorRegistryExporter {
+
+    public static final int DEFAULT_PARALLELISM_THRESHOLD = 64;
+
+    // More chunks than threads, so a chunk of unusually expensive families does not hold back the whole export
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int INITIAL_CHUNK_BUFFER_SIZE = 8 * 1024;
+
+    private final Executor executor;
+    private final int parallelism;
+    private final int parallelismThreshold;
+
+    public ParallelCollectorRegistryExporter(final MetricCollectorRegistry registry,
+                                             final Function<? super MetricCollector, ? extends CollectorExporter> createExporter,
+                                             final byte[] trailer,
+                                             final ForkJoinPool pool,
+                                             final int parallelismThreshold) {
+        this(registry, createExporter, trailer, pool, pool.getParallelism(), parallelismThreshold);
+    }
+
+    /**
+     * @param executor             the executor that runs the export tasks
+     * @param parallelism          the number of threads of the executor that are expected to run the tasks
+     * @param parallelismThreshold the minimal number of metric families for which the export is parallel
+     */
+    public ParallelCollectorRegistryExporter(final MetricCollectorRegistry registry,
+                                             final Function<? super MetricCollector, ? extends CollectorExporter> createExporter,
+                                             final byte[] trailer,
+                                             final Executor executor,
+                                             final int parallelism,
+                                             final int parallelismThreshold) {
+        super(registry, createExporter, trailer);
+        Validate.isTrue(parallelism > 0, "The parallelism must be positive");
+        Validate.isTrue(parallelismThreshold >= 0, "The parallelism threshold may not be negative");
+        this.executor = requireNonNull(executor, "executor may not be null");
+        this.parallelism = parallelism;
+        this.parallelismThreshold = parallelismThreshold;
+    }
+
+    @Override
+    public void export(final OutputStream outputStream) throws IOException {
+        export(outputStream, ExportFilter.ALL);
+    }
+
+    /**
+     * Exports only the metrics and children that are selected by the given filter, in parallel when the number of
+     * selected metric families reaches the parallelism threshold
+     */
+    @Override
+    public void export(final OutputStream outputStream, final ExportFilter filter) throws IOException {
+        checkSupported(filter);
+        final List<CollectorExporter> exporters = new ArrayList<>();
+        final List<List<Metric>> metricsByCollector = new ArrayList<>();
+        int metricCount = 0;
+        for (final MetricCollector collector : getRegistry()) {
+            final List<Metric> metrics = new ArrayList<>();
+            filter.select(collector).forEach(metrics::add);
+            exporters.add(exporterFor(collector));
+            metricsByCollector.add(metrics);
+            metricCount += metrics.size();
+        }
+
+        if (parallelism == 1 || metricCount < parallelismThreshold) {
+            for (final CollectorExporter exporter : exporters) {
+                if (filter == ExportFilter.ALL) {
+                    exporter.exportTo(outputStream);
+                } else {
+                    exportTo(exporter, outputStream, filter);
+                }
+            }
+        } else {
+            final int chunkSize = Math.max(1, (metricCount + parallelism * CHUNKS_PER_THREAD - 1) / (parallelism * CHUNKS_PER_THREAD));
+            final List<CompletableFuture<ByteArrayOutputStream>> chunks = new ArrayList<>();
+            for (int i = 0; i < exporters.size(); i++) {
+                final CollectorExporter exporter = exporters.get(i);
+                if (!(exporter instanceof PartialCollectorExporter)) {
+                    chunks.add(CompletableFuture.supplyAsync(() -> exportCollector(exporter, filter), executor));
+                    continue;
+                }
+                final List<Metric> metrics = metricsByCollector.get(i);
+                for (int from = 0; from < metrics.size(); from += chunkSize) {
+                    final List<Metric> chunk = metrics.subList(from, Math.min(from + chunkSize, metrics.size()));
+                    chunks.add(CompletableFuture.supplyAsync(() -> exportChunk((PartialCollectorExporter) exporter, chunk, filter), executor));
+                }
+            }
+            for (final CompletableFuture<ByteArrayOutputStream> chunk : chunks) {
+                join(chunk).writeTo(outputStream);
+            }
+        }
+        writeTrailer(outputStream);
+    }
+
+    private static ByteArrayOutputStream exportCollector(final CollectorExporter exporter, final ExportFilter filter) {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(INITIAL_CHUNK_BUFFER_SIZE);
+        try {
+            if (filter == ExportFilter.ALL) {
+                exporter.exportTo(buffer);
+            } else {
+                exportTo(exporter, buffer, filter);
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer;
+    }
+
+    private static ByteArrayOutputStream exportChunk(final PartialCollectorExporter exporter,
+                                                     final List<Metric> chunk,
+                                                     final ExportFilter filter) {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(INITIAL_CHUNK_BUFFER_SIZE);
+        try {
+            if (filter.selectsAllChildren()) {
+                exporter.exportTo(buffer, chunk);
+            } else {
+                exporter.exportTo(buffer, chunk, filter);
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer;
+    }
+
+    private static ByteArrayOutputStream join(final CompletableFuture<ByteArrayOutputStream> chunk) throws IOException {
+        try {
+            return chunk.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.outbrain.swinfra.metrics.exporter;
+
+import com.outbrain.swinfra.metrics.Metric;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A {@link CollectorExporter} that can export a part of its collector, so it can be exported in parallel by a
+ * {@link ParallelCollectorRegistryExporter} and scraped with an {@link ExportFilter}. Exporters that implement only
+ * {@link CollectorExporter} are exported whole, one collector at a time, and a registry with such exporters rejects
+ * filters that restrict the export (see {@link CollectorRegistryExporter#supports(ExportFilter)}).
+ */
+public interface PartialCollectorExporter extends CollectorExporter {
+
+    /**
+     * Exports only the metrics and children of this exporter's collector that are selected by the given filter. Metrics
+     * that are not selected by name are not visited, and children that are not selected are skipped before reading them.
+     */
+    void exportTo(OutputStream stream, ExportFilter filter) throws IOException;
+
+    /**
+     * Exports only the given metrics of this exporter's collector, in the given order. Exporting all the metrics of the
+     * collector in consecutive parts and concatenating the results is equivalent to {@link #exportTo(OutputStream)}.
+     * <p>
+     * This method may be called concurrently, with different parts of the collector.
+     * </p>
+     */
+    void exportTo(OutputStream stream, Iterable<Metric> metrics) throws IOException;
+
+    /**
+     * Exports only the given metrics of this exporter's collector, in the given order, and only their children that are
+     * selected by the given filter's label matchers. The metrics are expected to be selected by
+     * {@link ExportFilter#select(com.outbrain.swinfra.metrics.MetricCollector)}, they are not matched by name again.
+     */
+    void exportTo(OutputStream stream, Iterable<Metric> metrics, ExportFilter filter) throws IOException;
+}
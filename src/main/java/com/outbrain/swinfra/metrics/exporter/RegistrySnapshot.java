@@ -0,0 +1,308 @@
+package com.outbrain.swinfra.metrics.exporter;
+
+import com.outbrain.swinfra.metrics.Metric;
+import com.outbrain.swinfra.metrics.MetricCollector;
+import com.outbrain.swinfra.metrics.MetricCollectorRegistry;
+import com.outbrain.swinfra.metrics.data.CreatedTimestampConsumer;
+import com.outbrain.swinfra.metrics.data.HistogramBucketsConsumer;
+import com.outbrain.swinfra.metrics.data.HistogramCountsConsumer;
+import com.outbrain.swinfra.metrics.data.HistogramData;
+import com.outbrain.swinfra.metrics.data.MetricDataConsumer;
+import com.outbrain.swinfra.metrics.data.SummaryData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * A point-in-time copy of the metrics of a {@link MetricCollectorRegistry}, kept in columnar primitive arrays.
+ * <p>
+ * A snapshot is captured in a single pass over the registry and can then be written by any number of
+ * {@link SnapshotExporter}s, so one scrape can feed several output formats. The data is indexed by:
+ * </p>
+ * <ul>
+ * <li><b>family</b> - a metric, with its collector's static labels and a range of series</li>
+ * <li><b>series</b> - a child of a metric: its label values, value (or sum), count, creation time and a range of
+ * points</li>
+ * <li><b>point</b> - a summary quantile or a histogram bucket: its quantile or upper bound, and its value or
+ * cumulative count</li>
+ * </ul>
+ * <p>
+ * The arrays grow as needed and are reused by the next {@link #capture(MetricCollectorRegistry)}, so capturing a
+ * registry of a stable size allocates nothing but what the metrics themselves allocate when they are read (histograms
+ * are read directly into the snapshot's arrays, see {@link HistogramCountsConsumer}). Exemplars are not captured.
+ * </p>
+ * <p>
+ * This class is not thread-safe, each exporting thread should capture into its own snapshot.
+ * </p>
+ */
+public class RegistrySnapshot implements MetricDataConsumer, CreatedTimestampConsumer, HistogramCountsConsumer {
+
+    /**
+     * The quantiles of the library's summaries, in the order of their points
+     */
+    public static final double[] SUMMARY_QUANTILES = {0.5, 0.75, 0.95, 0.98, 0.99, 0.999};
+
+    /**
+     * The creation time of series whose metric does not report one
+     */
+    public static final long NO_CREATED_TIME = -1;
+
+    private static final int INITIAL_FAMILIES = 16;
+    private static final int INITIAL_SERIES = 64;
+    private static final int INITIAL_POINTS = 256;
+
+    private final List<Metric> metrics = new ArrayList<>(INITIAL_FAMILIES);
+    private final List<Map<String, String>> familyStaticLabels = new ArrayList<>(INITIAL_FAMILIES);
+    private int[] familySeriesStarts = new int[INITIAL_FAMILIES + 1];
+
+    private final List<List<String>> labelValues = new ArrayList<>(INITIAL_SERIES);
+    private double[] values = new double[INITIAL_SERIES];
+    private long[] counts = new long[INITIAL_SERIES];
+    private long[] createdTimes = new long[INITIAL_SERIES];
+    private int[] seriesPointStarts = new int[INITIAL_SERIES + 1];
+
+    private double[] pointBounds = new double[INITIAL_POINTS];
+    private double[] pointValues = new double[INITIAL_POINTS];
+    private long[] pointCounts = new long[INITIAL_POINTS];
+
+    private long[] bucketCountsBuffer = new long[16];
+    private final HistogramBucketsConsumer bucketAppender = this::appendBucket;
+
+    private int familyCount;
+    private int seriesCount;
+    private int pointCount;
+    private long pendingCreatedTime = NO_CREATED_TIME;
+
+    /**
+     * Captures all the metrics of the given registry, replacing the previous content of this snapshot
+     */
+    public void capture(final MetricCollectorRegistry registry) {
+        capture(registry, ExportFilter.ALL);
+    }
+
+    /**
+     * Captures the metrics and children of the given registry that are selected by the filter, replacing the previous
+     * content of this snapshot
+     */
+    public void capture(final MetricCollectorRegistry registry, final ExportFilter filter) {
+        clear();
+        for (final MetricCollector collector : registry) {
+            final Map<String, String> staticLabels = collector.getStaticLabels();
+            for (final Metric metric : filter.select(collector)) {
+                final Predicate<List<String>> labelValuesFilter = filter.labelValuesFilter(metric, staticLabels);
+                if (labelValuesFilter != null) {
+                    startFamily(metric, staticLabels);
+                    metric.forEachMetricData(this, labelValuesFilter);
+                    familySeriesStarts[familyCount] = seriesCount;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the content of this snapshot, keeping its arrays for reuse
+     */
+    public void clear() {
+        metrics.clear();
+        familyStaticLabels.clear();
+        labelValues.clear();
+        familyCount = 0;
+        seriesCount = 0;
+        pointCount = 0;
+        pendingCreatedTime = NO_CREATED_TIME;
+    }
+
+    public int getFamilyCount() {
+        return familyCount;
+    }
+
+    public Metric getMetric(final int family) {
+        return metrics.get(family);
+    }
+
+    public Map<String, String> getStaticLabels(final int family) {
+        return familyStaticLabels.get(family);
+    }
+
+    public int getFirstSeries(final int family) {
+        return familySeriesStarts[family];
+    }
+
+    /**
+     * @return the index after the last series of the given family
+     */
+    public int getSeriesEnd(final int family) {
+        return familySeriesStarts[family + 1];
+    }
+
+    public int getSeriesCount() {
+        return seriesCount;
+    }
+
+    public List<String> getLabelValues(final int series) {
+        return labelValues.get(series);
+    }
+
+    /**
+     * @return the value of a counter or gauge series, or the sum of a summary or histogram series
+     */
+    public double getValue(final int series) {
+        return values[series];
+    }
+
+    /**
+     * @return the number of observations of a summary or histogram series
+     */
+    public long getCount(final int series) {
+        return counts[series];
+    }
+
+    /**
+     * @return the creation time of the series, or {@link #NO_CREATED_TIME}
+     */
+    public long getCreatedTimeMillis(final int series) {
+        return createdTimes[series];
+    }
+
+    public int getFirstPoint(final int series) {
+        return seriesPointStarts[series];
+    }
+
+    /**
+     * @return the index after the last point of the given series
+     */
+    public int getPointEnd(final int series) {
+        return seriesPointStarts[series + 1];
+    }
+
+    /**
+     * @return the quantile of a summary point, or the upper bound of a histogram bucket
+     */
+    public double getPointBound(final int point) {
+        return pointBounds[point];
+    }
+
+    /**
+     * @return the value of a summary quantile
+     */
+    public double getPointValue(final int point) {
+        return pointValues[point];
+    }
+
+    /**
+     * @return the cumulative count of a histogram bucket
+     */
+    public long getPointCount(final int point) {
+        return pointCounts[point];
+    }
+
+    @Override
+    public void consumeCreated(final Metric metric, final List<String> labelValues, final long createdTimeMillis) {
+        pendingCreatedTime = createdTimeMillis;
+    }
+
+    @Override
+    public void consumeCounter(final Metric metric, final List<String> labelValues, final double value) {
+        addSeries(labelValues, value, 0);
+        endSeries();
+    }
+
+    @Override
+    public void consumeGauge(final Metric metric, final List<String> labelValues, final double value) {
+        addSeries(labelValues, value, 0);
+        endSeries();
+    }
+
+    @Override
+    public void consumeSummary(final Metric metric, final List<String> labelValues, final SummaryData data) {
+        addSeries(labelValues, data.getSum(), data.getCount());
+        ensurePointCapacity(pointCount + SUMMARY_QUANTILES.length);
+        appendQuantile(SUMMARY_QUANTILES[0], data.getMedian());
+        appendQuantile(SUMMARY_QUANTILES[1], data.get75thPercentile());
+        appendQuantile(SUMMARY_QUANTILES[2], data.get95thPercentile());
+        appendQuantile(SUMMARY_QUANTILES[3], data.get98thPercentile());
+        appendQuantile(SUMMARY_QUANTILES[4], data.get99thPercentile());
+        appendQuantile(SUMMARY_QUANTILES[5], data.get999thPercentile());
+        endSeries();
+    }
+
+    @Override
+    public void consumeHistogram(final Metric metric, final List<String> labelValues, final HistogramData data) {
+        addSeries(labelValues, data.getSum(), data.getCount());
+        data.consumeBuckets(bucketAppender);
+        endSeries();
+    }
+
+    @Override
+    public long[] bucketCountsBuffer(final int bucketCount) {
+        if (bucketCountsBuffer.length < bucketCount) {
+            bucketCountsBuffer = new long[bucketCount];
+        }
+        return bucketCountsBuffer;
+    }
+
+    @Override
+    public void consumeHistogram(final Metric metric, final List<String> labelValues,
+                                 final double[] upperBounds, final long[] cumulativeCounts, final int bucketCount, final double sum) {
+        addSeries(labelValues, sum, bucketCount == 0 ? 0 : cumulativeCounts[bucketCount - 1]);
+        ensurePointCapacity(pointCount + bucketCount);
+        System.arraycopy(upperBounds, 0, pointBounds, pointCount, bucketCount);
+        System.arraycopy(cumulativeCounts, 0, pointCounts, pointCount, bucketCount);
+        pointCount += bucketCount;
+        endSeries();
+    }
+
+    private void startFamily(final Metric metric, final Map<String, String> staticLabels) {
+        if (familyCount + 1 == familySeriesStarts.length) {
+            familySeriesStarts = Arrays.copyOf(familySeriesStarts, familySeriesStarts.length * 2);
+        }
+        metrics.add(metric);
+        familyStaticLabels.add(staticLabels);
+        familySeriesStarts[familyCount++] = seriesCount;
+    }
+
+    private void addSeries(final List<String> seriesLabelValues, final double value, final long count) {
+        if (seriesCount + 1 == seriesPointStarts.length) {
+            final int capacity = values.length * 2;
+            values = Arrays.copyOf(values, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            createdTimes = Arrays.copyOf(createdTimes, capacity);
+            seriesPointStarts = Arrays.copyOf(seriesPointStarts, capacity + 1);
+        }
+        labelValues.add(seriesLabelValues);
+        values[seriesCount] = value;
+        counts[seriesCount] = count;
+        createdTimes[seriesCount] = pendingCreatedTime;
+        seriesPointStarts[seriesCount] = pointCount;
+        pendingCreatedTime = NO_CREATED_TIME;
+    }
+
+    private void endSeries() {
+        seriesPointStarts[++seriesCount] = pointCount;
+    }
+
+    private void appendQuantile(final double quantile, final double value) {
+        pointBounds[pointCount] = quantile;
+        pointValues[pointCount] = value;
+        pointCount++;
+    }
+
+    private void appendBucket(final double upperBound, final long count) {
+        ensurePointCapacity(pointCount + 1);
+        pointBounds[pointCount] = upperBound;
+        pointCounts[pointCount] = count;
+        pointCount++;
+    }
+
+    private void ensurePointCapacity(final int capacity) {
+        if (capacity > pointBounds.length) {
+            final int newCapacity = Math.max(capacity, pointBounds.length * 2);
+            pointBounds = Arrays.copyOf(pointBounds, newCapacity);
+            pointValues = Arrays.copyOf(pointValues, newCapacity);
+            pointCounts = Arrays.copyOf(pointCounts, newCapacity);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.outbrain.swinfra.metrics.exporter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a {@link RegistrySnapshot} in some exposition format. Unlike a {@link CollectorExporter}, a snapshot exporter
+ * does not read the metrics themselves, so the same snapshot may be written by several exporters.
+ */
+public interface SnapshotExporter {
+
+    /**
+     * @return the content type of the written output
+     */
+    String getContentType();
+
+    void exportTo(RegistrySnapshot snapshot, OutputStream stream) throws IOException;
+}
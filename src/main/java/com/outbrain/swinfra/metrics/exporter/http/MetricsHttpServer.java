@@ -0,0 +1,258 @@
+package com.outbrain.swinfra.metrics.exporter.http;
+
+import com.outbrain.swinfra.metrics.Counter;
+import com.outbrain.swinfra.metrics.Histogram;
+import com.outbrain.swinfra.metrics.MetricCollectorRegistry;
+import com.outbrain.swinfra.metrics.MetricRegistry;
+import com.outbrain.swinfra.metrics.exporter.CollectorRegistryExporter;
+import com.outbrain.swinfra.metrics.exporter.CollectorRegistryExporterFactory;
+import com.outbrain.swinfra.metrics.exporter.ExportFilter;
+import com.outbrain.swinfra.metrics.exporter.ExportInstrumentation;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A standalone HTTP server that exposes a {@link MetricCollectorRegistry} on the <i>/metrics</i> path.
+ * <p>
+ * The exposition format is negotiated using the request's <i>Accept</i> header (see
+ * {@link CollectorRegistryExporterFactory#negotiate(String)}) and the response is gzipped when the client accepts it.
+ * Responses always carry a <i>Content-Length</i> so connections are kept alive between scrapes.
+ * </p>
+ * <p>
+ * A scrape may ask for only some of the metrics with the query parameters of {@link ExportFilter#fromQueryString(String)},
+ * i.e. <i>/metrics?name[]=jvm_threads_current&amp;prefix[]=http_</i>.
+ * </p>
+ * <p>
+ * Each worker thread serializes into its own reusable buffer, so a steady-state scrape does not allocate a new output
+ * array. The server measures itself as well - the request latency and the number of bytes written can be registered
+ * to any registry using {@link #registerMetricsTo(MetricRegistry)}.
+ * </p>
+ * <pre>
+ * final MetricsHttpServer server = new MetricsHttpServer(new InetSocketAddress(8080), collectorRegistry);
+ * server.registerMetricsTo(registry);
+ * server.start();
+ * </pre>
+ */
+public class MetricsHttpServer implements AutoCloseable {
+
+    public static final String METRICS_PATH = "/metrics";
+
+    private static final int DEFAULT_THREADS = 2;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<CollectorRegistryExporterFactory, CollectorRegistryExporter> exporters = new EnumMap<>(CollectorRegistryExporterFactory.class);
+    private final ThreadLocal<ResponseBuffer> buffers = ThreadLocal.withInitial(ResponseBuffer::new);
+    private final Histogram requestDuration;
+    private final Counter responseBytes;
+
+    public MetricsHttpServer(final InetSocketAddress address, final MetricCollectorRegistry registry) throws IOException {
+        this(address, registry, DEFAULT_THREADS);
+    }
+
+    public MetricsHttpServer(final InetSocketAddress address,
+                             final MetricCollectorRegistry registry,
+                             final int threads) throws IOException {
+        this(address, registry, threads, null);
+    }
+
+    /**
+     * @param instrumentation measures the serialization of every scrape, or null to not measure it
+     */
+    public MetricsHttpServer(final InetSocketAddress address,
+                             final MetricCollectorRegistry registry,
+                             final int threads,
+                             final ExportInstrumentation instrumentation) throws IOException {
+        requireNonNull(registry, "registry may not be null");
+        for (final CollectorRegistryExporterFactory factory : CollectorRegistryExporterFactory.values()) {
+            exporters.put(factory, instrumentation == null ? factory.create(registry) : factory.createInstrumented(registry, instrumentation));
+        }
+
+        requestDuration = new Histogram.HistogramBuilder("metrics_http_request_duration_seconds",
+                                                         "The time it took to serve a metrics scrape in seconds")
+            .withLabels("format")
+            .build();
+        responseBytes = new Counter.CounterBuilder("metrics_http_response_bytes_total",
+                                                   "The number of bytes written in metrics scrape responses")
+            .withLabels("format", "encoding")
+            .build();
+
+        executor = Executors.newFixedThreadPool(threads, createThreadFactory());
+        server = HttpServer.create(address, 0);
+        server.createContext(METRICS_PATH, this::handle);
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * @return the port this server is bound to, useful when the server was created with an ephemeral port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Registers this server's own request latency and response size metrics in the given registry
+     *
+     * @throws IllegalArgumentException if the registry already has other metrics with the same names, i.e. those of
+     *                                  another server
+     */
+    public void registerMetricsTo(final MetricRegistry registry) {
+        registry.register(requestDuration);
+        registry.register(responseBytes);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            final String method = exchange.getRequestMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_BAD_METHOD, -1);
+                return;
+            }
+            if (!METRICS_PATH.equals(exchange.getRequestURI().getPath())) {
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_FOUND, -1);
+                return;
+            }
+
+            final ExportFilter filter;
+            try {
+                filter = ExportFilter.fromQueryString(exchange.getRequestURI().getRawQuery());
+            } catch (final IllegalArgumentException e) {
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_BAD_REQUEST, -1);
+                return;
+            }
+
+            final CollectorRegistryExporterFactory format = CollectorRegistryExporterFactory.negotiate(
+                exchange.getRequestHeaders().getFirst("Accept"));
+            final CollectorRegistryExporter exporter = exporters.get(format);
+            if (!exporter.supports(filter)) {
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_BAD_REQUEST, -1);
+                return;
+            }
+            final Headers responseHeaders = exchange.getResponseHeaders();
+            final boolean gzip = acceptsGzip(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+            final String formatLabel = format.name().toLowerCase(Locale.ROOT);
+            if ("HEAD".equals(method)) {
+                // The headers of a GET without its body, so nothing is serialized or compressed
+                responseHeaders.set("Content-Type", format.getContentType());
+                if (gzip) {
+                    responseHeaders.set("Content-Encoding", "gzip");
+                }
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, -1);
+                requestDuration.observe((System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1), formatLabel);
+                return;
+            }
+
+            final ResponseBuffer buffer = buffers.get();
+            buffer.reset();
+            try {
+                if (filter == ExportFilter.ALL) {
+                    exporter.export(buffer);
+                } else {
+                    exporter.export(buffer, filter);
+                }
+            } catch (final IOException | RuntimeException e) {
+                // Nothing was sent yet, so the scraper gets a proper error instead of a dropped connection
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_INTERNAL_ERROR, -1);
+                throw e;
+            }
+
+            responseHeaders.set("Content-Type", format.getContentType());
+            final String encoding;
+            final byte[] body;
+            final int length;
+            if (gzip) {
+                length = buffer.gzip();
+                body = buffer.compressedArray();
+                encoding = "gzip";
+                responseHeaders.set("Content-Encoding", encoding);
+            } else {
+                length = buffer.size();
+                body = buffer.array();
+                encoding = "identity";
+            }
+
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, length);
+            exchange.getResponseBody().write(body, 0, length);
+            responseBytes.inc(length, formatLabel, encoding);
+            requestDuration.observe((System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1), formatLabel);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return true if the <i>Accept-Encoding</i> header accepts gzip with a non-zero quality, either by naming it or
+     * with a wildcard. An explicit gzip entry takes precedence over the wildcard, so <i>gzip;q=0, *</i> does not accept it
+     */
+    static boolean acceptsGzip(final String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        double gzipQuality = -1;
+        double wildcardQuality = -1;
+        for (final String token : acceptEncoding.split(",")) {
+            final String[] parts = token.split(";");
+            final String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            if ("gzip".equals(coding) || "x-gzip".equals(coding)) {
+                gzipQuality = Math.max(gzipQuality, quality(parts));
+            } else if ("*".equals(coding)) {
+                wildcardQuality = Math.max(wildcardQuality, quality(parts));
+            }
+        }
+        return gzipQuality >= 0 ? gzipQuality > 0 : wildcardQuality > 0;
+    }
+
+    /**
+     * @return the value of the <i>q</i> parameter among the given coding and its parameters, 1 when it is missing, or 0
+     * when it is malformed
+     */
+    private static double quality(final String[] codingAndParameters) {
+        for (int i = 1; i < codingAndParameters.length; i++) {
+            final String parameter = codingAndParameters[i].trim();
+            if (parameter.length() > 1 && Character.toLowerCase(parameter.charAt(0)) == 'q' &&
+                parameter.substring(1).trim().startsWith("=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(parameter.indexOf('=') + 1).trim());
+                } catch (final NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    private static ThreadFactory createThreadFactory() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, "metrics-http-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
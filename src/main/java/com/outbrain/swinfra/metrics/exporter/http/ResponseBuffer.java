@@ -0,0 +1,105 @@
+package com.outbrain.swinfra.metrics.exporter.http;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A growable byte buffer that is reused by all the requests served by a single thread, so that a scrape does not
+ * allocate a new output array (and a copy of it) on every request.
+ * <p>
+ * The buffer can also compress its content to the gzip format. The compressed bytes are kept in a second reusable
+ * array and the {@link Deflater} is reset rather than recreated between requests.
+ * </p>
+ * <p>
+ * This class is not thread-safe and is meant to be confined to a single thread.
+ * </p>
+ */
+class ResponseBuffer extends OutputStream {
+
+    private static final int INITIAL_SIZE = 64 * 1024;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int GZIP_TRAILER_LENGTH = 8;
+
+    private final CRC32 crc = new CRC32();
+    private byte[] buf = new byte[INITIAL_SIZE];
+    private int count;
+    private byte[] compressed;
+    private Deflater deflater;
+
+    void reset() {
+        count = 0;
+    }
+
+    byte[] array() {
+        return buf;
+    }
+
+    int size() {
+        return count;
+    }
+
+    byte[] compressedArray() {
+        return compressed;
+    }
+
+    @Override
+    public void write(final int b) {
+        ensureCapacity(count + 1);
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) {
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    /**
+     * Compresses the current content of this buffer using gzip.
+     *
+     * @return the number of compressed bytes available in {@link #compressedArray()}
+     */
+    int gzip() {
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            compressed = new byte[INITIAL_SIZE];
+        }
+        deflater.reset();
+        deflater.setInput(buf, 0, count);
+        deflater.finish();
+        crc.reset();
+        crc.update(buf, 0, count);
+
+        System.arraycopy(GZIP_HEADER, 0, compressed, 0, GZIP_HEADER.length);
+        int compressedCount = GZIP_HEADER.length;
+        while (!deflater.finished()) {
+            if (compressedCount == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            compressedCount += deflater.deflate(compressed, compressedCount, compressed.length - compressedCount);
+        }
+
+        if (compressedCount + GZIP_TRAILER_LENGTH > compressed.length) {
+            compressed = Arrays.copyOf(compressed, compressedCount + GZIP_TRAILER_LENGTH);
+        }
+        compressedCount = writeIntLE(compressed, compressedCount, (int) crc.getValue());
+        return writeIntLE(compressed, compressedCount, count);
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (capacity > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(capacity, buf.length * 2));
+        }
+    }
+
+    private static int writeIntLE(final byte[] target, final int offset, final int value) {
+        target[offset] = (byte) value;
+        target[offset + 1] = (byte) (value >>> 8);
+        target[offset + 2] = (byte) (value >>> 16);
+        target[offset + 3] = (byte) (value >>> 24);
+        return offset + 4;
+    }
+}
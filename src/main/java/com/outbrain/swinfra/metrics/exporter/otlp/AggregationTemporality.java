@@ -0,0 +1,27 @@
+package com.outbrain.swinfra.metrics.exporter.otlp;
+
+/**
+ * The temporality of the sums and histograms exported over OTLP
+ */
+public enum AggregationTemporality {
+
+    /**
+     * Every export reports the change since the previous export
+     */
+    DELTA(1),
+
+    /**
+     * Every export reports the total since the child was created, the same way Prometheus scrapes do
+     */
+    CUMULATIVE(2);
+
+    private final int protoValue;
+
+    AggregationTemporality(final int protoValue) {
+        this.protoValue = protoValue;
+    }
+
+    int getProtoValue() {
+        return protoValue;
+    }
+}
@@ -0,0 +1,255 @@
+package com.outbrain.swinfra.metrics.exporter.otlp;
+
+import com.outbrain.swinfra.metrics.Counter;
+import com.outbrain.swinfra.metrics.Histogram;
+import com.outbrain.swinfra.metrics.MetricCollectorRegistry;
+import com.outbrain.swinfra.metrics.MetricRegistry;
+import com.outbrain.swinfra.metrics.exporter.protobuf.ProtobufWriter;
+import org.apache.commons.lang3.Validate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Exports the metrics of a {@link MetricCollectorRegistry} to an OpenTelemetry collector using OTLP/HTTP with the
+ * protobuf encoding.
+ * <p>
+ * Every export encodes the whole registry, splitting it into requests of up to {@code maxDataPointsPerRequest} data
+ * points each. Sums and histograms are reported with either cumulative or delta temporality (see
+ * {@link AggregationTemporality}); in delta mode the previously exported values are tracked by the exporter itself, so
+ * recording a value costs exactly the same as without it. A failed export is not retried - the next export reports
+ * the up-to-date values, and in delta mode, the changes since the last request that was sent.
+ * </p>
+ * <p>
+ * The messages are encoded by hand with {@link ProtobufWriter}, so the exporter needs no OpenTelemetry dependencies.
+ * </p>
+ * <pre>
+ * final OtlpExporter exporter = new OtlpExporter.OtlpExporterBuilder(new URL("http://collector:4318/v1/metrics"), registry)
+ *                                               .withTemporality(AggregationTemporality.DELTA)
+ *                                               .withResourceAttribute("service.name", "my-service")
+ *                                               .build();
+ * exporter.start();
+ * </pre>
+ *
+ * @see <a href="https://opentelemetry.io/docs/specs/otlp/">OTLP specification</a>
+ */
+public class OtlpExporter implements AutoCloseable {
+
+    private static final String SUCCESS = "success";
+    private static final String FAILURE = "failure";
+
+    private final URL url;
+    private final MetricCollectorRegistry registry;
+    private final Map<String, String> headers;
+    private final int timeoutMillis;
+    private final long exportIntervalMillis;
+    private final OtlpMetricsEncoder encoder;
+    private final ScheduledExecutorService scheduler;
+
+    private final Histogram exportDuration;
+    private final Counter exports;
+    private final Counter dataPoints;
+
+    private OtlpExporter(final OtlpExporterBuilder builder) {
+        this.url = builder.url;
+        this.registry = builder.registry;
+        this.headers = new LinkedHashMap<>(builder.headers);
+        this.timeoutMillis = (int) builder.timeoutMillis;
+        this.exportIntervalMillis = builder.exportIntervalMillis;
+        this.encoder = new OtlpMetricsEncoder(builder.temporality,
+                                              new LinkedHashMap<>(builder.resourceAttributes),
+                                              builder.maxDataPointsPerRequest,
+                                              this::send);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "otlp-exporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        exportDuration = new Histogram.HistogramBuilder("otlp_export_duration_seconds",
+                                                        "The duration of OTLP exports in seconds, including all their requests")
+            .build();
+        exports = new Counter.CounterBuilder("otlp_exports_total", "The number of OTLP exports")
+            .withLabels("result")
+            .build();
+        dataPoints = new Counter.CounterBuilder("otlp_exported_data_points_total",
+                                                "The number of data points that were sent to the OTLP collector")
+            .build();
+    }
+
+    /**
+     * Starts exporting the registry periodically, according to the builder's export interval
+     */
+    public void start() {
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                export();
+            } catch (final IOException | RuntimeException e) {
+                // Counted by export(), the next export reports the up-to-date values. A runtime exception would cancel
+                // the schedule, so it is not propagated either
+            }
+        }, exportIntervalMillis, exportIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Exports the registry now
+     *
+     * @throws IOException if one of the requests failed, requests that were sent before it are not sent again
+     * @throws RuntimeException if reading the metrics failed, i.e. in the value supplier of a gauge
+     */
+    public synchronized void export() throws IOException {
+        final long start = System.nanoTime();
+        try {
+            dataPoints.inc(encoder.encode(registry, System.currentTimeMillis()));
+            exports.inc(SUCCESS);
+        } catch (final IOException | RuntimeException e) {
+            exports.inc(FAILURE);
+            throw e;
+        } finally {
+            exportDuration.observe((System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * Registers this exporter's own export latency, result and data points metrics in the given registry
+     *
+     * @throws IllegalArgumentException if the registry already has other metrics with the same names, i.e. those of
+     *                                  another exporter
+     */
+    public void registerMetricsTo(final MetricRegistry registry) {
+        registry.register(exportDuration);
+        registry.register(exports);
+        registry.register(dataPoints);
+    }
+
+    /**
+     * Stops the periodic export, without exporting again
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void send(final ProtobufWriter request) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setConnectTimeout(timeoutMillis);
+            connection.setReadTimeout(timeoutMillis);
+            connection.setFixedLengthStreamingMode(request.size());
+            connection.setRequestProperty("Content-Type", "application/x-protobuf");
+            headers.forEach(connection::setRequestProperty);
+            try (final OutputStream body = connection.getOutputStream()) {
+                request.writeTo(body);
+            }
+            final int status = connection.getResponseCode();
+            drain(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+            if (status < 200 || status >= 300) {
+                throw new IOException("The OTLP collector at " + url + " responded with status " + status);
+            }
+        } catch (final IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the response fully so the connection can be reused by the next request
+     */
+    private static void drain(final InputStream response) throws IOException {
+        if (response != null) {
+            try (final InputStream stream = response) {
+                final byte[] buffer = new byte[512];
+                while (stream.read(buffer) >= 0) {
+                    // discard
+                }
+            }
+        }
+    }
+
+    public static class OtlpExporterBuilder {
+
+        private final URL url;
+        private final MetricCollectorRegistry registry;
+        private final Map<String, String> headers = new LinkedHashMap<>();
+        private final Map<String, String> resourceAttributes = new LinkedHashMap<>();
+        private AggregationTemporality temporality = AggregationTemporality.CUMULATIVE;
+        private int maxDataPointsPerRequest = 1_000;
+        private long timeoutMillis = TimeUnit.SECONDS.toMillis(10);
+        private long exportIntervalMillis = TimeUnit.MINUTES.toMillis(1);
+
+        /**
+         * @param url the collector's metrics endpoint, usually <i>http://collector:4318/v1/metrics</i>
+         */
+        public OtlpExporterBuilder(final URL url, final MetricCollectorRegistry registry) {
+            this.url = requireNonNull(url, "url may not be null");
+            this.registry = requireNonNull(registry, "registry may not be null");
+        }
+
+        /**
+         * The temporality of counters and histograms, defaults to {@link AggregationTemporality#CUMULATIVE}
+         */
+        public OtlpExporterBuilder withTemporality(final AggregationTemporality temporality) {
+            this.temporality = requireNonNull(temporality, "temporality may not be null");
+            return this;
+        }
+
+        /**
+         * The maximal number of data points in a single request, defaults to 1,000
+         */
+        public OtlpExporterBuilder withMaxDataPointsPerRequest(final int maxDataPointsPerRequest) {
+            Validate.isTrue(maxDataPointsPerRequest > 0, "The maximal number of data points per request must be positive");
+            this.maxDataPointsPerRequest = maxDataPointsPerRequest;
+            return this;
+        }
+
+        /**
+         * An attribute of the resource that produced the metrics, i.e. <i>service.name</i>
+         */
+        public OtlpExporterBuilder withResourceAttribute(final String key, final String value) {
+            resourceAttributes.put(requireNonNull(key, "key may not be null"), requireNonNull(value, "value may not be null"));
+            return this;
+        }
+
+        /**
+         * A header that is sent with every request, i.e. for authorization
+         */
+        public OtlpExporterBuilder withHeader(final String name, final String value) {
+            headers.put(requireNonNull(name, "name may not be null"), requireNonNull(value, "value may not be null"));
+            return this;
+        }
+
+        /**
+         * The connect and read timeout of a single request, defaults to 10 seconds
+         */
+        public OtlpExporterBuilder withTimeout(final long timeout, final TimeUnit unit) {
+            Validate.isTrue(timeout > 0, "The timeout must be positive");
+            this.timeoutMillis = unit.toMillis(timeout);
+            return this;
+        }
+
+        /**
+         * The interval between exports once the exporter was started, defaults to 1 minute
+         */
+        public OtlpExporterBuilder withExportInterval(final long interval, final TimeUnit unit) {
+            Validate.isTrue(interval > 0, "The export interval must be positive");
+            this.exportIntervalMillis = unit.toMillis(interval);
+            return this;
+        }
+
+        public OtlpExporter build() {
+            return new OtlpExporter(this);
+        }
+    }
+}
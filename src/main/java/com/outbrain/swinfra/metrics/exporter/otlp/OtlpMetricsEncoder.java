@@ -0,0 +1,410 @@
+package com.outbrain.swinfra.metrics.exporter.otlp;
+
+import com.outbrain.swinfra.metrics.Metric;
+import com.outbrain.swinfra.metrics.MetricCollector;
+import com.outbrain.swinfra.metrics.MetricCollectorRegistry;
+import com.outbrain.swinfra.metrics.data.CreatedTimestampConsumer;
+import com.outbrain.swinfra.metrics.data.HistogramData;
+import com.outbrain.swinfra.metrics.data.MetricDataConsumer;
+import com.outbrain.swinfra.metrics.data.SummaryData;
+import com.outbrain.swinfra.metrics.exporter.protobuf.ProtobufWriter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes the metrics of a {@link MetricCollectorRegistry} as OTLP <i>ExportMetricsServiceRequest</i> messages, handing
+ * each request to a {@link RequestSender} once it holds {@code maxDataPointsPerRequest} data points.
+ * <p>
+ * Counters are mapped to monotonic sums, gauges and settable gauges to gauges, and histograms and summaries to their
+ * OTLP counterparts. The static labels of a collector and the labels of a child become the data point's attributes.
+ * </p>
+ * <p>
+ * In {@link AggregationTemporality#DELTA delta} mode the last exported values of every counter and histogram child are
+ * kept here, by the exporting thread, so the metrics themselves are not affected. The values of a child become its
+ * last exported values only once the request that holds them was sent, so the changes of a request that was not sent
+ * are reported by the next export. Summaries have no delta representation in OTLP and their count and sum are always
+ * cumulative.
+ * </p>
+ * <p>
+ * This class is not thread-safe - it is meant to be used by one export at a time.
+ * </p>
+ *
+ * @see <a href="https://github.com/open-telemetry/opentelemetry-proto/blob/main/opentelemetry/proto/metrics/v1/metrics.proto">metrics.proto</a>
+ */
+class OtlpMetricsEncoder implements MetricDataConsumer, CreatedTimestampConsumer {
+
+    interface RequestSender {
+        void send(ProtobufWriter request) throws IOException;
+    }
+
+    private static final String SCOPE_NAME = "com.outbrain.swinfra.metrics";
+    private static final long NO_CREATED_TIME = -1;
+
+    // ExportMetricsServiceRequest, ResourceMetrics and ScopeMetrics
+    private static final int RESOURCE_METRICS = 1;
+    private static final int RESOURCE = 1;
+    private static final int SCOPE_METRICS = 2;
+    private static final int SCOPE = 1;
+    private static final int METRICS = 2;
+    // Metric
+    private static final int METRIC_NAME = 1;
+    private static final int METRIC_DESCRIPTION = 2;
+    private static final int METRIC_UNIT = 3;
+    private static final int GAUGE = 5;
+    private static final int SUM = 7;
+    private static final int HISTOGRAM = 9;
+    private static final int SUMMARY = 11;
+    // Gauge, Sum, Histogram and Summary
+    private static final int DATA_POINTS = 1;
+    private static final int AGGREGATION_TEMPORALITY = 2;
+    private static final int IS_MONOTONIC = 3;
+    // Data points
+    private static final int START_TIME = 2;
+    private static final int TIME = 3;
+    private static final int NUMBER_AS_DOUBLE = 4;
+    private static final int NUMBER_ATTRIBUTES = 7;
+    private static final int COUNT = 4;
+    private static final int SUM_VALUE = 5;
+    private static final int HISTOGRAM_BUCKET_COUNTS = 6;
+    private static final int HISTOGRAM_EXPLICIT_BOUNDS = 7;
+    private static final int HISTOGRAM_ATTRIBUTES = 9;
+    private static final int SUMMARY_QUANTILE_VALUES = 6;
+    private static final int SUMMARY_ATTRIBUTES = 7;
+
+    private final AggregationTemporality temporality;
+    private final Map<String, String> resourceAttributes;
+    private final int maxDataPointsPerRequest;
+    private final RequestSender sender;
+    private final long startTimeNanos;
+    private final ProtobufWriter writer = new ProtobufWriter(64 * 1024);
+    private final Map<Metric, Map<List<String>, ChildState>> childStates = new HashMap<>();
+    private final List<ChildState> pendingStates = new ArrayList<>();
+
+    private long generation;
+    private long timeNanos;
+    private Map<String, String> staticLabels;
+    private long createdTimeMillis = NO_CREATED_TIME;
+    private boolean requestOpen;
+    private Metric openMetric;
+    private int dataPoints;
+    private int sentDataPoints;
+    private long[] bucketCounts = new long[16];
+    private double[] bucketBounds = new double[16];
+    private int bucketCount;
+
+    OtlpMetricsEncoder(final AggregationTemporality temporality,
+                       final Map<String, String> resourceAttributes,
+                       final int maxDataPointsPerRequest,
+                       final RequestSender sender) {
+        this.temporality = temporality;
+        this.resourceAttributes = resourceAttributes;
+        this.maxDataPointsPerRequest = maxDataPointsPerRequest;
+        this.sender = sender;
+        this.startTimeNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    }
+
+    /**
+     * Encodes and sends all the metrics of the given registry
+     *
+     * @return the number of data points that were sent
+     */
+    int encode(final MetricCollectorRegistry registry, final long timeMillis) throws IOException {
+        generation++;
+        timeNanos = TimeUnit.MILLISECONDS.toNanos(timeMillis);
+        sentDataPoints = 0;
+        try {
+            for (final MetricCollector collector : registry) {
+                staticLabels = collector.getStaticLabels();
+                for (final Metric metric : collector) {
+                    metric.forEachMetricData(this);
+                    closeMetric();
+                }
+            }
+            flush();
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            writer.reset();
+            requestOpen = false;
+            openMetric = null;
+            dataPoints = 0;
+            // The values of a request that was not sent are reported by the next export
+            pendingStates.clear();
+        }
+        removeDeletedChildren();
+        return sentDataPoints;
+    }
+
+    @Override
+    public void consumeCreated(final Metric metric, final List<String> labelValues, final long createdTimeMillis) {
+        this.createdTimeMillis = createdTimeMillis;
+    }
+
+    @Override
+    public void consumeCounter(final Metric metric, final List<String> labelValues, final double value) {
+        final long startNanos;
+        final double reported;
+        ChildState state = null;
+        if (temporality == AggregationTemporality.DELTA) {
+            state = childState(metric, labelValues);
+            startNanos = state.lastExportNanos;
+            // A smaller value means the counter was reset, and everything it counted since is new
+            reported = value >= state.lastValue ? value - state.lastValue : value;
+            state.pendingValue = value;
+        } else {
+            startNanos = createdTimeNanos();
+            reported = value;
+        }
+        createdTimeMillis = NO_CREATED_TIME;
+
+        startDataPoint(metric, SUM);
+        addPendingState(state);
+        writeAttributes(NUMBER_ATTRIBUTES, metric.getLabelNames(), labelValues);
+        writer.writeFixed64(START_TIME, startNanos)
+              .writeFixed64(TIME, timeNanos)
+              .writeDouble(NUMBER_AS_DOUBLE, reported)
+              .endMessage();
+    }
+
+    @Override
+    public void consumeGauge(final Metric metric, final List<String> labelValues, final double value) {
+        startDataPoint(metric, GAUGE);
+        writeAttributes(NUMBER_ATTRIBUTES, metric.getLabelNames(), labelValues);
+        writer.writeFixed64(TIME, timeNanos)
+              .writeDouble(NUMBER_AS_DOUBLE, value)
+              .endMessage();
+    }
+
+    @Override
+    public void consumeSummary(final Metric metric, final List<String> labelValues, final SummaryData data) {
+        final long startNanos = createdTimeNanos();
+        createdTimeMillis = NO_CREATED_TIME;
+
+        startDataPoint(metric, SUMMARY);
+        writeAttributes(SUMMARY_ATTRIBUTES, metric.getLabelNames(), labelValues);
+        writer.writeFixed64(START_TIME, startNanos)
+              .writeFixed64(TIME, timeNanos)
+              .writeFixed64(COUNT, data.getCount())
+              .writeDouble(SUM_VALUE, data.getSum());
+        writeQuantile(0.5, data.getMedian());
+        writeQuantile(0.75, data.get75thPercentile());
+        writeQuantile(0.95, data.get95thPercentile());
+        writeQuantile(0.98, data.get98thPercentile());
+        writeQuantile(0.99, data.get99thPercentile());
+        writeQuantile(0.999, data.get999thPercentile());
+        writer.endMessage();
+    }
+
+    @Override
+    public void consumeHistogram(final Metric metric, final List<String> labelValues, final HistogramData data) {
+        // OTLP buckets hold their own counts rather than cumulative ones, and the +Inf bound is implicit
+        bucketCount = 0;
+        data.consumeBuckets((upperBound, cumulativeCount) -> {
+            if (bucketCount == bucketCounts.length) {
+                bucketCounts = Arrays.copyOf(bucketCounts, bucketCount * 2);
+                bucketBounds = Arrays.copyOf(bucketBounds, bucketCount * 2);
+            }
+            bucketCounts[bucketCount] = cumulativeCount;
+            bucketBounds[bucketCount] = upperBound;
+            bucketCount++;
+        });
+        for (int i = bucketCount - 1; i > 0; i--) {
+            bucketCounts[i] -= bucketCounts[i - 1];
+        }
+
+        long count = data.getCount();
+        double sum = data.getSum();
+        final long startNanos;
+        ChildState state = null;
+        if (temporality == AggregationTemporality.DELTA) {
+            state = childState(metric, labelValues);
+            startNanos = state.lastExportNanos;
+            final boolean reset = count < state.lastCount || state.lastBucketCounts.length != bucketCount;
+            state.pendingBucketCounts = Arrays.copyOf(bucketCounts, bucketCount);
+            if (!reset) {
+                for (int i = 0; i < bucketCount; i++) {
+                    bucketCounts[i] -= state.lastBucketCounts[i];
+                }
+                count -= state.lastCount;
+                sum -= state.lastSum;
+            }
+            state.pendingCount = data.getCount();
+            state.pendingSum = data.getSum();
+        } else {
+            startNanos = createdTimeNanos();
+        }
+        createdTimeMillis = NO_CREATED_TIME;
+
+        startDataPoint(metric, HISTOGRAM);
+        addPendingState(state);
+        writeAttributes(HISTOGRAM_ATTRIBUTES, metric.getLabelNames(), labelValues);
+        writer.writeFixed64(START_TIME, startNanos)
+              .writeFixed64(TIME, timeNanos)
+              .writeFixed64(COUNT, count)
+              .writeDouble(SUM_VALUE, sum)
+              .writePackedFixed64(HISTOGRAM_BUCKET_COUNTS, bucketCounts, bucketCount)
+              .writePackedDouble(HISTOGRAM_EXPLICIT_BOUNDS, bucketBounds, bucketCount - 1)
+              .endMessage();
+    }
+
+    /**
+     * Opens the request and the metric if they are not already open, and starts a new data point message
+     */
+    private void startDataPoint(final Metric metric, final int type) {
+        if (dataPoints == maxDataPointsPerRequest) {
+            flush();
+        }
+        if (!requestOpen) {
+            writer.startMessage(RESOURCE_METRICS).startMessage(RESOURCE);
+            for (final Map.Entry<String, String> attribute : resourceAttributes.entrySet()) {
+                writeAttribute(1, attribute.getKey(), attribute.getValue());
+            }
+            writer.endMessage()
+                  .startMessage(SCOPE_METRICS)
+                  .startMessage(SCOPE).writeString(1, SCOPE_NAME).endMessage();
+            requestOpen = true;
+        }
+        if (openMetric != metric) {
+            closeMetric();
+            writer.startMessage(METRICS)
+                  .writeString(METRIC_NAME, metric.getName())
+                  .writeString(METRIC_DESCRIPTION, metric.getHelp())
+                  .writeString(METRIC_UNIT, metric.getUnit())
+                  .startMessage(type);
+            if (type == SUM) {
+                writer.writeVarint(AGGREGATION_TEMPORALITY, temporality.getProtoValue()).writeVarint(IS_MONOTONIC, 1);
+            } else if (type == HISTOGRAM) {
+                writer.writeVarint(AGGREGATION_TEMPORALITY, temporality.getProtoValue());
+            }
+            openMetric = metric;
+        }
+        dataPoints++;
+        writer.startMessage(DATA_POINTS);
+    }
+
+    private void closeMetric() {
+        if (openMetric != null) {
+            writer.endMessage().endMessage();
+            openMetric = null;
+        }
+    }
+
+    /**
+     * Ends the current request and sends it. A metric whose data points are split between requests is opened again
+     * (with its name, description and unit) in the next request.
+     */
+    private void flush() {
+        if (!requestOpen) {
+            return;
+        }
+        closeMetric();
+        writer.endMessage().endMessage();
+        try {
+            sender.send(writer);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        sentDataPoints += dataPoints;
+        for (int i = 0; i < pendingStates.size(); i++) {
+            pendingStates.get(i).commit(timeNanos);
+        }
+        pendingStates.clear();
+        writer.reset();
+        requestOpen = false;
+        dataPoints = 0;
+    }
+
+    private void writeAttributes(final int fieldNumber, final List<String> labelNames, final List<String> labelValues) {
+        for (final Map.Entry<String, String> staticLabel : staticLabels.entrySet()) {
+            writeAttribute(fieldNumber, staticLabel.getKey(), staticLabel.getValue());
+        }
+        for (int i = 0; i < labelNames.size(); i++) {
+            writeAttribute(fieldNumber, labelNames.get(i), labelValues.get(i));
+        }
+    }
+
+    /**
+     * Writes a <i>KeyValue</i> message with a string <i>AnyValue</i>
+     */
+    private void writeAttribute(final int fieldNumber, final String key, final String value) {
+        writer.startMessage(fieldNumber)
+              .writeString(1, key)
+              .startMessage(2).writeString(1, value).endMessage()
+              .endMessage();
+    }
+
+    private void writeQuantile(final double quantile, final double value) {
+        writer.startMessage(SUMMARY_QUANTILE_VALUES).writeDouble(1, quantile).writeDouble(2, value).endMessage();
+    }
+
+    private long createdTimeNanos() {
+        return createdTimeMillis == NO_CREATED_TIME ? startTimeNanos : TimeUnit.MILLISECONDS.toNanos(createdTimeMillis);
+    }
+
+    private ChildState childState(final Metric metric, final List<String> labelValues) {
+        final ChildState state = childStates.computeIfAbsent(metric, m -> new HashMap<>())
+                                            .computeIfAbsent(labelValues, l -> new ChildState(createdTimeNanos()));
+        state.generation = generation;
+        return state;
+    }
+
+    /**
+     * Keeps the state of the child whose data point was just started, to be committed once its request was sent. Added
+     * only after the data point was started, since starting it may send the previous request
+     */
+    private void addPendingState(final ChildState state) {
+        if (state != null) {
+            pendingStates.add(state);
+        }
+    }
+
+    /**
+     * Forgets the state of children (and metrics) that were not exported this time, since they no longer exist
+     */
+    private void removeDeletedChildren() {
+        final Iterator<Map<List<String>, ChildState>> metrics = childStates.values().iterator();
+        while (metrics.hasNext()) {
+            final Map<List<String>, ChildState> children = metrics.next();
+            children.values().removeIf(state -> state.generation != generation);
+            if (children.isEmpty()) {
+                metrics.remove();
+            }
+        }
+    }
+
+    /**
+     * The values of a child as of the last delta export, and the values of the request that holds it until it is sent
+     */
+    private static class ChildState {
+        private long lastExportNanos;
+        private long generation;
+        private double lastValue;
+        private long lastCount;
+        private double lastSum;
+        private long[] lastBucketCounts = new long[0];
+        private double pendingValue;
+        private long pendingCount;
+        private double pendingSum;
+        private long[] pendingBucketCounts = lastBucketCounts;
+
+        private ChildState(final long createdTimeNanos) {
+            this.lastExportNanos = createdTimeNanos;
+        }
+
+        private void commit(final long exportNanos) {
+            lastExportNanos = exportNanos;
+            lastValue = pendingValue;
+            lastCount = pendingCount;
+            lastSum = pendingSum;
+            lastBucketCounts = pendingBucketCounts;
+        }
+    }
+}
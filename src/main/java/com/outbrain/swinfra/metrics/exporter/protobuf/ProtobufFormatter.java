@@ -2,26 +2,42 @@ package com.outbrain.swinfra.metrics.exporter.protobuf;
 
 import com.outbrain.swinfra.metrics.Metric;
 import com.outbrain.swinfra.metrics.MetricCollector;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.UnknownFieldSet;
+import com.google.protobuf.WireFormat;
+import com.outbrain.swinfra.metrics.data.ExemplarConsumer;
 import com.outbrain.swinfra.metrics.data.HistogramData;
 import com.outbrain.swinfra.metrics.data.MetricDataConsumer;
 import com.outbrain.swinfra.metrics.data.SummaryData;
-import com.outbrain.swinfra.metrics.exporter.CollectorExporter;
+import com.outbrain.swinfra.metrics.exemplars.Exemplar;
+import com.outbrain.swinfra.metrics.exporter.ExportFilter;
+import com.outbrain.swinfra.metrics.exporter.PartialCollectorExporter;
 import io.prometheus.client.Metrics;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 
 import static java.util.Objects.requireNonNull;
 
 /**
  * Protocol buffers formatter
+ * <p>
+ * Exemplars are not part of the generated {@link Metrics} classes, which predate them, so they are written as the
+ * raw <i>exemplar</i> fields of the <i>Counter</i> and <i>Bucket</i> messages of the current metrics.proto.
+ * </p>
  *
  * @see <a href="https://github.com/prometheus/client_model/blob/master/metrics.proto">metrics.proto</a>
  */
-public class ProtobufFormatter implements CollectorExporter {
+public class ProtobufFormatter implements PartialCollectorExporter {
+
+  private static final int COUNTER_EXEMPLAR_FIELD = 2;
+  private static final int BUCKET_EXEMPLAR_FIELD = 3;
 
   public static final String CONTENT_TYPE_PROTOBUF = "application/vnd.google.protobuf; " +
     "proto=io.prometheus.client.MetricFamily; " +
@@ -35,25 +51,45 @@ public class ProtobufFormatter implements CollectorExporter {
 
   @Override
   public void exportTo(final OutputStream stream) throws IOException {
-    final ProtobufMetricDataConsumer consumer = new ProtobufMetricDataConsumer(metricCollector.getStaticLabels(), stream);
-    for (final Metric metric : metricCollector) {
-      consumer.consumeMetric(metric);
+    exportTo(stream, metricCollector);
+  }
+
+  @Override
+  public void exportTo(final OutputStream stream, final Iterable<Metric> metrics) throws IOException {
+    exportTo(stream, metrics, ExportFilter.ALL);
+  }
+
+  @Override
+  public void exportTo(final OutputStream stream, final ExportFilter filter) throws IOException {
+    exportTo(stream, filter.select(metricCollector), filter);
+  }
+
+  @Override
+  public void exportTo(final OutputStream stream, final Iterable<Metric> metrics, final ExportFilter filter) throws IOException {
+    final Map<String, String> staticLabels = metricCollector.getStaticLabels();
+    final ProtobufMetricDataConsumer consumer = new ProtobufMetricDataConsumer(staticLabels, stream);
+    for (final Metric metric : metrics) {
+      final Predicate<List<String>> labelValuesFilter = filter.labelValuesFilter(metric, staticLabels);
+      if (labelValuesFilter != null) {
+        consumer.consumeMetric(metric, labelValuesFilter);
+      }
     }
   }
 
-  private static class ProtobufMetricDataConsumer implements MetricDataConsumer {
+  private static class ProtobufMetricDataConsumer implements MetricDataConsumer, ExemplarConsumer {
 
     private final Map<String, String> staticLabels;
     private final OutputStream stream;
     private Metrics.MetricFamily.Builder familyBuilder;
     private Metrics.Metric.Builder metricBuilder;
+    private Exemplar counterExemplar;
 
     private ProtobufMetricDataConsumer(final Map<String, String> staticLabels, final OutputStream stream) {
       this.staticLabels = staticLabels;
       this.stream = stream;
     }
 
-    private void consumeMetric(final Metric metric) throws IOException {
+    private void consumeMetric(final Metric metric, final Predicate<List<String>> labelValuesFilter) throws IOException {
       familyBuilder = createMetricFamily(metric);
       metricBuilder = Metrics.Metric.newBuilder();
       // registering all static labelValues
@@ -61,17 +97,27 @@ public class ProtobufFormatter implements CollectorExporter {
           metricBuilder.addLabel(createLabel(n, v)));
 
       // build metric family
-      metric.forEachMetricData(this);
+      metric.forEachMetricData(this, labelValuesFilter);
 
       // flush metric family into output stream
       familyBuilder.build().writeDelimitedTo(stream);
     }
 
 
+    @Override
+    public void consumeExemplar(final Metric metric, final List<String> labelValues, final Exemplar exemplar) {
+      counterExemplar = exemplar;
+    }
+
     @Override
     public void consumeCounter(final Metric metric, final List<String> labelValues, final double value) {
       familyBuilder.setType(Metrics.MetricType.COUNTER);
-      final Metrics.Counter counter = Metrics.Counter.newBuilder().setValue(value).build();
+      final Metrics.Counter.Builder counterBuilder = Metrics.Counter.newBuilder().setValue(value);
+      if (counterExemplar != null) {
+        counterBuilder.mergeUnknownFields(createExemplarField(COUNTER_EXEMPLAR_FIELD, counterExemplar));
+        counterExemplar = null;
+      }
+      final Metrics.Counter counter = counterBuilder.build();
       addMetric(() -> metricBuilder.setCounter(counter).build(), metric.getLabelNames(), labelValues);
 
     }
@@ -103,7 +149,12 @@ public class ProtobufFormatter implements CollectorExporter {
       final Metrics.Histogram.Builder histogramBuilder = Metrics.Histogram.newBuilder().
           setSampleCount(data.getCount()).setSampleSum(data.getSum());
       data.consumeBuckets((upperBound, count) -> {
-        histogramBuilder.addBucket(Metrics.Bucket.newBuilder().setCumulativeCount(count).setUpperBound(upperBound));
+        final Metrics.Bucket.Builder bucketBuilder = Metrics.Bucket.newBuilder().setCumulativeCount(count).setUpperBound(upperBound);
+        final Exemplar exemplar = data.getExemplar(histogramBuilder.getBucketCount());
+        if (exemplar != null) {
+          bucketBuilder.mergeUnknownFields(createExemplarField(BUCKET_EXEMPLAR_FIELD, exemplar));
+        }
+        histogramBuilder.addBucket(bucketBuilder);
       });
 
       addMetric(() -> metricBuilder.setHistogram(histogramBuilder).build(), metric.getLabelNames(), labelValues);
@@ -143,6 +194,35 @@ public class ProtobufFormatter implements CollectorExporter {
       }
     }
 
+    /**
+     * Encodes an <i>Exemplar</i> message - repeated LabelPair label = 1, double value = 2 and
+     * google.protobuf.Timestamp timestamp = 3 - as an unknown field with the given number
+     */
+    private static UnknownFieldSet createExemplarField(final int fieldNumber, final Exemplar exemplar) {
+      try {
+        final long seconds = TimeUnit.MILLISECONDS.toSeconds(exemplar.getTimestampMillis());
+        final int nanos = (int) TimeUnit.MILLISECONDS.toNanos(exemplar.getTimestampMillis() - TimeUnit.SECONDS.toMillis(seconds));
+
+        final ByteString.Output bytes = ByteString.newOutput();
+        final CodedOutputStream output = CodedOutputStream.newInstance(bytes);
+        for (final Map.Entry<String, String> label : exemplar.getLabels().entrySet()) {
+          output.writeMessage(1, createLabel(label.getKey(), label.getValue()));
+        }
+        output.writeDouble(2, exemplar.getValue());
+        output.writeTag(3, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        output.writeRawVarint32(CodedOutputStream.computeInt64Size(1, seconds) + CodedOutputStream.computeInt32Size(2, nanos));
+        output.writeInt64(1, seconds);
+        output.writeInt32(2, nanos);
+        output.flush();
+
+        return UnknownFieldSet.newBuilder().
+            addField(fieldNumber, UnknownFieldSet.Field.newBuilder().addLengthDelimited(bytes.toByteString()).build()).
+            build();
+      } catch (final IOException e) {
+        throw new IllegalStateException("failed encoding an exemplar", e);
+      }
+    }
+
     private static Metrics.LabelPair createLabel(final String n, final String v) {
       return Metrics.LabelPair.newBuilder().
           setName(n).
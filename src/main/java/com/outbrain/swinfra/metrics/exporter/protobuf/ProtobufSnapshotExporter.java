@@ -0,0 +1,156 @@
+package com.outbrain.swinfra.metrics.exporter.protobuf;
+
+import com.outbrain.swinfra.metrics.Metric;
+import com.outbrain.swinfra.metrics.exporter.RegistrySnapshot;
+import com.outbrain.swinfra.metrics.exporter.SnapshotExporter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a {@link RegistrySnapshot} as length-delimited <i>MetricFamily</i> messages, the same messages that
+ * {@link ProtobufFormatter} writes (without exemplars, which snapshots do not capture).
+ * <p>
+ * The messages are encoded with a reusable {@link ProtobufWriter} rather than the generated builders, so a steady-state
+ * export does not allocate. This class is not thread-safe, each exporting thread should use its own instance.
+ * </p>
+ *
+ * @see <a href="https://github.com/prometheus/client_model/blob/master/metrics.proto">metrics.proto</a>
+ */
+public class ProtobufSnapshotExporter implements SnapshotExporter {
+
+    private static final int FAMILY_NAME = 1;
+    private static final int FAMILY_HELP = 2;
+    private static final int FAMILY_TYPE = 3;
+    private static final int FAMILY_METRIC = 4;
+
+    private static final int METRIC_LABEL = 1;
+    private static final int METRIC_GAUGE = 2;
+    private static final int METRIC_COUNTER = 3;
+    private static final int METRIC_SUMMARY = 4;
+    private static final int METRIC_HISTOGRAM = 7;
+
+    private static final int LABEL_NAME = 1;
+    private static final int LABEL_VALUE = 2;
+    private static final int SINGLE_VALUE = 1;
+    private static final int SAMPLE_COUNT = 1;
+    private static final int SAMPLE_SUM = 2;
+    private static final int QUANTILES_OR_BUCKETS = 3;
+    private static final int QUANTILE = 1;
+    private static final int QUANTILE_VALUE = 2;
+    private static final int BUCKET_CUMULATIVE_COUNT = 1;
+    private static final int BUCKET_UPPER_BOUND = 2;
+
+    private static final int TYPE_COUNTER = 0;
+    private static final int TYPE_GAUGE = 1;
+    private static final int TYPE_SUMMARY = 2;
+    private static final int TYPE_HISTOGRAM = 4;
+
+    private final ProtobufWriter writer = new ProtobufWriter();
+
+    @Override
+    public String getContentType() {
+        return ProtobufFormatter.CONTENT_TYPE_PROTOBUF;
+    }
+
+    @Override
+    public void exportTo(final RegistrySnapshot snapshot, final OutputStream stream) throws IOException {
+        for (int family = 0; family < snapshot.getFamilyCount(); family++) {
+            writer.reset();
+            writeFamily(snapshot, family);
+            writeLength(stream, writer.size());
+            writer.writeTo(stream);
+        }
+    }
+
+    private void writeFamily(final RegistrySnapshot snapshot, final int family) {
+        final Metric metric = snapshot.getMetric(family);
+        final Map<String, String> staticLabels = snapshot.getStaticLabels(family);
+        final List<String> labelNames = metric.getLabelNames();
+        writer.writeString(FAMILY_NAME, metric.getName());
+        writer.writeString(FAMILY_HELP, metric.getHelp());
+        writer.writeVarint(FAMILY_TYPE, protoType(metric));
+
+        final int seriesEnd = snapshot.getSeriesEnd(family);
+        for (int series = snapshot.getFirstSeries(family); series < seriesEnd; series++) {
+            writer.startMessage(FAMILY_METRIC);
+            if (!staticLabels.isEmpty()) {
+                for (final Map.Entry<String, String> label : staticLabels.entrySet()) {
+                    writeLabel(label.getKey(), label.getValue());
+                }
+            }
+            final List<String> labelValues = snapshot.getLabelValues(series);
+            for (int i = 0; i < labelNames.size(); i++) {
+                writeLabel(labelNames.get(i), labelValues.get(i));
+            }
+
+            switch (metric.getType()) {
+                case COUNTER:
+                    writer.startMessage(METRIC_COUNTER).writeDouble(SINGLE_VALUE, snapshot.getValue(series)).endMessage();
+                    break;
+                case GAUGE:
+                    writer.startMessage(METRIC_GAUGE).writeDouble(SINGLE_VALUE, snapshot.getValue(series)).endMessage();
+                    break;
+                case SUMMARY:
+                    writer.startMessage(METRIC_SUMMARY)
+                          .writeVarint(SAMPLE_COUNT, snapshot.getCount(series))
+                          .writeDouble(SAMPLE_SUM, snapshot.getValue(series));
+                    for (int point = snapshot.getFirstPoint(series); point < snapshot.getPointEnd(series); point++) {
+                        writer.startMessage(QUANTILES_OR_BUCKETS)
+                              .writeDouble(QUANTILE, snapshot.getPointBound(point))
+                              .writeDouble(QUANTILE_VALUE, snapshot.getPointValue(point))
+                              .endMessage();
+                    }
+                    writer.endMessage();
+                    break;
+                case HISTOGRAM:
+                    writer.startMessage(METRIC_HISTOGRAM)
+                          .writeVarint(SAMPLE_COUNT, snapshot.getCount(series))
+                          .writeDouble(SAMPLE_SUM, snapshot.getValue(series));
+                    for (int point = snapshot.getFirstPoint(series); point < snapshot.getPointEnd(series); point++) {
+                        writer.startMessage(QUANTILES_OR_BUCKETS)
+                              .writeVarint(BUCKET_CUMULATIVE_COUNT, snapshot.getPointCount(point))
+                              .writeDouble(BUCKET_UPPER_BOUND, snapshot.getPointBound(point))
+                              .endMessage();
+                    }
+                    writer.endMessage();
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown metric type " + metric.getType());
+            }
+            writer.endMessage();
+        }
+    }
+
+    private void writeLabel(final String name, final String value) {
+        writer.startMessage(METRIC_LABEL)
+              .writeString(LABEL_NAME, name)
+              .writeString(LABEL_VALUE, value)
+              .endMessage();
+    }
+
+    private static int protoType(final Metric metric) {
+        switch (metric.getType()) {
+            case COUNTER:
+                return TYPE_COUNTER;
+            case GAUGE:
+                return TYPE_GAUGE;
+            case SUMMARY:
+                return TYPE_SUMMARY;
+            case HISTOGRAM:
+                return TYPE_HISTOGRAM;
+            default:
+                throw new IllegalStateException("Unknown metric type " + metric.getType());
+        }
+    }
+
+    private static void writeLength(final OutputStream stream, int length) throws IOException {
+        while ((length & ~0x7f) != 0) {
+            stream.write((length & 0x7f) | 0x80);
+            length >>>= 7;
+        }
+        stream.write(length);
+    }
+}
@@ -0,0 +1,240 @@
+package com.outbrain.swinfra.metrics.exporter.protobuf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A minimal, reusable protocol buffers encoder for messages that have no generated classes in this library (such as
+ * the remote write and OTLP requests).
+ * <p>
+ * Embedded messages are written between {@link #startMessage(int)} and {@link #endMessage()}. Their length is not known
+ * in advance, so a single byte is reserved for it and the content is shifted in the rare case where the length needs a
+ * longer varint. This keeps the encoding single-pass, without computing the sizes of nested messages ahead of time.
+ * </p>
+ * <p>
+ * Fields are written exactly as given - unlike generated proto3 code, default values are not omitted. This class is
+ * not thread-safe and is meant to be reused by a single thread after calling {@link #reset()}.
+ * </p>
+ */
+public class ProtobufWriter {
+
+    private static final int WIRETYPE_VARINT = 0;
+    private static final int WIRETYPE_FIXED64 = 1;
+    private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+
+    private byte[] buf;
+    private int count;
+    private int[] messageStarts = new int[8];
+    private int depth;
+
+    public ProtobufWriter() {
+        this(4096);
+    }
+
+    public ProtobufWriter(final int initialCapacity) {
+        buf = new byte[initialCapacity];
+    }
+
+    public void reset() {
+        count = 0;
+        depth = 0;
+    }
+
+    public byte[] array() {
+        return buf;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, count);
+    }
+
+    public void writeTo(final OutputStream stream) throws IOException {
+        stream.write(buf, 0, count);
+    }
+
+    public ProtobufWriter startMessage(final int fieldNumber) {
+        writeTag(fieldNumber, WIRETYPE_LENGTH_DELIMITED);
+        if (depth == messageStarts.length) {
+            messageStarts = Arrays.copyOf(messageStarts, depth * 2);
+        }
+        ensureCapacity(count + 1);
+        messageStarts[depth++] = count++;
+        return this;
+    }
+
+    public ProtobufWriter endMessage() {
+        if (depth == 0) {
+            throw new IllegalStateException("endMessage() was called without a matching startMessage()");
+        }
+        final int lengthPosition = messageStarts[--depth];
+        final int contentStart = lengthPosition + 1;
+        final int length = count - contentStart;
+        final int lengthSize = varintSize(length);
+        if (lengthSize > 1) {
+            ensureCapacity(count + lengthSize - 1);
+            System.arraycopy(buf, contentStart, buf, lengthPosition + lengthSize, length);
+            count += lengthSize - 1;
+        }
+        putVarint(lengthPosition, length);
+        return this;
+    }
+
+    public ProtobufWriter writeString(final int fieldNumber, final String value) {
+        writeTag(fieldNumber, WIRETYPE_LENGTH_DELIMITED);
+        final int length = utf8Length(value);
+        writeVarint(length);
+        ensureCapacity(count + length);
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                buf[count++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[count++] = (byte) (0xc0 | (c >>> 6));
+                buf[count++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buf[count++] = (byte) (0xf0 | (codePoint >>> 18));
+                buf[count++] = (byte) (0x80 | ((codePoint >>> 12) & 0x3f));
+                buf[count++] = (byte) (0x80 | ((codePoint >>> 6) & 0x3f));
+                buf[count++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // An unpaired surrogate is not valid UTF-16, it is encoded as '?' like String.getBytes() does
+                buf[count++] = (byte) '?';
+            } else {
+                buf[count++] = (byte) (0xe0 | (c >>> 12));
+                buf[count++] = (byte) (0x80 | ((c >>> 6) & 0x3f));
+                buf[count++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        return this;
+    }
+
+    public ProtobufWriter writeBytes(final int fieldNumber, final byte[] value, final int offset, final int length) {
+        writeTag(fieldNumber, WIRETYPE_LENGTH_DELIMITED);
+        writeVarint(length);
+        ensureCapacity(count + length);
+        System.arraycopy(value, offset, buf, count, length);
+        count += length;
+        return this;
+    }
+
+    public ProtobufWriter writeDouble(final int fieldNumber, final double value) {
+        return writeFixed64(fieldNumber, Double.doubleToRawLongBits(value));
+    }
+
+    public ProtobufWriter writeFixed64(final int fieldNumber, final long value) {
+        writeTag(fieldNumber, WIRETYPE_FIXED64);
+        ensureCapacity(count + 8);
+        putFixed64(value);
+        return this;
+    }
+
+    /**
+     * Writes a packed <i>repeated fixed64</i> field with the first <i>length</i> values of the given array
+     */
+    public ProtobufWriter writePackedFixed64(final int fieldNumber, final long[] values, final int length) {
+        writeTag(fieldNumber, WIRETYPE_LENGTH_DELIMITED);
+        writeVarint(8L * length);
+        ensureCapacity(count + 8 * length);
+        for (int i = 0; i < length; i++) {
+            putFixed64(values[i]);
+        }
+        return this;
+    }
+
+    /**
+     * Writes a packed <i>repeated double</i> field with the first <i>length</i> values of the given array
+     */
+    public ProtobufWriter writePackedDouble(final int fieldNumber, final double[] values, final int length) {
+        writeTag(fieldNumber, WIRETYPE_LENGTH_DELIMITED);
+        writeVarint(8L * length);
+        ensureCapacity(count + 8 * length);
+        for (int i = 0; i < length; i++) {
+            putFixed64(Double.doubleToRawLongBits(values[i]));
+        }
+        return this;
+    }
+
+    /**
+     * Writes an <i>int64</i>, <i>uint64</i>, <i>int32</i>, <i>uint32</i>, <i>bool</i> or <i>enum</i> field
+     */
+    public ProtobufWriter writeVarint(final int fieldNumber, final long value) {
+        writeTag(fieldNumber, WIRETYPE_VARINT);
+        writeVarint(value);
+        return this;
+    }
+
+    private void writeTag(final int fieldNumber, final int wireType) {
+        writeVarint((fieldNumber << 3) | wireType);
+    }
+
+    private void writeVarint(long value) {
+        ensureCapacity(count + 10);
+        while ((value & ~0x7fL) != 0) {
+            buf[count++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buf[count++] = (byte) value;
+    }
+
+    private void putFixed64(final long value) {
+        for (int i = 0; i < 8; i++) {
+            buf[count++] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    private void putVarint(int position, int value) {
+        while ((value & ~0x7f) != 0) {
+            buf[position++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buf[position] = (byte) value;
+    }
+
+    private static int varintSize(final int value) {
+        if ((value & (~0 << 7)) == 0) {
+            return 1;
+        }
+        if ((value & (~0 << 14)) == 0) {
+            return 2;
+        }
+        if ((value & (~0 << 21)) == 0) {
+            return 3;
+        }
+        if ((value & (~0 << 28)) == 0) {
+            return 4;
+        }
+        return 5;
+    }
+
+    private static int utf8Length(final String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (capacity > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(capacity, buf.length * 2));
+        }
+    }
+}
@@ -0,0 +1,465 @@
+package com.outbrain.swinfra.metrics.exporter.remotewrite;
+
+import com.outbrain.swinfra.metrics.Counter;
+import com.outbrain.swinfra.metrics.Gauge;
+import com.outbrain.swinfra.metrics.Histogram;
+import com.outbrain.swinfra.metrics.MetricCollectorRegistry;
+import com.outbrain.swinfra.metrics.MetricRegistry;
+import org.apache.commons.lang3.Validate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Pushes the metrics of a {@link MetricCollectorRegistry} to a Prometheus remote write endpoint, for processes that
+ * cannot be scraped (i.e. short-lived batch jobs).
+ * <p>
+ * Every push flattens the registry into series (one sample each, all with the same timestamp) and queues them. The
+ * series are sharded by their labels between several sender threads, so the samples of a series are always sent in
+ * order. Each sender batches up to {@code maxSamplesPerSend} samples (or whatever was queued when the batch deadline
+ * passes), encodes them as a snappy-compressed <i>WriteRequest</i> and posts it, retrying failed requests with an
+ * exponential backoff. Requests that were rejected by the receiver (4xx other than 429) are not retried.
+ * </p>
+ * <p>
+ * The queues are bounded - when the receiver cannot keep up, new samples are dropped (and counted) rather than
+ * blocking the pushing thread or exhausting the heap. The client's own queue depth, send latency and sample counters can
+ * be registered to any registry using {@link #registerMetricsTo(MetricRegistry)}.
+ * </p>
+ * <pre>
+ * final RemoteWriteClient client = new RemoteWriteClient.RemoteWriteClientBuilder(url, collectorRegistry)
+ *                                                       .withPushInterval(15, TimeUnit.SECONDS)
+ *                                                       .build();
+ * client.start();
+ * ...
+ * client.push(); // a final push
+ * client.close(); // sends whatever is still queued
+ * </pre>
+ *
+ * @see <a href="https://prometheus.io/docs/concepts/remote_write_spec/">Remote write specification</a>
+ */
+public class RemoteWriteClient implements AutoCloseable {
+
+    private static final String SENT = "sent";
+    private static final String FAILED = "failed";
+    private static final String DROPPED = "dropped";
+    private static final String SUCCESS = "success";
+    private static final String FAILURE = "failure";
+    private static final long IDLE_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final URL url;
+    private final MetricCollectorRegistry registry;
+    private final Map<String, String> headers;
+    private final int maxSamplesPerSend;
+    private final long batchSendDeadlineNanos;
+    private final int maxRetries;
+    private final long minBackoffMillis;
+    private final long maxBackoffMillis;
+    private final int timeoutMillis;
+    private final long pushIntervalMillis;
+    private final long closeTimeoutMillis;
+
+    private final Shard[] shards;
+    private final ExecutorService senders;
+    private final ScheduledExecutorService scheduler;
+    private final TimeSeriesCollector seriesCollector = new TimeSeriesCollector(this::enqueue);
+    private volatile boolean closing;
+
+    private final Gauge queueDepth;
+    private final Histogram sendDuration;
+    private final Counter samples;
+    private final Counter retries;
+    private final Counter pushes;
+
+    private RemoteWriteClient(final RemoteWriteClientBuilder builder) {
+        this.url = builder.url;
+        this.registry = builder.registry;
+        this.headers = new LinkedHashMap<>(builder.headers);
+        this.maxSamplesPerSend = builder.maxSamplesPerSend;
+        this.batchSendDeadlineNanos = builder.batchSendDeadlineNanos;
+        this.maxRetries = builder.maxRetries;
+        this.minBackoffMillis = builder.minBackoffMillis;
+        this.maxBackoffMillis = builder.maxBackoffMillis;
+        this.timeoutMillis = (int) builder.timeoutMillis;
+        this.pushIntervalMillis = builder.pushIntervalMillis;
+        this.closeTimeoutMillis = builder.closeTimeoutMillis;
+
+        queueDepth = new Gauge.GaugeBuilder("remote_write_queue_samples", "The number of samples waiting to be sent")
+            .withValueSupplier(this::getQueuedSamples)
+            .build();
+        sendDuration = new Histogram.HistogramBuilder("remote_write_send_duration_seconds",
+                                                      "The duration of remote write requests in seconds")
+            .build();
+        samples = new Counter.CounterBuilder("remote_write_samples_total",
+                                             "The number of samples that were sent, failed to be sent or dropped due to a full queue")
+            .withLabels("result")
+            .build();
+        retries = new Counter.CounterBuilder("remote_write_retries_total", "The number of remote write requests that were retried")
+            .build();
+        pushes = new Counter.CounterBuilder("remote_write_pushes_total", "The number of times the registry was collected and queued")
+            .withLabels("result")
+            .build();
+
+        final int queueCapacityPerShard = Math.max(1, builder.queueCapacity / builder.shards);
+        shards = new Shard[builder.shards];
+        senders = Executors.newFixedThreadPool(builder.shards, createThreadFactory("remote-write-sender-"));
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(queueCapacityPerShard);
+            senders.execute(shards[i]);
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(createThreadFactory("remote-write-scheduler-"));
+    }
+
+    /**
+     * Starts pushing the registry periodically, according to the builder's push interval
+     */
+    public void start() {
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                push();
+            } catch (final RuntimeException e) {
+                // Counted by push(), and not propagated since it would cancel the schedule. The next push collects the
+                // up-to-date values
+            }
+        }, pushIntervalMillis, pushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Collects the registry and queues all of its samples for sending. Samples that do not fit in their shard's queue
+     * are dropped.
+     *
+     * @throws RuntimeException if reading the metrics failed, i.e. in the value supplier of a gauge
+     */
+    public synchronized void push() {
+        if (!closing) {
+            try {
+                seriesCollector.collect(registry, System.currentTimeMillis());
+                pushes.inc(SUCCESS);
+            } catch (final RuntimeException e) {
+                pushes.inc(FAILURE);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Registers this client's own queue depth, send latency, samples, retries and pushes metrics in the given registry
+     *
+     * @throws IllegalArgumentException if the registry already has other metrics with the same names, i.e. those of
+     *                                  another client
+     */
+    public void registerMetricsTo(final MetricRegistry registry) {
+        registry.register(queueDepth);
+        registry.register(sendDuration);
+        registry.register(samples);
+        registry.register(retries);
+        registry.register(pushes);
+    }
+
+    /**
+     * Stops the periodic push and waits (up to the builder's close timeout) for the queued samples to be sent. If the
+     * calling thread is interrupted while waiting, the senders are stopped right away and the interrupt status is kept
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        synchronized (this) {
+            closing = true;
+        }
+        senders.shutdown();
+        try {
+            if (!senders.awaitTermination(closeTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                senders.shutdownNow();
+            }
+        } catch (final InterruptedException e) {
+            senders.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private double getQueuedSamples() {
+        int queued = 0;
+        for (final Shard shard : shards) {
+            queued += shard.queue.size();
+        }
+        return queued;
+    }
+
+    private void enqueue(final TimeSeries series) {
+        final Shard shard = shards[Math.floorMod(series.seriesHash(), shards.length)];
+        if (!shard.queue.offer(series)) {
+            samples.inc(DROPPED);
+        }
+    }
+
+    private class Shard implements Runnable {
+
+        private final BlockingQueue<TimeSeries> queue;
+        private final List<TimeSeries> batch = new ArrayList<>();
+        private final WriteRequestEncoder encoder = new WriteRequestEncoder();
+
+        private Shard(final int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!closing || !queue.isEmpty()) {
+                    if (fillBatch()) {
+                        sendBatch();
+                    }
+                }
+            } catch (final InterruptedException e) {
+                samples.inc(batch.size() + queue.size(), FAILED);
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Waits for a first sample and then keeps filling the batch until it is full or until the batch deadline passes
+         */
+        private boolean fillBatch() throws InterruptedException {
+            // Idle shards wake up periodically to notice that the client is closing
+            final TimeSeries first = queue.poll(Math.min(IDLE_POLL_NANOS, batchSendDeadlineNanos), TimeUnit.NANOSECONDS);
+            if (first == null) {
+                return false;
+            }
+            batch.add(first);
+            final long deadline = System.nanoTime() + batchSendDeadlineNanos;
+            while (batch.size() < maxSamplesPerSend) {
+                queue.drainTo(batch, maxSamplesPerSend - batch.size());
+                final long remaining = deadline - System.nanoTime();
+                if (batch.size() == maxSamplesPerSend || remaining <= 0 || closing) {
+                    break;
+                }
+                final TimeSeries next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                if (next == null) {
+                    break;
+                }
+                batch.add(next);
+            }
+            return true;
+        }
+
+        /**
+         * Sends the batch and clears it. A batch that fails with a runtime exception is counted as failed, so that the
+         * shard keeps sending the next batches
+         */
+        private void sendBatch() throws InterruptedException {
+            try {
+                sendWithRetries();
+            } catch (final RuntimeException e) {
+                samples.inc(batch.size(), FAILED);
+            }
+            batch.clear();
+        }
+
+        private void sendWithRetries() throws InterruptedException {
+            encoder.encode(batch);
+            long backoffMillis = minBackoffMillis;
+            for (int attempt = 0; ; attempt++) {
+                final int status = send();
+                if (status >= 200 && status < 300) {
+                    samples.inc(batch.size(), SENT);
+                    return;
+                }
+                final boolean recoverable = status < 400 || status == 429 || status >= 500;
+                if (!recoverable || attempt >= maxRetries) {
+                    samples.inc(batch.size(), FAILED);
+                    return;
+                }
+                retries.inc();
+                TimeUnit.MILLISECONDS.sleep(backoffMillis);
+                backoffMillis = Math.min(backoffMillis * 2, maxBackoffMillis);
+            }
+        }
+
+        /**
+         * @return the response's status code, or -1 if the request failed with an I/O error
+         */
+        private int send() {
+            final long start = System.nanoTime();
+            HttpURLConnection connection = null;
+            try {
+                connection = (HttpURLConnection) url.openConnection();
+                connection.setRequestMethod("POST");
+                connection.setDoOutput(true);
+                connection.setConnectTimeout(timeoutMillis);
+                connection.setReadTimeout(timeoutMillis);
+                connection.setFixedLengthStreamingMode(encoder.size());
+                connection.setRequestProperty("Content-Type", "application/x-protobuf");
+                connection.setRequestProperty("Content-Encoding", "snappy");
+                connection.setRequestProperty("X-Prometheus-Remote-Write-Version", "0.1.0");
+                headers.forEach(connection::setRequestProperty);
+                try (final OutputStream body = connection.getOutputStream()) {
+                    body.write(encoder.array(), 0, encoder.size());
+                }
+                final int status = connection.getResponseCode();
+                drain(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+                return status;
+            } catch (final IOException e) {
+                if (connection != null) {
+                    connection.disconnect();
+                }
+                return -1;
+            } finally {
+                sendDuration.observe((System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1));
+            }
+        }
+
+        /**
+         * Reads the response fully so the connection can be reused by the next request
+         */
+        private void drain(final InputStream response) throws IOException {
+            if (response != null) {
+                try (final InputStream stream = response) {
+                    final byte[] buffer = new byte[512];
+                    while (stream.read(buffer) >= 0) {
+                        // discard
+                    }
+                }
+            }
+        }
+    }
+
+    private static ThreadFactory createThreadFactory(final String prefix) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, prefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public static class RemoteWriteClientBuilder {
+
+        private final URL url;
+        private final MetricCollectorRegistry registry;
+        private final Map<String, String> headers = new LinkedHashMap<>();
+        private int shards = 2;
+        private int queueCapacity = 100_000;
+        private int maxSamplesPerSend = 2_000;
+        private long batchSendDeadlineNanos = TimeUnit.SECONDS.toNanos(5);
+        private int maxRetries = 5;
+        private long minBackoffMillis = 30;
+        private long maxBackoffMillis = TimeUnit.SECONDS.toMillis(5);
+        private long timeoutMillis = TimeUnit.SECONDS.toMillis(30);
+        private long pushIntervalMillis = TimeUnit.SECONDS.toMillis(15);
+        private long closeTimeoutMillis = TimeUnit.SECONDS.toMillis(10);
+
+        public RemoteWriteClientBuilder(final URL url, final MetricCollectorRegistry registry) {
+            this.url = requireNonNull(url, "url may not be null");
+            this.registry = requireNonNull(registry, "registry may not be null");
+        }
+
+        /**
+         * The number of sender threads (and queues), defaults to 2
+         */
+        public RemoteWriteClientBuilder withShards(final int shards) {
+            Validate.isTrue(shards > 0, "The number of shards must be positive");
+            this.shards = shards;
+            return this;
+        }
+
+        /**
+         * The total number of samples that may be waiting to be sent, split evenly between the shards. Defaults to 100,000
+         */
+        public RemoteWriteClientBuilder withQueueCapacity(final int queueCapacity) {
+            Validate.isTrue(queueCapacity > 0, "The queue capacity must be positive");
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * The maximal number of samples in a single request, defaults to 2,000
+         */
+        public RemoteWriteClientBuilder withMaxSamplesPerSend(final int maxSamplesPerSend) {
+            Validate.isTrue(maxSamplesPerSend > 0, "The maximal number of samples per send must be positive");
+            this.maxSamplesPerSend = maxSamplesPerSend;
+            return this;
+        }
+
+        /**
+         * The maximal time a sample waits for its batch to fill up before the batch is sent anyway, defaults to 5 seconds
+         */
+        public RemoteWriteClientBuilder withBatchSendDeadline(final long deadline, final TimeUnit unit) {
+            Validate.isTrue(deadline > 0, "The batch send deadline must be positive");
+            this.batchSendDeadlineNanos = unit.toNanos(deadline);
+            return this;
+        }
+
+        /**
+         * The retry policy of failed requests - a request is retried up to <i>maxRetries</i> times, with the backoff
+         * starting at <i>minBackoff</i> and doubling up to <i>maxBackoff</i>. Defaults to 5 retries between 30ms and 5s.
+         */
+        public RemoteWriteClientBuilder withRetries(final int maxRetries,
+                                                    final long minBackoff,
+                                                    final long maxBackoff,
+                                                    final TimeUnit unit) {
+            Validate.isTrue(maxRetries >= 0, "The maximal number of retries may not be negative");
+            Validate.isTrue(minBackoff > 0 && minBackoff <= maxBackoff,
+                            "The minimal backoff must be positive and no larger than the maximal backoff");
+            this.maxRetries = maxRetries;
+            this.minBackoffMillis = unit.toMillis(minBackoff);
+            this.maxBackoffMillis = unit.toMillis(maxBackoff);
+            return this;
+        }
+
+        /**
+         * The connect and read timeout of a single request, defaults to 30 seconds
+         */
+        public RemoteWriteClientBuilder withTimeout(final long timeout, final TimeUnit unit) {
+            Validate.isTrue(timeout > 0, "The timeout must be positive");
+            this.timeoutMillis = unit.toMillis(timeout);
+            return this;
+        }
+
+        /**
+         * The interval between pushes once the client was started, defaults to 15 seconds
+         */
+        public RemoteWriteClientBuilder withPushInterval(final long interval, final TimeUnit unit) {
+            Validate.isTrue(interval > 0, "The push interval must be positive");
+            this.pushIntervalMillis = unit.toMillis(interval);
+            return this;
+        }
+
+        /**
+         * The maximal time {@link RemoteWriteClient#close()} waits for the queued samples to be sent, defaults to 10
+         * seconds
+         */
+        public RemoteWriteClientBuilder withCloseTimeout(final long timeout, final TimeUnit unit) {
+            Validate.isTrue(timeout >= 0, "The close timeout may not be negative");
+            this.closeTimeoutMillis = unit.toMillis(timeout);
+            return this;
+        }
+
+        /**
+         * A header that is sent with every request, i.e. for authorization or for a tenant ID
+         */
+        public RemoteWriteClientBuilder withHeader(final String name, final String value) {
+            headers.put(requireNonNull(name, "name may not be null"), requireNonNull(value, "value may not be null"));
+            return this;
+        }
+
+        public RemoteWriteClient build() {
+            return new RemoteWriteClient(this);
+        }
+    }
+}
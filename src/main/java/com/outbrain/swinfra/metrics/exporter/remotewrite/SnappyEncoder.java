@@ -0,0 +1,235 @@
+package com.outbrain.swinfra.metrics.exporter.remotewrite;
+
+import java.util.Arrays;
+
+/**
+ * An encoder for the Snappy block format, which is the compression that the remote write protocol requires.
+ * <p>
+ * This is a straightforward port of the reference block encoder: the input is split into 64KB blocks and each block is
+ * greedily scanned using a hash table of 4-byte sequences, emitting literals and back-references (copies). The hash
+ * table and the output array are reused between calls, so a steady-state encode does not allocate.
+ * </p>
+ * <p>
+ * This class is not thread-safe and is meant to be confined to a single sender thread.
+ * </p>
+ *
+ * @see <a href="https://github.com/google/snappy/blob/main/format_description.txt">Snappy format description</a>
+ */
+class SnappyEncoder {
+
+    private static final int MAX_BLOCK_SIZE = 1 << 16;
+    private static final int MIN_NON_LITERAL_BLOCK_SIZE = 17;
+    private static final int HASH_TABLE_BITS = 14;
+
+    private static final int TAG_LITERAL = 0x00;
+    private static final int TAG_COPY_1 = 0x01;
+    private static final int TAG_COPY_2 = 0x02;
+
+    private final int[] table = new int[1 << HASH_TABLE_BITS];
+    private byte[] out = new byte[0];
+    private int outLength;
+
+    /**
+     * Compresses the given bytes, the result is available in {@link #array()} up to {@link #size()}
+     */
+    void encode(final byte[] src, final int length) {
+        final int maxLength = maxEncodedLength(length);
+        if (out.length < maxLength) {
+            out = new byte[maxLength];
+        }
+        outLength = 0;
+        putUvarint(length);
+        for (int blockStart = 0; blockStart < length; blockStart += MAX_BLOCK_SIZE) {
+            final int blockEnd = Math.min(blockStart + MAX_BLOCK_SIZE, length);
+            if (blockEnd - blockStart < MIN_NON_LITERAL_BLOCK_SIZE) {
+                emitLiteral(src, blockStart, blockEnd - blockStart);
+            } else {
+                encodeBlock(src, blockStart, blockEnd);
+            }
+        }
+    }
+
+    byte[] array() {
+        return out;
+    }
+
+    int size() {
+        return outLength;
+    }
+
+    private void encodeBlock(final byte[] src, final int blockStart, final int blockEnd) {
+        Arrays.fill(table, -1);
+        // Leave room for the 4-byte loads below
+        final int limit = blockEnd - 4;
+        int nextEmit = blockStart;
+        int s = blockStart;
+        while (s <= limit) {
+            final int current = load32(src, s);
+            final int hash = hash(current);
+            final int candidate = table[hash];
+            table[hash] = s;
+            if (candidate < 0 || load32(src, candidate) != current) {
+                // Skip ahead faster the longer we go without a match, so incompressible data is scanned quickly
+                s += 1 + ((s - nextEmit) >>> 5);
+                continue;
+            }
+
+            emitLiteral(src, nextEmit, s - nextEmit);
+            final int matchStart = s;
+            int matchEnd = s + 4;
+            int candidateEnd = candidate + 4;
+            while (matchEnd < blockEnd && src[matchEnd] == src[candidateEnd]) {
+                matchEnd++;
+                candidateEnd++;
+            }
+            emitCopy(matchStart - candidate, matchEnd - matchStart);
+            s = matchEnd;
+            nextEmit = s;
+            if (s - 1 <= limit) {
+                table[hash(load32(src, s - 1))] = s - 1;
+            }
+        }
+        emitLiteral(src, nextEmit, blockEnd - nextEmit);
+    }
+
+    private void emitLiteral(final byte[] src, final int offset, final int length) {
+        if (length == 0) {
+            return;
+        }
+        final int n = length - 1;
+        if (n < 60) {
+            out[outLength++] = (byte) (TAG_LITERAL | (n << 2));
+        } else if (n < 1 << 8) {
+            out[outLength++] = (byte) (TAG_LITERAL | (60 << 2));
+            out[outLength++] = (byte) n;
+        } else if (n < 1 << 16) {
+            out[outLength++] = (byte) (TAG_LITERAL | (61 << 2));
+            out[outLength++] = (byte) n;
+            out[outLength++] = (byte) (n >>> 8);
+        } else if (n < 1 << 24) {
+            out[outLength++] = (byte) (TAG_LITERAL | (62 << 2));
+            out[outLength++] = (byte) n;
+            out[outLength++] = (byte) (n >>> 8);
+            out[outLength++] = (byte) (n >>> 16);
+        } else {
+            out[outLength++] = (byte) (TAG_LITERAL | (63 << 2));
+            out[outLength++] = (byte) n;
+            out[outLength++] = (byte) (n >>> 8);
+            out[outLength++] = (byte) (n >>> 16);
+            out[outLength++] = (byte) (n >>> 24);
+        }
+        System.arraycopy(src, offset, out, outLength, length);
+        outLength += length;
+    }
+
+    private void emitCopy(final int offset, int length) {
+        // A 2-byte offset copy carries at most 64 bytes. Emitting 60 rather than 64 when the remainder would be below 4
+        // keeps the last copy long enough for the shorter 1-byte offset form
+        while (length >= 68) {
+            emitCopy2(offset, 64);
+            length -= 64;
+        }
+        if (length > 64) {
+            emitCopy2(offset, 60);
+            length -= 60;
+        }
+        if (length >= 12 || offset >= 2048) {
+            emitCopy2(offset, length);
+        } else {
+            out[outLength++] = (byte) (TAG_COPY_1 | ((length - 4) << 2) | ((offset >>> 8) << 5));
+            out[outLength++] = (byte) offset;
+        }
+    }
+
+    private void emitCopy2(final int offset, final int length) {
+        out[outLength++] = (byte) (TAG_COPY_2 | ((length - 1) << 2));
+        out[outLength++] = (byte) offset;
+        out[outLength++] = (byte) (offset >>> 8);
+    }
+
+    private void putUvarint(int value) {
+        while ((value & ~0x7f) != 0) {
+            out[outLength++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out[outLength++] = (byte) value;
+    }
+
+    private static int load32(final byte[] src, final int i) {
+        return (src[i] & 0xff) | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff) << 16 | (src[i + 3] & 0xff) << 24;
+    }
+
+    private static int hash(final int value) {
+        return (value * 0x1e35a7bd) >>> (32 - HASH_TABLE_BITS);
+    }
+
+    static int maxEncodedLength(final int length) {
+        return 32 + length + length / 6;
+    }
+
+    /**
+     * Decompresses a Snappy block, this is not used when pushing and is here to verify the encoder (or to implement a
+     * receiver)
+     */
+    static byte[] decode(final byte[] src) {
+        int position = 0;
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            final int b = src[position++] & 0xff;
+            length |= (b & 0x7f) << shift;
+            if (b < 0x80) {
+                break;
+            }
+        }
+
+        final byte[] dst = new byte[length];
+        int d = 0;
+        while (position < src.length) {
+            final int tag = src[position++] & 0xff;
+            int copyLength;
+            int offset;
+            switch (tag & 0x03) {
+                case TAG_LITERAL:
+                    int literalLength = tag >>> 2;
+                    if (literalLength >= 60) {
+                        final int bytes = literalLength - 59;
+                        literalLength = 0;
+                        for (int i = 0; i < bytes; i++) {
+                            literalLength |= (src[position++] & 0xff) << (8 * i);
+                        }
+                    }
+                    literalLength += 1;
+                    System.arraycopy(src, position, dst, d, literalLength);
+                    position += literalLength;
+                    d += literalLength;
+                    continue;
+                case TAG_COPY_1:
+                    copyLength = 4 + ((tag >>> 2) & 0x07);
+                    offset = ((tag >>> 5) << 8) | (src[position++] & 0xff);
+                    break;
+                case TAG_COPY_2:
+                    copyLength = 1 + (tag >>> 2);
+                    offset = (src[position] & 0xff) | (src[position + 1] & 0xff) << 8;
+                    position += 2;
+                    break;
+                default: // a copy with a 4-byte offset
+                    copyLength = 1 + (tag >>> 2);
+                    offset = (src[position] & 0xff) | (src[position + 1] & 0xff) << 8 |
+                             (src[position + 2] & 0xff) << 16 | (src[position + 3] & 0xff) << 24;
+                    position += 4;
+            }
+            if (offset <= 0 || offset > d) {
+                throw new IllegalArgumentException("Invalid snappy copy offset " + offset + " at output position " + d);
+            }
+            // Copies may overlap their own output (i.e. a run of repeated bytes), so they are copied byte by byte
+            for (int i = 0; i < copyLength; i++) {
+                dst[d] = dst[d - offset];
+                d++;
+            }
+        }
+        if (d != length) {
+            throw new IllegalArgumentException("Decoded " + d + " bytes while the header declares " + length);
+        }
+        return dst;
+    }
+}
@@ -0,0 +1,55 @@
+package com.outbrain.swinfra.metrics.exporter.remotewrite;
+
+import java.util.Arrays;
+
+/**
+ * A single sample of a single series, as it is queued for sending.
+ * <p>
+ * The labels (including <i>__name__</i>) are kept as a flat array of name/value pairs sorted by name, which is the order
+ * the remote write protocol requires.
+ * </p>
+ */
+class TimeSeries {
+
+    private final String[] labels;
+    private final double value;
+    private final long timestampMillis;
+
+    TimeSeries(final String[] labels, final double value, final long timestampMillis) {
+        this.labels = labels;
+        this.value = value;
+        this.timestampMillis = timestampMillis;
+    }
+
+    int getLabelCount() {
+        return labels.length / 2;
+    }
+
+    String getLabelName(final int index) {
+        return labels[2 * index];
+    }
+
+    String getLabelValue(final int index) {
+        return labels[2 * index + 1];
+    }
+
+    double getValue() {
+        return value;
+    }
+
+    long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    /**
+     * A hash of the series' identity (its labels), so all the samples of a series are sent by the same shard and in order
+     */
+    int seriesHash() {
+        return Arrays.hashCode(labels);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(labels) + " " + value + " @" + timestampMillis;
+    }
+}
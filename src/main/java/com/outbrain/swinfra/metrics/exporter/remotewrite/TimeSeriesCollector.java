@@ -0,0 +1,121 @@
+package com.outbrain.swinfra.metrics.exporter.remotewrite;
+
+import com.outbrain.swinfra.metrics.Metric;
+import com.outbrain.swinfra.metrics.MetricCollectorRegistry;
+import com.outbrain.swinfra.metrics.exporter.RegistrySnapshot;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static com.outbrain.swinfra.metrics.exporter.text.TextFormatter.BUCKET_LABEL;
+import static com.outbrain.swinfra.metrics.exporter.text.TextFormatter.COUNT_SUFFIX;
+import static com.outbrain.swinfra.metrics.exporter.text.TextFormatter.QUANTILE_LABEL;
+import static com.outbrain.swinfra.metrics.exporter.text.TextFormatter.SAMPLE_NAME_BUCKET_SUFFIX;
+import static com.outbrain.swinfra.metrics.exporter.text.TextFormatter.SUM_SUFFIX;
+import static com.outbrain.swinfra.metrics.exporter.text.TextFormatter.doubleToGoString;
+
+/**
+ * Flattens the metrics of a {@link MetricCollectorRegistry} into {@link TimeSeries}, the same way the text format
+ * flattens them into samples - summaries into quantile, <i>_count</i> and <i>_sum</i> series and histograms into
+ * <i>_bucket</i>, <i>_count</i> and <i>_sum</i> series.
+ * <p>
+ * The registry is captured into a {@link RegistrySnapshot} that is reused between collections, so collecting allocates
+ * little beyond the time series themselves.
+ * </p>
+ */
+class TimeSeriesCollector {
+
+    private static final String NAME_LABEL = "__name__";
+
+    private final Consumer<TimeSeries> seriesConsumer;
+    private final RegistrySnapshot snapshot = new RegistrySnapshot();
+    private Map<String, String> staticLabels;
+    private long timestampMillis;
+
+    TimeSeriesCollector(final Consumer<TimeSeries> seriesConsumer) {
+        this.seriesConsumer = seriesConsumer;
+    }
+
+    void collect(final MetricCollectorRegistry registry, final long timestampMillis) {
+        snapshot.capture(registry);
+        collect(snapshot, timestampMillis);
+    }
+
+    void collect(final RegistrySnapshot snapshot, final long timestampMillis) {
+        this.timestampMillis = timestampMillis;
+        for (int family = 0; family < snapshot.getFamilyCount(); family++) {
+            final Metric metric = snapshot.getMetric(family);
+            final String name = metric.getName();
+            final List<String> labelNames = metric.getLabelNames();
+            staticLabels = snapshot.getStaticLabels(family);
+            final int seriesEnd = snapshot.getSeriesEnd(family);
+            for (int series = snapshot.getFirstSeries(family); series < seriesEnd; series++) {
+                final List<String> labelValues = snapshot.getLabelValues(series);
+                switch (metric.getType()) {
+                    case SUMMARY:
+                        for (int point = snapshot.getFirstPoint(series); point < snapshot.getPointEnd(series); point++) {
+                            addSeries(name, labelNames, labelValues, QUANTILE_LABEL, doubleToGoString(snapshot.getPointBound(point)),
+                                      snapshot.getPointValue(point));
+                        }
+                        addCountAndSum(snapshot, series, name, labelNames, labelValues);
+                        break;
+                    case HISTOGRAM:
+                        final String bucketName = name + SAMPLE_NAME_BUCKET_SUFFIX;
+                        for (int point = snapshot.getFirstPoint(series); point < snapshot.getPointEnd(series); point++) {
+                            addSeries(bucketName, labelNames, labelValues, BUCKET_LABEL, doubleToGoString(snapshot.getPointBound(point)),
+                                      snapshot.getPointCount(point));
+                        }
+                        addCountAndSum(snapshot, series, name, labelNames, labelValues);
+                        break;
+                    default:
+                        addSeries(name, labelNames, labelValues, null, null, snapshot.getValue(series));
+                }
+            }
+        }
+    }
+
+    private void addCountAndSum(final RegistrySnapshot snapshot, final int series, final String name,
+                                final List<String> labelNames, final List<String> labelValues) {
+        addSeries(name + COUNT_SUFFIX, labelNames, labelValues, null, null, snapshot.getCount(series));
+        addSeries(name + SUM_SUFFIX, labelNames, labelValues, null, null, snapshot.getValue(series));
+    }
+
+    private void addSeries(final String name,
+                           final List<String> labelNames,
+                           final List<String> labelValues,
+                           final String sampleLevelLabelName,
+                           final String sampleLevelLabelValue,
+                           final double value) {
+        final int labelCount = 1 + staticLabels.size() + labelNames.size() + (sampleLevelLabelName == null ? 0 : 1);
+        final String[] labels = new String[2 * labelCount];
+        int index = 0;
+        index = put(labels, index, NAME_LABEL, name);
+        for (final Map.Entry<String, String> staticLabel : staticLabels.entrySet()) {
+            index = put(labels, index, staticLabel.getKey(), staticLabel.getValue());
+        }
+        for (int i = 0; i < labelNames.size(); i++) {
+            index = put(labels, index, labelNames.get(i), labelValues.get(i));
+        }
+        if (sampleLevelLabelName != null) {
+            put(labels, index, sampleLevelLabelName, sampleLevelLabelValue);
+        }
+        seriesConsumer.accept(new TimeSeries(labels, value, timestampMillis));
+    }
+
+    /**
+     * Inserts a label pair while keeping the pairs sorted by name - an insertion sort, since there are only a handful
+     * of labels
+     */
+    private static int put(final String[] labels, final int index, final String name, final String value) {
+        int position = index;
+        while (position > 0 && labels[position - 2].compareTo(name) > 0) {
+            labels[position] = labels[position - 2];
+            labels[position + 1] = labels[position - 1];
+            position -= 2;
+        }
+        labels[position] = name;
+        labels[position + 1] = value;
+        return index + 2;
+    }
+}
@@ -0,0 +1,51 @@
+package com.outbrain.swinfra.metrics.exporter.remotewrite;
+
+import com.outbrain.swinfra.metrics.exporter.protobuf.ProtobufWriter;
+
+import java.util.List;
+
+/**
+ * Encodes a batch of {@link TimeSeries} as a snappy-compressed remote write <i>WriteRequest</i>:
+ * <pre>
+ * message WriteRequest { repeated TimeSeries timeseries = 1; }
+ * message TimeSeries   { repeated Label labels = 1; repeated Sample samples = 2; }
+ * message Label        { string name = 1; string value = 2; }
+ * message Sample       { double value = 1; int64 timestamp = 2; }
+ * </pre>
+ * The protobuf and the compressed buffers are reused between batches. This class is not thread-safe and each sender
+ * thread has its own instance.
+ *
+ * @see <a href="https://github.com/prometheus/prometheus/blob/main/prompb/remote.proto">remote.proto</a>
+ */
+class WriteRequestEncoder {
+
+    private final ProtobufWriter writer = new ProtobufWriter(64 * 1024);
+    private final SnappyEncoder snappy = new SnappyEncoder();
+
+    void encode(final List<TimeSeries> batch) {
+        writer.reset();
+        for (final TimeSeries series : batch) {
+            writer.startMessage(1);
+            for (int i = 0; i < series.getLabelCount(); i++) {
+                writer.startMessage(1)
+                      .writeString(1, series.getLabelName(i))
+                      .writeString(2, series.getLabelValue(i))
+                      .endMessage();
+            }
+            writer.startMessage(2)
+                  .writeDouble(1, series.getValue())
+                  .writeVarint(2, series.getTimestampMillis())
+                  .endMessage();
+            writer.endMessage();
+        }
+        snappy.encode(writer.array(), writer.size());
+    }
+
+    byte[] array() {
+        return snappy.array();
+    }
+
+    int size() {
+        return snappy.size();
+    }
+}
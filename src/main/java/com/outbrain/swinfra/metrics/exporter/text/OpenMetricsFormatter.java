@@ -0,0 +1,260 @@
+package com.outbrain.swinfra.metrics.exporter.text;
+
+import com.outbrain.swinfra.metrics.Metric;
+import com.outbrain.swinfra.metrics.MetricCollector;
+import com.outbrain.swinfra.metrics.data.CreatedTimestampConsumer;
+import com.outbrain.swinfra.metrics.data.ExemplarConsumer;
+import com.outbrain.swinfra.metrics.data.HistogramData;
+import com.outbrain.swinfra.metrics.data.MetricDataConsumer;
+import com.outbrain.swinfra.metrics.data.SummaryData;
+import com.outbrain.swinfra.metrics.exemplars.Exemplar;
+import com.outbrain.swinfra.metrics.exporter.ExportFilter;
+import com.outbrain.swinfra.metrics.exporter.PartialCollectorExporter;
+import com.outbrain.swinfra.metrics.utils.MetricType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import static com.outbrain.swinfra.metrics.exporter.text.TextFormatter.BUCKET_LABEL;
+import static com.outbrain.swinfra.metrics.exporter.text.TextFormatter.COUNT_SUFFIX;
+import static com.outbrain.swinfra.metrics.exporter.text.TextFormatter.QUANTILE_LABEL;
+import static com.outbrain.swinfra.metrics.exporter.text.TextFormatter.SAMPLE_NAME_BUCKET_SUFFIX;
+import static com.outbrain.swinfra.metrics.exporter.text.TextFormatter.SUM_SUFFIX;
+import static com.outbrain.swinfra.metrics.exporter.text.TextFormatter.doubleToGoString;
+import static com.outbrain.swinfra.metrics.exporter.text.TextFormatter.escapeLabelValue;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * OpenMetrics 1.0 text formatter.
+ * <p>
+ * The main differences from the 0.0.4 text format are the <i>_total</i> suffix of counter samples, the <i>_created</i>
+ * samples of counters, summaries and histograms, the <i># UNIT</i> metadata line, the exemplars of counters and
+ * histogram buckets and the <i># EOF</i> marker that terminates the exposition (see {@link #EOF}, written once by the
+ * registry exporter after all the collectors).
+ * </p>
+ *
+ * @see <a href="https://github.com/OpenObservability/OpenMetrics/blob/main/specification/OpenMetrics.md">OpenMetrics</a>
+ */
+public class OpenMetricsFormatter implements PartialCollectorExporter {
+    public static final String CONTENT_TYPE_OPENMETRICS_100 = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    public static final String EOF = "# EOF\n";
+    public static final String TOTAL_SUFFIX = "_total";
+    public static final String CREATED_SUFFIX = "_created";
+
+    private final MetricCollector metricCollector;
+    private final Map<Metric, String> headerByMetric = new ConcurrentHashMap<>();
+
+    public OpenMetricsFormatter(final MetricCollector metricCollector) {
+        this.metricCollector = metricCollector;
+    }
+
+    @Override
+    public void exportTo(final OutputStream outputStream) throws IOException {
+        exportTo(outputStream, metricCollector);
+    }
+
+    @Override
+    public void exportTo(final OutputStream outputStream, final Iterable<Metric> metrics) throws IOException {
+        exportTo(outputStream, metrics, ExportFilter.ALL);
+    }
+
+    @Override
+    public void exportTo(final OutputStream outputStream, final ExportFilter filter) throws IOException {
+        exportTo(outputStream, filter.select(metricCollector), filter);
+    }
+
+    @Override
+    public void exportTo(final OutputStream outputStream, final Iterable<Metric> metrics, final ExportFilter filter) throws IOException {
+        final Writer stream = new OutputStreamWriter(outputStream, UTF_8);
+        final Map<String, String> staticLabels = metricCollector.getStaticLabels();
+        final OpenMetricsDataConsumer consumer = new OpenMetricsDataConsumer(staticLabels, stream);
+        for (final Metric metric : metrics) {
+            final Predicate<List<String>> labelValuesFilter = filter.labelValuesFilter(metric, staticLabels);
+            if (labelValuesFilter == null) {
+                continue;
+            }
+            final String header = headerByMetric.computeIfAbsent(metric, OpenMetricsFormatter::createHeader);
+            stream.append(header);
+
+            metric.forEachMetricData(consumer, labelValuesFilter);
+        }
+        stream.flush();
+    }
+
+    private static class OpenMetricsDataConsumer implements MetricDataConsumer, CreatedTimestampConsumer, ExemplarConsumer {
+
+        private static final long NO_CREATED_TIME = -1;
+
+        private final Map<String, String> staticLabels;
+        private final Writer stream;
+        private long createdTimeMillis = NO_CREATED_TIME;
+        private Exemplar counterExemplar;
+        private int bucketIndex;
+        private Metric currentCounter;
+        private String currentCounterFamilyName;
+        private String currentCounterSampleName;
+
+        private OpenMetricsDataConsumer(final Map<String, String> staticLabels, final Writer stream) {
+            this.staticLabels = staticLabels;
+            this.stream = stream;
+        }
+
+        @Override
+        public void consumeCreated(final Metric metric, final List<String> labelValues, final long createdTimeMillis) {
+            this.createdTimeMillis = createdTimeMillis;
+        }
+
+        @Override
+        public void consumeExemplar(final Metric metric, final List<String> labelValues, final Exemplar exemplar) {
+            this.counterExemplar = exemplar;
+        }
+
+        @Override
+        public void consumeCounter(final Metric metric, final List<String> labelValues, final double value) {
+            if (metric != currentCounter) {
+                currentCounter = metric;
+                currentCounterFamilyName = familyName(metric);
+                currentCounterSampleName = currentCounterFamilyName + TOTAL_SUFFIX;
+            }
+            appendSample(currentCounterSampleName, null, value, metric.getLabelNames(), labelValues, null, null, counterExemplar);
+            counterExemplar = null;
+            appendCreated(currentCounterFamilyName, metric.getLabelNames(), labelValues);
+        }
+
+        @Override
+        public void consumeGauge(final Metric metric, final List<String> labelValues, final double value) {
+            appendSample(metric.getName(), null, value, metric.getLabelNames(), labelValues, null, null);
+        }
+
+        @Override
+        public void consumeSummary(final Metric metric, final List<String> labelValues, final SummaryData data) {
+            final String name = metric.getName();
+            final List<String> labelNames = metric.getLabelNames();
+            appendSample(name, null, data.getMedian(), labelNames, labelValues, QUANTILE_LABEL, "0.5");
+            appendSample(name, null, data.get75thPercentile(), labelNames, labelValues, QUANTILE_LABEL, "0.75");
+            appendSample(name, null, data.get95thPercentile(), labelNames, labelValues, QUANTILE_LABEL, "0.95");
+            appendSample(name, null, data.get98thPercentile(), labelNames, labelValues, QUANTILE_LABEL, "0.98");
+            appendSample(name, null, data.get99thPercentile(), labelNames, labelValues, QUANTILE_LABEL, "0.99");
+            appendSample(name, null, data.get999thPercentile(), labelNames, labelValues, QUANTILE_LABEL, "0.999");
+            appendSample(name, COUNT_SUFFIX, data.getCount(), labelNames, labelValues, null, null);
+            appendSample(name, SUM_SUFFIX, data.getSum(), labelNames, labelValues, null, null);
+            appendCreated(name, labelNames, labelValues);
+        }
+
+        @Override
+        public void consumeHistogram(final Metric metric, final List<String> labelValues, final HistogramData data) {
+            final String name = metric.getName();
+            final List<String> labelNames = metric.getLabelNames();
+            bucketIndex = 0;
+            data.consumeBuckets((upperBound, count) -> {
+                appendSample(name, SAMPLE_NAME_BUCKET_SUFFIX, count, labelNames, labelValues, BUCKET_LABEL, doubleToGoString(upperBound),
+                             data.getExemplar(bucketIndex++));
+            });
+            appendSample(name, COUNT_SUFFIX, data.getCount(), labelNames, labelValues, null, null);
+            appendSample(name, SUM_SUFFIX, data.getSum(), labelNames, labelValues, null, null);
+            appendCreated(name, labelNames, labelValues);
+        }
+
+        private void appendCreated(final String familyName, final List<String> labelNames, final List<String> labelValues) {
+            if (createdTimeMillis != NO_CREATED_TIME) {
+                appendSample(familyName, CREATED_SUFFIX, createdTimeMillis / 1000d, labelNames, labelValues, null, null);
+                createdTimeMillis = NO_CREATED_TIME;
+            }
+        }
+
+        private void appendSample(final String name, final String nameSuffix, final double value,
+                                  final List<String> labelNames, final List<String> labelValues,
+                                  final String sampleLevelLabelName, final String sampleLevelLabelValue) {
+            appendSample(name, nameSuffix, value, labelNames, labelValues, sampleLevelLabelName, sampleLevelLabelValue, null);
+        }
+
+        private void appendSample(final String name, final String nameSuffix, final double value,
+                                  final List<String> labelNames, final List<String> labelValues,
+                                  final String sampleLevelLabelName, final String sampleLevelLabelValue,
+                                  final Exemplar exemplar) {
+            try {
+                stream.append(name);
+                if (nameSuffix != null) {
+                    stream.append(nameSuffix);
+                }
+                appendLabels(labelNames, labelValues, sampleLevelLabelName, sampleLevelLabelValue);
+                stream.append(' ').append(doubleToGoString(value));
+                if (exemplar != null) {
+                    appendExemplar(exemplar);
+                }
+                stream.append('\n');
+            } catch (final IOException e) {
+                throw new RuntimeException("failed appending to output stream");
+            }
+        }
+
+        private void appendExemplar(final Exemplar exemplar) throws IOException {
+            stream.append(" # {");
+            String separator = "";
+            for (final Map.Entry<String, String> entry : exemplar.getLabels().entrySet()) {
+                stream.append(separator).append(entry.getKey()).append("=\"").append(escapeLabelValue(entry.getValue())).append('"');
+                separator = ",";
+            }
+            stream.append("} ").append(doubleToGoString(exemplar.getValue()))
+                  .append(' ').append(Double.toString(exemplar.getTimestampMillis() / 1000d));
+        }
+
+        private void appendLabels(final List<String> labelNames, final List<String> labelValues,
+                                  final String sampleLevelLabelName, final String sampleLevelLabelValue) throws IOException {
+            if (staticLabels.isEmpty() && labelNames.isEmpty() && sampleLevelLabelName == null) {
+                return;
+            }
+            // Unlike the 0.0.4 format, OpenMetrics does not allow a trailing comma after the last label
+            char separator = '{';
+            for (final Map.Entry<String, String> entry : staticLabels.entrySet()) {
+                appendLabel(separator, entry.getKey(), entry.getValue());
+                separator = ',';
+            }
+            for (int i = 0; i < labelNames.size(); ++i) {
+                appendLabel(separator, labelNames.get(i), labelValues.get(i));
+                separator = ',';
+            }
+            if (sampleLevelLabelName != null) {
+                appendLabel(separator, sampleLevelLabelName, sampleLevelLabelValue);
+            }
+            stream.append('}');
+        }
+
+        private void appendLabel(final char separator, final String name, final String value) throws IOException {
+            stream.append(separator).append(name).append("=\"").append(escapeLabelValue(value)).append('"');
+        }
+    }
+
+    /**
+     * The name of the metric family - for counters this is the metric's name without the <i>_total</i> suffix
+     */
+    static String familyName(final Metric metric) {
+        final String name = metric.getName();
+        if (metric.getType() == MetricType.COUNTER && name.endsWith(TOTAL_SUFFIX)) {
+            return name.substring(0, name.length() - TOTAL_SUFFIX.length());
+        }
+        return name;
+    }
+
+    private static String createHeader(final Metric metric) {
+        final String familyName = familyName(metric);
+        final StringBuilder header = new StringBuilder();
+        header.append("# TYPE ").append(familyName).append(' ').append(metric.getType().getName()).append('\n');
+        if (!metric.getUnit().isEmpty()) {
+            header.append("# UNIT ").append(familyName).append(' ').append(metric.getUnit()).append('\n');
+        }
+        header.append("# HELP ").append(familyName).append(' ').append(escapeHelp(metric.getHelp())).append('\n');
+        return header.toString();
+    }
+
+    private static String escapeHelp(final String help) {
+        return help.replace("\\", "\\\\").replace("\n", "\\n").replace("\"", "\\\"");
+    }
+}
@@ -5,7 +5,8 @@ import com.outbrain.swinfra.metrics.MetricCollector;
 import com.outbrain.swinfra.metrics.data.HistogramData;
 import com.outbrain.swinfra.metrics.data.MetricDataConsumer;
 import com.outbrain.swinfra.metrics.data.SummaryData;
-import com.outbrain.swinfra.metrics.exporter.CollectorExporter;
+import com.outbrain.swinfra.metrics.exporter.ExportFilter;
+import com.outbrain.swinfra.metrics.exporter.PartialCollectorExporter;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -14,8 +15,9 @@ import java.io.Writer;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 
-public class TextFormatter implements CollectorExporter {
+public class TextFormatter implements PartialCollectorExporter {
     public static final String CONTENT_TYPE_004 = "text/plain; version=0.0.4; charset=utf-8";
 
     public static final String QUANTILE_LABEL = "quantile";
@@ -34,13 +36,33 @@ public class TextFormatter implements CollectorExporter {
 
     @Override
     public void exportTo(final OutputStream outputStream) throws IOException {
+        exportTo(outputStream, metricCollector);
+    }
+
+    @Override
+    public void exportTo(final OutputStream outputStream, final Iterable<Metric> metrics) throws IOException {
+        exportTo(outputStream, metrics, ExportFilter.ALL);
+    }
+
+    @Override
+    public void exportTo(final OutputStream outputStream, final ExportFilter filter) throws IOException {
+        exportTo(outputStream, filter.select(metricCollector), filter);
+    }
+
+    @Override
+    public void exportTo(final OutputStream outputStream, final Iterable<Metric> metrics, final ExportFilter filter) throws IOException {
         final Writer stream = new OutputStreamWriter(outputStream);
-        final TextMetricDataConsumer consumer = new TextMetricDataConsumer(metricCollector.getStaticLabels(), stream);
-        for (final Metric metric : metricCollector) {
-            final String header = headerByMetric.computeIfAbsent(metric, this::createHeader);
+        final Map<String, String> staticLabels = metricCollector.getStaticLabels();
+        final TextMetricDataConsumer consumer = new TextMetricDataConsumer(staticLabels, stream);
+        for (final Metric metric : metrics) {
+            final Predicate<List<String>> labelValuesFilter = filter.labelValuesFilter(metric, staticLabels);
+            if (labelValuesFilter == null) {
+                continue;
+            }
+            final String header = headerByMetric.computeIfAbsent(metric, TextFormatter::createHeader);
             stream.append(header);
 
-            metric.forEachMetricData(consumer);
+            metric.forEachMetricData(consumer, labelValuesFilter);
         }
         stream.flush();
     }
@@ -147,29 +169,9 @@ public class TextFormatter implements CollectorExporter {
         private boolean containsLabels(final Map<String, String> staticLabels, final List<String> labelNames, final String sampleLevelLabelName) {
             return !staticLabels.isEmpty() || !labelNames.isEmpty() || sampleLevelLabelName != null;
         }
-
-        private static String escapeLabelValue(final String value) {
-            return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
-        }
-
-        /**
-         * Convert a double to it's string representation in Go.
-         */
-        private static String doubleToGoString(final double value) {
-            if (value == Double.POSITIVE_INFINITY) {
-                return "+Inf";
-            }
-            if (value == Double.NEGATIVE_INFINITY) {
-                return "-Inf";
-            }
-            if (Double.isNaN(value)) {
-                return "NaN";
-            }
-            return Double.toString(value);
-        }
     }
 
-    private String createHeader(final Metric metric) {
+    static String createHeader(final Metric metric) {
         return "# HELP " + metric.getName() + " " + escapeHelp(metric.getHelp()) + "\n" +
                "# TYPE " + metric.getName() + " " + metric.getType().getName() + "\n";
     }
@@ -178,4 +180,37 @@ public class TextFormatter implements CollectorExporter {
         return help.replace("\\", "\\\\").replace("\n", "\\n");
     }
 
+    static String escapeLabelValue(final String value) {
+        if (!needsEscaping(value)) {
+            // The common case, which does not allocate anything
+            return value;
+        }
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static boolean needsEscaping(final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '\\' || c == '"' || c == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Convert a double to it's string representation in Go.
+     */
+    public static String doubleToGoString(final double value) {
+        if (value == Double.POSITIVE_INFINITY) {
+            return "+Inf";
+        }
+        if (value == Double.NEGATIVE_INFINITY) {
+            return "-Inf";
+        }
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        return Double.toString(value);
+    }
 }
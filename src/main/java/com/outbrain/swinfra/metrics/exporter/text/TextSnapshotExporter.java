@@ -0,0 +1,314 @@
+package com.outbrain.swinfra.metrics.exporter.text;
+
+import com.outbrain.swinfra.metrics.Metric;
+import com.outbrain.swinfra.metrics.exporter.RegistrySnapshot;
+import com.outbrain.swinfra.metrics.exporter.SnapshotExporter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import static com.outbrain.swinfra.metrics.exporter.text.TextFormatter.BUCKET_LABEL;
+import static com.outbrain.swinfra.metrics.exporter.text.TextFormatter.COUNT_SUFFIX;
+import static com.outbrain.swinfra.metrics.exporter.text.TextFormatter.QUANTILE_LABEL;
+import static com.outbrain.swinfra.metrics.exporter.text.TextFormatter.SAMPLE_NAME_BUCKET_SUFFIX;
+import static com.outbrain.swinfra.metrics.exporter.text.TextFormatter.SUM_SUFFIX;
+import static com.outbrain.swinfra.metrics.exporter.text.TextFormatter.doubleToGoString;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes a {@link RegistrySnapshot} in the Prometheus text format (version 0.0.4), with exactly the same output as
+ * {@link TextFormatter}.
+ * <p>
+ * The output is encoded directly into a reusable byte buffer. Headers, metric names, static labels and bucket bounds
+ * are encoded once per metric and cached, label values are escaped and encoded once per distinct value, and integral
+ * values are written without going through a String, so a steady-state export mostly allocates nothing.
+ * </p>
+ * <p>
+ * This class is not thread-safe, each exporting thread should use its own instance.
+ * </p>
+ */
+public class TextSnapshotExporter implements SnapshotExporter {
+
+    private static final byte[] BUCKET_LABEL_BYTES = BUCKET_LABEL.getBytes(UTF_8);
+    private static final byte[] QUANTILE_LABEL_BYTES = QUANTILE_LABEL.getBytes(UTF_8);
+    private static final byte[] COUNT_SUFFIX_BYTES = COUNT_SUFFIX.getBytes(UTF_8);
+    private static final byte[] SUM_SUFFIX_BYTES = SUM_SUFFIX.getBytes(UTF_8);
+    private static final byte[] BUCKET_SUFFIX_BYTES = SAMPLE_NAME_BUCKET_SUFFIX.getBytes(UTF_8);
+
+    /**
+     * Integral values below this magnitude are printed by {@link Double#toString(double)} as their digits followed by
+     * ".0", larger values use the scientific notation
+     */
+    private static final double MAX_PLAIN_INTEGRAL = 1e7;
+    private static final long NEGATIVE_ZERO_BITS = Double.doubleToRawLongBits(-0.0);
+
+    /**
+     * Label values are interned by their metrics (see {@link com.outbrain.swinfra.metrics.children.LabelValueDictionary}),
+     * so looking one up in the cache is usually an identity comparison. Values beyond this many are encoded every time
+     */
+    private static final int MAX_CACHED_LABEL_VALUES = 10_000;
+
+    private final Map<Metric, FamilyBytes> familyBytesByMetric = new WeakHashMap<>();
+    private final Map<String, byte[]> encodedLabelValues = new HashMap<>();
+    private final byte[] buf;
+    private int count;
+    private OutputStream stream;
+
+    public TextSnapshotExporter() {
+        this(8192);
+    }
+
+    public TextSnapshotExporter(final int bufferSize) {
+        this.buf = new byte[bufferSize];
+    }
+
+    @Override
+    public String getContentType() {
+        return TextFormatter.CONTENT_TYPE_004;
+    }
+
+    @Override
+    public void exportTo(final RegistrySnapshot snapshot, final OutputStream stream) throws IOException {
+        this.stream = stream;
+        this.count = 0;
+        try {
+            for (int family = 0; family < snapshot.getFamilyCount(); family++) {
+                writeFamily(snapshot, family);
+            }
+            flushBuffer();
+        } finally {
+            this.stream = null;
+        }
+    }
+
+    private void writeFamily(final RegistrySnapshot snapshot, final int family) throws IOException {
+        final Metric metric = snapshot.getMetric(family);
+        final FamilyBytes familyBytes = familyBytes(metric, snapshot.getStaticLabels(family));
+        write(familyBytes.header);
+
+        final List<String> labelNames = metric.getLabelNames();
+        final int seriesEnd = snapshot.getSeriesEnd(family);
+        for (int series = snapshot.getFirstSeries(family); series < seriesEnd; series++) {
+            final List<String> labelValues = snapshot.getLabelValues(series);
+            switch (metric.getType()) {
+                case SUMMARY:
+                    for (int point = snapshot.getFirstPoint(series); point < snapshot.getPointEnd(series); point++) {
+                        writeName(familyBytes.name, null);
+                        writeLabels(familyBytes, labelNames, labelValues, QUANTILE_LABEL_BYTES,
+                                    familyBytes.boundBytes(point - snapshot.getFirstPoint(series), snapshot.getPointBound(point)));
+                        writeValue(snapshot.getPointValue(point));
+                    }
+                    writeCountAndSum(snapshot, series, familyBytes, labelNames, labelValues);
+                    break;
+                case HISTOGRAM:
+                    for (int point = snapshot.getFirstPoint(series); point < snapshot.getPointEnd(series); point++) {
+                        writeName(familyBytes.name, BUCKET_SUFFIX_BYTES);
+                        writeLabels(familyBytes, labelNames, labelValues, BUCKET_LABEL_BYTES,
+                                    familyBytes.boundBytes(point - snapshot.getFirstPoint(series), snapshot.getPointBound(point)));
+                        writeValue(snapshot.getPointCount(point));
+                    }
+                    writeCountAndSum(snapshot, series, familyBytes, labelNames, labelValues);
+                    break;
+                default:
+                    writeName(familyBytes.name, null);
+                    writeLabels(familyBytes, labelNames, labelValues, null, null);
+                    writeValue(snapshot.getValue(series));
+            }
+        }
+    }
+
+    private void writeCountAndSum(final RegistrySnapshot snapshot, final int series, final FamilyBytes familyBytes,
+                                  final List<String> labelNames, final List<String> labelValues) throws IOException {
+        writeName(familyBytes.name, COUNT_SUFFIX_BYTES);
+        writeLabels(familyBytes, labelNames, labelValues, null, null);
+        writeValue(snapshot.getCount(series));
+        writeName(familyBytes.name, SUM_SUFFIX_BYTES);
+        writeLabels(familyBytes, labelNames, labelValues, null, null);
+        writeValue(snapshot.getValue(series));
+    }
+
+    private void writeName(final byte[] name, final byte[] suffix) throws IOException {
+        write(name);
+        if (suffix != null) {
+            write(suffix);
+        }
+    }
+
+    private void writeLabels(final FamilyBytes familyBytes, final List<String> labelNames, final List<String> labelValues,
+                             final byte[] sampleLevelLabelName, final byte[] sampleLevelLabelValue) throws IOException {
+        if (familyBytes.staticLabels.length == 0 && labelNames.isEmpty() && sampleLevelLabelName == null) {
+            return;
+        }
+        write((byte) '{');
+        write(familyBytes.staticLabels);
+        for (int i = 0; i < labelNames.size(); i++) {
+            writeAscii(labelNames.get(i));
+            write((byte) '=');
+            write((byte) '"');
+            writeLabelValue(labelValues.get(i));
+            write((byte) '"');
+            write((byte) ',');
+        }
+        if (sampleLevelLabelName != null) {
+            write(sampleLevelLabelName);
+            write((byte) '=');
+            write((byte) '"');
+            write(sampleLevelLabelValue);
+            write((byte) '"');
+            write((byte) ',');
+        }
+        write((byte) '}');
+    }
+
+    /**
+     * Writes a value exactly as {@link TextFormatter#doubleToGoString(double)} would
+     */
+    private void writeValue(final double value) throws IOException {
+        write((byte) ' ');
+        if (value == (long) value && Math.abs(value) < MAX_PLAIN_INTEGRAL && Double.doubleToRawLongBits(value) != NEGATIVE_ZERO_BITS) {
+            writeLong((long) value);
+            write((byte) '.');
+            write((byte) '0');
+        } else {
+            writeAscii(doubleToGoString(value));
+        }
+        write((byte) '\n');
+    }
+
+    private void writeLong(final long value) throws IOException {
+        if (value < 0) {
+            write((byte) '-');
+            writeLong(-value);
+            return;
+        }
+        if (value >= 10) {
+            writeLong(value / 10);
+        }
+        write((byte) ('0' + (value % 10)));
+    }
+
+    private void writeAscii(final String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            write((byte) value.charAt(i));
+        }
+    }
+
+    private void writeLabelValue(final String value) throws IOException {
+        final byte[] encoded = encodedLabelValues.get(value);
+        if (encoded != null) {
+            write(encoded);
+        } else if (encodedLabelValues.size() < MAX_CACHED_LABEL_VALUES) {
+            final byte[] escaped = TextFormatter.escapeLabelValue(value).getBytes(UTF_8);
+            encodedLabelValues.put(value, escaped);
+            write(escaped);
+        } else {
+            writeEscaped(value);
+        }
+    }
+
+    /**
+     * Writes a label value escaped like {@link TextFormatter#escapeLabelValue(String)} and encoded as UTF-8
+     */
+    private void writeEscaped(final String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '\\') {
+                write((byte) '\\');
+                write((byte) '\\');
+            } else if (c == '"') {
+                write((byte) '\\');
+                write((byte) '"');
+            } else if (c == '\n') {
+                write((byte) '\\');
+                write((byte) 'n');
+            } else if (c < 0x80) {
+                write((byte) c);
+            } else {
+                // Rare enough to go through the JDK's encoder, which also handles surrogate pairs
+                final int end = Character.isHighSurrogate(c) && i + 1 < value.length() ? i + 2 : i + 1;
+                write(value.substring(i, end).getBytes(UTF_8));
+                i = end - 1;
+            }
+        }
+    }
+
+    private void write(final byte[] bytes) throws IOException {
+        if (bytes.length > buf.length - count) {
+            flushBuffer();
+            if (bytes.length > buf.length) {
+                stream.write(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buf, count, bytes.length);
+        count += bytes.length;
+    }
+
+    private void write(final byte b) throws IOException {
+        if (count == buf.length) {
+            flushBuffer();
+        }
+        buf[count++] = b;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            stream.write(buf, 0, count);
+            count = 0;
+        }
+    }
+
+    private FamilyBytes familyBytes(final Metric metric, final Map<String, String> staticLabels) {
+        FamilyBytes familyBytes = familyBytesByMetric.get(metric);
+        if (familyBytes == null || familyBytes.staticLabelsMap != staticLabels) {
+            familyBytes = new FamilyBytes(metric, staticLabels);
+            familyBytesByMetric.put(metric, familyBytes);
+        }
+        return familyBytes;
+    }
+
+    /**
+     * The encoded parts of a metric's samples that do not change between exports
+     */
+    private static class FamilyBytes {
+
+        private final byte[] header;
+        private final byte[] name;
+        private final Map<String, String> staticLabelsMap;
+        private final byte[] staticLabels;
+        private double[] bounds = new double[0];
+        private byte[][] encodedBounds = new byte[0][];
+
+        private FamilyBytes(final Metric metric, final Map<String, String> staticLabelsMap) {
+            this.header = TextFormatter.createHeader(metric).getBytes(UTF_8);
+            this.name = metric.getName().getBytes(UTF_8);
+            this.staticLabelsMap = staticLabelsMap;
+            final StringBuilder labels = new StringBuilder();
+            for (final Map.Entry<String, String> entry : staticLabelsMap.entrySet()) {
+                labels.append(entry.getKey()).append("=\"").append(TextFormatter.escapeLabelValue(entry.getValue())).append("\",");
+            }
+            this.staticLabels = labels.toString().getBytes(UTF_8);
+        }
+
+        /**
+         * @return the encoded quantile or bucket bound of the given point of a series. All the children of a summary or
+         * histogram share the same bounds, so they are encoded once
+         */
+        private byte[] boundBytes(final int index, final double bound) {
+            if (index >= bounds.length) {
+                bounds = Arrays.copyOf(bounds, index + 1);
+                encodedBounds = Arrays.copyOf(encodedBounds, index + 1);
+            } else if (encodedBounds[index] != null && Double.compare(bounds[index], bound) == 0) {
+                return encodedBounds[index];
+            }
+            bounds[index] = bound;
+            encodedBounds[index] = doubleToGoString(bound).getBytes(UTF_8);
+            return encodedBounds[index];
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.outbrain.swinfra.metrics.exports;
+
+import com.outbrain.swinfra.metrics.Histogram;
+import com.outbrain.swinfra.metrics.MetricRegistry;
+import org.apache.commons.lang3.Validate;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+
+/**
+ * Measures the hiccups of the process - pauses caused by garbage collection, safepoints or the scheduling of the OS,
+ * which request metrics cannot attribute to a cause.
+ * <p>
+ * A dedicated daemon thread parks for a fixed interval over and over, and records how much longer than the interval
+ * each park took into the {@code jvm_hiccup_seconds} histogram. A hiccup that is longer than the interval would have
+ * delayed every sample that was due during it, so those samples are backfilled, each with the part of the hiccup that
+ * was still ahead of it, to correct the coordinated omission of the samples the pause kept from being taken. Parking
+ * itself overshoots a little (typically tens of microseconds), which is part of every measured hiccup.
+ * </p>
+ * <p>
+ * The thread starts when the histogram is registered, and runs until the meter is {@link #close() closed}.
+ * It is not part of {@link DefaultJvmMetric}, since it runs a thread of its own.
+ * </p>
+ */
+public class HiccupMetric extends MetricRegistrar implements AutoCloseable {
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 1;
+
+    private static final double SECONDS_PER_NANO = 1.0 / TimeUnit.SECONDS.toNanos(1);
+
+    private final long intervalNanos;
+    private final Histogram hiccups;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final Thread meter;
+    private volatile boolean closed;
+
+    public HiccupMetric() {
+        this(DEFAULT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public HiccupMetric(final long interval, final TimeUnit intervalUnit) {
+        Validate.isTrue(interval > 0, "The interval must be positive");
+        this.intervalNanos = intervalUnit.toNanos(interval);
+        this.hiccups = new Histogram.HistogramBuilder("jvm_hiccup_seconds",
+                                                      "Time the process was paused beyond the expected interval, in seconds.")
+            .withBuckets(.0001, .00025, .0005, .001, .0025, .005, .01, .025, .05, .1, .25, .5, 1, 2.5, 5, 10)
+            .build();
+        this.meter = new Thread(this::measure, "metrics-hiccup-meter");
+        meter.setDaemon(true);
+    }
+
+    @Override
+    public void registerMetricsTo(final MetricRegistry registry, final Predicate<String> nameFilter) {
+        if (nameFilter.test(hiccups.getName())) {
+            registry.getOrRegister(hiccups);
+            if (started.compareAndSet(false, true)) {
+                meter.start();
+            }
+        }
+    }
+
+    public long getIntervalNanos() {
+        return intervalNanos;
+    }
+
+    /**
+     * Stops the measuring thread
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(meter);
+    }
+
+    private void measure() {
+        while (!closed) {
+            final long start = System.nanoTime();
+            LockSupport.parkNanos(intervalNanos);
+            recordExcess(System.nanoTime() - start - intervalNanos);
+        }
+    }
+
+    /**
+     * Records a hiccup, and backfills the samples that were due during it
+     */
+    void recordExcess(final long excessNanos) {
+        // Parking may return early
+        long hiccup = Math.max(0, excessNanos);
+        hiccups.observe(hiccup * SECONDS_PER_NANO);
+        while (hiccup > intervalNanos) {
+            hiccup -= intervalNanos;
+            hiccups.observe(hiccup * SECONDS_PER_NANO);
+        }
+    }
+}
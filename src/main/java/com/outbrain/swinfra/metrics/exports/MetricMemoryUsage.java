@@ -0,0 +1,103 @@
+package com.outbrain.swinfra.metrics.exports;
+
+import com.outbrain.swinfra.metrics.Metric;
+import com.outbrain.swinfra.metrics.MetricCollector;
+import com.outbrain.swinfra.metrics.MetricCollectorRegistry;
+import com.outbrain.swinfra.metrics.MetricRegistry;
+import com.outbrain.swinfra.metrics.data.MetricDataConsumer;
+import com.outbrain.swinfra.metrics.utils.MetricType;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Exposes the number of children and the estimated retained size (see {@link Metric#getEstimatedBytes()}) of every
+ * metric in a {@link MetricCollectorRegistry}, labeled by the metric's name, so a growing metric can be alerted on
+ * before it exhausts the heap.
+ * <p>
+ * The values are computed when they are exported. Metrics with the same name in different collectors are summed.
+ * </p>
+ */
+public class MetricMemoryUsage extends MetricRegistrar {
+
+    private final MetricCollectorRegistry collectorRegistry;
+
+    public MetricMemoryUsage(final MetricCollectorRegistry collectorRegistry) {
+        this.collectorRegistry = requireNonNull(collectorRegistry, "collectorRegistry may not be null");
+    }
+
+    @Override
+    public void registerMetricsTo(final MetricRegistry registry, final Predicate<String> nameFilter) {
+        optionallyRegister(new PerMetricGauge("metrics_children", "The number of children of a metric",
+                                              Metric::getChildCount), registry, nameFilter);
+        optionallyRegister(new PerMetricGauge("metrics_estimated_bytes", "The estimated retained size of the children of a metric in bytes",
+                                              Metric::getEstimatedBytes), registry, nameFilter);
+    }
+
+    /**
+     * A gauge with a child per metric of the collector registry. Its children are the registry's metrics, so it is
+     * implemented directly rather than with value suppliers that are fixed when the gauge is built.
+     */
+    private class PerMetricGauge implements Metric {
+
+        private final String name;
+        private final String help;
+        private final ToLongFunction<Metric> value;
+
+        private PerMetricGauge(final String name, final String help, final ToLongFunction<Metric> value) {
+            this.name = name;
+            this.help = help;
+            this.value = value;
+        }
+
+        @Override
+        public MetricType getType() {
+            return MetricType.GAUGE;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String getHelp() {
+            return help;
+        }
+
+        @Override
+        public List<String> getLabelNames() {
+            return Collections.singletonList("metric");
+        }
+
+        @Override
+        public void forEachMetricData(final MetricDataConsumer consumer) {
+            for (final Map.Entry<String, Long> entry : valueByMetricName().entrySet()) {
+                consumer.consumeGauge(this, Collections.singletonList(entry.getKey()), entry.getValue());
+            }
+        }
+
+        @Override
+        public int getChildCount() {
+            return valueByMetricName().size();
+        }
+
+        private Map<String, Long> valueByMetricName() {
+            final Map<String, Long> valueByName = new TreeMap<>();
+            for (final MetricCollector collector : collectorRegistry) {
+                for (final Metric metric : collector) {
+                    // The gauges of this class are not measured, measuring them would read them again
+                    final long metricValue = metric instanceof PerMetricGauge ? 0 : value.applyAsLong(metric);
+                    valueByName.merge(metric.getName(), metricValue, Long::sum);
+                }
+            }
+            return valueByName;
+        }
+    }
+}
@@ -9,6 +9,13 @@ public interface Clock {
 
   long getTick(TimeUnit timeunit);
 
+  /**
+   * Converts an interval in nanoseconds to this clock's ticks. Clocks whose ticks are not nanoseconds should override it
+   */
+  default long nanosToTicks(final long nanos) {
+    return nanos;
+  }
+
   /**
    * A clock that uses System.nanoTime to measure its ticks.
    * Ticks are provided according the to given ticks unit, the default being nanoseconds.
@@ -37,6 +44,11 @@ public interface Clock {
       return (long) (System.nanoTime() * factor);
     }
 
+    @Override
+    public long nanosToTicks(final long nanos) {
+      return (long) (nanos * factor);
+    }
+
     @Override
     public long getTick(final TimeUnit ticksUnit) {
       return ticksUnit.convert(System.nanoTime(), TimeUnit.NANOSECONDS);
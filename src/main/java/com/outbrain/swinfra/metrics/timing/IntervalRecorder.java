@@ -0,0 +1,70 @@
+package com.outbrain.swinfra.metrics.timing;
+
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+/**
+ * Something that records intervals measured by a {@link Clock}, such as a histogram or summary, or one of their children.
+ * <p>
+ * Unlike {@link TimingMetric#startTimer(String...)}, none of these methods allocate anything - the clock is read
+ * directly around the timed code. For try-with-resources use, a {@link #newTimer() reusable timer} can be created once
+ * (per thread) and {@link Timer#restart() restarted} for every interval.
+ * </p>
+ */
+public interface IntervalRecorder {
+
+  Clock getClock();
+
+  /**
+   * Records an interval measured in the ticks of {@link #getClock()}
+   */
+  void recordTicks(long ticks);
+
+  /**
+   * Records an interval measured in nanoseconds, converted to the ticks of {@link #getClock()}
+   */
+  default void recordNanos(final long nanos) {
+    recordTicks(getClock().nanosToTicks(nanos));
+  }
+
+  default void time(final Runnable runnable) {
+    final Clock clock = getClock();
+    final long start = clock.getTick();
+    try {
+      runnable.run();
+    } finally {
+      recordTicks(clock.getTick() - start);
+    }
+  }
+
+  default <V> V time(final Callable<V> callable) throws Exception {
+    final Clock clock = getClock();
+    final long start = clock.getTick();
+    try {
+      return callable.call();
+    } finally {
+      recordTicks(clock.getTick() - start);
+    }
+  }
+
+  /**
+   * Like {@link #time(Callable)}, for code that does not throw checked exceptions
+   */
+  default <V> V timeSupplier(final Supplier<V> supplier) {
+    final Clock clock = getClock();
+    final long start = clock.getTick();
+    try {
+      return supplier.get();
+    } finally {
+      recordTicks(clock.getTick() - start);
+    }
+  }
+
+  /**
+   * @return a started timer that records into this recorder and may be {@link Timer#restart() restarted} to time
+   * another interval. The timer is meant to be kept and reused by a single thread
+   */
+  default Timer newTimer() {
+    return new Timer(getClock(), this::recordTicks);
+  }
+}
@@ -9,13 +9,21 @@ import java.util.function.LongConsumer;
  * and the difference between those two is provided to the given consumer.
  * </p>
  * <p>
- * It's important to note that the timer is a single-use object, its stop method should not be called more than once.
+ * A timer's stop method should not be called more than once per interval. A timer may be reused for another interval
+ * by {@link #restart() restarting} it, which allocates nothing, but it must then be confined to a single thread:
  * </p>
+ * <pre>
+ * final Timer timer = histogram.newTimer();
+ * ...
+ * try (Timer t = timer.restart()) {
+ *   //run some code
+ * }
+ * </pre>
  */
 public class Timer implements AutoCloseable {
 
   private final Clock clock;
-  private final long startTime;
+  private long startTime;
   private final LongConsumer elapsedIntervalConsumer;
 
   public Timer(final Clock clock, final LongConsumer elapsedIntervalConsumer) {
@@ -24,13 +32,23 @@ public class Timer implements AutoCloseable {
     this.startTime = clock.getTick();
   }
 
+  /**
+   * Starts a new interval
+   *
+   * @return this timer
+   */
+  public Timer restart() {
+    startTime = clock.getTick();
+    return this;
+  }
+
   public void stop() {
     final long elapsed = clock.getTick() - startTime;
     elapsedIntervalConsumer.accept(elapsed);
   }
 
   @Override
-  public void close() throws Exception {
+  public void close() {
     stop();
   }
 }
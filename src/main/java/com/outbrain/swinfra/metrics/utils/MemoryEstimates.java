@@ -0,0 +1,121 @@
+package com.outbrain.swinfra.metrics.utils;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Approximate retained sizes of the objects that metrics are made of, assuming a 64-bit JVM with compressed references
+ * (12 byte object headers, 4 byte references and 8 byte alignment).
+ * <p>
+ * The estimates are meant for accounting and alerting, not for exact measurement. Label value strings are counted in
+ * full even if they are shared with other objects, and strings are assumed to keep 2 bytes per character.
+ * </p>
+ */
+public class MemoryEstimates {
+
+  public static final long OBJECT_HEADER = 12;
+  public static final long REFERENCE = 4;
+  public static final long ARRAY_HEADER = 16;
+
+  /**
+   * A {@link LongAdder} or {@link DoubleAdder} before it was ever contended
+   */
+  public static final long ADDER = 32;
+
+  /**
+   * A contended cell of an adder, which is padded to its own cache lines
+   */
+  public static final long ADDER_CELL = 280;
+
+  /**
+   * A {@link java.util.concurrent.ConcurrentHashMap} entry, including its share of the table
+   */
+  public static final long MAP_ENTRY = 32 + 2 * REFERENCE;
+
+  /**
+   * A {@link com.outbrain.swinfra.metrics.children.MetricData}
+   */
+  public static final long METRIC_DATA = 32;
+
+  /**
+   * The cells of an adder are private to the JDK. They can be read reflectively on Java 8, newer versions do not allow
+   * it (or warn about it) so an uncontended adder is assumed there
+   */
+  private static final Field ADDER_CELLS = findAdderCells();
+
+  private MemoryEstimates() {
+  }
+
+  public static long align(final long bytes) {
+    return (bytes + 7) & ~7L;
+  }
+
+  public static long ofLongArray(final int length) {
+    return align(ARRAY_HEADER + 8L * length);
+  }
+
+  public static long ofDoubleArray(final int length) {
+    return ofLongArray(length);
+  }
+
+  public static long ofReferenceArray(final int length) {
+    return align(ARRAY_HEADER + REFERENCE * length);
+  }
+
+  public static long ofString(final String value) {
+    return align(OBJECT_HEADER + REFERENCE + 8) + align(ARRAY_HEADER + 2L * value.length());
+  }
+
+  /**
+   * The list of a child's label values, including the strings
+   */
+  public static long ofLabelValues(final List<String> labelValues) {
+    long bytes = align(OBJECT_HEADER + REFERENCE) + ofReferenceArray(labelValues.size());
+    for (int i = 0; i < labelValues.size(); i++) {
+      bytes += ofString(labelValues.get(i));
+    }
+    return bytes;
+  }
+
+  /**
+   * Exemplar slots, without the exemplars they keep
+   */
+  public static long ofExemplarSlots(final int slots) {
+    return align(OBJECT_HEADER + 2 * REFERENCE) + align(OBJECT_HEADER + REFERENCE) + ofReferenceArray(slots);
+  }
+
+  public static long ofAdder(final LongAdder adder) {
+    return ADDER + ofAdderCells(adder);
+  }
+
+  public static long ofAdder(final DoubleAdder adder) {
+    return ADDER + ofAdderCells(adder);
+  }
+
+  private static long ofAdderCells(final Object adder) {
+    if (ADDER_CELLS == null) {
+      return 0;
+    }
+    try {
+      final Object[] cells = (Object[]) ADDER_CELLS.get(adder);
+      return cells == null ? 0 : ofReferenceArray(cells.length) + ADDER_CELL * cells.length;
+    } catch (final IllegalAccessException e) {
+      return 0;
+    }
+  }
+
+  private static Field findAdderCells() {
+    if (!"1.8".equals(System.getProperty("java.specification.version"))) {
+      return null;
+    }
+    try {
+      final Field cells = Class.forName("java.util.concurrent.atomic.Striped64").getDeclaredField("cells");
+      cells.setAccessible(true);
+      return cells;
+    } catch (final ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+}
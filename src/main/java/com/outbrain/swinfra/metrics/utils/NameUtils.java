@@ -22,6 +22,16 @@ public class NameUtils {
     }
   }
 
+  /**
+   * Validates that the supplied unit is a valid name part and that the metric's name ends with it
+   */
+  public static void validateUnit(final String name, final String unit) {
+    Validate.isTrue(LABEL_NAME_PATTERN.matcher(unit).matches(),
+                    "The unit '" + unit + "' is invalid. See " + PROMETHEUS_NAMING_URL);
+    Validate.isTrue(name.endsWith("_" + unit) || name.endsWith("_" + unit + "_total"),
+                    "The metric name '" + name + "' must end with its unit '" + unit + "'. See " + PROMETHEUS_NAMING_URL);
+  }
+
   /**
    * Validates that the supplied string is valid as a metric name
    */
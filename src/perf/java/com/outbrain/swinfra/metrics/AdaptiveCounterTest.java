@@ -0,0 +1,91 @@
+package com.outbrain.swinfra.metrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares counters whose children are adders to counters with adaptive children, for a single hot child with and
+ * without contention, and for many children that are each rarely updated. The estimated size of the children of each
+ * counter is printed after the setup, for comparing the memory the representations take.
+ */
+@State(Scope.Benchmark)
+public class AdaptiveCounterTest {
+
+  private static final int COLD_CHILDREN = 100_000;
+
+  private Counter adderCounter;
+  private Counter adaptiveCounter;
+  private Counter.Child adderChild;
+  private Counter.Child adaptiveChild;
+  private Counter.Child[] coldAdderChildren;
+  private Counter.Child[] coldAdaptiveChildren;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    adderCounter = new Counter.CounterBuilder("adder", "help").withLabels("child").build();
+    adaptiveCounter = new Counter.CounterBuilder("adaptive", "help").withLabels("child").withAdaptiveChildren().build();
+    adderChild = adderCounter.bind("0");
+    adaptiveChild = adaptiveCounter.bind("0");
+    coldAdderChildren = new Counter.Child[COLD_CHILDREN];
+    coldAdaptiveChildren = new Counter.Child[COLD_CHILDREN];
+    for (int i = 0; i < COLD_CHILDREN; i++) {
+      coldAdderChildren[i] = adderCounter.bind(Integer.toString(i));
+      coldAdaptiveChildren[i] = adaptiveCounter.bind(Integer.toString(i));
+    }
+    System.out.println("Estimated bytes of " + COLD_CHILDREN + " children: adders " + adderCounter.getEstimatedBytes() +
+                       ", adaptive " + adaptiveCounter.getEstimatedBytes());
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void measureAdderInc() {
+    adderChild.inc();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void measureAdaptiveInc() {
+    adaptiveChild.inc();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Threads(8)
+  public void measureAdderIncContended() {
+    adderChild.inc();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Threads(8)
+  public void measureAdaptiveIncContended() {
+    adaptiveChild.inc();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void measureAdderIncCold() {
+    coldAdderChildren[next++ % COLD_CHILDREN].inc();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void measureAdaptiveIncCold() {
+    coldAdaptiveChildren[next++ % COLD_CHILDREN].inc();
+  }
+}
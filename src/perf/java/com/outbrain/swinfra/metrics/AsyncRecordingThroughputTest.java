@@ -0,0 +1,171 @@
+package com.outbrain.swinfra.metrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of a shared counter child and a shared histogram child that are updated directly to ones
+ * whose updates are published to an {@link AsyncRecorder}, from 1 to 64 threads. The recorder blocks when its ring is
+ * full, so the asynchronous benchmarks are bound by the rate at which the aggregator applies the updates, as they would
+ * be in a steady state.
+ */
+@State(Scope.Benchmark)
+public class AsyncRecordingThroughputTest {
+
+  private AsyncRecorder recorder;
+  private Counter.Child directCounter;
+  private Counter.Child asyncCounter;
+  private Histogram.Child directHistogram;
+  private Histogram.Child asyncHistogram;
+
+  @Setup
+  public void setUp() {
+    recorder = new AsyncRecorder.AsyncRecorderBuilder().withOverflowPolicy(AsyncRecorder.OverflowPolicy.BLOCK).build();
+    directCounter = new Counter.CounterBuilder("direct_counter", "help").build().bind();
+    asyncCounter = new Counter.CounterBuilder("async_counter", "help").withAsyncRecording(recorder).build().bind();
+    directHistogram = new Histogram.HistogramBuilder("direct_histogram", "help").build().bind();
+    asyncHistogram = new Histogram.HistogramBuilder("async_histogram", "help").withAsyncRecording(recorder).build().bind();
+  }
+
+  @TearDown
+  public void tearDown() {
+    recorder.close();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Threads(1)
+  public void measureDirectIncThreads1() {
+    directCounter.inc();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Threads(1)
+  public void measureAsyncIncThreads1() {
+    asyncCounter.inc();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Threads(1)
+  public void measureDirectObserveThreads1() {
+    directHistogram.observe(0.3);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Threads(1)
+  public void measureAsyncObserveThreads1() {
+    asyncHistogram.observe(0.3);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Threads(4)
+  public void measureDirectIncThreads4() {
+    directCounter.inc();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Threads(4)
+  public void measureAsyncIncThreads4() {
+    asyncCounter.inc();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Threads(4)
+  public void measureDirectObserveThreads4() {
+    directHistogram.observe(0.3);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Threads(4)
+  public void measureAsyncObserveThreads4() {
+    asyncHistogram.observe(0.3);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Threads(16)
+  public void measureDirectIncThreads16() {
+    directCounter.inc();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Threads(16)
+  public void measureAsyncIncThreads16() {
+    asyncCounter.inc();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Threads(16)
+  public void measureDirectObserveThreads16() {
+    directHistogram.observe(0.3);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Threads(16)
+  public void measureAsyncObserveThreads16() {
+    asyncHistogram.observe(0.3);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Threads(64)
+  public void measureDirectIncThreads64() {
+    directCounter.inc();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Threads(64)
+  public void measureAsyncIncThreads64() {
+    asyncCounter.inc();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Threads(64)
+  public void measureDirectObserveThreads64() {
+    directHistogram.observe(0.3);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Threads(64)
+  public void measureAsyncObserveThreads64() {
+    asyncHistogram.observe(0.3);
+  }
+}
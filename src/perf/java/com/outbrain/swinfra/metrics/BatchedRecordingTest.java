@@ -0,0 +1,101 @@
+package com.outbrain.swinfra.metrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the bound children of counters and histograms that record directly to ones that batch their updates in
+ * buffers of the recording threads, with one thread and with contention on the shared children.
+ */
+@State(Scope.Benchmark)
+public class BatchedRecordingTest {
+
+  private RecordingBatcher batcher;
+  private Counter.Child directCounter;
+  private Counter.Child batchedCounter;
+  private Histogram.Child directHistogram;
+  private Histogram.Child batchedHistogram;
+
+  @Setup
+  public void setUp() {
+    batcher = new RecordingBatcher.RecordingBatcherBuilder().build();
+    directCounter = new Counter.CounterBuilder("direct_counter", "help").build().bind();
+    batchedCounter = new Counter.CounterBuilder("batched_counter", "help").withBatching(batcher).build().bind();
+    directHistogram = new Histogram.HistogramBuilder("direct_histogram", "help").build().bind();
+    batchedHistogram = new Histogram.HistogramBuilder("batched_histogram", "help").withBatching(batcher).build().bind();
+  }
+
+  @TearDown
+  public void tearDown() {
+    batcher.close();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void measureDirectInc() {
+    directCounter.inc();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void measureBatchedInc() {
+    batchedCounter.inc();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void measureDirectObserve() {
+    directHistogram.observe(0.3);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void measureBatchedObserve() {
+    batchedHistogram.observe(0.3);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Threads(8)
+  public void measureDirectIncContended() {
+    directCounter.inc();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Threads(8)
+  public void measureBatchedIncContended() {
+    batchedCounter.inc();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Threads(8)
+  public void measureDirectObserveContended() {
+    directHistogram.observe(0.3);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Threads(8)
+  public void measureBatchedObserveContended() {
+    batchedHistogram.observe(0.3);
+  }
+}
@@ -0,0 +1,95 @@
+package com.outbrain.swinfra.metrics;
+
+import com.outbrain.swinfra.metrics.timing.Clock;
+import com.outbrain.swinfra.metrics.timing.CoarseClock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost of reading the system clock and a coarse clock, and the accuracy of the intervals they measure.
+ * <p>
+ * The interval benchmarks time a fixed amount of work with each clock. Their scores are the real duration of an op,
+ * and the mean interval each clock measured is printed when a trial ends, to compare against it.
+ * </p>
+ */
+@State(Scope.Benchmark)
+public class ClockLatencyTest {
+
+  private static final long WORK_TOKENS = 2_000;
+
+  private final Clock systemClock = Clock.DEFAULT_CLOCK;
+  private CoarseClock coarseClock;
+
+  @Setup
+  public void setUp() {
+    coarseClock = new CoarseClock(100, TimeUnit.MICROSECONDS);
+  }
+
+  @TearDown
+  public void tearDown() {
+    coarseClock.close();
+  }
+
+  @State(Scope.Thread)
+  public static class Intervals {
+
+    private long systemTotal;
+    private long coarseTotal;
+    private long systemCount;
+    private long coarseCount;
+
+    @TearDown(Level.Trial)
+    public void report() {
+      if (systemCount > 0) {
+        System.out.println("\nmean interval measured by the system clock: " + systemTotal / systemCount + "ns");
+      }
+      if (coarseCount > 0) {
+        System.out.println("\nmean interval measured by the coarse clock: " + coarseTotal / coarseCount + "ns");
+      }
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public long measureSystemClockTick() {
+    return systemClock.getTick();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public long measureCoarseClockTick() {
+    return coarseClock.getTick();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void measureSystemClockInterval(final Intervals intervals) {
+    final long start = systemClock.getTick();
+    Blackhole.consumeCPU(WORK_TOKENS);
+    intervals.systemTotal += systemClock.getTick() - start;
+    intervals.systemCount++;
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void measureCoarseClockInterval(final Intervals intervals) {
+    final long start = coarseClock.getTick();
+    Blackhole.consumeCPU(WORK_TOKENS);
+    intervals.coarseTotal += coarseClock.getTick() - start;
+    intervals.coarseCount++;
+  }
+}
@@ -62,6 +62,17 @@ public class CounterLatencyTest {
     actualIterations = counter.getValue();
   }
 
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void measureSingleWriterCounterLatency() {
+    counter = new CounterBuilder("name", "help").withSingleWriter().build();
+    for (int i = 0; i < NUM_OF_ITERATIONS; i++) {
+      counter.inc();
+    }
+    actualIterations = counter.getValue();
+  }
+
   @Benchmark
   @BenchmarkMode(Mode.SampleTime)
   @OutputTimeUnit(TimeUnit.MILLISECONDS)
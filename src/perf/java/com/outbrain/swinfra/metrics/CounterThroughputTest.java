@@ -29,6 +29,12 @@ public class CounterThroughputTest {
                                                                    new String[]{"val17", "val18"},
                                                                    new String[]{"val19", "val20"});
 
+  private enum Operation {
+    READ, WRITE, DELETE, SCAN, BATCH
+  }
+
+  private static final Operation[] OPERATIONS = Operation.values();
+
   private Counter counter;
   private io.prometheus.client.Counter prometheusCounter;
   private double actualIterations;
@@ -84,4 +90,16 @@ public class CounterThroughputTest {
     actualIterations = LABEL_VALUES.stream().mapToDouble(labelValues -> counter.getValue(labelValues)).sum();
   }
 
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void measureCounterThroughputWithLabelDomains() {
+    counter = new CounterBuilder("name", "help").withLabelDomain("label1", Operation.class).withIntLabel("label2", 0, 1).build();
+    for (int i = 0; i < NUM_OF_ITERATIONS; i++) {
+      counter.inc(OPERATIONS[i % OPERATIONS.length], i % 2);
+    }
+    actualIterations = 0;
+    counter.forEachChild(metricData -> actualIterations += metricData.getMetric().sum());
+  }
+
 }
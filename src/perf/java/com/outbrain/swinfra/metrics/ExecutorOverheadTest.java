@@ -0,0 +1,102 @@
+package com.outbrain.swinfra.metrics;
+
+import com.outbrain.swinfra.metrics.concurrent.InstrumentedExecutors;
+import com.outbrain.swinfra.metrics.timing.CoarseClock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead that instrumenting an executor adds to every task. The tasks run on the calling thread, so the
+ * difference between the direct and the instrumented benchmarks is the cost of the instrumentation alone.
+ */
+@State(Scope.Benchmark)
+public class ExecutorOverheadTest {
+
+  private final Runnable task = () -> { };
+  private final ExecutorService direct = new CallerRunsExecutor();
+  private ExecutorService instrumented;
+  private ExecutorService instrumentedCoarse;
+  private CoarseClock coarseClock;
+
+  @Setup
+  public void setUp() {
+    coarseClock = new CoarseClock(100, TimeUnit.MICROSECONDS);
+    instrumented = new InstrumentedExecutors.InstrumentedExecutorsBuilder()
+        .build()
+        .instrument("pool", new CallerRunsExecutor());
+    instrumentedCoarse = new InstrumentedExecutors.InstrumentedExecutorsBuilder()
+        .withClock(coarseClock)
+        .build()
+        .instrument("pool", new CallerRunsExecutor());
+  }
+
+  @TearDown
+  public void tearDown() {
+    coarseClock.close();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void measureDirectExecute() {
+    direct.execute(task);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void measureInstrumentedExecute() {
+    instrumented.execute(task);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void measureInstrumentedExecuteWithCoarseClock() {
+    instrumentedCoarse.execute(task);
+  }
+
+  private static class CallerRunsExecutor extends AbstractExecutorService {
+
+    @Override
+    public void execute(final Runnable command) {
+      command.run();
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return false;
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) {
+      return true;
+    }
+  }
+}
@@ -5,6 +5,9 @@ import com.outbrain.swinfra.metrics.client.OutbrainClient;
 import com.outbrain.swinfra.metrics.client.OutputMode;
 import com.outbrain.swinfra.metrics.client.PerfTestClient;
 import com.outbrain.swinfra.metrics.exporter.CollectorRegistryExporterFactory;
+import com.outbrain.swinfra.metrics.exporter.ExportInstrumentation;
+import com.outbrain.swinfra.metrics.exporter.protobuf.ProtobufSnapshotExporter;
+import com.outbrain.swinfra.metrics.exporter.text.TextSnapshotExporter;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Mode;
@@ -14,6 +17,7 @@ import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.TearDown;
 
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 
 /*
@@ -31,6 +35,15 @@ public class ExportThroughputTest {
 
     private final OutbrainClient outbrainTextClient = new OutbrainClient(OutputMode.TEXT, CollectorRegistryExporterFactory.TEXT_004);
     private final OutbrainClient outbrainProtobufClient = new OutbrainClient(OutputMode.PROTOBUF, CollectorRegistryExporterFactory.PROTOBUF);
+    private final OutbrainClient outbrainOpenMetricsClient = new OutbrainClient(OutputMode.OPENMETRICS, CollectorRegistryExporterFactory.OPENMETRICS_1_0);
+    private final OutbrainClient outbrainParallelTextClient = new OutbrainClient(OutputMode.TEXT, registry ->
+        CollectorRegistryExporterFactory.TEXT_004.createParallel(registry, ForkJoinPool.commonPool(), 0));
+    private final OutbrainClient outbrainInstrumentedTextClient = new OutbrainClient(OutputMode.TEXT, registry ->
+        CollectorRegistryExporterFactory.TEXT_004.createInstrumented(registry, new ExportInstrumentation.ExportInstrumentationBuilder().build()));
+    private final OutbrainClient outbrainFamilyInstrumentedTextClient = new OutbrainClient(OutputMode.TEXT, registry ->
+        CollectorRegistryExporterFactory.TEXT_004.createInstrumented(registry, new ExportInstrumentation.ExportInstrumentationBuilder().withFamilyDetail().build()));
+    private final OutbrainClient outbrainSnapshotTextClient = new OutbrainClient(OutputMode.TEXT, new TextSnapshotExporter());
+    private final OutbrainClient outbrainSnapshotProtobufClient = new OutbrainClient(OutputMode.PROTOBUF, new ProtobufSnapshotExporter());
     private final IoPrometheusClient ioPrometheusClient = new IoPrometheusClient();
 
     @Benchmark
@@ -47,6 +60,34 @@ public class ExportThroughputTest {
         measureThroughput(outbrainTextClient);
     }
 
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void measureParallelTextExportThroughput() throws InterruptedException {
+        measureThroughput(outbrainParallelTextClient);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void measureInstrumentedTextExportThroughput() throws InterruptedException {
+        measureThroughput(outbrainInstrumentedTextClient);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void measureFamilyInstrumentedTextExportThroughput() throws InterruptedException {
+        measureThroughput(outbrainFamilyInstrumentedTextClient);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void measureSnapshotTextExportThroughput() throws InterruptedException {
+        measureThroughput(outbrainSnapshotTextClient);
+    }
+
     @Benchmark
     @BenchmarkMode(Mode.Throughput)
     @OutputTimeUnit(TimeUnit.SECONDS)
@@ -54,6 +95,20 @@ public class ExportThroughputTest {
         measureThroughput(outbrainProtobufClient);
     }
 
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void measureSnapshotProtobufExportThroughput() throws InterruptedException {
+        measureThroughput(outbrainSnapshotProtobufClient);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void measureOpenMetricsExportThroughput() throws InterruptedException {
+        measureThroughput(outbrainOpenMetricsClient);
+    }
+
     private void measureThroughput(final PerfTestClient client) {
         currentClient = client;
         output = currentClient.simulateEndpoint();
@@ -63,6 +118,12 @@ public class ExportThroughputTest {
     public void setUp() {
         outbrainTextClient.setUp();
         outbrainProtobufClient.setUp();
+        outbrainOpenMetricsClient.setUp();
+        outbrainParallelTextClient.setUp();
+        outbrainInstrumentedTextClient.setUp();
+        outbrainFamilyInstrumentedTextClient.setUp();
+        outbrainSnapshotTextClient.setUp();
+        outbrainSnapshotProtobufClient.setUp();
         ioPrometheusClient.setUp();
     }
 
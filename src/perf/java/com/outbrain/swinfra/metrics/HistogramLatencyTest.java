@@ -1,11 +1,13 @@
 package com.outbrain.swinfra.metrics;
 
 import com.outbrain.swinfra.metrics.Histogram.HistogramBuilder;
+import com.outbrain.swinfra.metrics.timing.Timer;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Mode;
 import org.openjdk.jmh.annotations.OutputTimeUnit;
 import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
 
 import java.util.concurrent.TimeUnit;
@@ -53,6 +55,16 @@ public class HistogramLatencyTest {
     }
   }
 
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void measureSingleWriterHistogramLatency() {
+    histogram = new HistogramBuilder("name", "help").withSingleWriter().build();
+    for (int i = 0; i < NUM_OF_ITERATIONS; i++) {
+      histogram.observe(i);
+    }
+  }
+
   @Benchmark
   @BenchmarkMode(Mode.SampleTime)
   @OutputTimeUnit(TimeUnit.MILLISECONDS)
@@ -62,4 +74,101 @@ public class HistogramLatencyTest {
       histogram.observe(i, LABEL_VALUES);
     }
   }
+
+  /**
+   * The state of the timing benchmarks, which measure a single interval per op.
+   * Run them with the gc profiler (-Pprofilers=gc), the allocation rate of all but the startTimer benchmark should be
+   * 0 bytes per op
+   */
+  @State(Scope.Thread)
+  public static class TimingState {
+
+    private static final Runnable NO_OP = () -> { };
+
+    private Histogram histogram;
+    private Histogram.Child child;
+    private Timer reusableTimer;
+
+    @Setup
+    public void setUp() {
+      histogram = new HistogramBuilder("timed", "help").build();
+      child = new HistogramBuilder("timed", "help").withLabels("label1", "label2").build().bind(LABEL_VALUES);
+      reusableTimer = child.newTimer();
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void measureHistogramStartTimer(final TimingState state) {
+    state.histogram.startTimer().stop();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void measureHistogramRecordNanos(final TimingState state) {
+    state.histogram.recordNanos(100);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void measureHistogramTimeRunnable(final TimingState state) {
+    state.histogram.time(TimingState.NO_OP);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void measureBoundHistogramTimeRunnable(final TimingState state) {
+    state.child.time(TimingState.NO_OP);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  @SuppressWarnings("try") // the timer only scopes the timed code
+  public void measureReusableTimer(final TimingState state) {
+    try (Timer timer = state.reusableTimer.restart()) {
+      TimingState.NO_OP.run();
+    }
+  }
+
+  /**
+   * The state of the coordinated omission benchmarks, which observe a value that is a thousand expected intervals long,
+   * so correcting it adds 999 missing values
+   */
+  @State(Scope.Thread)
+  public static class ExpectedIntervalState {
+
+    private static final double EXPECTED_INTERVAL = 0.001;
+    private static final double STALL = 1;
+
+    private Histogram histogram;
+
+    @Setup
+    public void setUp() {
+      histogram = new HistogramBuilder("corrected", "help").build();
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void measureObserveWithExpectedInterval(final ExpectedIntervalState state) {
+    state.histogram.observeWithExpectedInterval(ExpectedIntervalState.STALL, ExpectedIntervalState.EXPECTED_INTERVAL);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void measureObserveMissingValuesOneByOne(final ExpectedIntervalState state) {
+    state.histogram.observe(ExpectedIntervalState.STALL);
+    for (double missing = ExpectedIntervalState.STALL - ExpectedIntervalState.EXPECTED_INTERVAL;
+         missing >= ExpectedIntervalState.EXPECTED_INTERVAL;
+         missing -= ExpectedIntervalState.EXPECTED_INTERVAL) {
+      state.histogram.observe(missing);
+    }
+  }
 }
@@ -0,0 +1,74 @@
+package com.outbrain.swinfra.metrics;
+
+import com.outbrain.swinfra.metrics.concurrent.InstrumentedLocks;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Compares a bare {@link ReentrantLock} with an instrumented one, by a single thread (where the instrumented lock only
+ * counts acquisitions) and by several threads that contend for the lock (where the contended acquisitions are timed).
+ */
+@State(Scope.Benchmark)
+public class LockOverheadTest {
+
+  private static final long WORK_TOKENS = 50;
+
+  private Lock bare;
+  private Lock instrumented;
+
+  @Setup
+  public void setUp() {
+    bare = new ReentrantLock();
+    instrumented = new InstrumentedLocks.InstrumentedLocksBuilder().build().instrument("lock", new ReentrantLock());
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void measureBareUncontended() {
+    lockAndWork(bare);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void measureInstrumentedUncontended() {
+    lockAndWork(instrumented);
+  }
+
+  @Benchmark
+  @Threads(4)
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public void measureBareContended() {
+    lockAndWork(bare);
+  }
+
+  @Benchmark
+  @Threads(4)
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public void measureInstrumentedContended() {
+    lockAndWork(instrumented);
+  }
+
+  private static void lockAndWork(final Lock lock) {
+    lock.lock();
+    try {
+      Blackhole.consumeCPU(WORK_TOKENS);
+    } finally {
+      lock.unlock();
+    }
+  }
+}
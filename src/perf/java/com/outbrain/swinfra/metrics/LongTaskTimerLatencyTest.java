@@ -0,0 +1,49 @@
+package com.outbrain.swinfra.metrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures starting and stopping a task of a {@link LongTaskTimer}, by a single thread and by threads that share the
+ * timer.
+ */
+@State(Scope.Benchmark)
+public class LongTaskTimerLatencyTest {
+
+  private LongTaskTimer timer;
+
+  @Setup
+  public void setUp() {
+    timer = new LongTaskTimer.LongTaskTimerBuilder("tasks", "help").build();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public long measureStartStop() {
+    return timer.stop(timer.start());
+  }
+
+  @Benchmark
+  @Threads(4)
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public long measureConcurrentStartStop() {
+    return timer.stop(timer.start());
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public long measureScrape() {
+    return timer.getActiveNanos();
+  }
+}
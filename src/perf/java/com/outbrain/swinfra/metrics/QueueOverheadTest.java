@@ -0,0 +1,90 @@
+package com.outbrain.swinfra.metrics;
+
+import com.outbrain.swinfra.metrics.concurrent.InstrumentedQueues;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares a bare {@link ArrayBlockingQueue} with an instrumented one, both by a single thread that offers and polls
+ * an element, and by a producer and a consumer that exchange elements through the queue.
+ */
+@State(Scope.Group)
+public class QueueOverheadTest {
+
+  private static final int CAPACITY = 1024;
+  private static final Object ELEMENT = new Object();
+
+  private BlockingQueue<Object> bare;
+  private BlockingQueue<Object> instrumented;
+
+  @Setup
+  public void setUp() {
+    bare = new ArrayBlockingQueue<>(CAPACITY);
+    instrumented = new InstrumentedQueues.InstrumentedQueuesBuilder()
+        .build()
+        .instrument("queue", new ArrayBlockingQueue<>(CAPACITY));
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public Object measureBareOfferPoll() {
+    bare.offer(ELEMENT);
+    return bare.poll();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public Object measureInstrumentedOfferPoll() {
+    instrumented.offer(ELEMENT);
+    return instrumented.poll();
+  }
+
+  @Benchmark
+  @Group("bare")
+  @GroupThreads(1)
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public boolean measureBareProducer() {
+    return bare.offer(ELEMENT);
+  }
+
+  @Benchmark
+  @Group("bare")
+  @GroupThreads(1)
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public Object measureBareConsumer() {
+    return bare.poll();
+  }
+
+  @Benchmark
+  @Group("instrumented")
+  @GroupThreads(1)
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public boolean measureInstrumentedProducer() {
+    return instrumented.offer(ELEMENT);
+  }
+
+  @Benchmark
+  @Group("instrumented")
+  @GroupThreads(1)
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public Object measureInstrumentedConsumer() {
+    return instrumented.poll();
+  }
+}
@@ -63,6 +63,17 @@ public class SettableGaugeLatencyTest {
     actualIterations = gauge.getValue() + 1;
   }
 
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void measureSingleWriterSettableGaugeLatency() {
+    gauge = new SettableGaugeBuilder("name", "help").withSingleWriter().build();
+    for (int i = 0; i < NUM_OF_ITERATIONS; i++) {
+      gauge.set(i);
+    }
+    actualIterations = gauge.getValue() + 1;
+  }
+
   @Benchmark
   @BenchmarkMode(Mode.SampleTime)
   @OutputTimeUnit(TimeUnit.MILLISECONDS)
@@ -1,11 +1,13 @@
 package com.outbrain.swinfra.metrics;
 
 import com.outbrain.swinfra.metrics.Summary.SummaryBuilder;
+import com.outbrain.swinfra.metrics.timing.Timer;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Mode;
 import org.openjdk.jmh.annotations.OutputTimeUnit;
 import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
 
 import java.util.concurrent.TimeUnit;
@@ -62,4 +64,64 @@ public class SummaryLatencyTest {
       summary.observe(i, LABEL_VALUES);
     }
   }
+
+  /**
+   * The state of the timing benchmarks, which measure a single interval per op.
+   * Run them with the gc profiler (-Pprofilers=gc), the allocation rate of all but the startTimer benchmark should be
+   * 0 bytes per op
+   */
+  @State(Scope.Thread)
+  public static class TimingState {
+
+    private static final Runnable NO_OP = () -> { };
+
+    private Summary summary;
+    private Summary.Child child;
+    private Timer reusableTimer;
+
+    @Setup
+    public void setUp() {
+      summary = new SummaryBuilder("timed", "help").build();
+      child = new SummaryBuilder("timed", "help").withLabels("label1", "label2").build().bind(LABEL_VALUES);
+      reusableTimer = child.newTimer();
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void measureSummaryStartTimer(final TimingState state) {
+    state.summary.startTimer().stop();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void measureSummaryRecordNanos(final TimingState state) {
+    state.summary.recordNanos(100);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void measureSummaryTimeRunnable(final TimingState state) {
+    state.summary.time(TimingState.NO_OP);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void measureBoundSummaryTimeRunnable(final TimingState state) {
+    state.child.time(TimingState.NO_OP);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  @SuppressWarnings("try") // the timer only scopes the timed code
+  public void measureReusableTimer(final TimingState state) {
+    try (Timer timer = state.reusableTimer.restart()) {
+      TimingState.NO_OP.run();
+    }
+  }
 }
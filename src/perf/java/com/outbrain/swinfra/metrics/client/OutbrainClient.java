@@ -7,32 +7,59 @@ import com.outbrain.swinfra.metrics.MetricCollectorRegistry;
 import com.outbrain.swinfra.metrics.MetricRegistry;
 import com.outbrain.swinfra.metrics.exporter.CollectorRegistryExporter;
 import com.outbrain.swinfra.metrics.exporter.CollectorRegistryExporterFactory;
+import com.outbrain.swinfra.metrics.exporter.RegistrySnapshot;
+import com.outbrain.swinfra.metrics.exporter.SnapshotExporter;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.function.Function;
 
 import static java.util.Collections.emptyMap;
 
 public class OutbrainClient extends AbstractPerfClient {
 
-    private final CollectorRegistryExporterFactory collectorRegistryExporterFactory;
+    private final Function<MetricCollectorRegistry, CollectorRegistryExporter> createExporter;
+    private final SnapshotExporter snapshotExporter;
+    private final RegistrySnapshot snapshot = new RegistrySnapshot();
+    private MetricCollectorRegistry metricCollectorRegistry;
     private CollectorRegistryExporter formatter;
 
     public OutbrainClient(final OutputMode mode, final CollectorRegistryExporterFactory collectorRegistryExporterFactory) {
+        this(mode, collectorRegistryExporterFactory::create);
+    }
+
+    public OutbrainClient(final OutputMode mode, final Function<MetricCollectorRegistry, CollectorRegistryExporter> createExporter) {
         super(mode);
-        this.collectorRegistryExporterFactory = collectorRegistryExporterFactory;
+        this.createExporter = createExporter;
+        this.snapshotExporter = null;
+    }
+
+    /**
+     * A client that captures a {@link RegistrySnapshot} and writes it with the given exporter on every scrape
+     */
+    public OutbrainClient(final OutputMode mode, final SnapshotExporter snapshotExporter) {
+        super(mode);
+        this.createExporter = null;
+        this.snapshotExporter = snapshotExporter;
     }
 
     @Override
     public void setUp() {
-        final MetricCollectorRegistry metricCollectorRegistry = new MetricCollectorRegistry();
+        metricCollectorRegistry = new MetricCollectorRegistry();
         metricCollectorRegistry.register(createCollector());
-        formatter = collectorRegistryExporterFactory.create(metricCollectorRegistry);
+        if (createExporter != null) {
+            formatter = createExporter.apply(metricCollectorRegistry);
+        }
     }
 
     @Override
     public void executeLogic(final OutputStream outputStream) throws IOException {
-        formatter.export(outputStream);
+        if (snapshotExporter != null) {
+            snapshot.capture(metricCollectorRegistry);
+            snapshotExporter.exportTo(snapshot, outputStream);
+        } else {
+            formatter.export(outputStream);
+        }
     }
 
     private MetricCollector createCollector() {
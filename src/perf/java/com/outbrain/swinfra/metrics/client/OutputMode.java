@@ -34,7 +34,8 @@ public enum OutputMode {
             }
         }
 
-        private byte[] getExpectedText() {
+        @Override
+        byte[] getExpectedText() {
             try {
                 return  Files.readAllBytes(Paths.get(ClassLoader.getSystemResource("PublishMetricsTestOutput.txt").toURI()));
             } catch (IOException | URISyntaxException e) {
@@ -42,6 +43,29 @@ public enum OutputMode {
             }
         }
     },
+    OPENMETRICS() {
+        @Override
+        public void verify(final byte[] actual) {
+            try {
+                // The expected output is in the 0.0.4 text format, so it's converted to OpenMetrics line by line while
+                // the _created samples (whose values depend on the time of the test) are dropped from the actual output
+                final String[] expectedLines = Arrays.stream(new String(TEXT.getExpectedText(), "UTF-8").split("\n"))
+                    .map(line -> line.replace(",}", "}").replaceFirst("^CounterNAME\\{", "CounterNAME_total{"))
+                    .toArray(String[]::new);
+                final String[] actualLines = Arrays.stream(new String(actual, "UTF-8").split("\n"))
+                    .filter(line -> !line.contains("_created") && !line.equals("# EOF"))
+                    .toArray(String[]::new);
+                Arrays.sort(expectedLines);
+                Arrays.sort(actualLines);
+                if (!Arrays.equals(expectedLines, actualLines)) {
+                    printDebugInfo(expectedLines, actualLines);
+                    throw new RuntimeException("Unexpected output");
+                }
+            } catch (final UnsupportedEncodingException e) {
+                throw new IllegalStateException("world gone mad", e);
+            }
+        }
+    },
     PROTOBUF() {
         @Override
         public void verify(final byte[] actual) {
@@ -163,6 +187,10 @@ public enum OutputMode {
 
     public abstract void verify(final byte[] actual);
 
+    byte[] getExpectedText() {
+        throw new UnsupportedOperationException();
+    }
+
     private static void printDebugInfo(final String[] expectedLines, final String[] actualLines) {
         System.out.println("=============");
         for (int i = 0; i < Math.max(expectedLines.length, actualLines.length); i++) {
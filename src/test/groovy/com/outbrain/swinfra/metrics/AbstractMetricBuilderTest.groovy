@@ -29,6 +29,27 @@ class AbstractMetricBuilderTest extends Specification {
             "some_name"    | "some help" | ["invalid.label", "another.invalid.label"] | "The label name 'invalid.label'"
     }
 
+    @Unroll
+    def 'builder should throw exception on name #name with unit #unit'() {
+        when:
+            new MyBuilder(name, 'some help').withUnit(unit).build()
+        then:
+            final def ex = thrown Exception
+            ex.message.contains(expectedInErrorMessage)
+        where:
+            name                    | unit        | expectedInErrorMessage
+            'request_duration'      | 'seconds'   | "must end with its unit 'seconds'"
+            'request_seconds_count' | 'seconds'   | "must end with its unit 'seconds'"
+            'request_seconds'       | 'sec.onds'  | "The unit 'sec.onds'"
+    }
+
+    def 'a metric may declare its unit'() {
+        expect:
+            new Counter.CounterBuilder('request_seconds_total', 'help').withUnit('seconds').build().unit == 'seconds'
+            new Histogram.HistogramBuilder('request_seconds', 'help').withUnit('seconds').build().unit == 'seconds'
+            new Counter.CounterBuilder('requests_total', 'help').build().unit == ''
+    }
+
     private static class MyBuilder extends AbstractMetricBuilder {
 
         MyBuilder(final String name, final String help) {
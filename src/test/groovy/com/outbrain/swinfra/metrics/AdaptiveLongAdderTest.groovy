@@ -0,0 +1,167 @@
+package com.outbrain.swinfra.metrics
+
+import com.outbrain.swinfra.metrics.data.MetricDataConsumer
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+class AdaptiveLongAdderTest extends Specification {
+
+    def 'an uncontended child should count without inflating'() {
+        given:
+            final AdaptiveLongAdder adder = new AdaptiveLongAdder()
+        when:
+            adder.increment()
+            adder.add(5)
+            adder.decrement()
+        then:
+            adder.sum() == 5
+            adder.longValue() == 5
+            !adder.isInflated()
+    }
+
+    def 'an inflated child should keep counting in its stripes'() {
+        given:
+            final AdaptiveLongAdder adder = new AdaptiveLongAdder()
+            adder.add(3)
+        when:
+            adder.inflate()
+            adder.add(4)
+        then:
+            adder.isInflated()
+            adder.sum() == 7
+            adder.estimateBytes() > new AdaptiveLongAdder().estimateBytes()
+    }
+
+    def 'quiet stripes should be folded into the value'() {
+        given:
+            final AdaptiveLongAdder adder = new AdaptiveLongAdder()
+            adder.add(3)
+            adder.inflate()
+            adder.add(4)
+        when: 'the first check only records the sum of the stripes'
+            adder.deflateIfQuiet()
+        then:
+            adder.isInflated()
+        when: 'the stripes were updated since'
+            adder.add(1)
+            adder.deflateIfQuiet()
+        then:
+            adder.isInflated()
+        when: 'the stripes were not updated since'
+            adder.deflateIfQuiet()
+        then:
+            !adder.isInflated()
+            adder.sum() == 8
+            adder.estimateBytes() == new AdaptiveLongAdder().estimateBytes()
+        when:
+            adder.add(1)
+        then:
+            adder.sum() == 9
+            !adder.isInflated()
+    }
+
+    def 'updates that reach folded stripes should be added to the value'() {
+        given:
+            final AdaptiveLongAdder adder = new AdaptiveLongAdder()
+            adder.add(3)
+            final AdaptiveLongAdder.Stripes stripes = adder.inflate()
+            2.times { adder.deflateIfQuiet() }
+        when: 'an update that read the stripes before they were folded'
+            adder.addTo(stripes, 2)
+        then:
+            !adder.isInflated()
+            adder.sum() == 5
+        when:
+            adder.addTo(stripes, 4)
+            adder.add(1)
+        then:
+            adder.sum() == 10
+        when: 'the stripes of a reset child are reached late'
+            final AdaptiveLongAdder.Stripes reset = adder.inflate()
+            adder.addTo(reset, 5)
+            adder.reset()
+            adder.addTo(reset, 6)
+        then:
+            adder.sum() == 6
+    }
+
+    def 'increments should not be lost while stripes are folded concurrently'() {
+        given:
+            final AdaptiveLongAdder adder = new AdaptiveLongAdder()
+            final int threads = 4
+            final int increments = 200_000
+            final ExecutorService executor = Executors.newFixedThreadPool(threads)
+            final CountDownLatch done = new CountDownLatch(threads)
+        when:
+            threads.times {
+                executor.execute {
+                    for (int i = 0; i < increments; i++) {
+                        adder.increment()
+                    }
+                    done.countDown()
+                }
+            }
+            while (done.count > 0) {
+                adder.deflateIfQuiet()
+                adder.inflate()
+            }
+        then:
+            adder.sum() == threads * increments
+        cleanup:
+            executor.shutdown()
+    }
+
+    def 'concurrent increments should not be lost'() {
+        given:
+            final Counter counter = new Counter.CounterBuilder('name', 'help').withAdaptiveChildren().build()
+            final int threads = 4
+            final int increments = 100_000
+            final ExecutorService executor = Executors.newFixedThreadPool(threads)
+            final CountDownLatch done = new CountDownLatch(threads)
+        when:
+            threads.times {
+                executor.execute {
+                    for (int i = 0; i < increments; i++) {
+                        counter.inc()
+                    }
+                    done.countDown()
+                }
+            }
+            done.await()
+        then:
+            counter.getValue() == threads * increments
+            counter.metricForLabels() instanceof AdaptiveLongAdder
+        cleanup:
+            executor.shutdown()
+    }
+
+    def 'scrapes should deflate the quiet children'() {
+        given:
+            final Counter counter = new Counter.CounterBuilder('name', 'help').withLabels('label').withAdaptiveChildren().build()
+            counter.inc('a')
+            final AdaptiveLongAdder child = counter.metricForLabels('a') as AdaptiveLongAdder
+            child.inflate()
+            counter.inc(2, 'a')
+            final List<Long> values = []
+            final MetricDataConsumer consumer = [consumeCounter: { Metric m, List<String> l, double v -> values.add(v as long) }] as MetricDataConsumer
+        when:
+            3.times { counter.forEachMetricData(consumer) }
+        then:
+            values == [3L, 3L, 3L]
+            !child.isInflated()
+    }
+
+    def 'adaptive children cannot keep exemplars or have a single writer'() {
+        when:
+            new Counter.CounterBuilder('name', 'help').withAdaptiveChildren().withExemplars().build()
+        then:
+            thrown(IllegalArgumentException)
+        when:
+            new Counter.CounterBuilder('name', 'help').withAdaptiveChildren().withSingleWriter().build()
+        then:
+            thrown(IllegalArgumentException)
+    }
+}
@@ -0,0 +1,160 @@
+package com.outbrain.swinfra.metrics
+
+import com.outbrain.swinfra.metrics.data.MetricDataConsumer
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class AsyncRecorderTest extends Specification {
+
+    private final AsyncRecorder recorder = new AsyncRecorder.AsyncRecorderBuilder().withCapacity(1024).build()
+
+    def cleanup() {
+        recorder.close()
+    }
+
+    def 'counter increments should be applied by the aggregator'() {
+        given:
+            final Counter counter = new Counter.CounterBuilder('name', 'help').withAsyncRecording(recorder).build()
+            final Counter.Child child = counter.bind()
+        when:
+            child.inc()
+            child.inc(2)
+        then:
+            child.getValue() == 3
+            counter.getValue() == 3
+            recorder.getBacklog() == 0
+    }
+
+    def 'metrics should be flushed before they are exported'() {
+        given:
+            final Histogram histogram = new Histogram.HistogramBuilder('name', 'help')
+                .withLabels('label')
+                .withBuckets(1, 5)
+                .withAsyncRecording(recorder)
+                .build()
+            final Histogram.Child child = histogram.bind('a')
+            final Map<List<String>, Long> counts = [:]
+            final MetricDataConsumer consumer = [consumeHistogram: { Metric m, List<String> l, data -> counts[new ArrayList<>(l)] = data.getCount() }] as MetricDataConsumer
+        when:
+            child.observe(0.5)
+            child.observe(3)
+            child.recordTicks(7)
+            histogram.observe(2, 'b')
+            histogram.forEachMetricData(consumer)
+        then:
+            counts == [['a']: 3L, ['b']: 1L]
+            histogram.metricForLabels('a').getValues().getBuckets() == [1, 2, 3] as long[]
+            histogram.metricForLabels('a').getValues().getSum() == 10.5
+    }
+
+    def 'updates from many threads should all be applied'() {
+        given:
+            final AsyncRecorder blocking = new AsyncRecorder.AsyncRecorderBuilder()
+                .withCapacity(64)
+                .withOverflowPolicy(AsyncRecorder.OverflowPolicy.BLOCK)
+                .build()
+            final Counter counter = new Counter.CounterBuilder('name', 'help').withLabels('label').withAsyncRecording(blocking).build()
+            final List<Counter.Child> children = [counter.bind('a'), counter.bind('b')]
+            final int threads = 4
+            final int increments = 50_000
+            final ExecutorService executor = Executors.newFixedThreadPool(threads)
+            final CountDownLatch done = new CountDownLatch(threads)
+        when:
+            threads.times { final int thread ->
+                executor.execute {
+                    for (int i = 0; i < increments; i++) {
+                        children[thread % 2].inc()
+                    }
+                    done.countDown()
+                }
+            }
+            done.await(30, TimeUnit.SECONDS)
+        then:
+            counter.getValue('a') == threads * increments / 2
+            counter.getValue('b') == threads * increments / 2
+            blocking.getDropped() == 0
+        cleanup:
+            executor.shutdown()
+            blocking.close()
+    }
+
+    def 'binding the same child again should reuse its registration'() {
+        given:
+            final Counter counter = new Counter.CounterBuilder('name', 'help').withLabels('label').withAsyncRecording(recorder).build()
+        when:
+            3.times { counter.bind('a').inc() }
+            counter.bind('b').inc()
+        then:
+            recorder.targets.length == 2
+            counter.getValue('a') == 3
+            counter.getValue('b') == 1
+    }
+
+    def 'an update that fails to be applied should be dropped without stopping the aggregator'() {
+        given:
+            final AsyncRecorder blocking = new AsyncRecorder.AsyncRecorderBuilder()
+                .withCapacity(4)
+                .withOverflowPolicy(AsyncRecorder.OverflowPolicy.BLOCK)
+                .build()
+            final int broken = blocking.register(new Object(), { long value -> throw new IllegalStateException() } as AsyncRecorder.Target)
+            final Counter counter = new Counter.CounterBuilder('name', 'help').withAsyncRecording(blocking).build()
+            final Counter.Child child = counter.bind()
+        when:
+            10.times { blocking.publish(broken, 1) }
+            10.times { child.inc() }
+        then:
+            counter.getValue() == 10
+            blocking.getDropped() == 10
+        cleanup:
+            blocking.close()
+    }
+
+    def 'updates that do not fit should be dropped and counted'() {
+        given: 'a recorder whose aggregator is not running, since nothing was bound to it'
+            final AsyncRecorder small = new AsyncRecorder.AsyncRecorderBuilder().withCapacity(4).build()
+        when:
+            5.times { small.publish(0, 1) }
+        then:
+            small.getBacklog() == 4
+            small.getDropped() == 1
+    }
+
+    def 'updates should be dropped and counted once the recorder is closed'() {
+        given:
+            final AsyncRecorder small = new AsyncRecorder.AsyncRecorderBuilder().withCapacity(4).build()
+            final Counter counter = new Counter.CounterBuilder('name', 'help').withAsyncRecording(small).build()
+            final Counter.Child child = counter.bind()
+        when:
+            small.close()
+            child.inc()
+        then:
+            small.getDropped() == 1
+            counter.getValue() == 0
+        when:
+            small.publish(0, 1)
+        then:
+            small.getDropped() == 2
+    }
+
+    def 'recorder metrics should be registered'() {
+        given:
+            final MetricRegistry registry = new MetricRegistry()
+        when:
+            recorder.registerMetricsTo(registry)
+        then:
+            new MetricCollector(registry).collect { it.name } as Set == ['metrics_async_dropped_total', 'metrics_async_backlog'] as Set
+    }
+
+    def 'invalid settings should be rejected'() {
+        when:
+            new AsyncRecorder.AsyncRecorderBuilder().withCapacity(capacity)
+        then:
+            thrown(IllegalArgumentException)
+        where:
+            capacity << [0, -1, 3, 1000]
+    }
+}
@@ -1,5 +1,7 @@
 package com.outbrain.swinfra.metrics
 
+import com.outbrain.swinfra.metrics.children.ChildOrder
+import com.outbrain.swinfra.metrics.children.DenseChildrenRepo
 import com.outbrain.swinfra.metrics.children.MetricData
 import com.outbrain.swinfra.metrics.data.MetricDataConsumer
 import spock.lang.Specification
@@ -34,6 +36,48 @@ class CounterTest extends Specification {
             0 * metricDataConsumer._
     }
 
+    @Unroll
+    def 'Counter with #order children should export them as #expectedOrder'() {
+        given:
+            final Counter counter = new CounterBuilder(NAME, HELP).withLabels('a').withChildOrder(order).build()
+            final List<List<String>> exported = []
+            final MetricDataConsumer consumer = Mock(MetricDataConsumer) {
+                consumeCounter(counter, _, _) >> { metric, labelValues, value -> exported << labelValues }
+            }
+
+        when:
+            ['c', 'a', 'b'].each { counter.inc(it) }
+            counter.forEachMetricData(consumer)
+            counter.inc('a')
+            counter.forEachMetricData(consumer)
+
+        then:
+            exported == expectedOrder + expectedOrder
+
+        where:
+            order                   | expectedOrder
+            ChildOrder.INSERTION    | [['c'], ['a'], ['b']]
+            ChildOrder.LABEL_VALUES | [['a'], ['b'], ['c']]
+    }
+
+    def 'Counter with ordered children should export a child that was added after the previous export'() {
+        given:
+            final Counter counter = new CounterBuilder(NAME, HELP).withLabels('a').withChildOrder(ChildOrder.LABEL_VALUES).build()
+            counter.inc('b')
+            counter.forEachMetricData(Mock(MetricDataConsumer))
+
+        when:
+            counter.inc('a')
+            counter.forEachMetricData(metricDataConsumer)
+
+        then:
+            1 * metricDataConsumer.consumeCounter(counter, ['a'], 1)
+
+        then:
+            1 * metricDataConsumer.consumeCounter(counter, ['b'], 1)
+            0 * metricDataConsumer._
+    }
+
     @Unroll
     def 'Counter should return #expectedValue after incrementing #increment times'() {
         given:
@@ -194,4 +238,180 @@ class CounterTest extends Specification {
         where:
             labels << [[], ["v1", ""], ["v1", "v2", "v3"]]
     }
+
+    def 'incWithExemplar should increment the counter whether exemplars are on or off'() {
+        given:
+            final Counter withExemplars = new CounterBuilder(NAME, HELP).withLabels('a').withExemplars().build()
+            final Counter withoutExemplars = new CounterBuilder(NAME, HELP).withLabels('a').build()
+        when:
+            withExemplars.incWithExemplar(3, ['trace_id': 'abc'], 'A')
+            withoutExemplars.incWithExemplar(['trace_id': 'abc'], 'A')
+        then:
+            withExemplars.getValue('A') == 3
+            withoutExemplars.getValue('A') == 1
+    }
+
+    def 'children should share interned label values and not keep the caller\'s array'() {
+        given:
+            final Counter first = new CounterBuilder(NAME, HELP).withLabels('method').build()
+            final Counter second = new CounterBuilder('other', HELP).withLabels('method').build()
+            final String[] labelValues = [new String('GET')] as String[]
+        when:
+            first.inc(labelValues)
+            second.inc(new String('GET'))
+            labelValues[0] = 'POST'
+        then:
+            first.getValue('GET') == 1
+            first.getChildCount() == 1
+            labelValueOf(first).is(labelValueOf(second))
+            labelValueOf(first) == 'GET'
+    }
+
+    private static String labelValueOf(final Counter counter) {
+        String value = null
+        counter.forEachChild({ MetricData data -> value = data.labelValues[0] } as Consumer)
+        return value
+    }
+
+    private enum Method {
+        GET, POST
+    }
+
+    def 'Counter with label domains should pre-create its children and reach them by enum and int values'() {
+        given:
+            final Counter counter = new CounterBuilder(NAME, HELP).withLabelDomain('method', Method).withIntLabel('status', 200, 202).build()
+        when:
+            counter.inc(Method.POST, 201)
+            counter.inc(2, Method.POST, 201)
+            counter.inc('GET', '200')
+        then:
+            counter.getChildCount() == 6
+            counter.getValue('POST', '201') == 3
+            counter.getValue('GET', '200') == 1
+            counter.labelNames == ['method', 'status']
+            childLabelValues(counter) == [['GET', '200'], ['GET', '201'], ['GET', '202'], ['POST', '200'], ['POST', '201'], ['POST', '202']]
+    }
+
+    def 'Counter with a single int label domain should be incremented by its value'() {
+        given:
+            final Counter counter = new CounterBuilder(NAME, HELP).withLabels('status').withIntLabel('status', 1, 5).build()
+        when:
+            counter.inc(1, 3)
+            counter.inc(4, 3)
+        then:
+            counter.getValue('3') == 5
+    }
+
+    @Unroll
+    def 'Counter with label domains should reject values outside of them: #description'() {
+        given:
+            final Counter counter = new CounterBuilder(NAME, HELP).withLabelDomain('method', Method).withIntLabel('status', 200, 202).build()
+        when:
+            update(counter)
+        then:
+            thrown(expected)
+        where:
+            description         | update                                  | expected
+            'int too large'     | { Counter c -> c.inc(Method.GET, 203) } | IllegalArgumentException
+            'int too small'     | { Counter c -> c.inc(Method.GET, 199) } | IllegalArgumentException
+            'unknown string'    | { Counter c -> c.inc('PUT', '200') }    | IllegalArgumentException
+            'wrong label count' | { Counter c -> c.inc(Method.GET) }      | IllegalArgumentException
+    }
+
+    def 'primitive label values should only be accepted by metrics with label domains'() {
+        given:
+            final Counter counter = new CounterBuilder(NAME, HELP).withLabels('method').build()
+        when:
+            counter.inc(Method.GET)
+        then:
+            thrown(IllegalStateException)
+    }
+
+    @Unroll
+    def 'builder should reject label domains that do not cover all the labels: #description'() {
+        when:
+            builder().build()
+        then:
+            thrown(IllegalArgumentException)
+        where:
+            description        | builder
+            'partial domains'  | { -> new CounterBuilder(NAME, HELP).withLabels('method', 'path').withLabelDomain('method', Method) }
+            'replaced labels'  | { -> new CounterBuilder(NAME, HELP).withLabelDomain('method', Method).withLabels('path') }
+            'empty int range'  | { -> new CounterBuilder(NAME, HELP).withIntLabel('status', 2, 1) }
+            'huge int range'   | { -> new CounterBuilder(NAME, HELP).withIntLabel('status', 0, Integer.MAX_VALUE - 1) }
+            'full int range'   | { -> new CounterBuilder(NAME, HELP).withIntLabel('status', Integer.MIN_VALUE, Integer.MAX_VALUE) }
+            'too many ints'    | { -> new CounterBuilder(NAME, HELP).withIntLabel('status', 1, DenseChildrenRepo.MAX_CHILDREN + 1) }
+    }
+
+    def 'A bound child should increment the child of its label values'() {
+        given:
+            final Counter counter = new CounterBuilder(NAME, HELP).withLabels('l1').build()
+            final Counter.Child child = counter.bind('a')
+        when:
+            child.inc()
+            child.inc(2)
+            counter.inc('a')
+        then:
+            child.getValue() == 4
+            counter.getValue('a') == 4
+            counter.getChildCount() == 1
+        when:
+            counter.bind('a', 'b')
+        then:
+            thrown(IllegalArgumentException)
+    }
+
+    def 'a single writer counter should count like a regular counter'() {
+        given:
+            final Counter counter = new CounterBuilder(NAME, HELP).withLabels('label').withSingleWriter().build()
+            final Counter.Child child = counter.bind('a')
+        when:
+            counter.inc('a')
+            counter.inc(2, 'a')
+            child.inc()
+            counter.inc('b')
+        then:
+            counter.getValue('a') == 4
+            counter.getValue('b') == 1
+            child.getValue() == 4
+            counter.getEstimatedBytes() > 0
+    }
+
+    def 'a single writer counter cannot keep exemplars'() {
+        when:
+            new CounterBuilder(NAME, HELP).withSingleWriter().withExemplars().build()
+        then:
+            thrown(IllegalArgumentException)
+    }
+
+    def 'the single writer assertion should detect a second writer'() {
+        given:
+            final WriterAssertion assertion = new WriterAssertion(true)
+            Throwable failure = null
+        when:
+            assertion.isOnlyWriter()
+            final Thread second = new Thread({
+                try {
+                    assertion.isOnlyWriter()
+                } catch (final AssertionError e) {
+                    failure = e
+                }
+            })
+            second.start()
+            second.join()
+        then:
+            assertion.isOnlyWriter()
+            failure instanceof AssertionError
+        when:
+            final WriterAssertion disabled = new WriterAssertion(false)
+            Thread.start { disabled.isOnlyWriter() }.join()
+        then:
+            disabled.isOnlyWriter()
+    }
+
+    private static List<List<String>> childLabelValues(final Counter counter) {
+        final List<List<String>> labelValues = []
+        counter.forEachChild({ MetricData data -> labelValues.add(data.labelValues) } as Consumer)
+        return labelValues
+    }
 }
@@ -139,6 +139,17 @@ class GaugeTest extends Specification {
             ex.message.contains("value supplier")
     }
 
+    def 'GaugeBuilder should throw an exception when a label has a domain'() {
+        when:
+            new GaugeBuilder(NAME, HELP)
+                    .withIntLabel("status", 1, 2)
+                    .withValueSupplier({ 1d } as DoubleSupplier, "1")
+                    .build()
+
+        then:
+            thrown IllegalArgumentException
+    }
+
     def 'GaugeBuilder should throw an exception on null value supplier'() {
         when:
             new GaugeBuilder(NAME, HELP)
@@ -5,7 +5,9 @@ import com.outbrain.swinfra.metrics.timing.Timer
 import spock.lang.Specification
 import spock.lang.Unroll
 
+import java.util.concurrent.Callable
 import java.util.function.Consumer
+import java.util.function.Supplier
 
 import static com.outbrain.swinfra.metrics.Histogram.Buckets
 import static com.outbrain.swinfra.metrics.Histogram.HistogramBuilder
@@ -181,4 +183,186 @@ class HistogramTest extends Specification {
         where:
             labels << [[], ["v1", ""], ["v1", "v2", "v3"]]
     }
+
+    def 'observeWithExemplar should keep an exemplar for the bucket the value was added to'() {
+        given:
+            final Histogram histogram = new HistogramBuilder(NAME, HELP).withBuckets(1, 10).withExemplars().build()
+        when:
+            histogram.observeWithExemplar(5, ['trace_id': 'abc'])
+            histogram.forEachChild(consumer)
+        then:
+            1 * consumer.accept({
+                it.metric.values.buckets == [0, 1, 1] &&
+                it.metric.values.getExemplar(0) == null &&
+                it.metric.values.getExemplar(1).labels == ['trace_id': 'abc'] &&
+                it.metric.values.getExemplar(1).value == 5 &&
+                it.metric.values.getExemplar(2) == null
+            })
+    }
+
+    def 'observeWithExemplar should only observe the value when exemplars are off'() {
+        given:
+            final Histogram histogram = new HistogramBuilder(NAME, HELP).withBuckets(1, 10).build()
+        when:
+            histogram.observeWithExemplar(5, ['trace_id': 'abc'])
+            histogram.forEachChild(consumer)
+        then:
+            1 * consumer.accept({ it.metric.values.buckets == [0, 1, 1] && it.metric.values.getExemplar(1) == null })
+    }
+
+    private enum Operation {
+        READ, WRITE
+    }
+
+    def 'Histogram with label domains should observe by enum and int label values'() {
+        given:
+            final Histogram byOperation = new HistogramBuilder(NAME, HELP).withBuckets(1, 10).withLabelDomain('operation', Operation).build()
+            final Histogram byShard = new HistogramBuilder(NAME, HELP).withBuckets(1, 10).withIntLabel('shard', 0, 3).build()
+            final Histogram byBoth = new HistogramBuilder(NAME, HELP).withBuckets(1, 10).withLabelDomain('operation', Operation).withIntLabel('shard', 0, 3).build()
+        when:
+            byOperation.observe(5, Operation.WRITE)
+            byShard.observe(5, 2)
+            byBoth.observe(5, Operation.WRITE, 2)
+            byBoth.observe(0.5, 'WRITE', '2')
+        then:
+            byOperation.metricForLabels('WRITE').getValues().getCount() == 1
+            byOperation.metricForLabels('READ').getValues().getCount() == 0
+            byShard.metricForLabels('2').getValues().getCount() == 1
+            byBoth.metricForLabels('WRITE', '2').getValues().getCount() == 2
+            byBoth.getChildCount() == 8
+    }
+
+    def 'Histogram should record intervals without a timer'() {
+        given:
+            final TestClock clock = new TestClock()
+            final Histogram histogram = new HistogramBuilder(NAME, HELP).withClock(clock).withBuckets(1.5, 2.5).build()
+        when:
+            histogram.recordNanos(1)
+            histogram.time({ clock.tick += 2 } as Runnable)
+            final String result = histogram.timeSupplier({ clock.tick += 3; 'result' } as Supplier)
+            final String called = histogram.time({ 'called' } as Callable)
+        then:
+            result == 'result'
+            called == 'called'
+            histogram.metricForLabels().getValues().getBuckets() == [2, 3, 4] as long[]
+            histogram.metricForLabels().getValues().getSum() == 6
+    }
+
+    def 'A bound child should record intervals into its own child'() {
+        given:
+            final TestClock clock = new TestClock()
+            final Histogram histogram = new HistogramBuilder(NAME, HELP).withClock(clock).withLabels('l1').withBuckets(1.5, 2.5).build()
+            final Histogram.Child child = histogram.bind('a')
+            final Timer timer = child.newTimer()
+        when:
+            clock.tick = 10
+            timer.restart()
+            clock.tick = 12
+            timer.stop()
+            child.observe(1)
+            child.time({ clock.tick += 3 } as Runnable)
+        then:
+            histogram.metricForLabels('a').getValues().getBuckets() == [1, 2, 3] as long[]
+            histogram.getChildCount() == 1
+    }
+
+    def 'recording an interval should validate the label values'() {
+        given:
+            final Histogram labeled = new HistogramBuilder(NAME, HELP).withLabels('l1').build()
+        when:
+            update(labeled)
+        then:
+            thrown(IllegalArgumentException)
+        where:
+            update << [{ Histogram h -> h.recordNanos(1) }, { Histogram h -> h.startTimer() }, { Histogram h -> h.bind('a', 'b') }]
+    }
+
+    @Unroll
+    def 'observing with an expected interval should add the missing values like adding them one by one: #value, #interval'() {
+        given:
+            final double[] bounds = [1, 2.5, 4, 10, 50, 100] as double[]
+            final Histogram corrected = new HistogramBuilder(NAME, HELP).withBuckets(bounds).build()
+            final Histogram oneByOne = new HistogramBuilder(NAME, HELP).withBuckets(bounds).build()
+        when:
+            corrected.observeWithExpectedInterval(value, interval)
+            oneByOne.observe(value)
+            for (double missing = value - interval; missing >= interval; missing -= interval) {
+                oneByOne.observe(missing)
+            }
+        then:
+            corrected.metricForLabels().getValues().getBuckets() == oneByOne.metricForLabels().getValues().getBuckets()
+            Math.abs(corrected.metricForLabels().getValues().getSum() - oneByOne.metricForLabels().getValues().getSum()) < 1e-6
+        where:
+            value | interval
+            0.5   | 1
+            1.5   | 1
+            2     | 1
+            10    | 1
+            10    | 2.5
+            37.25 | 0.75
+            250   | 3
+    }
+
+    def 'a histogram with an expected interval should correct its observations and intervals'() {
+        given:
+            final TestClock clock = new TestClock()
+            final Histogram histogram = new HistogramBuilder(NAME, HELP)
+                .withClock(clock)
+                .withBuckets(1, 2)
+                .withExpectedInterval(1)
+                .build()
+        when:
+            histogram.observe(1)
+            clock.tick = 10
+            final Timer timer = histogram.startTimer()
+            clock.tick = 13
+            timer.stop()
+        then:
+            // 1, then 3 and the missing 2 and 1
+            histogram.metricForLabels().getValues().getBuckets() == [2, 3, 4] as long[]
+            histogram.metricForLabels().getValues().getSum() == 7
+    }
+
+    def 'a histogram with exemplars and an expected interval should correct its observations'() {
+        given:
+            final Histogram histogram = new HistogramBuilder(NAME, HELP)
+                .withBuckets(1, 2)
+                .withExpectedInterval(1)
+                .withExemplars()
+                .build()
+        when:
+            histogram.observeWithExemplar(3, ['trace_id': 'abc'])
+        then:
+            histogram.metricForLabels().getValues().getBuckets() == [1, 2, 3] as long[]
+    }
+
+    def 'a single writer histogram should count like a regular histogram'() {
+        given:
+            final Histogram histogram = new HistogramBuilder(NAME, HELP)
+                .withLabels('label')
+                .withBuckets(1, 2)
+                .withExpectedInterval(1)
+                .withSingleWriter()
+                .build()
+            final Histogram regular = new HistogramBuilder(NAME, HELP).withLabels('label').withBuckets(1, 2).withExpectedInterval(1).build()
+        when:
+            [0.5, 1.5, 3, 10].each {
+                histogram.observe(it, 'a')
+                regular.observe(it, 'a')
+            }
+            histogram.observeWithExpectedInterval(4, 2, 'a')
+            regular.observeWithExpectedInterval(4, 2, 'a')
+        then:
+            histogram.metricForLabels('a') instanceof Histogram.SingleWriterBuckets
+            histogram.metricForLabels('a').getValues().getBuckets() == regular.metricForLabels('a').getValues().getBuckets()
+            histogram.metricForLabels('a').getValues().getSum() == regular.metricForLabels('a').getValues().getSum()
+            histogram.getEstimatedBytes() > 0
+    }
+
+    def 'a single writer histogram cannot keep exemplars'() {
+        when:
+            new HistogramBuilder(NAME, HELP).withSingleWriter().withExemplars().build()
+        then:
+            thrown(IllegalArgumentException)
+    }
 }
@@ -0,0 +1,142 @@
+package com.outbrain.swinfra.metrics
+
+import com.outbrain.swinfra.metrics.data.MetricDataConsumer
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class LongTaskTimerTest extends Specification {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1)
+
+    private final TestClock clock = new TestClock()
+
+    def 'running tasks should be reported until they are stopped'() {
+        given:
+            final LongTaskTimer timer = new LongTaskTimer.LongTaskTimerBuilder('requests', 'help').withClock(clock).build()
+        when:
+            clock.tick = 10
+            final long first = timer.start()
+            clock.tick = 15
+            final long second = timer.start()
+            clock.tick = 20
+        then:
+            timer.getActiveTasks() == 2
+            timer.getActiveNanos() == 15
+            timer.getMaxActiveNanos() == 10
+        when:
+            final long firstDuration = timer.stop(first)
+        then:
+            firstDuration == 10
+            timer.getActiveTasks() == 1
+            timer.getActiveNanos() == 5
+            timer.getMaxActiveNanos() == 5
+        when:
+            timer.stop(second)
+        then:
+            timer.getActiveTasks() == 0
+            timer.getActiveNanos() == 0
+            timer.getMaxActiveNanos() == 0
+    }
+
+    def 'stopping a task twice should not stop the task that took its slot'() {
+        given:
+            final LongTaskTimer timer = new LongTaskTimer.LongTaskTimerBuilder('requests', 'help')
+                .withClock(clock)
+                .withMaxActiveTasks(1)
+                .build()
+        when:
+            final long first = timer.start()
+            timer.stop(first)
+            final long second = timer.start()
+        then:
+            timer.stop(first) == -1
+            timer.getActiveTasks() == 1
+            timer.stop(second) == 0
+            timer.stop(LongTaskTimer.UNTRACKED) == -1
+    }
+
+    def 'tasks that start when all the slots are taken should be counted as overflows'() {
+        given:
+            final LongTaskTimer timer = new LongTaskTimer.LongTaskTimerBuilder('requests', 'help')
+                .withMaxActiveTasks(4)
+                .withStripes(2)
+                .build()
+            final MetricRegistry registry = new MetricRegistry()
+            timer.registerMetricsTo(registry)
+        when:
+            final List<Long> tasks = (1..5).collect { timer.start() }
+        then:
+            timer.getMaxActiveTasks() == 4
+            tasks.count { it == LongTaskTimer.UNTRACKED } == 1
+            timer.getActiveTasks() == 4
+            (metric(registry, 'requests_overflows_total') as Counter).getValue() == 1
+        when:
+            timer.stop(tasks[0])
+        then:
+            timer.start() != LongTaskTimer.UNTRACKED
+    }
+
+    def 'the metrics should be computed when they are exported'() {
+        given:
+            final LongTaskTimer timer = new LongTaskTimer.LongTaskTimerBuilder('requests', 'help')
+                .withClock(clock)
+                .withBuckets(5 / NANOS_PER_SECOND, 2 / NANOS_PER_SECOND)
+                .build()
+            final MetricRegistry registry = new MetricRegistry()
+            timer.registerMetricsTo(registry)
+        when:
+            clock.tick = 0
+            timer.start()
+            clock.tick = 6
+            timer.start()
+            clock.tick = 9
+            timer.start()
+            clock.tick = 10
+        then:
+            gauge(registry, 'requests_active_tasks') == 3
+            Math.round(gauge(registry, 'requests_active_seconds') * NANOS_PER_SECOND) == 15
+            Math.round(gauge(registry, 'requests_active_max_seconds') * NANOS_PER_SECOND) == 10
+            timer.activeDurations().getCounts() == [1, 2, 3] as long[]
+            metric(registry, 'requests_active_duration_seconds').getType().getName() == 'histogram'
+    }
+
+    def 'tasks should be tracked correctly by concurrent threads'() {
+        given:
+            final LongTaskTimer timer = new LongTaskTimer.LongTaskTimerBuilder('requests', 'help').withMaxActiveTasks(64).build()
+            final ExecutorService executor = Executors.newFixedThreadPool(8)
+            final CountDownLatch done = new CountDownLatch(8)
+        when:
+            8.times {
+                executor.execute {
+                    10_000.times {
+                        final long task = timer.start()
+                        assert task != LongTaskTimer.UNTRACKED
+                        assert timer.stop(task) >= 0
+                    }
+                    done.countDown()
+                }
+            }
+            done.await(30, TimeUnit.SECONDS)
+        then:
+            timer.getActiveTasks() == 0
+            (1..64).collect { timer.start() }.every { it != LongTaskTimer.UNTRACKED }
+        cleanup:
+            executor.shutdown()
+    }
+
+    private static Metric metric(final MetricRegistry registry, final String name) {
+        return new MetricCollector(registry).find { it.name == name }
+    }
+
+    private static double gauge(final MetricRegistry registry, final String name) {
+        double gaugeValue = Double.NaN
+        metric(registry, name).forEachMetricData([consumeGauge: { Metric metric, List<String> labelValues, double value ->
+            gaugeValue = value
+        }] as MetricDataConsumer)
+        return gaugeValue
+    }
+}
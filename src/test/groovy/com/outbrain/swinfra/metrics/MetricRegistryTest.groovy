@@ -98,6 +98,26 @@ class MetricRegistryTest extends Specification {
             thrown(ClassCastException)
     }
 
+    def 'MetricRegistry should register a metric once and refuse a different metric with the same name'() {
+        given:
+            final MetricRegistry registry = new MetricRegistry()
+            final Counter counter = new CounterBuilder("name", "help").build()
+
+        when:
+            registry.register(counter)
+            registry.register(counter)
+
+        then:
+            registry.all() as List == [counter]
+
+        when:
+            registry.register(new CounterBuilder("name", "help").build())
+
+        then:
+            thrown(IllegalArgumentException)
+            registry.all() as List == [counter]
+    }
+
     def 'MetricRegistry should remain empty after registering and deregistering a metric'() {
         given:
             final MetricRegistry registry = new MetricRegistry()
@@ -152,4 +172,59 @@ class MetricRegistryTest extends Specification {
             registry.all().size() == 1
             registry.all().contains(counter2)
     }
+
+    def 'MetricRegistry should find metrics by name and by name prefix'() {
+        given:
+            final MetricRegistry registry = new MetricRegistry()
+            final Counter jvmThreads = registry.getOrRegister(new CounterBuilder("jvm_threads", "help").build())
+            final Counter jvmClasses = registry.getOrRegister(new CounterBuilder("jvm_classes", "help").build())
+            registry.getOrRegister(new CounterBuilder("http_requests", "help").build())
+
+        expect:
+            registry.get("jvm_threads").is(jvmThreads)
+            registry.get("jvm") == null
+            registry.allWithPrefix("jvm_").toList() == [jvmClasses, jvmThreads]
+            registry.allWithPrefix("process_").empty
+    }
+
+    def 'MetricRegistry should remove a deregistered metric from its name index'() {
+        given:
+            final MetricRegistry registry = new MetricRegistry()
+            final Counter counter = registry.getOrRegister(new CounterBuilder("jvm_threads", "help").build())
+
+        when:
+            registry.deregister(counter)
+
+        then:
+            registry.get("jvm_threads") == null
+            registry.allWithPrefix("jvm_").empty
+    }
+
+    def 'MetricRegistry should return its metrics sorted by name and reuse the sorted list until it changes'() {
+        given:
+            final MetricRegistry registry = new MetricRegistry()
+            final Counter second = registry.getOrRegister(new CounterBuilder("b_metric", "help").build())
+            final Counter first = registry.getOrRegister(new CounterBuilder("a_metric", "help").build())
+            final Collection<Metric> sorted = registry.all()
+
+        expect:
+            sorted.toList() == [first, second]
+            registry.all().is(sorted)
+
+        when:
+            final Counter third = registry.getOrRegister(new CounterBuilder("c_metric", "help").build())
+            registry.getOrRegister(new CounterBuilder("a_metric", "help").build())
+
+        then:
+            registry.all().toList() == [first, second, third]
+            !registry.all().is(sorted)
+
+        when:
+            final Collection<Metric> beforeRemoval = registry.all()
+            registry.deregister(second)
+
+        then:
+            registry.all().toList() == [first, third]
+            !registry.all().is(beforeRemoval)
+    }
 }
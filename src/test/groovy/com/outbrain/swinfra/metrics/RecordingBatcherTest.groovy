@@ -0,0 +1,179 @@
+package com.outbrain.swinfra.metrics
+
+import com.outbrain.swinfra.metrics.data.MetricDataConsumer
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class RecordingBatcherTest extends Specification {
+
+    private final RecordingBatcher batcher = new RecordingBatcher.RecordingBatcherBuilder()
+        .withBatchSize(4)
+        .withMaxDelay(1, TimeUnit.HOURS)
+        .build()
+
+    def cleanup() {
+        batcher.close()
+    }
+
+    def 'counter increments should be flushed when a batch is full'() {
+        given:
+            final Counter counter = new Counter.CounterBuilder('name', 'help').withBatching(batcher).build()
+            final Counter.Child child = counter.bind()
+        when:
+            child.inc()
+            child.inc(2)
+        then:
+            counter.metricForLabels().longValue() == 0
+        when:
+            child.inc()
+        then:
+            counter.metricForLabels().longValue() == 4
+        when:
+            child.inc()
+        then:
+            counter.metricForLabels().longValue() == 4
+            counter.getValue() == 5
+            child.getValue() == 5
+    }
+
+    def 'counters should be flushed before they are exported'() {
+        given:
+            final Counter counter = new Counter.CounterBuilder('name', 'help').withLabels('label').withBatching(batcher).build()
+            final Counter.Child child = counter.bind('a')
+            final Map<List<String>, Double> values = [:]
+            final MetricDataConsumer consumer = [consumeCounter: { Metric m, List<String> l, double v -> values[new ArrayList<>(l)] = v }] as MetricDataConsumer
+        when:
+            child.inc()
+            counter.inc('b')
+            counter.forEachMetricData(consumer)
+        then:
+            values == [['a']: 1d, ['b']: 1d]
+    }
+
+    def 'histogram observations should be assigned to their buckets when they are flushed'() {
+        given:
+            final Histogram histogram = new Histogram.HistogramBuilder('name', 'help')
+                .withBuckets(1, 5)
+                .withBatching(batcher)
+                .build()
+            final Histogram.Child child = histogram.bind()
+        when:
+            child.observe(0.5)
+            child.observe(3)
+            child.observe(7)
+        then:
+            histogram.metricForLabels().getValues().getCount() == 0
+        when:
+            child.observe(4)
+            child.observe(8)
+        then:
+            histogram.metricForLabels().getValues().getBuckets() == [1, 3, 4] as long[]
+        when:
+            batcher.flush()
+        then:
+            histogram.metricForLabels().getValues().getBuckets() == [1, 3, 5] as long[]
+            histogram.metricForLabels().getValues().getSum() == 22.5
+    }
+
+    def 'batched histograms should still be corrected for coordinated omission'() {
+        given:
+            final Histogram histogram = new Histogram.HistogramBuilder('name', 'help')
+                .withBuckets(1, 5)
+                .withExpectedInterval(1)
+                .withBatching(batcher)
+                .build()
+        when:
+            histogram.bind().observe(3)
+            batcher.flush()
+        then:
+            histogram.metricForLabels().getValues().getBuckets() == [1, 3, 3] as long[]
+    }
+
+    def 'the buffers of threads that terminated should be flushed and dropped'() {
+        given:
+            final Counter counter = new Counter.CounterBuilder('name', 'help').withBatching(batcher).build()
+            final Counter.Child child = counter.bind()
+            final ExecutorService executor = Executors.newFixedThreadPool(3)
+            final CountDownLatch done = new CountDownLatch(3)
+        when:
+            3.times {
+                executor.execute {
+                    child.inc()
+                    done.countDown()
+                }
+            }
+            done.await()
+        then:
+            batcher.getBufferCount() == 3
+        when:
+            executor.shutdown()
+            executor.awaitTermination(10, TimeUnit.SECONDS)
+            batcher.flush()
+        then:
+            counter.metricForLabels().longValue() == 3
+            batcher.getBufferCount() == 0
+    }
+
+    def 'buffers should be flushed periodically'() {
+        given:
+            final RecordingBatcher periodic = new RecordingBatcher.RecordingBatcherBuilder()
+                .withMaxDelay(1, TimeUnit.MILLISECONDS)
+                .build()
+            final Counter counter = new Counter.CounterBuilder('name', 'help').withBatching(periodic).build()
+        when:
+            counter.bind().inc()
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10)
+            while (counter.metricForLabels().longValue() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(1)
+            }
+        then:
+            counter.metricForLabels().longValue() == 1
+        cleanup:
+            periodic.close()
+    }
+
+    def 'concurrent increments should not be lost when flushing at the same time'() {
+        given:
+            final Counter counter = new Counter.CounterBuilder('name', 'help').withBatching(batcher).build()
+            final Counter.Child child = counter.bind()
+            final int threads = 4
+            final int increments = 100_000
+            final ExecutorService executor = Executors.newFixedThreadPool(threads)
+            final CountDownLatch done = new CountDownLatch(threads)
+        when:
+            threads.times {
+                executor.execute {
+                    for (int i = 0; i < increments; i++) {
+                        child.inc()
+                    }
+                    done.countDown()
+                }
+            }
+            while (done.count > 0) {
+                batcher.flush()
+            }
+        then:
+            counter.getValue() == threads * increments
+        cleanup:
+            executor.shutdown()
+    }
+
+    def 'invalid settings should be rejected'() {
+        when:
+            new RecordingBatcher.RecordingBatcherBuilder().withBatchSize(0)
+        then:
+            thrown(IllegalArgumentException)
+        when:
+            new RecordingBatcher.RecordingBatcherBuilder().withMaxDelay(0, TimeUnit.SECONDS)
+        then:
+            thrown(IllegalArgumentException)
+        when:
+            new Counter.CounterBuilder('name', 'help').withBatching(null)
+        then:
+            thrown(NullPointerException)
+    }
+}
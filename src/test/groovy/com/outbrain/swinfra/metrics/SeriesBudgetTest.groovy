@@ -0,0 +1,165 @@
+package com.outbrain.swinfra.metrics
+
+import com.outbrain.swinfra.metrics.children.MetricData
+import spock.lang.Specification
+
+import java.util.function.Consumer
+
+import static com.outbrain.swinfra.metrics.Counter.CounterBuilder
+import static com.outbrain.swinfra.metrics.SeriesBudget.OverflowPolicy.FOLD
+import static com.outbrain.swinfra.metrics.SeriesBudget.SeriesBudgetBuilder
+
+class SeriesBudgetTest extends Specification {
+
+    def 'children that exceed the series budget should be refused by default'() {
+        given:
+            final SeriesBudget budget = new SeriesBudgetBuilder().withMaxSeries(2).build()
+            final MetricRegistry registry = new MetricRegistry(budget)
+            final Counter counter = registry.getOrRegister(new CounterBuilder('counter', 'help').withLabels('label').build())
+        when:
+            counter.inc('a')
+            counter.inc('b')
+            counter.inc('c')
+            counter.inc('a')
+        then:
+            labelValuesOf(counter) == [['a'], ['b']] as Set
+            counter.getValue('a') == 2
+            budget.series == 2
+            budget.overflows.getValue() == 1
+    }
+
+    def 'children that exceed the series budget should be folded into a single child'() {
+        given:
+            final SeriesBudget budget = new SeriesBudgetBuilder().withMaxSeries(1).withOverflowPolicy(FOLD).build()
+            final MetricRegistry registry = new MetricRegistry(budget)
+            final Counter counter = registry.getOrRegister(new CounterBuilder('counter', 'help').withLabels('label1', 'label2').build())
+        when:
+            counter.inc('a', 'b')
+            counter.inc('c', 'd')
+            counter.inc(2, 'e', 'f')
+        then:
+            labelValuesOf(counter) == [['a', 'b'], ['other', 'other']] as Set
+            counter.getValue('other', 'other') == 3
+            budget.series == 2
+    }
+
+    def 'repeated updates to a refused set of label values should count a single overflow'() {
+        given:
+            final SeriesBudget budget = new SeriesBudgetBuilder().withMaxSeries(2).withOverflowPolicy(FOLD).build()
+            final MetricRegistry registry = new MetricRegistry(budget)
+            final Counter counter = registry.getOrRegister(new CounterBuilder('counter', 'help').withLabels('label').build())
+        when:
+            1000.times { counter.inc(['a', 'b', 'c', 'd'][it % 4]) }
+        then:
+            labelValuesOf(counter) == [['a'], ['b'], ['other']] as Set
+            counter.getValue('other') == 500
+            budget.overflows.getValue() == 2
+            budget.series == 3
+    }
+
+    def 'children that exceed the bytes budget should be refused'() {
+        given:
+            final Counter probe = new CounterBuilder('probe', 'help').withLabels('label').build()
+            probe.inc('a')
+            final long childBytes = probe.getEstimatedBytes()
+            final SeriesBudget budget = new SeriesBudgetBuilder().withMaxBytes(childBytes * 2).build()
+            final MetricRegistry registry = new MetricRegistry(budget)
+            final Counter counter = registry.getOrRegister(new CounterBuilder('counter', 'help').withLabels('label').build())
+        when:
+            counter.inc('a')
+            counter.inc('b')
+            counter.inc('c')
+        then:
+            counter.getChildCount() == 2
+            budget.bytes == childBytes * 2
+            budget.bytes == counter.getEstimatedBytes()
+    }
+
+    def 'children that exist when a metric is registered should be accounted for'() {
+        given:
+            final SeriesBudget budget = new SeriesBudgetBuilder().withMaxSeries(1).build()
+            final Counter counter = new CounterBuilder('counter', 'help').withLabels('label').build()
+            counter.inc('a')
+            counter.inc('b')
+        when:
+            new MetricRegistry(budget).getOrRegister(counter)
+            counter.inc('c')
+        then:
+            budget.series == 2
+            counter.getChildCount() == 2
+    }
+
+    def 'deregistering a metric should return its children to the budget'() {
+        given:
+            final SeriesBudget budget = new SeriesBudgetBuilder().withMaxSeries(1).build()
+            final MetricRegistry registry = new MetricRegistry(budget)
+            final Counter counter = registry.getOrRegister(new CounterBuilder('counter', 'help').withLabels('label').build())
+            counter.inc('a')
+        when:
+            registry.deregister(counter)
+            final Counter other = registry.getOrRegister(new CounterBuilder('other', 'help').withLabels('label').build())
+            other.inc('b')
+        then:
+            budget.series == 1
+            budget.bytes == other.getEstimatedBytes()
+            labelValuesOf(other) == [['b']] as Set
+    }
+
+    def 'a budget should be shared by the registries that were created with it'() {
+        given:
+            final SeriesBudget budget = new SeriesBudgetBuilder().withMaxSeries(2).build()
+            final Counter counter1 = new MetricRegistry(budget).getOrRegister(new CounterBuilder('counter', 'help').withLabels('label').build())
+            final Counter counter2 = new MetricRegistry(budget).getOrRegister(new CounterBuilder('counter', 'help').withLabels('label').build())
+        when:
+            counter1.inc('a')
+            counter2.inc('a')
+            counter2.inc('b')
+        then:
+            counter1.getChildCount() == 1
+            counter2.getChildCount() == 1
+            budget.series == 2
+    }
+
+    def 'unlabeled metrics should be accounted for but never refused'() {
+        given:
+            final SeriesBudget budget = new SeriesBudgetBuilder().withMaxSeries(1).build()
+            final MetricRegistry registry = new MetricRegistry(budget)
+        when:
+            registry.getOrRegister(new CounterBuilder('counter1', 'help').build()).inc()
+            registry.getOrRegister(new CounterBuilder('counter2', 'help').build()).inc()
+        then:
+            budget.series == 2
+            registry.all().every { it.getChildCount() == 1 }
+    }
+
+    def 'the budget metrics should be registered'() {
+        given:
+            final SeriesBudget budget = new SeriesBudgetBuilder().withMaxSeries(10).withMaxBytes(1000).build()
+            final MetricRegistry registry = new MetricRegistry()
+        when:
+            budget.registerMetricsTo(registry)
+        then:
+            registry.all()*.name.sort() == ['metrics_budget_bytes', 'metrics_budget_max_bytes', 'metrics_budget_max_series',
+                                            'metrics_budget_overflows_total', 'metrics_budget_series']
+            (registry.all().find { it.name == 'metrics_budget_max_series' } as Gauge).getValue() == 10
+    }
+
+    def 'the builder should reject invalid limits'() {
+        when:
+            builder()
+        then:
+            thrown(expected)
+        where:
+            builder                                                   | expected
+            { -> new SeriesBudgetBuilder().withMaxSeries(0) }         | IllegalArgumentException
+            { -> new SeriesBudgetBuilder().withMaxBytes(-1) }         | IllegalArgumentException
+            { -> new SeriesBudgetBuilder().withOverflowPolicy(null) } | NullPointerException
+            { -> new SeriesBudgetBuilder().withFoldedLabelValue(' ') }| IllegalArgumentException
+    }
+
+    private static Set<List<String>> labelValuesOf(final Counter counter) {
+        final Set<List<String>> labelValues = [] as Set
+        counter.forEachChild({ MetricData data -> labelValues.add(data.labelValues) } as Consumer)
+        return labelValues
+    }
+}
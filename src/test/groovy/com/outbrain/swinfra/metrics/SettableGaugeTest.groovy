@@ -106,4 +106,15 @@ class SettableGaugeTest extends Specification {
             1 * consumer.accept({it.metric.getAsDouble() == 2d && it.labelValues == ['value2'] })
             0 * consumer.accept(_)
     }
+
+    def "A single writer SettableGauge should return the last value that was set"() {
+        given:
+            final SettableGauge settableGauge = new SettableGaugeBuilder(NAME, HELP).withLabels("label1").withSingleWriter().build()
+        when:
+            settableGauge.set(1d, "value1")
+            settableGauge.set(-2.5d, "value1")
+        then:
+            settableGauge.getValue("value1") == -2.5d
+            settableGauge.getValue("value2") == 0d
+    }
 }
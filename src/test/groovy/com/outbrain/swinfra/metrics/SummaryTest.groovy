@@ -5,6 +5,7 @@ import spock.lang.Specification
 import spock.lang.Unroll
 
 import java.util.function.Consumer
+import java.util.function.Supplier
 
 import static com.outbrain.swinfra.metrics.Summary.SummaryBuilder
 
@@ -188,4 +189,57 @@ class SummaryTest extends Specification {
         then:
             thrown(IllegalArgumentException.class)
     }
+
+    def 'Summary and its bound children should record intervals without a timer'() {
+        given:
+            final TestClock clock = new TestClock()
+            final Summary summary = new SummaryBuilder(NAME, HELP).withClock(clock).build()
+            final Summary labeled = new SummaryBuilder(NAME, HELP).withClock(clock).withLabels('l1').build()
+            final Summary.Child child = labeled.bind('a')
+        when:
+            summary.recordNanos(5)
+            summary.time({ clock.tick += 2 } as Runnable)
+            child.observe(7)
+            child.timeSupplier({ clock.tick += 3 } as Supplier)
+        then:
+            summary.metricForLabels().getCount() == 2
+            summary.metricForLabels().getSnapshot().getValues() == [2, 5] as long[]
+            labeled.metricForLabels('a').getSnapshot().getValues() == [3, 7] as long[]
+    }
+
+    def 'observing with an expected interval should add the missing values'() {
+        given:
+            final Summary summary = new SummaryBuilder(NAME, HELP).withReservoir().withSlidingWindowReservoir(100).build()
+        when:
+            summary.observeWithExpectedInterval(10, 3)
+            summary.observeWithExpectedInterval(2, 3)
+        then:
+            summary.metricForLabels().getCount() == 4
+            summary.metricForLabels().getSnapshot().getValues() == [2, 4, 7, 10] as long[]
+    }
+
+    def 'a summary with an expected interval should correct its timers'() {
+        given:
+            final Summary summary = new SummaryBuilder(NAME, HELP)
+                .withClock(clock)
+                .withExpectedInterval(2)
+                .withReservoir().withSlidingWindowReservoir(100)
+                .build()
+        when:
+            clock.tick = 0
+            final def timer = summary.startTimer()
+            clock.tick = 7
+            timer.stop()
+        then:
+            summary.metricForLabels().getSnapshot().getValues() == [3, 5, 7] as long[]
+    }
+
+    def 'the missing values of a single observation should be limited'() {
+        given:
+            final Summary summary = new SummaryBuilder(NAME, HELP).withReservoir().withSlidingWindowReservoir(10).build()
+        when:
+            summary.observeWithExpectedInterval(Long.MAX_VALUE, 1)
+        then:
+            summary.metricForLabels().getCount() == Summary.MAX_MISSING_VALUES + 1
+    }
 }
@@ -0,0 +1,89 @@
+package com.outbrain.swinfra.metrics.children
+
+import spock.lang.Specification
+
+import java.util.concurrent.atomic.LongAdder
+import java.util.function.Function
+
+class LabeledChildrenRepoTest extends Specification {
+
+    private final LabelValueDictionary dictionary = new LabelValueDictionary(100)
+    private final List<List<String>> created = []
+    private final LabeledChildrenRepo<LongAdder> repo = new LabeledChildrenRepo<>({ List<String> labelValues ->
+        created.add(labelValues)
+        return new MetricData<>(new LongAdder(), labelValues)
+    } as Function, ChildOrder.UNORDERED, dictionary)
+
+    def 'a refused child should neither be created nor interned, and should be counted as refused once'() {
+        given:
+            final ChildAdmission<LongAdder> admission = Mock(ChildAdmission)
+            repo.setAdmission(admission)
+        when:
+            1000.times { repo.metricForLabels('a', 'b').increment() }
+        then:
+            1000 * admission.tryAdmit() >> false
+            1 * admission.refused()
+            _ * admission.getFoldedLabelValue() >> null
+            0 * admission._
+            created.size() == 1
+            repo.size() == 0
+            dictionary.size() == 0
+    }
+
+    def 'refused children should be folded into a single child that is created once'() {
+        given:
+            final ChildAdmission<LongAdder> admission = Mock(ChildAdmission)
+            repo.setAdmission(admission)
+        when:
+            1000.times { repo.metricForLabels("value${it % 3}".toString()).increment() }
+        then:
+            1000 * admission.tryAdmit() >> false
+            3 * admission.refused()
+            _ * admission.getFoldedLabelValue() >> 'other'
+            1 * admission.admit(_)
+            0 * admission._
+            created == [['other']]
+            repo.metricForLabels('other').sum() == 1000
+            dictionary.size() == 1
+    }
+
+    def 'a refused child should be added once it is admitted'() {
+        given:
+            final ChildAdmission<LongAdder> admission = Mock(ChildAdmission)
+            repo.setAdmission(admission)
+        when:
+            repo.metricForLabels('a').increment()
+            repo.metricForLabels('a').increment()
+        then:
+            2 * admission.tryAdmit() >>> [false, true]
+            1 * admission.refused()
+            1 * admission.admitted({ it.labelValues == ['a'] })
+            _ * admission.getFoldedLabelValue() >> null
+            0 * admission._
+            repo.metricForLabels('a').sum() == 1
+            created.last() instanceof LabelValues
+            dictionary.isInterned(created.last()[0])
+    }
+
+    def 'refused children should not fill the dictionary for the children that are admitted later'() {
+        given:
+            final LabelValueDictionary small = new LabelValueDictionary(1)
+            final LabeledChildrenRepo<LongAdder> smallRepo = new LabeledChildrenRepo<>({ List<String> labelValues ->
+                new MetricData<>(new LongAdder(), labelValues)
+            } as Function, ChildOrder.UNORDERED, small)
+            final ChildAdmission<LongAdder> admission = Mock(ChildAdmission)
+            smallRepo.setAdmission(admission)
+        when:
+            100.times { smallRepo.metricForLabels("refused${it}".toString()).increment() }
+            smallRepo.metricForLabels('admitted').increment()
+            final List<List<String>> children = []
+            smallRepo.forEachMetricData { children.add(it.labelValues) }
+        then:
+            101 * admission.tryAdmit() >>> [false] * 100 + [true]
+            _ * admission.getFoldedLabelValue() >> null
+            small.size() == 1
+            small.isFull()
+            children == [['admitted']]
+            small.isInterned(children[0][0])
+    }
+}
@@ -0,0 +1,236 @@
+package com.outbrain.swinfra.metrics.concurrent
+
+import com.outbrain.swinfra.metrics.Counter
+import com.outbrain.swinfra.metrics.Histogram
+import com.outbrain.swinfra.metrics.Metric
+import com.outbrain.swinfra.metrics.MetricCollector
+import com.outbrain.swinfra.metrics.MetricRegistry
+import com.outbrain.swinfra.metrics.TestClock
+import com.outbrain.swinfra.metrics.data.MetricDataConsumer
+import spock.lang.Specification
+
+import java.util.concurrent.AbstractExecutorService
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+class InstrumentedExecutorsTest extends Specification {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1)
+
+    private final TestClock clock = new TestClock()
+    private final MetricRegistry registry = new MetricRegistry()
+    private final InstrumentedExecutors executors = new InstrumentedExecutors.InstrumentedExecutorsBuilder()
+        .withClock(clock)
+        .withBuckets(2 / NANOS_PER_SECOND, 5 / NANOS_PER_SECOND)
+        .build()
+
+    def setup() {
+        executors.registerMetricsTo(registry)
+    }
+
+    def 'tasks should record their wait, execution and counts'() {
+        given:
+            final QueueingExecutor queue = new QueueingExecutor()
+            final ExecutorService executor = executors.instrument('queue', queue)
+        when:
+            clock.tick = 10
+            executor.execute({ clock.tick += 4 } as Runnable)
+            executor.submit({ clock.tick += 1; 'done' } as Callable)
+            clock.tick = 11
+        then:
+            counter('executor_submitted_total').getValue('queue') == 2
+            gauge('executor_queued_tasks', 'queue') == 2
+            gauge('executor_active_threads', 'queue') == 0
+        when:
+            queue.runAll()
+        then:
+            buckets('executor_queue_wait_seconds', 'queue') == [1, 2, 2] as long[]
+            buckets('executor_execution_seconds', 'queue') == [1, 2, 2] as long[]
+            counter('executor_completed_total').getValue('queue') == 2
+            gauge('executor_queued_tasks', 'queue') == 0
+    }
+
+    def 'a task that throws should still complete'() {
+        given:
+            final QueueingExecutor queue = new QueueingExecutor()
+            final ExecutorService executor = executors.instrument('queue', queue)
+        when:
+            executor.execute({ throw new IllegalStateException() } as Runnable)
+            queue.runAll()
+        then:
+            thrown(IllegalStateException)
+            counter('executor_completed_total').getValue('queue') == 1
+    }
+
+    def 'rejected tasks should be counted and rethrown'() {
+        given:
+            final ExecutorService pool = Executors.newSingleThreadExecutor()
+            final ExecutorService executor = executors.instrument('single', pool)
+            pool.shutdown()
+        when:
+            executor.execute({} as Runnable)
+        then:
+            thrown(RejectedExecutionException)
+            counter('executor_submitted_total').getValue('single') == 1
+            counter('executor_rejected_total').getValue('single') == 1
+    }
+
+    def 'a thread pool should report its own active threads and queue'() {
+        given:
+            final ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>())
+            final ExecutorService executor = executors.instrument('pool', pool)
+            final CountDownLatch started = new CountDownLatch(1)
+            final CountDownLatch release = new CountDownLatch(1)
+        when:
+            executor.execute({ started.countDown(); release.await() } as Runnable)
+            executor.execute({} as Runnable)
+            started.await()
+        then:
+            gauge('executor_active_threads', 'pool') == 1
+            gauge('executor_queued_tasks', 'pool') == 1
+        cleanup:
+            release.countDown()
+            pool.shutdown()
+            pool.awaitTermination(5, TimeUnit.SECONDS)
+    }
+
+    def 'scheduled tasks should wait from the time they were due'() {
+        given:
+            final ScheduledExecutorService pool = Executors.newSingleThreadScheduledExecutor()
+            final ScheduledExecutorService executor = executors.instrument('scheduler', pool)
+        when:
+            executor.schedule({ 'done' } as Callable, 10, TimeUnit.MILLISECONDS).get()
+        then:
+            // The clock does not advance, so the task is never late
+            buckets('executor_queue_wait_seconds', 'scheduler') == [1, 1, 1] as long[]
+            counter('executor_completed_total').getValue('scheduler') == 1
+        cleanup:
+            pool.shutdownNow()
+    }
+
+    def 'every run of a periodic task should be counted'() {
+        given:
+            final ScheduledExecutorService pool = Executors.newSingleThreadScheduledExecutor()
+            final ScheduledExecutorService executor = executors.instrument('scheduler', pool)
+            final CountDownLatch runs = new CountDownLatch(3)
+        when:
+            executor.scheduleAtFixedRate({ runs.countDown() } as Runnable, 0, 1, TimeUnit.MILLISECONDS)
+            runs.await()
+            pool.shutdown()
+            pool.awaitTermination(5, TimeUnit.SECONDS)
+        then:
+            counter('executor_submitted_total').getValue('scheduler') == 1
+            counter('executor_completed_total').getValue('scheduler') >= 3
+    }
+
+    def 'a fork join pool should be instrumented'() {
+        given:
+            final ForkJoinPool pool = new ForkJoinPool(2)
+            final ExecutorService executor = executors.instrument('fj', pool)
+        when:
+            final String result = executor.submit({ 'done' } as Callable).get()
+        then:
+            result == 'done'
+            counter('executor_completed_total').getValue('fj') == 1
+            gauge('executor_queued_tasks', 'fj') == 0
+        cleanup:
+            pool.shutdown()
+    }
+
+    def 'instrumenting two pools with the same name should fail'() {
+        given:
+            executors.instrument('pool', new QueueingExecutor())
+        when:
+            executors.instrument('pool', new QueueingExecutor())
+        then:
+            thrown(IllegalArgumentException)
+    }
+
+    def 'registering the metrics again should do nothing'() {
+        when:
+            executors.registerMetricsTo(registry)
+        then:
+            notThrown(IllegalArgumentException)
+            registry.all().size() == 7
+    }
+
+    def 'registering the metrics where another instance registered its metrics should fail'() {
+        when:
+            new InstrumentedExecutors.InstrumentedExecutorsBuilder().build().registerMetricsTo(registry)
+        then:
+            thrown(IllegalArgumentException)
+    }
+
+    private Counter counter(final String name) {
+        return metric(name) as Counter
+    }
+
+    private long[] buckets(final String name, final String pool) {
+        final Histogram histogram = metric(name) as Histogram
+        return histogram.metricForLabels(pool).getValues().getBuckets()
+    }
+
+    private double gauge(final String name, final String pool) {
+        final Metric gauge = metric(name)
+        final Map<List<String>, Double> values = [:]
+        gauge.forEachMetricData([consumeGauge: { Metric metric, List<String> labelValues, double value ->
+            values[labelValues] = value
+        }] as MetricDataConsumer)
+        return values[[pool]]
+    }
+
+    private Metric metric(final String name) {
+        return new MetricCollector(registry).find { it.name == name }
+    }
+
+    /**
+     * Keeps the submitted tasks until they are run by the test
+     */
+    private static class QueueingExecutor extends AbstractExecutorService {
+
+        private final List<Runnable> tasks = []
+
+        @Override
+        void execute(final Runnable command) {
+            tasks.add(command)
+        }
+
+        void runAll() {
+            final List<Runnable> toRun = new ArrayList<>(tasks)
+            tasks.clear()
+            toRun.each { it.run() }
+        }
+
+        @Override
+        void shutdown() {
+        }
+
+        @Override
+        List<Runnable> shutdownNow() {
+            return []
+        }
+
+        @Override
+        boolean isShutdown() {
+            return false
+        }
+
+        @Override
+        boolean isTerminated() {
+            return false
+        }
+
+        @Override
+        boolean awaitTermination(final long timeout, final TimeUnit unit) {
+            return true
+        }
+    }
+}
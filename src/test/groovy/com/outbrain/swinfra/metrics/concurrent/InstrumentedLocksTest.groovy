@@ -0,0 +1,240 @@
+package com.outbrain.swinfra.metrics.concurrent
+
+import com.outbrain.swinfra.metrics.Counter
+import com.outbrain.swinfra.metrics.Histogram
+import com.outbrain.swinfra.metrics.MetricCollector
+import com.outbrain.swinfra.metrics.MetricRegistry
+import com.outbrain.swinfra.metrics.TestClock
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.Lock
+import java.util.concurrent.locks.ReadWriteLock
+import java.util.concurrent.locks.ReentrantLock
+import java.util.concurrent.locks.ReentrantReadWriteLock
+
+class InstrumentedLocksTest extends Specification {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1)
+
+    private final TestClock clock = new TestClock()
+    private final MetricRegistry registry = new MetricRegistry()
+    private final InstrumentedLocks locks = new InstrumentedLocks.InstrumentedLocksBuilder()
+        .withClock(clock)
+        .withBuckets(2 / NANOS_PER_SECOND, 5 / NANOS_PER_SECOND)
+        .build()
+
+    def setup() {
+        locks.registerMetricsTo(registry)
+    }
+
+    def 'uncontended acquisitions should only be counted'() {
+        given:
+            final Lock lock = locks.instrument('l', new ReentrantLock())
+        when:
+            lock.lock()
+            lock.lock()
+            lock.unlock()
+            lock.unlock()
+            lock.tryLock()
+            lock.unlock()
+        then:
+            counter('lock_acquisitions_total', 'l', 'exclusive') == 3
+            counter('lock_contended_total', 'l', 'exclusive') == 0
+            histogram('lock_wait_seconds', 'l', 'exclusive').getCount() == 0
+            histogram('lock_hold_seconds', 'l', 'exclusive').getCount() == 0
+    }
+
+    def 'contended acquisitions should time their wait and the hold that follows it'() {
+        given:
+            final Lock lock = locks.instrument('l', new ContendedLock(clock))
+        when:
+            clock.tick = 10
+            lock.lock()
+            lock.lock()
+            clock.tick += 1
+            lock.unlock()
+            clock.tick += 2
+            lock.unlock()
+        then:
+            counter('lock_acquisitions_total', 'l', 'exclusive') == 2
+            counter('lock_contended_total', 'l', 'exclusive') == 2
+            // Every acquisition waited 4, and the lock was held for 7 since the first one
+            histogram('lock_wait_seconds', 'l', 'exclusive').getBuckets() == [0, 2, 2] as long[]
+            histogram('lock_hold_seconds', 'l', 'exclusive').getBuckets() == [0, 0, 1] as long[]
+    }
+
+    def 'a timed out acquisition should be timed and not acquire the lock'() {
+        given:
+            final ContendedLock contendedLock = new ContendedLock(clock)
+            contendedLock.available = false
+            final Lock lock = locks.instrument('l', contendedLock)
+        when:
+            final boolean locked = lock.tryLock(1, TimeUnit.SECONDS)
+            final boolean tried = lock.tryLock()
+        then:
+            !locked
+            !tried
+            counter('lock_acquisitions_total', 'l', 'exclusive') == 0
+            counter('lock_contended_total', 'l', 'exclusive') == 2
+            histogram('lock_wait_seconds', 'l', 'exclusive').getBuckets() == [0, 1, 1] as long[]
+    }
+
+    def 'a lock held by another thread should be timed as contended'() {
+        given:
+            final ReentrantReadWriteLock delegate = new ReentrantReadWriteLock(true)
+            final ReadWriteLock lock = locks.instrument('rw', delegate)
+            final CountDownLatch held = new CountDownLatch(1)
+            final CountDownLatch release = new CountDownLatch(1)
+            final Thread writer = Thread.start {
+                lock.writeLock().lock()
+                held.countDown()
+                release.await()
+                lock.writeLock().unlock()
+            }
+        when:
+            held.await()
+            final Thread reader = Thread.start {
+                lock.readLock().lock()
+                lock.readLock().unlock()
+            }
+            while (!delegate.hasQueuedThreads()) {
+                Thread.sleep(1)
+            }
+            release.countDown()
+            writer.join()
+            reader.join()
+        then:
+            counter('lock_acquisitions_total', 'rw', 'write') == 1
+            counter('lock_acquisitions_total', 'rw', 'read') == 1
+            counter('lock_contended_total', 'rw', 'read') == 1
+            histogram('lock_wait_seconds', 'rw', 'read').getCount() == 1
+    }
+
+    def 'an interrupted thread should not acquire a free lock interruptibly'() {
+        given:
+            final ReentrantLock delegate = new ReentrantLock()
+            final Lock lock = locks.instrument('l', delegate)
+        when:
+            Thread.currentThread().interrupt()
+            acquire(lock)
+        then:
+            thrown(InterruptedException)
+            !delegate.locked
+            !Thread.interrupted()
+            counter('lock_acquisitions_total', 'l', 'exclusive') == 0
+        where:
+            acquire << [{ Lock l -> l.lockInterruptibly() }, { Lock l -> l.tryLock(1, TimeUnit.SECONDS) }]
+    }
+
+    def 'instrumenting two locks with the same name should fail'() {
+        given:
+            locks.instrument('l', new ReentrantLock())
+        when:
+            locks.instrument('l', new ReentrantReadWriteLock())
+        then:
+            thrown(IllegalArgumentException)
+    }
+
+    def 'registering the metrics again should do nothing'() {
+        when:
+            locks.registerMetricsTo(registry)
+        then:
+            notThrown(IllegalArgumentException)
+            registry.all().size() == 4
+    }
+
+    def 'registering the metrics where another instance registered its metrics should fail'() {
+        when:
+            new InstrumentedLocks.InstrumentedLocksBuilder().build().registerMetricsTo(registry)
+        then:
+            thrown(IllegalArgumentException)
+    }
+
+    def 'an unlock by a thread that does not hold the lock should fail without changing the hold of the holder'() {
+        given:
+            final Lock lock = locks.instrument('l', delegate)
+            Throwable failure = null
+        when:
+            clock.tick = 10
+            lock.lock()
+            final Thread other = new Thread({
+                try {
+                    lock.unlock()
+                } catch (final IllegalMonitorStateException e) {
+                    failure = e
+                }
+            })
+            other.start()
+            other.join()
+            clock.tick += 3
+            lock.unlock()
+        then:
+            failure instanceof IllegalMonitorStateException
+            lock.holdDepth == 0
+            histogram('lock_hold_seconds', 'l', 'exclusive').getCount() == expectedHolds
+        where:
+            delegate                        | expectedHolds
+            new ReentrantLock()             | 0
+            new ContendedLock(new TestClock()) | 1
+    }
+
+    private long counter(final String name, final String lockName, final String mode) {
+        return (new MetricCollector(registry).find { it.name == name } as Counter).getValue(lockName, mode)
+    }
+
+    private def histogram(final String name, final String lockName, final String mode) {
+        final Histogram histogram = new MetricCollector(registry).find { it.name == name } as Histogram
+        return histogram.metricForLabels(lockName, mode).getValues()
+    }
+
+    /**
+     * A lock that is never available without waiting, and waits 4 ticks of the clock. Only the thread that locked it
+     * last may unlock it
+     */
+    private static class ContendedLock implements Lock {
+
+        private final TestClock clock
+        private boolean available = true
+        private volatile Thread owner
+
+        ContendedLock(final TestClock clock) {
+            this.clock = clock
+        }
+
+        @Override
+        void lock() {
+            clock.tick += 4
+            owner = Thread.currentThread()
+        }
+
+        @Override
+        void lockInterruptibly() {
+            lock()
+        }
+
+        @Override
+        boolean tryLock() {
+            return false
+        }
+
+        @Override
+        boolean tryLock(final long time, final TimeUnit unit) {
+            clock.tick += 4
+            return available
+        }
+
+        @Override
+        void unlock() {
+            if (owner != Thread.currentThread()) {
+                throw new IllegalMonitorStateException()
+            }
+        }
+
+        @Override
+        java.util.concurrent.locks.Condition newCondition() {
+            throw new UnsupportedOperationException()
+        }
+    }
+}
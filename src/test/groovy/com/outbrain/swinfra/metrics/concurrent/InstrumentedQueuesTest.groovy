@@ -0,0 +1,181 @@
+package com.outbrain.swinfra.metrics.concurrent
+
+import com.outbrain.swinfra.metrics.Counter
+import com.outbrain.swinfra.metrics.Histogram
+import com.outbrain.swinfra.metrics.Metric
+import com.outbrain.swinfra.metrics.MetricCollector
+import com.outbrain.swinfra.metrics.MetricRegistry
+import com.outbrain.swinfra.metrics.TestClock
+import com.outbrain.swinfra.metrics.data.MetricDataConsumer
+import spock.lang.Specification
+
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+class InstrumentedQueuesTest extends Specification {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1)
+
+    private final TestClock clock = new TestClock()
+    private final MetricRegistry registry = new MetricRegistry()
+    private final InstrumentedQueues queues = new InstrumentedQueues.InstrumentedQueuesBuilder()
+        .withClock(clock)
+        .withBuckets(2 / NANOS_PER_SECOND, 5 / NANOS_PER_SECOND)
+        .build()
+
+    def setup() {
+        queues.registerMetricsTo(registry)
+    }
+
+    def 'elements should record the time they spent in the queue'() {
+        given:
+            final BlockingQueue<String> queue = queues.instrument('q', new ArrayBlockingQueue<String>(2))
+        when:
+            clock.tick = 10
+            queue.offer('a')
+            clock.tick = 12
+            queue.put('b')
+            final boolean rejected = !queue.offer('c')
+        then:
+            rejected
+            counter('queue_offers_total') == 3
+            counter('queue_rejections_total') == 1
+            gauge('queue_depth') == 2
+            gauge('queue_remaining_capacity') == 0
+        when:
+            clock.tick = 13
+            queue.poll()
+            clock.tick = 18
+            queue.take()
+        then:
+            // a waited 3 and b waited 6
+            waitBuckets() == [0, 1, 2] as long[]
+            counter('queue_polls_total') == 2
+            gauge('queue_depth') == 0
+    }
+
+    def 'draining the queue should record every drained element'() {
+        given:
+            final BlockingQueue<String> queue = queues.instrument('q', new LinkedBlockingQueue<String>())
+            final List<String> drained = []
+        when:
+            clock.tick = 10
+            queue.addAll(['a', 'b', 'c'])
+            clock.tick = 11
+            queue.drainTo(drained, 2)
+            queue.drainTo(drained)
+        then:
+            drained == ['a', 'b', 'c']
+            waitBuckets() == [3, 3, 3] as long[]
+            counter('queue_polls_total') == 3
+    }
+
+    def 'removing an element from the middle of the queue should not throw the times off for good'() {
+        given:
+            final BlockingQueue<String> queue = queues.instrument('q', new ArrayBlockingQueue<String>(8))
+        when:
+            clock.tick = 0
+            queue.offer('a')
+            queue.offer('b')
+            queue.remove('b')
+            clock.tick = 10
+            queue.offer('c')
+            clock.tick = 11
+            queue.poll()
+            queue.poll()
+        then:
+            // a is measured with the time of b, which was removed, c with its own time
+            waitBuckets() == [1, 1, 2] as long[]
+    }
+
+    def 'elements that were in the queue before it was instrumented should not be timed'() {
+        given:
+            final ArrayBlockingQueue<String> delegate = new ArrayBlockingQueue<String>(4)
+            delegate.add('old')
+            final BlockingQueue<String> queue = queues.instrument('q', delegate)
+        when:
+            queue.offer('new')
+            queue.poll()
+            queue.poll()
+        then:
+            waitBuckets() == [1, 1, 1] as long[]
+            counter('queue_polls_total') == 2
+    }
+
+    def 'elements deeper in the queue than the ring should not be timed'() {
+        given:
+            final InstrumentedQueues small = new InstrumentedQueues.InstrumentedQueuesBuilder().withMaxRingSize(2).build()
+            final BlockingQueue<Integer> queue = small.instrument('q', new LinkedBlockingQueue<Integer>())
+        when:
+            (1..5).each { queue.offer(it) }
+            (1..5).each { queue.poll() }
+        then:
+            queue.isEmpty()
+            small.wait.metricForLabels('q').getValues().getCount() == 2
+    }
+
+    def 'the queue should be a view of the wrapped queue'() {
+        given:
+            final ArrayBlockingQueue<String> delegate = new ArrayBlockingQueue<String>(4)
+            final BlockingQueue<String> queue = queues.instrument('q', delegate)
+        when:
+            queue.addAll(['a', 'b', 'c'])
+            queue.removeIf { it == 'b' }
+        then:
+            queue.peek() == 'a'
+            queue.contains('c')
+            queue.toArray() == ['a', 'c'] as Object[]
+            delegate.size() == 2
+        when:
+            queue.clear()
+        then:
+            queue.isEmpty()
+            counter('queue_polls_total') == 0
+    }
+
+    def 'instrumenting two queues with the same name should fail'() {
+        given:
+            queues.instrument('q', new LinkedBlockingQueue<String>())
+        when:
+            queues.instrument('q', new LinkedBlockingQueue<String>())
+        then:
+            thrown(IllegalArgumentException)
+    }
+
+    def 'registering the metrics again should do nothing'() {
+        when:
+            queues.registerMetricsTo(registry)
+        then:
+            notThrown(IllegalArgumentException)
+            registry.all().size() == 6
+    }
+
+    def 'registering the metrics where another instance registered its metrics should fail'() {
+        when:
+            new InstrumentedQueues.InstrumentedQueuesBuilder().build().registerMetricsTo(registry)
+        then:
+            thrown(IllegalArgumentException)
+    }
+
+    private long counter(final String name) {
+        return (metric(name) as Counter).getValue('q')
+    }
+
+    private long[] waitBuckets() {
+        return (metric('queue_wait_seconds') as Histogram).metricForLabels('q').getValues().getBuckets()
+    }
+
+    private double gauge(final String name) {
+        final Map<List<String>, Double> values = [:]
+        metric(name).forEachMetricData([consumeGauge: { Metric metric, List<String> labelValues, double value ->
+            values[labelValues] = value
+        }] as MetricDataConsumer)
+        return values[['q']]
+    }
+
+    private Metric metric(final String name) {
+        return new MetricCollector(registry).find { it.name == name }
+    }
+}
@@ -0,0 +1,45 @@
+package com.outbrain.swinfra.metrics.exemplars
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class ExemplarSamplerTest extends Specification {
+
+    private static final Exemplar CURRENT = new Exemplar(['trace_id': 'abc'], 5, 1000)
+
+    @Unroll
+    def 'rate limited sampler should return #expected for #value at #now'() {
+        expect:
+            ExemplarSampler.rateLimited(100).shouldSample(current, value, now) == expected
+        where:
+            current | value | now  | expected
+            null    | 1     | 1000 | true
+            CURRENT | 10    | 1099 | false
+            CURRENT | 1     | 1100 | true
+    }
+
+    @Unroll
+    def 'keep max sampler should return #expected for #value at #now'() {
+        expect:
+            ExemplarSampler.keepMax(100).shouldSample(current, value, now) == expected
+        where:
+            current | value | now  | expected
+            null    | 1     | 1000 | true
+            CURRENT | 4     | 1050 | false
+            CURRENT | 6     | 1050 | true
+            CURRENT | 1     | 1100 | true
+    }
+
+    def 'exemplar slots should keep the exemplar accepted by the sampler'() {
+        given:
+            final ExemplarSlots slots = new ExemplarSlots(ExemplarSampler.keepMax(60000), 2)
+        when:
+            slots.offer(1, 3, ['trace_id': 'a'])
+            slots.offer(1, 7, ['trace_id': 'b'])
+            slots.offer(1, 5, ['trace_id': 'c'])
+        then:
+            slots.get(0) == null
+            slots.get(1).value == 7
+            slots.get(1).labels == ['trace_id': 'b']
+    }
+}
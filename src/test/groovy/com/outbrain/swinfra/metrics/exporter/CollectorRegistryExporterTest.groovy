@@ -4,6 +4,7 @@ import com.outbrain.swinfra.metrics.MetricCollector
 import com.outbrain.swinfra.metrics.MetricCollectorRegistry
 import spock.lang.Specification
 import spock.lang.Subject
+import spock.lang.Unroll
 
 import java.util.function.Function
 
@@ -16,9 +17,9 @@ class CollectorRegistryExporterTest extends Specification {
     private MetricCollector collector1 = Mock(MetricCollector)
     private MetricCollector collector2 = Mock(MetricCollector)
     private MetricCollector collector3 = Mock(MetricCollector)
-    private CollectorExporter collectorFormatter1 = Mock(CollectorExporter)
-    private CollectorExporter collectorFormatter2 = Mock(CollectorExporter)
-    private CollectorExporter collectorFormatter3 = Mock(CollectorExporter)
+    private PartialCollectorExporter collectorFormatter1 = Mock(PartialCollectorExporter)
+    private PartialCollectorExporter collectorFormatter2 = Mock(PartialCollectorExporter)
+    private PartialCollectorExporter collectorFormatter3 = Mock(PartialCollectorExporter)
     private OutputStream output = Mock(OutputStream)
     private MetricCollectorRegistry registry
 
@@ -65,4 +66,74 @@ class CollectorRegistryExporterTest extends Specification {
             2 * collectorFormatter2.exportTo(output)
             2 * collectorFormatter3.exportTo(output)
     }
+
+    def 'should pass the filter on to the formatter of each collector'() {
+        given:
+            final ExportFilter filter = new ExportFilter.ExportFilterBuilder().withNames('name').build()
+        when:
+            formatter.export(output, filter)
+        then:
+            1 * collectorFormatter1.exportTo(output, filter)
+            1 * collectorFormatter2.exportTo(output, filter)
+            1 * collectorFormatter3.exportTo(output, filter)
+            0 * collectorFormatter1.exportTo(output)
+    }
+
+    def 'should write the trailer once after all collectors'() {
+        given:
+            final ByteArrayOutputStream stream = new ByteArrayOutputStream()
+            formatter = new CollectorRegistryExporter(registry, { collector -> { out -> out.write('x'.bytes) } as CollectorExporter } as Function, 'END'.bytes)
+        when:
+            formatter.export(stream)
+        then:
+            stream.toString() == 'xxxEND'
+    }
+
+    def 'an exporter that only implements the full export should be exported, and filters that restrict it should be rejected'() {
+        given:
+            final CollectorExporter fullOnly = new CollectorExporter() {
+                @Override
+                void exportTo(final OutputStream out) throws IOException {
+                    out.write('x'.bytes)
+                }
+            }
+            final ByteArrayOutputStream stream = new ByteArrayOutputStream()
+            formatter = new CollectorRegistryExporter(registry, { collector -> fullOnly } as Function)
+        when:
+            formatter.export(stream)
+            formatter.export(stream, ExportFilter.ALL)
+        then:
+            stream.toString() == 'xxxxxx'
+        when: 'the filter is rejected before anything is written'
+            final ExportFilter filter = new ExportFilter.ExportFilterBuilder().withNames('a').build()
+            stream.reset()
+            formatter.export(stream, filter)
+        then:
+            !formatter.supports(filter)
+            formatter.supports(ExportFilter.ALL)
+            thrown(IllegalArgumentException)
+            stream.size() == 0
+    }
+
+    @Unroll
+    def 'should negotiate #expected for the accept header #accept'() {
+        expect:
+            CollectorRegistryExporterFactory.negotiate(accept) == expected
+        where:
+            accept                                                                                                     | expected
+            null                                                                                                       | CollectorRegistryExporterFactory.TEXT_004
+            '*/*'                                                                                                      | CollectorRegistryExporterFactory.TEXT_004
+            'text/plain;version=0.0.4'                                                                                 | CollectorRegistryExporterFactory.TEXT_004
+            'application/vnd.google.protobuf;proto=io.prometheus.client.MetricFamily;encoding=delimited;q=0.7,*/*;q=0.1' | CollectorRegistryExporterFactory.PROTOBUF
+            'application/openmetrics-text;version=1.0.0,text/plain;version=0.0.4;q=0.5,*/*;q=0.1'                      | CollectorRegistryExporterFactory.OPENMETRICS_1_0
+            'application/openmetrics-text;q=0, text/plain'                                                             | CollectorRegistryExporterFactory.TEXT_004
+            'application/openmetrics-text;version=1.0.0;q=0.3,text/plain;version=0.0.4;q=0.5'                         | CollectorRegistryExporterFactory.TEXT_004
+            'application/openmetrics-text;q=0.5,text/plain;q=0,*/*'                                                    | CollectorRegistryExporterFactory.OPENMETRICS_1_0
+            'application/openmetrics-text;q=0.5,*/*;q=0.5'                                                             | CollectorRegistryExporterFactory.OPENMETRICS_1_0
+            'application/vnd.google.protobuf;proto=io.prometheus.client.MetricFamily;encoding=delimited;q=0,*/*'       | CollectorRegistryExporterFactory.TEXT_004
+            'application/vnd.google.protobuf;proto=io.prometheus.client.MetricFamily;encoding=delimited;q=0.4,application/openmetrics-text;q=0.5' | CollectorRegistryExporterFactory.OPENMETRICS_1_0
+            'application/vnd.google.protobuf;encoding=delimited'                                                       | CollectorRegistryExporterFactory.TEXT_004
+            'application/openmetrics-text;q=bad'                                                                       | CollectorRegistryExporterFactory.TEXT_004
+            'application/openmetrics-text;version=1.0.0;q=0.5,application/openmetrics-text;version=0.0.1;q=0.4,text/plain;version=0.0.4;q=0.3,*/*;q=0.2' | CollectorRegistryExporterFactory.OPENMETRICS_1_0
+    }
 }
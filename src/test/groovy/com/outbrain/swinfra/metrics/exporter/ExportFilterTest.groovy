@@ -0,0 +1,157 @@
+package com.outbrain.swinfra.metrics.exporter
+
+import com.outbrain.swinfra.metrics.Counter
+import com.outbrain.swinfra.metrics.Gauge
+import com.outbrain.swinfra.metrics.Metric
+import com.outbrain.swinfra.metrics.MetricCollector
+import com.outbrain.swinfra.metrics.MetricRegistry
+import com.outbrain.swinfra.metrics.data.MetricDataConsumer
+import com.outbrain.swinfra.metrics.exporter.text.TextFormatter
+import com.outbrain.swinfra.metrics.utils.MetricType
+import spock.lang.Specification
+
+import java.util.function.DoubleSupplier
+
+class ExportFilterTest extends Specification {
+
+    private final MetricRegistry registry = new MetricRegistry()
+
+    def setup() {
+        final Counter requests = registry.getOrRegister(new Counter.CounterBuilder('http_requests_total', 'help').withLabels('method').build())
+        requests.inc(1, 'GET')
+        requests.inc(2, 'POST')
+        final Counter errors = registry.getOrRegister(new Counter.CounterBuilder('http_errors_total', 'help').build())
+        errors.inc(3)
+        final Counter threads = registry.getOrRegister(new Counter.CounterBuilder('jvm_threads_started_total', 'help').build())
+        threads.inc(4)
+    }
+
+    def 'selects metrics by exact names and by prefixes, in name order'() {
+        given:
+            final ExportFilter filter = new ExportFilter.ExportFilterBuilder()
+                .withNames('jvm_threads_started_total', 'no_such_metric')
+                .withPrefixes('http_')
+                .build()
+        expect:
+            filter.select(new MetricCollector(registry))*.name == ['http_errors_total', 'http_requests_total', 'jvm_threads_started_total']
+    }
+
+    def 'selects all the metrics when neither names nor prefixes were given'() {
+        given:
+            final MetricCollector collector = new MetricCollector(registry)
+        expect:
+            ExportFilter.ALL.selectsAllMetrics()
+            ExportFilter.ALL.select(collector).is(collector)
+    }
+
+    def 'selects all the children when no label matchers were given'() {
+        expect:
+            ExportFilter.ALL.selectsAllChildren()
+            new ExportFilter.ExportFilterBuilder().withNames('a').build().selectsAllChildren()
+            !new ExportFilter.ExportFilterBuilder().withLabel('l', 'x').build().selectsAllChildren()
+    }
+
+    def 'exports only the children that match the label matchers'() {
+        given:
+            final ExportFilter filter = new ExportFilter.ExportFilterBuilder()
+                .withPrefixes('http_requests')
+                .withLabel('method', 'POST')
+                .build()
+        expect:
+            export(new MetricCollector(registry), filter) == '''# HELP http_requests_total help
+# TYPE http_requests_total counter
+http_requests_total{method="POST",} 2.0
+'''
+    }
+
+    def 'skips metrics that do not have a label that must not be empty'() {
+        given:
+            final ExportFilter filter = new ExportFilter.ExportFilterBuilder()
+                .withLabelNotEqual('method', '')
+                .build()
+        expect:
+            export(new MetricCollector(registry), filter).readLines().toSorted() == [
+                '# HELP http_requests_total help',
+                '# TYPE http_requests_total counter',
+                'http_requests_total{method="GET",} 1.0',
+                'http_requests_total{method="POST",} 2.0'
+            ]
+    }
+
+    def 'matches static labels once for the whole collector'() {
+        given:
+            final MetricCollector collector = new MetricCollector(registry, ['dc': 'ny'])
+        expect:
+            export(collector, new ExportFilter.ExportFilterBuilder().withLabel('dc', 'la').build()) == ''
+            export(collector, new ExportFilter.ExportFilterBuilder().withNames('http_errors_total').withLabel('dc', 'ny').build()) == '''# HELP http_errors_total help
+# TYPE http_errors_total counter
+http_errors_total{dc="ny",} 3.0
+'''
+    }
+
+    def 'does not read the children that were filtered out'() {
+        given:
+            final List<String> read = []
+            final MetricRegistry registry = new MetricRegistry()
+            registry.getOrRegister(new Gauge.GaugeBuilder('queue_size', 'help')
+                                       .withLabels('queue')
+                                       .withValueSupplier({ read << 'a'; 1d } as DoubleSupplier, 'a')
+                                       .withValueSupplier({ read << 'b'; 2d } as DoubleSupplier, 'b')
+                                       .build())
+        when:
+            export(new MetricCollector(registry), new ExportFilter.ExportFilterBuilder().withLabel('queue', 'b').build())
+        then:
+            read == ['b']
+    }
+
+    def 'filters the data of metrics that are not of this library'() {
+        given:
+            final Metric custom = new Metric() {
+                MetricType getType() { MetricType.GAUGE }
+                String getName() { 'custom' }
+                String getHelp() { 'help' }
+                List<String> getLabelNames() { ['color'] }
+
+                void forEachMetricData(final MetricDataConsumer consumer) {
+                    consumer.consumeGauge(this, ['red'], 1d)
+                    consumer.consumeGauge(this, ['blue'], 2d)
+                }
+            }
+            final MetricRegistry registry = new MetricRegistry()
+            registry.getOrRegister(custom)
+        expect:
+            export(new MetricCollector(registry), new ExportFilter.ExportFilterBuilder().withLabel('color', 'blue').build()) == '''# HELP custom help
+# TYPE custom gauge
+custom{color="blue",} 2.0
+'''
+    }
+
+    def 'parses a filter from a query string'() {
+        given:
+            final ExportFilter filter = ExportFilter.fromQueryString(
+                'name%5B%5D=jvm_threads_started_total&prefix[]=http_err&label[]=method%21%3DGET&other=1')
+        expect:
+            export(new MetricCollector(registry), filter) == '''# HELP http_errors_total help
+# TYPE http_errors_total counter
+http_errors_total 3.0
+# HELP jvm_threads_started_total help
+# TYPE jvm_threads_started_total counter
+jvm_threads_started_total 4.0
+'''
+            ExportFilter.fromQueryString(null).is(ExportFilter.ALL)
+            ExportFilter.fromQueryString('').is(ExportFilter.ALL)
+    }
+
+    def 'rejects a malformed label matcher'() {
+        when:
+            ExportFilter.fromQueryString('label[]=method')
+        then:
+            thrown(IllegalArgumentException)
+    }
+
+    private static String export(final MetricCollector collector, final ExportFilter filter) {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream()
+        new TextFormatter(collector).exportTo(output, filter)
+        return output.toString()
+    }
+}
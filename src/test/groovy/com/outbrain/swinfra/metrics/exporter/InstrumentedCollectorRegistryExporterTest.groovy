@@ -0,0 +1,225 @@
+package com.outbrain.swinfra.metrics.exporter
+
+import com.outbrain.swinfra.metrics.Counter
+import com.outbrain.swinfra.metrics.Histogram
+import com.outbrain.swinfra.metrics.Metric
+import com.outbrain.swinfra.metrics.MetricCollector
+import com.outbrain.swinfra.metrics.MetricCollectorRegistry
+import com.outbrain.swinfra.metrics.MetricRegistry
+import com.outbrain.swinfra.metrics.SettableGauge
+import com.outbrain.swinfra.metrics.data.MetricDataConsumer
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.function.Function
+
+class InstrumentedCollectorRegistryExporterTest extends Specification {
+
+    private final MetricCollectorRegistry registry = new MetricCollectorRegistry()
+    private final MetricRegistry metricRegistry = new MetricRegistry()
+    private Counter counter
+    private Histogram histogram
+
+    def setup() {
+        counter = metricRegistry.getOrRegister(new Counter.CounterBuilder('requests_total', 'help').withLabels('method').build())
+        histogram = metricRegistry.getOrRegister(new Histogram.HistogramBuilder('latency_seconds', 'help').build())
+        counter.inc('GET')
+        counter.inc('POST')
+        histogram.observe(0.1)
+        registry.register(new MetricCollector(metricRegistry))
+    }
+
+    @Unroll
+    def 'the instrumented export of #factory with family detail #familyDetail is identical to the plain export'() {
+        given:
+            final ExportInstrumentation instrumentation = createInstrumentation(familyDetail)
+            final CollectorRegistryExporter plain = factory.create(registry)
+            final CollectorRegistryExporter instrumented = factory.createInstrumented(registry, instrumentation)
+        when:
+            final ByteArrayOutputStream expected = new ByteArrayOutputStream()
+            final ByteArrayOutputStream actual = new ByteArrayOutputStream()
+            plain.export(expected)
+            instrumented.export(actual)
+        then:
+            actual.toByteArray() == expected.toByteArray()
+        where:
+            [factory, familyDetail] << [CollectorRegistryExporterFactory.values(), [false, true]].combinations()
+    }
+
+    @Unroll
+    def 'a scrape with family detail #familyDetail should record its duration, bytes and series'() {
+        given:
+            final ExportInstrumentation instrumentation = createInstrumentation(familyDetail)
+            final CollectorRegistryExporter exporter = CollectorRegistryExporterFactory.TEXT_004.createInstrumented(registry, instrumentation)
+            final ByteArrayOutputStream output = new ByteArrayOutputStream()
+        when:
+            exporter.export(output)
+            exporter.export(new ByteArrayOutputStream())
+        then:
+            instrumentation.scrapeDuration.metricForLabels().getValues().getCount() == 2
+            instrumentation.scrapeBytes.getValue() == 2 * output.size()
+            instrumentation.scrapeSeries.getValue() == 6
+        where:
+            familyDetail << [false, true]
+    }
+
+    def 'a scrape with family detail should record the cost of each family'() {
+        given:
+            final ExportInstrumentation instrumentation = createInstrumentation(true)
+            final CollectorRegistryExporter exporter = CollectorRegistryExporterFactory.TEXT_004.createInstrumented(registry, instrumentation)
+            final ByteArrayOutputStream output = new ByteArrayOutputStream()
+        when:
+            exporter.export(output)
+            final List<ExportInstrumentation.FamilyCost> costs = instrumentation.topFamilies(10)
+        then:
+            costs*.name.toSet() == ['requests_total', 'latency_seconds'] as Set
+            costs[0].lastNanos >= costs[1].lastNanos
+            costs.find { it.name == 'requests_total' }.series == 2
+            costs.find { it.name == 'latency_seconds' }.series == 1
+            costs*.lastBytes.sum() == output.size()
+            costs.every { it.totalNanos == it.lastNanos }
+            gaugeValues(instrumentation.familySeries) == [requests_total: 2d, latency_seconds: 1d]
+            instrumentation.topFamilies(1) == [costs[0]]
+    }
+
+    def 'the total cost of a family should accumulate over scrapes'() {
+        given:
+            final ExportInstrumentation instrumentation = createInstrumentation(true)
+            final CollectorRegistryExporter exporter = CollectorRegistryExporterFactory.TEXT_004.createInstrumented(registry, instrumentation)
+        when:
+            exporter.export(new ByteArrayOutputStream())
+            final long first = instrumentation.topFamilies(10).find { it.name == 'requests_total' }.lastNanos
+            exporter.export(new ByteArrayOutputStream())
+            final ExportInstrumentation.FamilyCost cost = instrumentation.topFamilies(10).find { it.name == 'requests_total' }
+        then:
+            cost.totalNanos == first + cost.lastNanos
+    }
+
+    def 'the total cost of a family should not lose the costs that concurrent scrapes record'() {
+        given:
+            final ExportInstrumentation instrumentation = createInstrumentation(true)
+            final int threads = 4
+            final int records = 10_000
+            final ExecutorService executor = Executors.newFixedThreadPool(threads)
+            final CountDownLatch done = new CountDownLatch(threads)
+        when:
+            threads.times {
+                executor.execute {
+                    for (int i = 0; i < records; i++) {
+                        instrumentation.recordFamily(counter, 1, 0, 0)
+                    }
+                    done.countDown()
+                }
+            }
+            done.await()
+        then:
+            instrumentation.topFamilies(1)[0].totalNanos == threads * records
+        cleanup:
+            executor.shutdown()
+    }
+
+    def 'a filtered scrape should time only the selected families'() {
+        given:
+            final ExportInstrumentation instrumentation = createInstrumentation(true)
+            final CollectorRegistryExporter exporter = CollectorRegistryExporterFactory.TEXT_004.createInstrumented(registry, instrumentation)
+            final ExportFilter filter = new ExportFilter.ExportFilterBuilder().withNames('requests_total').withLabel('method', 'GET').build()
+            final ByteArrayOutputStream expected = new ByteArrayOutputStream()
+            final ByteArrayOutputStream actual = new ByteArrayOutputStream()
+        when:
+            CollectorRegistryExporterFactory.TEXT_004.create(registry).export(expected, filter)
+            exporter.export(actual, filter)
+        then:
+            actual.toByteArray() == expected.toByteArray()
+            instrumentation.topFamilies(10)*.name == ['requests_total']
+    }
+
+    def 'a scrape of all the metrics should forget the families it did not export'() {
+        given:
+            final ExportInstrumentation instrumentation = createInstrumentation(true)
+            final CollectorRegistryExporter exporter = CollectorRegistryExporterFactory.TEXT_004.createInstrumented(registry, instrumentation)
+            final ExportFilter filter = new ExportFilter.ExportFilterBuilder().withNames('requests_total').build()
+        when:
+            exporter.export(new ByteArrayOutputStream())
+            metricRegistry.deregister(histogram)
+            exporter.export(new ByteArrayOutputStream(), filter)
+        then: 'a filtered scrape does not forget the families it did not select'
+            instrumentation.topFamilies(10)*.name.toSet() == ['requests_total', 'latency_seconds'] as Set
+        when:
+            exporter.export(new ByteArrayOutputStream())
+        then:
+            instrumentation.topFamilies(10)*.name == ['requests_total']
+            gaugeValues(instrumentation.familySeries).keySet() == ['requests_total'] as Set
+            gaugeValues(instrumentation.familyDuration).keySet() == ['requests_total'] as Set
+            instrumentation.familySeries.getChildCount() == 1
+    }
+
+    def 'a scrape with family detail should export the collectors of a custom exporter whole'() {
+        given:
+            final ExportInstrumentation instrumentation = createInstrumentation(true)
+            final CollectorExporter fullOnly = { stream -> stream.write('full,'.bytes) } as CollectorExporter
+            final CollectorRegistryExporter exporter =
+                new InstrumentedCollectorRegistryExporter(registry, { collector -> fullOnly } as Function, 'END'.bytes, instrumentation)
+            final ByteArrayOutputStream output = new ByteArrayOutputStream()
+        when:
+            exporter.export(output)
+        then:
+            output.toString() == 'full,END'
+            instrumentation.scrapeBytes.getValue() == output.size()
+            instrumentation.topFamilies(10).empty
+    }
+
+    def 'a scrape without family detail should not record the cost of families'() {
+        given:
+            final ExportInstrumentation instrumentation = createInstrumentation(false)
+        when:
+            CollectorRegistryExporterFactory.TEXT_004.createInstrumented(registry, instrumentation).export(new ByteArrayOutputStream())
+        then:
+            instrumentation.topFamilies(10).empty
+    }
+
+    @Unroll
+    def 'registering the metrics with family detail #familyDetail should register #expectedNames'() {
+        given:
+            final MetricRegistry target = new MetricRegistry()
+        when:
+            createInstrumentation(familyDetail).registerMetricsTo(target)
+        then:
+            target.all()*.name == expectedNames
+        where:
+            familyDetail | expectedNames
+            false        | ['metrics_scrape_bytes_total', 'metrics_scrape_duration_seconds', 'metrics_scrape_series_total']
+            true         | ['metrics_scrape_bytes_total', 'metrics_scrape_duration_seconds', 'metrics_scrape_family_duration_seconds',
+                            'metrics_scrape_family_series', 'metrics_scrape_series_total']
+    }
+
+    def 'registering the metrics where another instrumentation registered its metrics should fail'() {
+        given:
+            final MetricRegistry target = new MetricRegistry()
+            createInstrumentation(true).registerMetricsTo(target)
+        when:
+            createInstrumentation(true).registerMetricsTo(target)
+        then:
+            thrown(IllegalArgumentException)
+    }
+
+    def 'the number of top families must be positive'() {
+        when:
+            createInstrumentation(true).topFamilies(0)
+        then:
+            thrown(IllegalArgumentException)
+    }
+
+    private static Map<String, Double> gaugeValues(final Metric gauge) {
+        final Map<String, Double> values = [:]
+        gauge.forEachMetricData([consumeGauge: { metric, labelValues, value -> values[labelValues[0]] = value }] as MetricDataConsumer)
+        return values
+    }
+
+    private static ExportInstrumentation createInstrumentation(final boolean familyDetail) {
+        final ExportInstrumentation.ExportInstrumentationBuilder builder = new ExportInstrumentation.ExportInstrumentationBuilder()
+        return (familyDetail ? builder.withFamilyDetail() : builder).build()
+    }
+}
@@ -0,0 +1,181 @@
+package com.outbrain.swinfra.metrics.exporter
+
+import com.outbrain.swinfra.metrics.Counter
+import com.outbrain.swinfra.metrics.Histogram
+import com.outbrain.swinfra.metrics.Metric
+import com.outbrain.swinfra.metrics.MetricCollector
+import com.outbrain.swinfra.metrics.MetricCollectorRegistry
+import com.outbrain.swinfra.metrics.MetricRegistry
+import com.outbrain.swinfra.metrics.Summary
+import com.outbrain.swinfra.metrics.exporter.text.TextFormatter
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.Executor
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.Function
+
+class ParallelCollectorRegistryExporterTest extends Specification {
+
+    private final MetricCollectorRegistry registry = new MetricCollectorRegistry()
+    private final ForkJoinPool pool = new ForkJoinPool(4)
+
+    def setup() {
+        registry.register(createCollector('a', ['static': 'a']))
+        registry.register(createCollector('b', ['static': 'b']))
+    }
+
+    def cleanup() {
+        pool.shutdownNow()
+    }
+
+    @Unroll
+    def 'the parallel export of #factory is identical to the sequential export'() {
+        given:
+            final CollectorRegistryExporter sequential = factory.create(registry)
+            final CollectorRegistryExporter parallel = factory.createParallel(registry, pool, 0)
+        when:
+            final ByteArrayOutputStream expected = new ByteArrayOutputStream()
+            final ByteArrayOutputStream actual = new ByteArrayOutputStream()
+            sequential.export(expected)
+            parallel.export(actual)
+        then:
+            actual.toByteArray() == expected.toByteArray()
+        where:
+            factory << CollectorRegistryExporterFactory.values()
+    }
+
+    @Unroll
+    def 'the filtered parallel export of #factory is identical to the filtered sequential export'() {
+        given:
+            final ExportFilter filter = new ExportFilter.ExportFilterBuilder()
+                .withPrefixes('a_counter', 'b_')
+                .withLabelNotEqual('static', 'b')
+                .build()
+            final CollectorRegistryExporter sequential = factory.create(registry)
+            final CollectorRegistryExporter parallel = factory.createParallel(registry, pool, 0)
+        when:
+            final ByteArrayOutputStream expected = new ByteArrayOutputStream()
+            final ByteArrayOutputStream actual = new ByteArrayOutputStream()
+            sequential.export(expected, filter)
+            parallel.export(actual, filter)
+        then:
+            actual.size() > 0
+            actual.toByteArray() == expected.toByteArray()
+        where:
+            factory << CollectorRegistryExporterFactory.values()
+    }
+
+    def 'filtered exports of large registries run in parallel'() {
+        given:
+            final AtomicInteger tasks = new AtomicInteger()
+            final Executor executor = { Runnable task -> tasks.incrementAndGet(); task.run() } as Executor
+            final CollectorRegistryExporter exporter = CollectorRegistryExporterFactory.TEXT_004.createParallel(registry, executor, 4, 10)
+        when:
+            exporter.export(new ByteArrayOutputStream(), new ExportFilter.ExportFilterBuilder().withPrefixes('a_').build())
+        then:
+            tasks.get() == 15
+    }
+
+    def 'registries below the parallelism threshold are exported on the calling thread'() {
+        given:
+            final AtomicInteger tasks = new AtomicInteger()
+            final Executor executor = { Runnable task -> tasks.incrementAndGet(); task.run() } as Executor
+            final CollectorRegistryExporter exporter = CollectorRegistryExporterFactory.TEXT_004.createParallel(registry, executor, 4, threshold)
+        when:
+            exporter.export(new ByteArrayOutputStream())
+        then:
+            tasks.get() == expectedTasks
+        where:
+            threshold | expectedTasks
+            1000      | 0
+            10        | 16
+    }
+
+    def 'registries below the parallelism threshold are exported with the full export of every collector'() {
+        given:
+            final PartialCollectorExporter collectorExporter = Mock(PartialCollectorExporter)
+            final ParallelCollectorRegistryExporter exporter =
+                new ParallelCollectorRegistryExporter(registry, { collectorExporter } as Function, new byte[0], pool, 1000)
+        when:
+            exporter.export(new ByteArrayOutputStream())
+        then:
+            2 * collectorExporter.exportTo(_ as OutputStream)
+            0 * collectorExporter.exportTo(_ as OutputStream, _ as Iterable)
+    }
+
+    def 'exports the metrics of a collector in consecutive chunks'() {
+        given:
+            final List<List<String>> chunks = [].asSynchronized()
+            final PartialCollectorExporter collectorExporter = Mock(PartialCollectorExporter) {
+                exportTo(_ as OutputStream, _ as Iterable) >> { OutputStream stream, Iterable<Metric> metrics ->
+                    chunks << metrics*.name
+                    stream.write(metrics*.name.join(',').bytes)
+                }
+            }
+            final MetricCollectorRegistry singleCollector = new MetricCollectorRegistry()
+            singleCollector.register(createCollector('c', [:]))
+            final ParallelCollectorRegistryExporter exporter =
+                new ParallelCollectorRegistryExporter(singleCollector, { collectorExporter } as Function, 'END'.bytes, pool, 0)
+            final ByteArrayOutputStream output = new ByteArrayOutputStream()
+        when:
+            exporter.export(output)
+        then:
+            chunks.size() == 15
+            chunks.every { it.size() <= 2 }
+            output.toString() == singleCollector.iterator().next().collect { it.name }.collate(2)*.join(',').join('') + 'END'
+    }
+
+    def 'collectors whose exporters cannot export a part of them are exported whole above the threshold'() {
+        given:
+            final CollectorExporter fullOnly = new CollectorExporter() {
+                @Override
+                void exportTo(final OutputStream out) throws IOException {
+                    out.write('full,'.bytes)
+                }
+            }
+            final MetricCollector partialCollector = registry.iterator().next()
+            final ParallelCollectorRegistryExporter exporter = new ParallelCollectorRegistryExporter(registry, { MetricCollector collector ->
+                collector.is(partialCollector) ? new TextFormatter(collector) : fullOnly
+            } as Function, 'END'.bytes, pool, 10)
+            final ByteArrayOutputStream expected = new ByteArrayOutputStream()
+            new TextFormatter(partialCollector).exportTo(expected)
+            final ByteArrayOutputStream output = new ByteArrayOutputStream()
+        when:
+            exporter.export(output)
+        then:
+            output.toString() == expected.toString() + 'full,END'
+        when:
+            exporter.export(output, new ExportFilter.ExportFilterBuilder().withPrefixes('a_').build())
+        then:
+            thrown(IllegalArgumentException)
+    }
+
+    def 'propagates failures of the export tasks'() {
+        given:
+            final PartialCollectorExporter collectorExporter = Mock(PartialCollectorExporter) {
+                exportTo(_ as OutputStream, _ as Iterable) >> { throw new IOException('failed') }
+            }
+            final ParallelCollectorRegistryExporter exporter =
+                new ParallelCollectorRegistryExporter(registry, { collectorExporter } as Function, new byte[0], pool, 0)
+        when:
+            exporter.export(new ByteArrayOutputStream())
+        then:
+            final IOException e = thrown()
+            e.message == 'failed'
+    }
+
+    private static MetricCollector createCollector(final String prefix, final Map<String, String> staticLabels) {
+        final MetricRegistry metricRegistry = new MetricRegistry()
+        10.times { i ->
+            final Counter counter = metricRegistry.getOrRegister(new Counter.CounterBuilder("${prefix}_counter_$i", 'help').withLabels('l').build())
+            counter.inc(i, 'x')
+            final Histogram histogram = metricRegistry.getOrRegister(new Histogram.HistogramBuilder("${prefix}_histogram_$i", 'help').build())
+            histogram.observe(i)
+            final Summary summary = metricRegistry.getOrRegister(new Summary.SummaryBuilder("${prefix}_summary_$i", 'help').build())
+            summary.observe(i)
+        }
+        return new MetricCollector(metricRegistry, staticLabels)
+    }
+}
@@ -0,0 +1,107 @@
+package com.outbrain.swinfra.metrics.exporter
+
+import com.outbrain.swinfra.metrics.Counter
+import com.outbrain.swinfra.metrics.Gauge
+import com.outbrain.swinfra.metrics.Histogram
+import com.outbrain.swinfra.metrics.MetricCollector
+import com.outbrain.swinfra.metrics.MetricCollectorRegistry
+import com.outbrain.swinfra.metrics.MetricRegistry
+import com.outbrain.swinfra.metrics.Summary
+import spock.lang.Specification
+
+import java.util.function.DoubleSupplier
+
+class RegistrySnapshotTest extends Specification {
+
+    private final MetricRegistry registry = new MetricRegistry()
+    private final MetricCollectorRegistry collectorRegistry = new MetricCollectorRegistry()
+    private final RegistrySnapshot snapshot = new RegistrySnapshot()
+
+    def setup() {
+        collectorRegistry.register(new MetricCollector(registry, ['dc': 'ny']))
+    }
+
+    def 'captures counters and gauges as series with a single value'() {
+        given:
+            final Counter counter = registry.getOrRegister(new Counter.CounterBuilder('a_counter', 'help').withLabels('label').build())
+            counter.inc(3, 'x')
+            registry.getOrRegister(new Gauge.GaugeBuilder('b_gauge', 'help').withValueSupplier({ 7d } as DoubleSupplier).build())
+        when:
+            snapshot.capture(collectorRegistry)
+        then:
+            snapshot.familyCount == 2
+            snapshot.getMetric(0).name == 'a_counter'
+            snapshot.getStaticLabels(0) == ['dc': 'ny']
+            snapshot.getFirstSeries(0) == 0
+            snapshot.getSeriesEnd(0) == 1
+            snapshot.getLabelValues(0) == ['x']
+            snapshot.getValue(0) == 3d
+            snapshot.getCreatedTimeMillis(0) > 0
+            snapshot.getMetric(1).name == 'b_gauge'
+            snapshot.getValue(1) == 7d
+            snapshot.getCreatedTimeMillis(1) == RegistrySnapshot.NO_CREATED_TIME
+            snapshot.getFirstPoint(1) == snapshot.getPointEnd(1)
+    }
+
+    def 'captures histogram buckets and summary quantiles as points'() {
+        given:
+            final Histogram histogram = registry.getOrRegister(new Histogram.HistogramBuilder('a_histogram', 'help').withBuckets(1, 10).build())
+            histogram.observe(0.5)
+            histogram.observe(5)
+            histogram.observe(50)
+            final Summary summary = registry.getOrRegister(new Summary.SummaryBuilder('b_summary', 'help').build())
+            summary.observe(4)
+        when:
+            snapshot.capture(collectorRegistry)
+        then:
+            snapshot.getCount(0) == 3
+            snapshot.getValue(0) == 55.5d
+            (snapshot.getFirstPoint(0)..<snapshot.getPointEnd(0)).collect { snapshot.getPointBound(it) } == [1d, 10d, Double.POSITIVE_INFINITY]
+            (snapshot.getFirstPoint(0)..<snapshot.getPointEnd(0)).collect { snapshot.getPointCount(it) } == [1L, 2L, 3L]
+            snapshot.getCount(1) == 1
+            (snapshot.getFirstPoint(1)..<snapshot.getPointEnd(1)).collect { snapshot.getPointBound(it) } == RegistrySnapshot.SUMMARY_QUANTILES.toList()
+            (snapshot.getFirstPoint(1)..<snapshot.getPointEnd(1)).collect { snapshot.getPointValue(it) } == [4d] * 6
+    }
+
+    def 'captures only what the filter selects'() {
+        given:
+            final Counter counter = registry.getOrRegister(new Counter.CounterBuilder('a_counter', 'help').withLabels('label').build())
+            counter.inc(1, 'x')
+            counter.inc(2, 'y')
+            registry.getOrRegister(new Counter.CounterBuilder('b_counter', 'help').build())
+        when:
+            snapshot.capture(collectorRegistry, new ExportFilter.ExportFilterBuilder().withNames('a_counter').withLabel('label', 'y').build())
+        then:
+            snapshot.familyCount == 1
+            snapshot.seriesCount == 1
+            snapshot.getLabelValues(0) == ['y']
+    }
+
+    def 'reuses its arrays when the registry did not grow'() {
+        given:
+            final Histogram histogram = registry.getOrRegister(new Histogram.HistogramBuilder('a_histogram', 'help').withLabels('label').build())
+            (1..100).each { histogram.observe(it, "v$it") }
+            snapshot.capture(collectorRegistry)
+            final double[] values = snapshot.values
+            final long[] pointCounts = snapshot.pointCounts
+        when:
+            histogram.observe(1, 'v1')
+            snapshot.capture(collectorRegistry)
+        then:
+            snapshot.seriesCount == 100
+            snapshot.values.is(values)
+            snapshot.pointCounts.is(pointCounts)
+            snapshot.getCount((0..<100).find { snapshot.getLabelValues(it) == ['v1'] }) == 2
+    }
+
+    def 'is empty after clearing'() {
+        given:
+            registry.getOrRegister(new Counter.CounterBuilder('a_counter', 'help').build())
+            snapshot.capture(collectorRegistry)
+        when:
+            snapshot.clear()
+        then:
+            snapshot.familyCount == 0
+            snapshot.seriesCount == 0
+    }
+}
@@ -0,0 +1,192 @@
+package com.outbrain.swinfra.metrics.exporter.http
+
+import com.outbrain.swinfra.metrics.Counter
+import com.outbrain.swinfra.metrics.Gauge
+import com.outbrain.swinfra.metrics.MetricCollector
+import com.outbrain.swinfra.metrics.MetricCollectorRegistry
+import com.outbrain.swinfra.metrics.MetricRegistry
+import com.outbrain.swinfra.metrics.exporter.ExportInstrumentation
+import com.outbrain.swinfra.metrics.exporter.protobuf.ProtobufFormatter
+import com.outbrain.swinfra.metrics.exporter.text.TextFormatter
+import io.prometheus.client.Metrics
+import spock.lang.Specification
+
+import java.util.function.DoubleSupplier
+import java.util.zip.GZIPInputStream
+
+class MetricsHttpServerTest extends Specification {
+
+    private final MetricRegistry registry = new MetricRegistry()
+    private MetricsHttpServer server
+
+    def setup() {
+        final Counter counter = registry.getOrRegister(new Counter.CounterBuilder('requests_total', 'help').build())
+        counter.inc(17)
+
+        final MetricCollectorRegistry collectorRegistry = new MetricCollectorRegistry()
+        collectorRegistry.register(new MetricCollector(registry))
+        server = new MetricsHttpServer(new InetSocketAddress(InetAddress.loopbackAddress, 0), collectorRegistry)
+        server.start()
+    }
+
+    def cleanup() {
+        server.close()
+    }
+
+    def 'serves the text format by default'() {
+        when:
+            final HttpURLConnection connection = open()
+        then:
+            connection.responseCode == 200
+            connection.contentType == TextFormatter.CONTENT_TYPE_004
+            connection.inputStream.text == '''# HELP requests_total help
+# TYPE requests_total counter
+requests_total 17.0
+'''
+    }
+
+    def 'serves the protobuf format when it is accepted'() {
+        when:
+            final HttpURLConnection connection = open(['Accept': ProtobufFormatter.CONTENT_TYPE_PROTOBUF])
+            final Metrics.MetricFamily family = Metrics.MetricFamily.parseDelimitedFrom(connection.inputStream)
+        then:
+            connection.contentType == ProtobufFormatter.CONTENT_TYPE_PROTOBUF
+            family.name == 'requests_total'
+            family.getMetric(0).counter.value == 17d
+    }
+
+    def 'gzips the response when the client accepts it'() {
+        when:
+            final HttpURLConnection connection = open(['Accept-Encoding': 'gzip'])
+        then:
+            connection.getHeaderField('Content-Encoding') == 'gzip'
+            new GZIPInputStream(connection.inputStream).text.contains('requests_total 17.0')
+    }
+
+    def 'does not gzip the response when the client refuses it'() {
+        when:
+            final HttpURLConnection connection = open(['Accept-Encoding': 'gzip;q=0, identity'])
+        then:
+            connection.getHeaderField('Content-Encoding') == null
+            connection.inputStream.text.contains('requests_total 17.0')
+    }
+
+    def 'negotiates gzip by the quality of each coding'() {
+        expect:
+            MetricsHttpServer.acceptsGzip(acceptEncoding) == accepted
+        where:
+            acceptEncoding             | accepted
+            null                       | false
+            ''                         | false
+            'identity'                 | false
+            'gzip'                     | true
+            'GZIP, deflate'            | true
+            'deflate, gzip;q=0.5'      | true
+            'gzip;q=0'                 | false
+            'gzip; q=0.0, deflate'     | false
+            'gzip;q=oops'              | false
+            '*'                        | true
+            '*;q=0'                    | false
+            'gzip;q=0, *'              | false
+            'deflate;q=1, *;q=0.1'     | true
+            'x-gzip'                   | true
+    }
+
+    def 'responds with 500 when the export fails'() {
+        given:
+            registry.getOrRegister(new Gauge.GaugeBuilder('broken', 'help').withValueSupplier({ throw new IllegalStateException() } as DoubleSupplier).build())
+        when:
+            final HttpURLConnection connection = open()
+        then:
+            connection.responseCode == 500
+    }
+
+    def 'answers a HEAD request with the headers of the scrape without exporting it'() {
+        given:
+            int reads = 0
+            registry.getOrRegister(new Gauge.GaugeBuilder('reads', 'help').withValueSupplier({ ++reads } as DoubleSupplier).build())
+            server.registerMetricsTo(registry)
+        when:
+            final HttpURLConnection connection = open(['Accept-Encoding': 'gzip'])
+            connection.requestMethod = 'HEAD'
+        then:
+            connection.responseCode == 200
+            connection.contentType == TextFormatter.CONTENT_TYPE_004
+            connection.getHeaderField('Content-Encoding') == 'gzip'
+            reads == 0
+            server.responseBytes.getValue('text_004', 'gzip') == 0
+    }
+
+    def 'responds with 404 for unknown paths'() {
+        when:
+            final HttpURLConnection connection = open([:], '/metrics/other')
+        then:
+            connection.responseCode == 404
+    }
+
+    def 'exports only the metrics that are selected by the query string'() {
+        given:
+            registry.getOrRegister(new Counter.CounterBuilder('errors_total', 'help').build())
+        when:
+            final String scrape = open([:], MetricsHttpServer.METRICS_PATH + '?name%5B%5D=requests_total').inputStream.text
+        then:
+            scrape.contains('requests_total 17.0')
+            !scrape.contains('errors_total')
+    }
+
+    def 'responds with 400 for a malformed label matcher'() {
+        when:
+            final HttpURLConnection connection = open([:], MetricsHttpServer.METRICS_PATH + '?label[]=no_value')
+        then:
+            connection.responseCode == 400
+    }
+
+    def 'measures its own requests'() {
+        given:
+            server.registerMetricsTo(registry)
+        when:
+            open().inputStream.text
+            open(['Accept-Encoding': 'gzip']).inputStream.bytes
+            final String scrape = open().inputStream.text
+        then:
+            scrape.contains('metrics_http_response_bytes_total{format="text_004",encoding="identity",}')
+            scrape.contains('metrics_http_response_bytes_total{format="text_004",encoding="gzip",}')
+            scrape.contains('metrics_http_request_duration_seconds_count{format="text_004",} 2.0')
+    }
+
+    def 'registering the metrics where another server registered its metrics should fail'() {
+        given:
+            final MetricsHttpServer other = new MetricsHttpServer(new InetSocketAddress(InetAddress.loopbackAddress, 0), new MetricCollectorRegistry())
+            other.registerMetricsTo(registry)
+        when:
+            server.registerMetricsTo(registry)
+        then:
+            thrown(IllegalArgumentException)
+        cleanup:
+            other.close()
+    }
+
+    def 'measures the serialization of its scrapes when it is instrumented'() {
+        given:
+            final MetricCollectorRegistry collectorRegistry = new MetricCollectorRegistry()
+            collectorRegistry.register(new MetricCollector(registry))
+            final ExportInstrumentation instrumentation = new ExportInstrumentation.ExportInstrumentationBuilder().withFamilyDetail().build()
+            instrumentation.registerMetricsTo(registry)
+            server.close()
+            server = new MetricsHttpServer(new InetSocketAddress(InetAddress.loopbackAddress, 0), collectorRegistry, 1, instrumentation)
+            server.start()
+        when:
+            open().inputStream.text
+            final String scrape = open().inputStream.text
+        then:
+            scrape.contains('metrics_scrape_duration_seconds_count 1.0')
+            scrape.contains('metrics_scrape_family_series{family="requests_total",} 1.0')
+            instrumentation.topFamilies(1).size() == 1
+    }
+
+    private HttpURLConnection open(final Map<String, String> headers = [:], final String path = MetricsHttpServer.METRICS_PATH) {
+        final HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:${server.port}${path}").openConnection()
+        headers.each { name, value -> connection.setRequestProperty(name, value) }
+        return connection
+    }
+}
@@ -0,0 +1,331 @@
+package com.outbrain.swinfra.metrics.exporter.otlp
+
+import com.google.protobuf.ByteString
+import com.google.protobuf.UnknownFieldSet
+import com.outbrain.swinfra.metrics.Counter
+import com.outbrain.swinfra.metrics.Gauge
+import com.outbrain.swinfra.metrics.Histogram
+import com.outbrain.swinfra.metrics.MetricCollector
+import com.outbrain.swinfra.metrics.MetricCollectorRegistry
+import com.outbrain.swinfra.metrics.MetricRegistry
+import com.outbrain.swinfra.metrics.SettableGauge
+import com.outbrain.swinfra.metrics.Summary
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.function.DoubleSupplier
+
+class OtlpExporterTest extends Specification {
+
+    private static final int GAUGE = 5
+    private static final int SUM = 7
+    private static final int HISTOGRAM = 9
+    private static final int SUMMARY = 11
+
+    private final MetricRegistry registry = new MetricRegistry()
+    private final MetricCollectorRegistry collectorRegistry = new MetricCollectorRegistry()
+    private final Queue<byte[]> requests = new ConcurrentLinkedQueue<>()
+    private final Queue<Integer> statuses = new LinkedBlockingQueue<>()
+    private HttpServer collector
+
+    def setup() {
+        collectorRegistry.register(new MetricCollector(registry, ['host': 'h1']))
+        collector = HttpServer.create(new InetSocketAddress(InetAddress.loopbackAddress, 0), 0)
+        collector.createContext('/v1/metrics', this.&receive)
+        collector.start()
+    }
+
+    def cleanup() {
+        collector.stop(0)
+    }
+
+    def 'exports all the metric types with cumulative temporality'() {
+        given:
+            final Counter counter = registry.getOrRegister(new Counter.CounterBuilder('requests_total', 'Requests').withLabels('method').build())
+            counter.inc(3, 'GET')
+            registry.getOrRegister(new Gauge.GaugeBuilder('threads', 'Threads').withValueSupplier({ 7d }).build())
+            final SettableGauge settableGauge = registry.getOrRegister(new SettableGauge.SettableGaugeBuilder('temperature', 'Temperature').build())
+            settableGauge.set(21.5)
+            final Histogram histogram = registry.getOrRegister(new Histogram.HistogramBuilder('latency_seconds', 'Latency')
+                                                                   .withBuckets(1, 2)
+                                                                   .withUnit('seconds')
+                                                                   .build())
+            histogram.observe(0.5)
+            histogram.observe(1.5)
+            histogram.observe(5)
+            final Summary summary = registry.getOrRegister(new Summary.SummaryBuilder('sizes', 'Sizes').build())
+            summary.observe(10)
+            final OtlpExporter exporter = exporterBuilder().withResourceAttribute('service.name', 'test').build()
+        when:
+            exporter.export()
+            final Map request = parseRequest(requests.poll())
+            final Map<String, Map> metrics = request.metrics.collectEntries { [(it.name): it] }
+        then:
+            request.resource == ['service.name': 'test']
+            metrics.keySet() == ['requests_total', 'threads', 'temperature', 'latency_seconds', 'sizes'] as Set
+
+            metrics.requests_total.type == SUM
+            metrics.requests_total.description == 'Requests'
+            metrics.requests_total.temporality == AggregationTemporality.CUMULATIVE.protoValue
+            metrics.requests_total.monotonic
+            metrics.requests_total.points*.attributes == [['host': 'h1', 'method': 'GET']]
+            metrics.requests_total.points*.value == [3d]
+
+            metrics.threads.type == GAUGE
+            metrics.threads.points*.value == [7d]
+            metrics.temperature.type == GAUGE
+            metrics.temperature.points*.value == [21.5d]
+
+            metrics.latency_seconds.type == HISTOGRAM
+            metrics.latency_seconds.unit == 'seconds'
+            metrics.latency_seconds.points*.count == [3L]
+            metrics.latency_seconds.points*.sum == [7d]
+            metrics.latency_seconds.points*.bucketCounts == [[1L, 1L, 1L]]
+            metrics.latency_seconds.points*.bounds == [[1d, 2d]]
+
+            metrics.sizes.type == SUMMARY
+            metrics.sizes.points*.count == [1L]
+            metrics.sizes.points*.sum == [10d]
+            metrics.sizes.points[0].quantiles.size() == 6
+    }
+
+    def 'exports the changes since the previous export with delta temporality'() {
+        given:
+            final Counter counter = registry.getOrRegister(new Counter.CounterBuilder('requests_total', 'help').build())
+            final Histogram histogram = registry.getOrRegister(new Histogram.HistogramBuilder('latency', 'help').withBuckets(1).build())
+            final OtlpExporter exporter = exporterBuilder().withTemporality(AggregationTemporality.DELTA).build()
+        when:
+            counter.inc(5)
+            histogram.observe(0.5)
+            exporter.export()
+            counter.inc(3)
+            histogram.observe(3)
+            histogram.observe(4)
+            exporter.export()
+            final List<Map<String, Map>> exports = requests.collect { parseRequest(it).metrics.collectEntries { [(it.name): it] } }
+        then:
+            exports*.requests_total*.temporality == [AggregationTemporality.DELTA.protoValue] * 2
+            exports.collect { it.requests_total.points[0].value } == [5d, 3d]
+            exports.collect { it.latency.points[0].count } == [1L, 2L]
+            exports.collect { it.latency.points[0].sum } == [0.5d, 7d]
+            exports.collect { it.latency.points[0].bucketCounts } == [[1L, 0L], [0L, 2L]]
+            exports[1].requests_total.points[0].startTime == exports[0].requests_total.points[0].time
+    }
+
+    def 'reports the changes of a failed delta export in the next export'() {
+        given:
+            final Counter counter = registry.getOrRegister(new Counter.CounterBuilder('requests_total', 'help').build())
+            final Histogram histogram = registry.getOrRegister(new Histogram.HistogramBuilder('latency', 'help').withBuckets(1).build())
+            final OtlpExporter exporter = exporterBuilder().withTemporality(AggregationTemporality.DELTA).build()
+        when:
+            counter.inc(5)
+            histogram.observe(0.5)
+            exporter.export()
+            counter.inc(3)
+            histogram.observe(3)
+            statuses.add(500)
+            exporter.export()
+        then:
+            thrown(IOException)
+        when:
+            counter.inc(2)
+            histogram.observe(0.5)
+            exporter.export()
+            final List<Map<String, Map>> exports = requests.collect { parseRequest(it).metrics.collectEntries { [(it.name): it] } }
+        then:
+            exports.collect { it.requests_total.points[0].value } == [5d, 3d, 5d]
+            exports.collect { it.latency.points[0].count } == [1L, 1L, 2L]
+            exports.collect { it.latency.points[0].sum } == [0.5d, 3d, 3.5d]
+            exports.collect { it.latency.points[0].bucketCounts } == [[1L, 0L], [0L, 1L], [1L, 1L]]
+            exports[2].requests_total.points[0].startTime == exports[0].requests_total.points[0].time
+    }
+
+    def 'reports the changes of a delta export that failed while reading the metrics in the next export'() {
+        given:
+            final AtomicBoolean broken = new AtomicBoolean(false)
+            final Counter counter = registry.getOrRegister(new Counter.CounterBuilder('requests_total', 'help').build())
+            registry.getOrRegister(new Gauge.GaugeBuilder('threads', 'Threads').withValueSupplier({
+                if (broken.get()) {
+                    throw new IllegalStateException()
+                }
+                7d
+            } as DoubleSupplier).build())
+            final OtlpExporter exporter = exporterBuilder().withTemporality(AggregationTemporality.DELTA).build()
+        when:
+            counter.inc(5)
+            exporter.export()
+            counter.inc(3)
+            broken.set(true)
+            exporter.export()
+        then:
+            thrown(IllegalStateException)
+        when:
+            broken.set(false)
+            counter.inc(2)
+            exporter.export()
+            final List<Map<String, Map>> exports = requests.collect { parseRequest(it).metrics.collectEntries { [(it.name): it] } }
+        then:
+            exports.collect { it.requests_total.points[0].value } == [5d, 5d]
+    }
+
+    def 'splits large exports into several requests'() {
+        given:
+            final Counter counter = registry.getOrRegister(new Counter.CounterBuilder('requests_total', 'help').withLabels('l').build())
+            5.times { counter.inc("$it") }
+            final OtlpExporter exporter = exporterBuilder().withMaxDataPointsPerRequest(2).build()
+            final MetricRegistry selfRegistry = new MetricRegistry()
+            exporter.registerMetricsTo(selfRegistry)
+        when:
+            exporter.export()
+            final List<Map> parsed = requests.collect { parseRequest(it) }
+        then:
+            parsed.collect { it.metrics*.name } == [['requests_total']] * 3
+            parsed.collect { it.metrics[0].points.size() } == [2, 2, 1]
+            exporter.dataPoints.getValue() == 5
+            exporter.exports.getValue('success') == 1
+    }
+
+    def 'fails the export when the collector responds with an error'() {
+        given:
+            registry.getOrRegister(new Counter.CounterBuilder('requests_total', 'help').build()).inc()
+            statuses.add(503)
+            final OtlpExporter exporter = exporterBuilder().build()
+        when:
+            exporter.export()
+        then:
+            thrown(IOException)
+            exporter.exports.getValue('failure') == 1
+    }
+
+    def 'keeps exporting periodically after an export fails with a runtime exception'() {
+        given:
+            final AtomicBoolean broken = new AtomicBoolean(true)
+            registry.getOrRegister(new Gauge.GaugeBuilder('threads', 'Threads').withValueSupplier({
+                if (broken.get()) {
+                    throw new IllegalStateException()
+                }
+                7d
+            } as DoubleSupplier).build())
+            final OtlpExporter exporter = exporterBuilder().withExportInterval(5, TimeUnit.MILLISECONDS).build()
+        when:
+            exporter.start()
+            awaitCount(exporter, 'failure', 2)
+            broken.set(false)
+            awaitCount(exporter, 'success', 1)
+        then:
+            exporter.exports.getValue('failure') >= 2
+            exporter.exports.getValue('success') >= 1
+            !requests.empty
+        cleanup:
+            exporter.close()
+    }
+
+    private static void awaitCount(final OtlpExporter exporter, final String result, final long count) {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10)
+        while (exporter.exports.getValue(result) < count && System.nanoTime() < deadline) {
+            Thread.sleep(1)
+        }
+    }
+
+    def 'registering the metrics where another exporter registered its metrics should fail'() {
+        given:
+            final MetricRegistry selfRegistry = new MetricRegistry()
+            final OtlpExporter first = exporterBuilder().build()
+            final OtlpExporter second = exporterBuilder().build()
+            first.registerMetricsTo(selfRegistry)
+        when:
+            second.registerMetricsTo(selfRegistry)
+        then:
+            thrown(IllegalArgumentException)
+        cleanup:
+            first.close()
+            second.close()
+    }
+
+    private OtlpExporter.OtlpExporterBuilder exporterBuilder() {
+        return new OtlpExporter.OtlpExporterBuilder(new URL("http://localhost:${collector.address.port}/v1/metrics"), collectorRegistry)
+    }
+
+    private void receive(final HttpExchange exchange) {
+        assert exchange.requestHeaders.getFirst('Content-Type') == 'application/x-protobuf'
+        requests.add(exchange.requestBody.bytes)
+        final Integer status = statuses.poll()
+        exchange.sendResponseHeaders(status == null ? 200 : status, -1)
+        exchange.close()
+    }
+
+    private static Map parseRequest(final byte[] body) {
+        final UnknownFieldSet resourceMetrics = message(UnknownFieldSet.parseFrom(body), 1)
+        final UnknownFieldSet resource = message(resourceMetrics, 1)
+        final UnknownFieldSet scopeMetrics = message(resourceMetrics, 2)
+        return [resource: attributes(resource, 1),
+                metrics : scopeMetrics.getField(2).lengthDelimitedList.collect { parseMetric(UnknownFieldSet.parseFrom(it)) }]
+    }
+
+    private static Map parseMetric(final UnknownFieldSet metric) {
+        final int type = [GAUGE, SUM, HISTOGRAM, SUMMARY].find { metric.hasField(it) }
+        final UnknownFieldSet data = message(metric, type)
+        return [name       : string(metric, 1),
+                description: string(metric, 2),
+                unit       : string(metric, 3),
+                type       : type,
+                temporality: data.hasField(2) ? data.getField(2).varintList[0] : null,
+                monotonic  : data.hasField(3) && data.getField(3).varintList[0] == 1,
+                points     : data.getField(1).lengthDelimitedList.collect { parsePoint(type, UnknownFieldSet.parseFrom(it)) }]
+    }
+
+    private static Map parsePoint(final int type, final UnknownFieldSet point) {
+        final Map parsed = [startTime: point.hasField(2) ? point.getField(2).fixed64List[0] : null,
+                            time     : point.getField(3).fixed64List[0]]
+        if (type == GAUGE || type == SUM) {
+            parsed.attributes = attributes(point, 7)
+            parsed.value = Double.longBitsToDouble(point.getField(4).fixed64List[0])
+        } else {
+            parsed.attributes = attributes(point, type == HISTOGRAM ? 9 : 7)
+            parsed.count = point.getField(4).fixed64List[0]
+            parsed.sum = Double.longBitsToDouble(point.getField(5).fixed64List[0])
+        }
+        if (type == HISTOGRAM) {
+            parsed.bucketCounts = unpack(point.getField(6).lengthDelimitedList[0])
+            parsed.bounds = unpack(point.getField(7).lengthDelimitedList[0]).collect { Double.longBitsToDouble(it) }
+        }
+        if (type == SUMMARY) {
+            parsed.quantiles = point.getField(6).lengthDelimitedList.collectEntries {
+                final UnknownFieldSet quantile = UnknownFieldSet.parseFrom(it)
+                [(Double.longBitsToDouble(quantile.getField(1).fixed64List[0])): Double.longBitsToDouble(quantile.getField(2).fixed64List[0])]
+            }
+        }
+        return parsed
+    }
+
+    private static Map<String, String> attributes(final UnknownFieldSet parent, final int field) {
+        return parent.getField(field).lengthDelimitedList.collectEntries {
+            final UnknownFieldSet keyValue = UnknownFieldSet.parseFrom(it)
+            [(string(keyValue, 1)): string(message(keyValue, 2), 1)]
+        }
+    }
+
+    private static UnknownFieldSet message(final UnknownFieldSet parent, final int field) {
+        return UnknownFieldSet.parseFrom(parent.getField(field).lengthDelimitedList[0])
+    }
+
+    private static String string(final UnknownFieldSet message, final int field) {
+        return message.getField(field).lengthDelimitedList[0].toStringUtf8()
+    }
+
+    private static List<Long> unpack(final ByteString packed) {
+        final ByteBuffer buffer = packed.asReadOnlyByteBuffer().order(ByteOrder.LITTLE_ENDIAN)
+        final List<Long> values = []
+        while (buffer.hasRemaining()) {
+            values << buffer.getLong()
+        }
+        return values
+    }
+}
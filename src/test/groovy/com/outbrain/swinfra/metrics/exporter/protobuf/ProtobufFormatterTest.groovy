@@ -1,5 +1,6 @@
 package com.outbrain.swinfra.metrics.exporter.protobuf
 
+import com.google.protobuf.UnknownFieldSet
 import com.outbrain.swinfra.metrics.*
 import io.prometheus.client.Metrics
 import io.prometheus.client.Metrics.MetricFamily
@@ -246,6 +247,37 @@ class ProtobufFormatterTest extends Specification {
         Metrics.Bucket.newBuilder().setCumulativeCount(count).setUpperBound(upperBound).build()
     }
 
+    def 'appends exemplars of counters and histogram buckets as their exemplar fields'() {
+        given:
+            Counter counter = new Counter.CounterBuilder('Counter', 'help').withExemplars().build()
+            counter.incWithExemplar(2, ['trace_id': 'abc'])
+            Histogram histogram = new Histogram.HistogramBuilder('Histogram', 'help').withBuckets(1).withExemplars().build()
+            histogram.observeWithExemplar(0.5, ['trace_id': 'def'])
+
+            collector.iterator() >> [counter, histogram].iterator()
+            collector.staticLabels >> [:]
+
+        when:
+            formatter.exportTo(output)
+
+            List<MetricFamily> families = deserialize(output)
+            UnknownFieldSet counterExemplar = exemplarOf(families[0].getMetric(0).counter.unknownFields, 2)
+            UnknownFieldSet bucketExemplar = exemplarOf(families[1].getMetric(0).histogram.getBucket(0).unknownFields, 3)
+
+        then:
+            Metrics.LabelPair.parseFrom(counterExemplar.getField(1).lengthDelimitedList[0]).value == 'abc'
+            Double.longBitsToDouble(counterExemplar.getField(2).fixed64List[0]) == 2d
+            UnknownFieldSet.parseFrom(counterExemplar.getField(3).lengthDelimitedList[0]).getField(1).varintList[0] > 0
+
+            Metrics.LabelPair.parseFrom(bucketExemplar.getField(1).lengthDelimitedList[0]).value == 'def'
+            Double.longBitsToDouble(bucketExemplar.getField(2).fixed64List[0]) == 0.5d
+            families[1].getMetric(0).histogram.getBucket(1).unknownFields.asMap().isEmpty()
+    }
+
+    private static UnknownFieldSet exemplarOf(final UnknownFieldSet fields, final int fieldNumber) {
+        return UnknownFieldSet.parseFrom(fields.getField(fieldNumber).lengthDelimitedList[0])
+    }
+
     private static List<MetricFamily> deserialize(ByteArrayOutputStream output) {
         ByteArrayInputStream serialized = new ByteArrayInputStream(output.toByteArray())
         List<MetricFamily> families = []
@@ -0,0 +1,59 @@
+package com.outbrain.swinfra.metrics.exporter.protobuf
+
+import com.outbrain.swinfra.metrics.Counter
+import com.outbrain.swinfra.metrics.Gauge
+import com.outbrain.swinfra.metrics.Histogram
+import com.outbrain.swinfra.metrics.MetricCollector
+import com.outbrain.swinfra.metrics.MetricCollectorRegistry
+import com.outbrain.swinfra.metrics.MetricRegistry
+import com.outbrain.swinfra.metrics.Summary
+import com.outbrain.swinfra.metrics.exporter.CollectorRegistryExporterFactory
+import com.outbrain.swinfra.metrics.exporter.RegistrySnapshot
+import io.prometheus.client.Metrics.MetricFamily
+import spock.lang.Specification
+import spock.lang.Subject
+
+import java.util.function.DoubleSupplier
+
+class ProtobufSnapshotExporterTest extends Specification {
+
+    @Subject
+    private final ProtobufSnapshotExporter exporter = new ProtobufSnapshotExporter()
+
+    def 'writes the same families as the protobuf formatter'() {
+        given:
+            final MetricRegistry registry = new MetricRegistry()
+            final Counter counter = registry.getOrRegister(new Counter.CounterBuilder('requests_total', 'help').withLabels('path').build())
+            counter.inc(17, '/a')
+            counter.inc(300, 'café')
+            registry.getOrRegister(new Gauge.GaugeBuilder('ratio', 'help').withValueSupplier({ 0.25d } as DoubleSupplier).build())
+            final Histogram histogram = registry.getOrRegister(new Histogram.HistogramBuilder('latency', 'help').withBuckets(1, 10).build())
+            histogram.observe(5)
+            histogram.observe(500)
+            final Summary summary = registry.getOrRegister(new Summary.SummaryBuilder('sizes', 'help').withLabels('kind').build())
+            summary.observe(3, 'small')
+
+            final MetricCollectorRegistry collectorRegistry = new MetricCollectorRegistry()
+            collectorRegistry.register(new MetricCollector(registry, ['dc': 'ny']))
+
+            final ByteArrayOutputStream expected = new ByteArrayOutputStream()
+            CollectorRegistryExporterFactory.PROTOBUF.create(collectorRegistry).export(expected)
+            final RegistrySnapshot snapshot = new RegistrySnapshot()
+            final ByteArrayOutputStream actual = new ByteArrayOutputStream()
+        when:
+            snapshot.capture(collectorRegistry)
+            exporter.exportTo(snapshot, actual)
+        then:
+            deserialize(actual) == deserialize(expected)
+            deserialize(actual).size() == 4
+    }
+
+    private static List<MetricFamily> deserialize(final ByteArrayOutputStream output) {
+        final ByteArrayInputStream input = new ByteArrayInputStream(output.toByteArray())
+        final List<MetricFamily> families = []
+        while (input.available() > 0) {
+            families << MetricFamily.parseDelimitedFrom(input)
+        }
+        return families
+    }
+}
@@ -0,0 +1,71 @@
+package com.outbrain.swinfra.metrics.exporter.protobuf
+
+import io.prometheus.client.Metrics
+import spock.lang.Specification
+import spock.lang.Subject
+
+class ProtobufWriterTest extends Specification {
+
+    @Subject
+    ProtobufWriter writer = new ProtobufWriter(16)
+
+    def 'writes messages that can be parsed by generated code'() {
+        given:
+            final String longHelp = 'help ' * 100
+        when:
+            writer.writeString(1, 'family').writeString(2, longHelp).writeVarint(3, Metrics.MetricType.COUNTER_VALUE)
+            3.times { i ->
+                writer.startMessage(4)
+                      .startMessage(1).writeString(1, 'label').writeString(2, "value$i").endMessage()
+                      .startMessage(3).writeDouble(1, i + 0.5d).endMessage()
+                      .writeVarint(6, -1L)
+                      .endMessage()
+            }
+            final Metrics.MetricFamily family = Metrics.MetricFamily.parseFrom(writer.toByteArray())
+        then:
+            family.name == 'family'
+            family.help == longHelp
+            family.type == Metrics.MetricType.COUNTER
+            family.metricList.collect { it.getLabel(0).value } == ['value0', 'value1', 'value2']
+            family.metricList.collect { it.counter.value } == [0.5d, 1.5d, 2.5d]
+            family.metricList.collect { it.timestampMs } == [-1L, -1L, -1L]
+    }
+
+    def 'shifts the content of embedded messages whose length needs a longer varint'() {
+        given:
+            final String value = 'x' * length
+        when:
+            writer.startMessage(1).writeString(1, 'name').writeString(2, value).endMessage()
+            final Metrics.LabelPair label = Metrics.Metric.parseFrom(writer.toByteArray()).getLabel(0)
+        then:
+            label.name == 'name'
+            label.value == value
+        where:
+            length << [0, 100, 200, 20_000, 3_000_000]
+    }
+
+    def 'encodes strings as UTF-8'() {
+        given:
+            final String value = 'aé€😀'
+        when:
+            writer.writeString(1, value)
+        then:
+            Metrics.LabelPair.parseFrom(writer.toByteArray()).name == value
+    }
+
+    def 'is reusable after a reset'() {
+        when:
+            writer.writeString(1, 'first')
+            writer.reset()
+            writer.writeString(1, 'second')
+        then:
+            Metrics.LabelPair.parseFrom(writer.toByteArray()).name == 'second'
+    }
+
+    def 'fails when a message is ended without being started'() {
+        when:
+            writer.endMessage()
+        then:
+            thrown(IllegalStateException)
+    }
+}
@@ -0,0 +1,255 @@
+package com.outbrain.swinfra.metrics.exporter.remotewrite
+
+import com.google.protobuf.ByteString
+import com.google.protobuf.UnknownFieldSet
+import com.outbrain.swinfra.metrics.Counter
+import com.outbrain.swinfra.metrics.Gauge
+import com.outbrain.swinfra.metrics.Histogram
+import com.outbrain.swinfra.metrics.MetricCollector
+import com.outbrain.swinfra.metrics.MetricCollectorRegistry
+import com.outbrain.swinfra.metrics.MetricRegistry
+import com.sun.net.httpserver.Headers
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import spock.lang.Specification
+
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.DoubleSupplier
+
+class RemoteWriteClientTest extends Specification {
+
+    private final MetricRegistry registry = new MetricRegistry()
+    private final MetricCollectorRegistry collectorRegistry = new MetricCollectorRegistry()
+    private final Queue<HttpExchangeRecord> requests = new ConcurrentLinkedQueue<>()
+    private final Queue<Integer> statuses = new LinkedBlockingQueue<>()
+    private CountDownLatch receiverLatch = new CountDownLatch(0)
+    private HttpServer receiver
+
+    def setup() {
+        collectorRegistry.register(new MetricCollector(registry, ['job': 'batch']))
+        receiver = HttpServer.create(new InetSocketAddress(InetAddress.loopbackAddress, 0), 0)
+        receiver.createContext('/api/v1/write', this.&receive)
+        receiver.start()
+    }
+
+    def cleanup() {
+        receiver.stop(0)
+    }
+
+    def 'pushes the registry as a snappy compressed write request'() {
+        given:
+            final Counter counter = registry.getOrRegister(new Counter.CounterBuilder('requests_total', 'help').withLabels('method').build())
+            counter.inc(3, 'GET')
+            final Histogram histogram = registry.getOrRegister(new Histogram.HistogramBuilder('latency', 'help').withBuckets(1).build())
+            histogram.observe(0.5)
+            final RemoteWriteClient client = clientBuilder().withHeader('X-Scope-OrgID', 'tenant').build()
+        when:
+            client.push()
+            client.close()
+            final List<Map> series = requests.collectMany { parseWriteRequest(it.body) }.sort { it.labels.toString() }
+        then:
+            requests.every {
+                it.headers.getFirst('Content-Encoding') == 'snappy' &&
+                it.headers.getFirst('Content-Type') == 'application/x-protobuf' &&
+                it.headers.getFirst('X-Prometheus-Remote-Write-Version') == '0.1.0' &&
+                it.headers.getFirst('X-Scope-OrgID') == 'tenant'
+            }
+            series*.labels == [['__name__': 'latency_bucket', 'job': 'batch', 'le': '+Inf'],
+                               ['__name__': 'latency_bucket', 'job': 'batch', 'le': '1.0'],
+                               ['__name__': 'latency_count', 'job': 'batch'],
+                               ['__name__': 'latency_sum', 'job': 'batch'],
+                               ['__name__': 'requests_total', 'job': 'batch', 'method': 'GET']]
+            series*.value == [1d, 1d, 1d, 0.5d, 3d]
+            series*.timestamp.unique().size() == 1
+            client.samples.getValue('sent') == 5
+    }
+
+    def 'the labels of every series are sorted by name'() {
+        given:
+            final Counter counter = registry.getOrRegister(new Counter.CounterBuilder('c', 'help').withLabels('zeta', 'alpha').build())
+            counter.inc('z', 'a')
+            final RemoteWriteClient client = clientBuilder().build()
+        when:
+            client.push()
+            client.close()
+        then:
+            parseWriteRequest(requests.peek().body)[0].labels.keySet() as List == ['__name__', 'alpha', 'job', 'zeta']
+    }
+
+    def 'close keeps the interrupt status of a thread that is interrupted while waiting'() {
+        given:
+            final RemoteWriteClient client = clientBuilder().build()
+            client.start()
+        when:
+            Thread.currentThread().interrupt()
+            client.close()
+        then:
+            Thread.interrupted()
+    }
+
+    def 'batches at most maxSamplesPerSend samples per request'() {
+        given:
+            final Counter counter = registry.getOrRegister(new Counter.CounterBuilder('c', 'help').withLabels('l').build())
+            10.times { counter.inc("$it") }
+            final RemoteWriteClient client = clientBuilder().withShards(1).withMaxSamplesPerSend(3).build()
+        when:
+            client.push()
+            client.close()
+        then:
+            requests.size() >= 4
+            requests.every { parseWriteRequest(it.body).size() <= 3 }
+            requests.sum { parseWriteRequest(it.body).size() } == 10
+    }
+
+    def 'retries failed requests with a backoff'() {
+        given:
+            registry.getOrRegister(new Counter.CounterBuilder('c', 'help').build()).inc()
+            statuses.addAll([500, 429])
+            final RemoteWriteClient client = clientBuilder().withRetries(3, 1, 10, TimeUnit.MILLISECONDS).build()
+        when:
+            client.push()
+            client.close()
+        then:
+            requests.size() == 3
+            client.retries.getValue() == 2
+            client.samples.getValue('sent') == 1
+            client.samples.getValue('failed') == 0
+    }
+
+    def 'gives up after the maximal number of retries'() {
+        given:
+            registry.getOrRegister(new Counter.CounterBuilder('c', 'help').build()).inc()
+            statuses.addAll([500, 500, 500])
+            final RemoteWriteClient client = clientBuilder().withRetries(2, 1, 10, TimeUnit.MILLISECONDS).build()
+        when:
+            client.push()
+            client.close()
+        then:
+            requests.size() == 3
+            client.samples.getValue('failed') == 1
+    }
+
+    def 'does not retry requests that were rejected'() {
+        given:
+            registry.getOrRegister(new Counter.CounterBuilder('c', 'help').build()).inc()
+            statuses.add(400)
+            final RemoteWriteClient client = clientBuilder().withRetries(3, 1, 10, TimeUnit.MILLISECONDS).build()
+        when:
+            client.push()
+            client.close()
+        then:
+            requests.size() == 1
+            client.retries.getValue() == 0
+            client.samples.getValue('failed') == 1
+    }
+
+    def 'drops samples when the queue is full'() {
+        given:
+            final Counter counter = registry.getOrRegister(new Counter.CounterBuilder('c', 'help').withLabels('l').build())
+            10.times { counter.inc("$it") }
+            receiverLatch = new CountDownLatch(1)
+            final RemoteWriteClient client = clientBuilder().withShards(1).withQueueCapacity(1).withMaxSamplesPerSend(1).build()
+            final MetricRegistry selfRegistry = new MetricRegistry()
+            client.registerMetricsTo(selfRegistry)
+        when:
+            client.push()
+            final long dropped = client.samples.getValue('dropped')
+            receiverLatch.countDown()
+            client.close()
+        then:
+            dropped >= 8
+            dropped + client.samples.getValue('sent') == 10
+            client.queueDepth.getValue() == 0
+    }
+
+    def 'keeps pushing periodically after a push fails with a runtime exception'() {
+        given:
+            final AtomicInteger reads = new AtomicInteger()
+            registry.getOrRegister(new Gauge.GaugeBuilder('g', 'help').withValueSupplier({
+                if (reads.incrementAndGet() == 1) {
+                    throw new IllegalStateException('unavailable')
+                }
+                return 1d
+            } as DoubleSupplier).build())
+            final RemoteWriteClient client = clientBuilder().withPushInterval(10, TimeUnit.MILLISECONDS).build()
+        when:
+            client.start()
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5)
+            while (requests.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(10)
+            }
+            client.close()
+        then:
+            !requests.isEmpty()
+            client.pushes.getValue('failure') == 1
+            client.pushes.getValue('success') >= 1
+    }
+
+    def 'keeps sending after a batch fails with a runtime exception'() {
+        given:
+            registry.getOrRegister(new Counter.CounterBuilder('c', 'help').build()).inc()
+            // An illegal header value makes every request throw before it is sent
+            final RemoteWriteClient client = clientBuilder().withShards(1).withHeader('X-Bad', 'bad\nvalue').build()
+        when:
+            client.push()
+            client.push()
+            client.close()
+        then:
+            requests.isEmpty()
+            client.samples.getValue('failed') == 2
+    }
+
+    def 'registering the metrics where another client registered its metrics should fail'() {
+        given:
+            final MetricRegistry selfRegistry = new MetricRegistry()
+            final RemoteWriteClient first = clientBuilder().build()
+            final RemoteWriteClient second = clientBuilder().build()
+            first.registerMetricsTo(selfRegistry)
+        when:
+            second.registerMetricsTo(selfRegistry)
+        then:
+            thrown(IllegalArgumentException)
+        cleanup:
+            first.close()
+            second.close()
+    }
+
+    private RemoteWriteClient.RemoteWriteClientBuilder clientBuilder() {
+        return new RemoteWriteClient.RemoteWriteClientBuilder(new URL("http://localhost:${receiver.address.port}/api/v1/write"), collectorRegistry)
+            .withBatchSendDeadline(10, TimeUnit.MILLISECONDS)
+            .withCloseTimeout(5, TimeUnit.SECONDS)
+    }
+
+    private void receive(final HttpExchange exchange) {
+        receiverLatch.await()
+        requests.add(new HttpExchangeRecord(headers: exchange.requestHeaders, body: exchange.requestBody.bytes))
+        final Integer status = statuses.poll()
+        exchange.sendResponseHeaders(status == null ? 204 : status, -1)
+        exchange.close()
+    }
+
+    private static List<Map> parseWriteRequest(final byte[] body) {
+        final UnknownFieldSet request = UnknownFieldSet.parseFrom(SnappyEncoder.decode(body))
+        return request.getField(1).lengthDelimitedList.collect { ByteString bytes ->
+            final UnknownFieldSet series = UnknownFieldSet.parseFrom(bytes)
+            final Map<String, String> labels = new LinkedHashMap<>()
+            series.getField(1).lengthDelimitedList.each { ByteString labelBytes ->
+                final UnknownFieldSet label = UnknownFieldSet.parseFrom(labelBytes)
+                labels[label.getField(1).lengthDelimitedList[0].toStringUtf8()] = label.getField(2).lengthDelimitedList[0].toStringUtf8()
+            }
+            final UnknownFieldSet sample = UnknownFieldSet.parseFrom(series.getField(2).lengthDelimitedList[0])
+            return [labels   : labels,
+                    value    : Double.longBitsToDouble(sample.getField(1).fixed64List[0]),
+                    timestamp: sample.getField(2).varintList[0]]
+        }
+    }
+
+    private static class HttpExchangeRecord {
+        Headers headers
+        byte[] body
+    }
+}
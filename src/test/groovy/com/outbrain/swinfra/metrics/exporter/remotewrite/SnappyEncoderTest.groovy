@@ -0,0 +1,52 @@
+package com.outbrain.swinfra.metrics.exporter.remotewrite
+
+import spock.lang.Specification
+import spock.lang.Subject
+
+class SnappyEncoderTest extends Specification {
+
+    @Subject
+    SnappyEncoder encoder = new SnappyEncoder()
+
+    def 'compressed data is decompressed back to the original'() {
+        when:
+            encoder.encode(input, input.length)
+            final byte[] compressed = Arrays.copyOf(encoder.array(), encoder.size())
+        then:
+            SnappyEncoder.decode(compressed) == input
+            encoder.size() <= SnappyEncoder.maxEncodedLength(input.length)
+        where:
+            input << [new byte[0],
+                      'short'.bytes,
+                      ('metric_name{label="value"} 1.0\n' * 5000).bytes,
+                      new byte[200_000],
+                      randomBytes(150_000),
+                      (randomBytes(1000) as List) * 100 as byte[]]
+    }
+
+    def 'repetitive data is compressed'() {
+        given:
+            final byte[] input = ('http_requests_total{method="GET",code="200"} ' * 1000).bytes
+        when:
+            encoder.encode(input, input.length)
+        then:
+            encoder.size() < input.length / 10
+    }
+
+    def 'the encoder is reusable'() {
+        given:
+            final byte[] first = ('first' * 1000).bytes
+            final byte[] second = randomBytes(100)
+        when:
+            encoder.encode(first, first.length)
+            encoder.encode(second, second.length)
+        then:
+            SnappyEncoder.decode(Arrays.copyOf(encoder.array(), encoder.size())) == second
+    }
+
+    private static byte[] randomBytes(final int length) {
+        final byte[] bytes = new byte[length]
+        new Random(17).nextBytes(bytes)
+        return bytes
+    }
+}
@@ -0,0 +1,146 @@
+package com.outbrain.swinfra.metrics.exporter.text
+
+import com.outbrain.swinfra.metrics.*
+import com.outbrain.swinfra.metrics.exporter.CollectorRegistryExporterFactory
+import spock.lang.Specification
+import spock.lang.Subject
+
+import java.util.function.DoubleSupplier
+
+class OpenMetricsFormatterTest extends Specification {
+
+    @Subject OpenMetricsFormatter formatter
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream()
+    private final MetricCollector collector = Mock(MetricCollector)
+
+    def setup() {
+        collector.staticLabels >> ['a': 'b']
+        formatter = new OpenMetricsFormatter(collector)
+    }
+
+    def 'appends counter samples with a _total suffix and a _created sample'() {
+        given:
+            Counter counter1 = new Counter.CounterBuilder('Counter1', 'help').build()
+            counter1.inc(17)
+            Counter counter2 = new Counter.CounterBuilder('Counter2_total', 'help').withLabels('label').build()
+            counter2.inc(19, 'labelValue')
+            collector.iterator() >> [counter1, counter2].iterator()
+        when:
+            formatter.exportTo(output)
+        then:
+            withoutTimestamps(output.toString()) == '''# TYPE Counter1 counter
+# HELP Counter1 help
+Counter1_total{a="b"} 17.0
+Counter1_created{a="b"} <ts>
+# TYPE Counter2 counter
+# HELP Counter2 help
+Counter2_total{a="b",label="labelValue"} 19.0
+Counter2_created{a="b",label="labelValue"} <ts>
+'''
+    }
+
+    def 'the _created sample contains the time in which the child was created in seconds'() {
+        given:
+            final long before = System.currentTimeMillis()
+            Counter counter = new Counter.CounterBuilder('Counter', 'help').build()
+            final long after = System.currentTimeMillis()
+            collector.iterator() >> [counter].iterator()
+        when:
+            formatter.exportTo(output)
+            final double created = Double.parseDouble(output.toString().find(/Counter_created\{a="b"\} \S+/).split(' ')[1])
+        then:
+            created >= before / 1000d
+            created <= after / 1000d
+    }
+
+    def 'appends gauge samples with a unit'() {
+        given:
+            Gauge gauge = new Gauge.GaugeBuilder('Gauge_bytes', 'help "quoted"').
+                    withUnit('bytes').
+                    withValueSupplier({ 17d } as DoubleSupplier).build()
+            collector.iterator() >> [gauge].iterator()
+        when:
+            formatter.exportTo(output)
+        then:
+            output.toString() == '''# TYPE Gauge_bytes gauge
+# UNIT Gauge_bytes bytes
+# HELP Gauge_bytes help \\"quoted\\"
+Gauge_bytes{a="b"} 17.0
+'''
+    }
+
+    def 'appends summary and histogram samples'() {
+        given:
+            Summary summary = new Summary.SummaryBuilder('Summary', 'help').build()
+            summary.observe(17)
+            Histogram histogram = new Histogram.HistogramBuilder('Histogram', 'help').
+                    withLabels('label').withBuckets(1, 10).build()
+            histogram.observe(0.5, 'labelValue')
+            histogram.observe(19, 'labelValue')
+            collector.iterator() >> [summary, histogram].iterator()
+        when:
+            formatter.exportTo(output)
+        then:
+            withoutTimestamps(output.toString()) == '''# TYPE Summary summary
+# HELP Summary help
+Summary{a="b",quantile="0.5"} 17.0
+Summary{a="b",quantile="0.75"} 17.0
+Summary{a="b",quantile="0.95"} 17.0
+Summary{a="b",quantile="0.98"} 17.0
+Summary{a="b",quantile="0.99"} 17.0
+Summary{a="b",quantile="0.999"} 17.0
+Summary_count{a="b"} 1.0
+Summary_sum{a="b"} 17.0
+Summary_created{a="b"} <ts>
+# TYPE Histogram histogram
+# HELP Histogram help
+Histogram_bucket{a="b",label="labelValue",le="1.0"} 1.0
+Histogram_bucket{a="b",label="labelValue",le="10.0"} 1.0
+Histogram_bucket{a="b",label="labelValue",le="+Inf"} 2.0
+Histogram_count{a="b",label="labelValue"} 2.0
+Histogram_sum{a="b",label="labelValue"} 19.5
+Histogram_created{a="b",label="labelValue"} <ts>
+'''
+    }
+
+    def 'the registry exporter terminates the exposition with an EOF marker'() {
+        given:
+            final MetricRegistry registry = new MetricRegistry()
+            registry.getOrRegister(new Counter.CounterBuilder('Counter', 'help').build())
+            final MetricCollectorRegistry collectorRegistry = new MetricCollectorRegistry()
+            collectorRegistry.register(new MetricCollector(registry))
+        when:
+            CollectorRegistryExporterFactory.OPENMETRICS_1_0.create(collectorRegistry).export(output)
+        then:
+            withoutTimestamps(output.toString()).endsWith('Counter_total 0.0\nCounter_created <ts>\n# EOF\n')
+    }
+
+    def 'appends exemplars to counter samples and histogram buckets'() {
+        given:
+            Counter counter = new Counter.CounterBuilder('Counter', 'help').withExemplars().build()
+            counter.incWithExemplar(2, ['trace_id': 'abc'])
+            Histogram histogram = new Histogram.HistogramBuilder('Histogram', 'help').withBuckets(1).withExemplars().build()
+            histogram.observeWithExemplar(0.5, ['trace_id': 'def', 'span_id': '1'])
+            collector.iterator() >> [counter, histogram].iterator()
+        when:
+            formatter.exportTo(output)
+        then:
+            withoutTimestamps(output.toString()) == '''# TYPE Counter counter
+# HELP Counter help
+Counter_total{a="b"} 2.0 # {trace_id="abc"} 2.0 <ts>
+Counter_created{a="b"} <ts>
+# TYPE Histogram histogram
+# HELP Histogram help
+Histogram_bucket{a="b",le="1.0"} 1.0 # {trace_id="def",span_id="1"} 0.5 <ts>
+Histogram_bucket{a="b",le="+Inf"} 1.0
+Histogram_count{a="b"} 1.0
+Histogram_sum{a="b"} 0.5
+Histogram_created{a="b"} <ts>
+'''
+    }
+
+    private static String withoutTimestamps(final String output) {
+        return output.replaceAll(/(_created(\{[^}]*\})?) \S+/, '$1 <ts>').replaceAll(/( # \{[^}]*\} \S+) \S+/, '$1 <ts>')
+    }
+}
@@ -0,0 +1,102 @@
+package com.outbrain.swinfra.metrics.exporter.text
+
+import com.outbrain.swinfra.metrics.Counter
+import com.outbrain.swinfra.metrics.Gauge
+import com.outbrain.swinfra.metrics.Histogram
+import com.outbrain.swinfra.metrics.MetricCollector
+import com.outbrain.swinfra.metrics.MetricCollectorRegistry
+import com.outbrain.swinfra.metrics.MetricRegistry
+import com.outbrain.swinfra.metrics.SettableGauge
+import com.outbrain.swinfra.metrics.Summary
+import com.outbrain.swinfra.metrics.exporter.CollectorRegistryExporterFactory
+import com.outbrain.swinfra.metrics.exporter.RegistrySnapshot
+import spock.lang.Specification
+import spock.lang.Subject
+
+import static java.nio.charset.StandardCharsets.UTF_8
+
+class TextSnapshotExporterTest extends Specification {
+
+    private final MetricCollectorRegistry collectorRegistry = new MetricCollectorRegistry()
+    private final RegistrySnapshot snapshot = new RegistrySnapshot()
+
+    @Subject
+    private final TextSnapshotExporter exporter = new TextSnapshotExporter(64)
+
+    def setup() {
+        final MetricRegistry registry = new MetricRegistry()
+        final Counter counter = registry.getOrRegister(new Counter.CounterBuilder('requests_total', 'The "requests"\nhelp').withLabels('path').build())
+        counter.inc(17, '/a')
+        counter.inc(12_345_678, 'quote " backslash \\ newline \n')
+        final SettableGauge gauge = registry.getOrRegister(new SettableGauge.SettableGaugeBuilder('temperature', 'help').build())
+        gauge.set(-0.0d)
+        registry.getOrRegister(new Gauge.GaugeBuilder('ratio', 'help').withValueSupplier({ -2.5d } as java.util.function.DoubleSupplier).build())
+        final Histogram histogram = registry.getOrRegister(new Histogram.HistogramBuilder('latency', 'help').withLabels('method').withBuckets(0.005, 1, 100).build())
+        histogram.observe(0.001, 'GET')
+        histogram.observe(20, 'GET')
+        histogram.observe(0.5, 'POST')
+        final Summary summary = registry.getOrRegister(new Summary.SummaryBuilder('sizes', 'help').build())
+        summary.observe(3)
+        summary.observe(1_000)
+
+        collectorRegistry.register(new MetricCollector(registry, ['dc': 'ny', 'escaped': 'a"b']))
+        collectorRegistry.register(new MetricCollector(registry))
+    }
+
+    def 'writes exactly what the text formatter writes'() {
+        given:
+            final ByteArrayOutputStream expected = new ByteArrayOutputStream()
+            CollectorRegistryExporterFactory.TEXT_004.create(collectorRegistry).export(expected)
+            final ByteArrayOutputStream actual = new ByteArrayOutputStream()
+        when:
+            snapshot.capture(collectorRegistry)
+            exporter.exportTo(snapshot, actual)
+        then:
+            new String(actual.toByteArray(), UTF_8) == new String(expected.toByteArray(), UTF_8)
+    }
+
+    def 'writes the same snapshot more than once'() {
+        given:
+            final ByteArrayOutputStream first = new ByteArrayOutputStream()
+            final ByteArrayOutputStream second = new ByteArrayOutputStream()
+        when:
+            snapshot.capture(collectorRegistry)
+            exporter.exportTo(snapshot, first)
+            exporter.exportTo(snapshot, second)
+        then:
+            first.toByteArray() == second.toByteArray()
+    }
+
+    def 'encodes label values as UTF-8'() {
+        given:
+            final MetricRegistry registry = new MetricRegistry()
+            final Counter counter = registry.getOrRegister(new Counter.CounterBuilder('requests_total', 'help').withLabels('path').build())
+            counter.inc(1, 'caf\u00e9 \u4e2d \ud83d\ude00')
+            final MetricCollectorRegistry collectorRegistry = new MetricCollectorRegistry()
+            collectorRegistry.register(new MetricCollector(registry))
+            final ByteArrayOutputStream actual = new ByteArrayOutputStream()
+        when:
+            snapshot.capture(collectorRegistry)
+            exporter.exportTo(snapshot, actual)
+        then:
+            new String(actual.toByteArray(), UTF_8).contains('requests_total{path="caf\u00e9 \u4e2d \ud83d\ude00",} 1.0')
+    }
+
+    def 'writes large and fractional values like the text formatter'() {
+        given:
+            final MetricRegistry registry = new MetricRegistry()
+            final SettableGauge gauge = registry.getOrRegister(new SettableGauge.SettableGaugeBuilder('value', 'help').withLabels('v').build())
+            [0d, 1d, -1d, 9_999_999d, 10_000_000d, -10_000_000d, 0.1d, 1e-10d, 123.456d, Double.NaN, Double.POSITIVE_INFINITY,
+             Double.NEGATIVE_INFINITY, Long.MAX_VALUE as double].eachWithIndex { double value, int i -> gauge.set(value, "$i") }
+            final MetricCollectorRegistry collectorRegistry = new MetricCollectorRegistry()
+            collectorRegistry.register(new MetricCollector(registry))
+            final ByteArrayOutputStream expected = new ByteArrayOutputStream()
+            CollectorRegistryExporterFactory.TEXT_004.create(collectorRegistry).export(expected)
+            final ByteArrayOutputStream actual = new ByteArrayOutputStream()
+        when:
+            snapshot.capture(collectorRegistry)
+            exporter.exportTo(snapshot, actual)
+        then:
+            actual.toString() == expected.toString()
+    }
+}
@@ -0,0 +1,44 @@
+package com.outbrain.swinfra.metrics.exports
+
+import com.outbrain.swinfra.metrics.Histogram
+import com.outbrain.swinfra.metrics.MetricCollector
+import com.outbrain.swinfra.metrics.MetricRegistry
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class HiccupMetricTest extends Specification {
+
+    def 'a hiccup longer than the interval should backfill the samples that were due during it'() {
+        given:
+            final HiccupMetric hiccupMetric = new HiccupMetric(1, TimeUnit.MILLISECONDS)
+            final MetricRegistry registry = new MetricRegistry()
+            hiccupMetric.registerMetricsTo(registry, { false })
+        when:
+            hiccupMetric.recordExcess(TimeUnit.MICROSECONDS.toNanos(3500))
+            hiccupMetric.recordExcess(-5)
+        then:
+            // 3.5ms, 2.5ms, 1.5ms and 0.5ms, and 0 for the park that returned early
+            final Histogram histogram = hiccupMetric.hiccups
+            histogram.metricForLabels().getValues().getCount() == 5
+            Math.abs(histogram.metricForLabels().getValues().getSum() - 0.008) < 1e-9
+            !new MetricCollector(registry).any()
+    }
+
+    def 'the meter should record hiccups once it is registered, until it is closed'() {
+        given:
+            final HiccupMetric hiccupMetric = new HiccupMetric(1, TimeUnit.MILLISECONDS)
+            final MetricRegistry registry = new MetricRegistry()
+        when:
+            hiccupMetric.registerMetricsTo(registry)
+            Thread.sleep(50)
+            hiccupMetric.close()
+            Thread.sleep(20)
+            final Histogram histogram = new MetricCollector(registry).find { it.name == 'jvm_hiccup_seconds' } as Histogram
+            final long count = histogram.metricForLabels().getValues().getCount()
+            Thread.sleep(20)
+        then:
+            count > 0
+            histogram.metricForLabels().getValues().getCount() == count
+    }
+}
@@ -0,0 +1,68 @@
+package com.outbrain.swinfra.metrics.exports
+
+import com.outbrain.swinfra.metrics.Counter
+import com.outbrain.swinfra.metrics.Histogram
+import com.outbrain.swinfra.metrics.Metric
+import com.outbrain.swinfra.metrics.MetricCollector
+import com.outbrain.swinfra.metrics.MetricCollectorRegistry
+import com.outbrain.swinfra.metrics.MetricRegistry
+import com.outbrain.swinfra.metrics.data.MetricDataConsumer
+import spock.lang.Specification
+
+import java.util.function.Predicate
+
+class MetricMemoryUsageTest extends Specification {
+
+    private final MetricRegistry registry = new MetricRegistry()
+    private final MetricCollectorRegistry collectorRegistry = new MetricCollectorRegistry()
+
+    def setup() {
+        collectorRegistry.register(new MetricCollector(registry))
+    }
+
+    def 'should report the children and estimated size of every metric'() {
+        given:
+            final Counter counter = registry.getOrRegister(new Counter.CounterBuilder('counter', 'help').withLabels('label').build())
+            counter.inc('a')
+            counter.inc('b')
+            final Histogram histogram = registry.getOrRegister(new Histogram.HistogramBuilder('histogram', 'help').build())
+            new MetricMemoryUsage(collectorRegistry).registerMetricsTo(registry)
+        when:
+            final Map<List<String>, Double> children = valuesOf('metrics_children')
+            final Map<List<String>, Double> bytes = valuesOf('metrics_estimated_bytes')
+        then:
+            children == [['counter']                : 2d,
+                         ['histogram']              : 1d,
+                         ['metrics_children']       : 0d,
+                         ['metrics_estimated_bytes']: 0d]
+            bytes[['counter']] == counter.getEstimatedBytes()
+            bytes[['histogram']] == histogram.getEstimatedBytes()
+            bytes[['counter']] > 0
+    }
+
+    def 'the estimated size should grow with the children of a metric'() {
+        given:
+            final Counter counter = registry.getOrRegister(new Counter.CounterBuilder('counter', 'help').withLabels('label').build())
+            new MetricMemoryUsage(collectorRegistry).registerMetricsTo(registry)
+            counter.inc('a')
+            final double oneChild = valuesOf('metrics_estimated_bytes')[['counter']]
+        when:
+            counter.inc('b')
+        then:
+            valuesOf('metrics_estimated_bytes')[['counter']] > oneChild
+    }
+
+    def 'filter metrics by name'() {
+        when:
+            new MetricMemoryUsage(collectorRegistry).registerMetricsTo(registry, { name -> name == 'metrics_children' } as Predicate)
+        then:
+            registry.all()*.name == ['metrics_children']
+    }
+
+    private Map<List<String>, Double> valuesOf(final String name) {
+        final Map<List<String>, Double> values = [:]
+        final Metric metric = registry.all().find { it.name == name }
+        metric.forEachMetricData([consumeGauge: { m, labelValues, value -> values[labelValues] = value }] as MetricDataConsumer)
+        return values
+    }
+}
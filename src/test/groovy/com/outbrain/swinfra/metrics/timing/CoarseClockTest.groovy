@@ -0,0 +1,48 @@
+package com.outbrain.swinfra.metrics.timing
+
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class CoarseClockTest extends Specification {
+
+    def 'the tick should advance at about the resolution and stop when the clock is closed'() {
+        given:
+            final CoarseClock clock = new CoarseClock(1, TimeUnit.MILLISECONDS)
+            final long start = clock.getTick()
+        when:
+            Thread.sleep(50)
+            final long elapsed = clock.getTick() - start
+        then:
+            elapsed >= TimeUnit.MILLISECONDS.toNanos(40)
+            elapsed <= TimeUnit.SECONDS.toNanos(5)
+            clock.getTick(TimeUnit.MILLISECONDS) == TimeUnit.NANOSECONDS.toMillis(clock.getTick())
+        when:
+            clock.close()
+            Thread.sleep(10)
+            final long stopped = clock.getTick()
+            Thread.sleep(10)
+        then:
+            clock.getTick() == stopped
+    }
+
+    def 'a histogram should measure intervals with a coarse clock'() {
+        given:
+            final CoarseClock clock = new CoarseClock(100, TimeUnit.MICROSECONDS)
+            final com.outbrain.swinfra.metrics.Histogram histogram =
+                new com.outbrain.swinfra.metrics.Histogram.HistogramBuilder('name', 'help').withClock(clock).withBuckets(1e6, 1e9).build()
+        when:
+            histogram.time({ Thread.sleep(20) } as Runnable)
+        then:
+            histogram.metricForLabels().getValues().getSum() >= TimeUnit.MILLISECONDS.toNanos(15)
+        cleanup:
+            clock.close()
+    }
+
+    def 'the resolution must be positive'() {
+        when:
+            new CoarseClock(0, TimeUnit.MICROSECONDS)
+        then:
+            thrown(IllegalArgumentException)
+    }
+}
@@ -3,6 +3,7 @@ package com.outbrain.swinfra.metrics.timing
 import com.outbrain.swinfra.metrics.TestClock
 import spock.lang.Specification
 
+import java.util.concurrent.TimeUnit
 import java.util.function.LongConsumer
 
 class TimerTest extends Specification {
@@ -24,6 +25,33 @@ class TimerTest extends Specification {
             consumer.sum == tick
     }
 
+    def 'A restarted timer should emit the interval since it was restarted'() {
+        given:
+            final Timer timer = new Timer(clock, consumer)
+            clock.setTick(10)
+            timer.stop()
+        when:
+            clock.setTick(15)
+            try {
+                timer.restart()
+                clock.setTick(18)
+            } finally {
+                timer.close()
+            }
+        then:
+            consumer.sum == 13
+    }
+
+    def 'A system clock should convert nanoseconds to its ticks'() {
+        expect:
+            new Clock.SystemClock(unit).nanosToTicks(nanos) == ticks
+        where:
+            unit                  | nanos         | ticks
+            TimeUnit.NANOSECONDS  | 1_500         | 1_500
+            TimeUnit.MICROSECONDS | 1_500         | 1
+            TimeUnit.MILLISECONDS | 3_000_000     | 3
+    }
+
     private static class SummingLongConsumer implements LongConsumer {
         private long sum = 0
 